@@ -25,6 +25,8 @@
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.function.IntFunction;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -120,6 +122,15 @@ public void readFully(long position, byte[] buffer)
     ((PositionedReadable)in).readFully(position, buffer, 0, buffer.length);
   }
   
+  /**
+   * See {@link PositionedReadable#readVectored(List, IntFunction)}.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges,
+      IntFunction<ByteBuffer> allocate) throws IOException {
+    ((PositionedReadable)in).readVectored(ranges, allocate);
+  }
+
   /**
    * Seek to the given position on an alternate copy of the data.
    *
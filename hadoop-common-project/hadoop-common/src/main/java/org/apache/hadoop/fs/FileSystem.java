@@ -1798,6 +1798,49 @@ public FileStatus next() throws IOException {
     };
   }
 
+  /**
+   * Lists the contents of several directories, batching the requests where
+   * the file system supports it. The iterator returns one
+   * {@link PartialListing} per fetched page; the listing of a large
+   * directory may be split over several consecutive pages. A failure to
+   * list one of the paths does not fail the whole call: it is returned in
+   * that path's {@link PartialListing} and rethrown by
+   * {@link PartialListing#get()}.
+   *
+   * The default implementation lists the paths one at a time.
+   *
+   * @param paths directories to list
+   * @return iterator over the listings of the given paths, in order
+   * @throws IOException if the batch as a whole cannot be listed
+   */
+  @InterfaceAudience.LimitedPrivate({"MapReduce", "HDFS"})
+  @InterfaceStability.Unstable
+  public RemoteIterator<PartialListing<FileStatus>> batchedListStatusIterator(
+      final List<Path> paths) throws IOException {
+    return new RemoteIterator<PartialListing<FileStatus>>() {
+      private int i = 0;
+
+      @Override
+      public boolean hasNext() {
+        return i < paths.size();
+      }
+
+      @Override
+      public PartialListing<FileStatus> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException("No more entry in " + paths);
+        }
+        Path p = paths.get(i++);
+        try {
+          return new PartialListing<FileStatus>(p,
+              Arrays.asList(listStatus(p)));
+        } catch (IOException e) {
+          return new PartialListing<FileStatus>(p, e);
+        }
+      }
+    };
+  }
+
   /**
    * List the statuses and block locations of the files in the given path.
    * Does not guarantee to return the iterator that traverses statuses
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * One page of a batched directory listing, as returned by
+ * {@link FileSystem#batchedListStatusIterator(List)}. It holds either
+ * (part of) the entries of the listed path or the exception raised while
+ * listing it.
+ *
+ * @param <T> the type of the file status
+ */
+@InterfaceAudience.LimitedPrivate({"MapReduce", "HDFS"})
+@InterfaceStability.Unstable
+public class PartialListing<T extends FileStatus> {
+  private final Path listedPath;
+  private final List<T> partialListing;
+  private final IOException exception;
+
+  public PartialListing(Path listedPath, List<T> partialListing) {
+    this(listedPath, partialListing, null);
+  }
+
+  public PartialListing(Path listedPath, IOException exception) {
+    this(listedPath, null, exception);
+  }
+
+  private PartialListing(Path listedPath, List<T> partialListing,
+      IOException exception) {
+    Preconditions.checkArgument(partialListing == null ^ exception == null);
+    this.listedPath = listedPath;
+    this.partialListing = partialListing;
+    this.exception = exception;
+  }
+
+  /**
+   * @return the entries of the listed path
+   * @throws IOException the exception raised while listing the path
+   */
+  public List<T> get() throws IOException {
+    if (exception != null) {
+      throw exception;
+    }
+    return partialListing;
+  }
+
+  /**
+   * @return the path this listing belongs to
+   */
+  public Path getListedPath() {
+    return listedPath;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + listedPath + ", " +
+        (exception != null ? "exception=" + exception :
+            partialListing.size() + " entries") + "]";
+  }
+}
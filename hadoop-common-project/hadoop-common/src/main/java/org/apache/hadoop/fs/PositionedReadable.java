@@ -18,6 +18,9 @@
 package org.apache.hadoop.fs;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.IntFunction;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -85,4 +88,24 @@ void readFully(long position, byte[] buffer, int offset, int length)
    * the read operation completed
    */
   void readFully(long position, byte[] buffer) throws IOException;
+
+  /**
+   * Read the given ranges of the file. The data of each range is delivered
+   * through the future set by {@link FileRange#getData()}, in a buffer
+   * obtained from the allocate function. Implementations may combine nearby
+   * ranges and read them concurrently, so the futures may complete after
+   * this returns. This does not change the current offset of a file.
+   *
+   * The default implementation reads the ranges one at a time with
+   * {@link #readFully(long, byte[], int, int)}.
+   *
+   * @param ranges the ranges to read, which must not overlap
+   * @param allocate the function to allocate a buffer of the given size
+   * @throws IOException IO problems.
+   * @throws IllegalArgumentException if the ranges are invalid.
+   */
+  default void readVectored(List<? extends FileRange> ranges,
+      IntFunction<ByteBuffer> allocate) throws IOException {
+    VectoredReadUtils.readVectored(this, ranges, allocate);
+  }
 }
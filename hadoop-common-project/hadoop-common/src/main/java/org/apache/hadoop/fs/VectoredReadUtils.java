@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Helpers for implementing {@link PositionedReadable#readVectored}.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Unstable
+public final class VectoredReadUtils {
+
+  private VectoredReadUtils() {
+  }
+
+  /**
+   * Adjacent ranges of a file which are read together. The bytes between
+   * the ranges are read and dropped.
+   */
+  public static class CombinedRange {
+    private final long offset;
+    private long end;
+    private final List<FileRange> ranges = new ArrayList<>();
+
+    CombinedRange(FileRange first) {
+      this.offset = first.getOffset();
+      this.end = first.getOffset() + first.getLength();
+      ranges.add(first);
+    }
+
+    /**
+     * Add the next range, if it starts at most minSeek bytes after this one
+     * ends and the combined range does not grow beyond maxSize bytes.
+     * @return true if the range was added.
+     */
+    boolean merge(FileRange next, int minSeek, int maxSize) {
+      final long nextEnd = next.getOffset() + next.getLength();
+      if (next.getOffset() - end > minSeek || nextEnd - offset > maxSize) {
+        return false;
+      }
+      end = nextEnd;
+      ranges.add(next);
+      return true;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public int getLength() {
+      return (int) (end - offset);
+    }
+
+    /** @return the ranges which were combined, sorted by offset. */
+    public List<FileRange> getRanges() {
+      return ranges;
+    }
+
+    @Override
+    public String toString() {
+      return "range[" + offset + "," + end + ") of " + ranges.size() +
+          " range(s)";
+    }
+  }
+
+  /**
+   * Check that the ranges are valid and do not overlap, and attach a new
+   * future to each of them.
+   * @return the ranges sorted by offset.
+   */
+  public static List<FileRange> validateAndSortRanges(
+      List<? extends FileRange> ranges) throws EOFException {
+    List<FileRange> sorted = new ArrayList<FileRange>(ranges);
+    Collections.sort(sorted, new Comparator<FileRange>() {
+      @Override
+      public int compare(FileRange a, FileRange b) {
+        return Long.compare(a.getOffset(), b.getOffset());
+      }
+    });
+    FileRange prev = null;
+    for (FileRange range : sorted) {
+      if (range.getOffset() < 0) {
+        throw new EOFException("Negative position of " + range);
+      }
+      if (range.getLength() < 0) {
+        throw new IllegalArgumentException("Negative length of " + range);
+      }
+      if (prev != null &&
+          prev.getOffset() + prev.getLength() > range.getOffset()) {
+        throw new IllegalArgumentException("Overlapping ranges " + prev +
+            " and " + range);
+      }
+      prev = range;
+    }
+    for (FileRange range : sorted) {
+      range.setData(new CompletableFuture<ByteBuffer>());
+    }
+    return sorted;
+  }
+
+  /**
+   * Combine sorted ranges which are at most minSeek bytes apart into ranges
+   * of at most maxSize bytes. A range larger than maxSize is never split.
+   */
+  public static List<CombinedRange> mergeSortedRanges(List<FileRange> sorted,
+      int minSeek, int maxSize) {
+    List<CombinedRange> combined = new ArrayList<>();
+    CombinedRange current = null;
+    for (FileRange range : sorted) {
+      if (current == null || !current.merge(range, minSeek, maxSize)) {
+        current = new CombinedRange(range);
+        combined.add(current);
+      }
+    }
+    return combined;
+  }
+
+  /**
+   * Complete the futures of the ranges of a combined range from its data.
+   * @param data the bytes of the combined range, from its offset on.
+   */
+  public static void completeRanges(CombinedRange combined, byte[] data,
+      IntFunction<ByteBuffer> allocate) {
+    for (FileRange range : combined.getRanges()) {
+      ByteBuffer buffer = allocate.apply(range.getLength());
+      buffer.put(data, (int) (range.getOffset() - combined.getOffset()),
+          range.getLength());
+      buffer.flip();
+      range.getData().complete(buffer);
+    }
+  }
+
+  /**
+   * Fail the futures of the ranges of a combined range.
+   */
+  public static void failRanges(CombinedRange combined, Throwable t) {
+    for (FileRange range : combined.getRanges()) {
+      range.getData().completeExceptionally(t);
+    }
+  }
+
+  /**
+   * Read the ranges one at a time with
+   * {@link PositionedReadable#readFully(long, byte[], int, int)}. The futures
+   * of all the ranges are completed when this returns.
+   */
+  public static void readVectored(PositionedReadable stream,
+      List<? extends FileRange> ranges, IntFunction<ByteBuffer> allocate)
+      throws IOException {
+    for (FileRange range : validateAndSortRanges(ranges)) {
+      try {
+        ByteBuffer buffer = allocate.apply(range.getLength());
+        if (buffer.hasArray()) {
+          stream.readFully(range.getOffset(), buffer.array(),
+              buffer.arrayOffset() + buffer.position(), range.getLength());
+          buffer.limit(buffer.position() + range.getLength());
+        } else {
+          byte[] data = new byte[range.getLength()];
+          stream.readFully(range.getOffset(), data, 0, data.length);
+          buffer.put(data);
+          buffer.flip();
+        }
+        range.getData().complete(buffer);
+      } catch (IOException e) {
+        range.getData().completeExceptionally(e);
+      }
+    }
+  }
+}
@@ -28,6 +28,7 @@
 import java.net.URI;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.conf.Configuration;
@@ -107,6 +108,8 @@ public FSDataOutputStream create(Path f, FsPermission permission,
     public FileStatus[] listStatus(Path[] files, PathFilter filter);
     public FileStatus[] globStatus(Path pathPattern);
     public FileStatus[] globStatus(Path pathPattern, PathFilter filter);
+    public Iterator<PartialListing<FileStatus>> batchedListStatusIterator(
+        List<Path> paths);
     public Iterator<LocatedFileStatus> listFiles(Path path,
         boolean isRecursive);
     public void copyFromLocalFile(Path src, Path dst);
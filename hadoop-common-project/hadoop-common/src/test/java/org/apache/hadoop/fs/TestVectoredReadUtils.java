@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntFunction;
+
+import org.junit.Test;
+
+/**
+ * Tests the helpers of vectored reads, and the default implementation of
+ * {@link PositionedReadable#readVectored}.
+ */
+public class TestVectoredReadUtils {
+  private static final IntFunction<ByteBuffer> ALLOCATE =
+      new IntFunction<ByteBuffer>() {
+        @Override
+        public ByteBuffer apply(int size) {
+          return ByteBuffer.allocate(size);
+        }
+      };
+
+  private static final IntFunction<ByteBuffer> ALLOCATE_DIRECT =
+      new IntFunction<ByteBuffer>() {
+        @Override
+        public ByteBuffer apply(int size) {
+          return ByteBuffer.allocateDirect(size);
+        }
+      };
+
+  /** A stream over the given bytes. */
+  private static PositionedReadable newStream(final byte[] data) {
+    return new PositionedReadable() {
+      @Override
+      public int read(long position, byte[] buffer, int offset, int length) {
+        if (position >= data.length) {
+          return -1;
+        }
+        int n = (int) Math.min(length, data.length - position);
+        System.arraycopy(data, (int) position, buffer, offset, n);
+        return n;
+      }
+
+      @Override
+      public void readFully(long position, byte[] buffer, int offset,
+          int length) throws IOException {
+        if (position + length > data.length) {
+          throw new EOFException(FSExceptionMessages.EOF_IN_READ_FULLY);
+        }
+        read(position, buffer, offset, length);
+      }
+
+      @Override
+      public void readFully(long position, byte[] buffer) throws IOException {
+        readFully(position, buffer, 0, buffer.length);
+      }
+    };
+  }
+
+  @Test
+  public void testMergeSortedRanges() throws IOException {
+    List<FileRange> sorted = VectoredReadUtils.validateAndSortRanges(
+        Arrays.asList(new FileRange(3000, 100), new FileRange(0, 100),
+            new FileRange(200, 100), new FileRange(1000, 2000)));
+    assertEquals(0, sorted.get(0).getOffset());
+    assertEquals(3000, sorted.get(3).getOffset());
+
+    List<VectoredReadUtils.CombinedRange> combined =
+        VectoredReadUtils.mergeSortedRanges(sorted, 100, 1000);
+    assertEquals(3, combined.size());
+    assertEquals(0, combined.get(0).getOffset());
+    assertEquals(300, combined.get(0).getLength());
+    assertEquals(2, combined.get(0).getRanges().size());
+    // too large to be combined with the next one
+    assertEquals(1000, combined.get(1).getOffset());
+    assertEquals(2000, combined.get(1).getLength());
+    assertEquals(3000, combined.get(2).getOffset());
+
+    combined = VectoredReadUtils.mergeSortedRanges(sorted, 1000, 4000);
+    assertEquals(1, combined.size());
+    assertEquals(3100, combined.get(0).getLength());
+  }
+
+  @Test
+  public void testInvalidRanges() throws IOException {
+    try {
+      VectoredReadUtils.validateAndSortRanges(Arrays.asList(
+          new FileRange(100, 100), new FileRange(0, 101)));
+      fail("overlapping ranges accepted");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("Overlapping"));
+    }
+    try {
+      VectoredReadUtils.validateAndSortRanges(Arrays.asList(
+          new FileRange(-1, 100)));
+      fail("negative offset accepted");
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testDefaultReadVectored() throws Exception {
+    byte[] data = new byte[10000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    for (IntFunction<ByteBuffer> allocate :
+        Arrays.asList(ALLOCATE, ALLOCATE_DIRECT)) {
+      List<FileRange> ranges = Arrays.asList(new FileRange(5000, 100),
+          new FileRange(10, 20), new FileRange(9990, 20));
+      newStream(data).readVectored(ranges, allocate);
+      assertData(data, ranges.get(0));
+      assertData(data, ranges.get(1));
+      // past the end of the file
+      try {
+        ranges.get(2).getData().get();
+        fail("read past the end of the file");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof EOFException);
+      }
+    }
+  }
+
+  private static void assertData(byte[] data, FileRange range)
+      throws Exception {
+    ByteBuffer buffer = range.getData().get();
+    assertEquals(range.getLength(), buffer.remaining());
+    for (int i = 0; i < range.getLength(); i++) {
+      assertEquals(data[(int) range.getOffset() + i], buffer.get());
+    }
+  }
+}
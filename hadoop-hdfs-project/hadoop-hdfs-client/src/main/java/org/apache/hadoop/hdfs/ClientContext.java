@@ -23,6 +23,10 @@
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
@@ -34,11 +38,14 @@
 import org.apache.hadoop.hdfs.shortcircuit.DomainSocketFactory;
 import org.apache.hadoop.hdfs.shortcircuit.ShortCircuitCache;
 import org.apache.hadoop.hdfs.util.ByteArrayManager;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
 import org.apache.hadoop.net.DNSToSwitchMapping;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.net.NetworkTopology;
 import org.apache.hadoop.net.NodeBase;
 import org.apache.hadoop.net.ScriptBasedMapping;
+import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.ReflectionUtils;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -108,6 +115,12 @@ public class ClientContext {
   /** Creating byte[] for {@link DFSOutputStream}. */
   private final ByteArrayManager byteArrayManager;
 
+  /**
+   * Direct buffers for the packets of {@link DFSOutputStream}, or null if
+   * the packets are on the heap.
+   */
+  private final ByteBufferPool packetBufferPool;
+
   /**
    * Whether or not we complained about a DFSClient fetching a CacheContext that
    * didn't match its config values yet.
@@ -117,6 +130,21 @@ public class ClientContext {
   private NodeBase clientNode;
   private boolean topologyResolutionEnabled;
 
+  /**
+   * Tracks the latencies of positional reads from the DataNodes.
+   */
+  private final DatanodeLatencyTracker datanodeLatencyTracker =
+      new DatanodeLatencyTracker();
+
+  /**
+   * Reads the combined ranges of vectored reads concurrently, or null if they
+   * are read by the calling thread.
+   */
+  private final ThreadPoolExecutor vectoredReadThreadPool;
+
+  private final DFSVectoredReadMetrics vectoredReadMetrics =
+      new DFSVectoredReadMetrics();
+
   private ClientContext(String name, DfsClientConf conf,
       Configuration config) {
     final ShortCircuitConf scConf = conf.getShortCircuitConf();
@@ -133,9 +161,49 @@ private ClientContext(String name, DfsClientConf conf,
 
     this.byteArrayManager = ByteArrayManager.newInstance(
         conf.getWriteByteArrayManagerConf());
+    this.packetBufferPool = conf.isWriteDirectBufferPool() ?
+        new ElasticByteBufferPool() : null;
+    this.vectoredReadThreadPool = newVectoredReadThreadPool(
+        conf.getVectoredReadThreadpoolSize());
     initTopologyResolution(config);
   }
 
+  /**
+   * Create the thread pool for vectored reads. Ranges which find all the
+   * threads busy are read by the calling thread.
+   * @param num Number of threads for vectored reads thread pool.
+   * If zero, no thread pool is created.
+   */
+  private ThreadPoolExecutor newVectoredReadThreadPool(int num) {
+    if (num <= 0) {
+      return null;
+    }
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(1, num, 60,
+        TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new Daemon.DaemonFactory() {
+          private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = super.newThread(r);
+            t.setName("vectoredRead-" + threadIndex.getAndIncrement());
+            return t;
+          }
+        },
+        new ThreadPoolExecutor.CallerRunsPolicy() {
+          @Override
+          public void rejectedExecution(Runnable runnable,
+              ThreadPoolExecutor e) {
+            vectoredReadMetrics.incVectoredReadRangesInCurThread();
+            // will run in the current thread
+            super.rejectedExecution(runnable, e);
+          }
+        });
+    pool.allowCoreThreadTimeOut(true);
+    LOG.debug("Using vectored reads; pool threads={}", num);
+    return pool;
+  }
+
   private void initTopologyResolution(Configuration config) {
     topologyResolutionEnabled = config.getBoolean(
         FS_CLIENT_TOPOLOGY_RESOLUTION_ENABLED,
@@ -238,6 +306,26 @@ public ByteArrayManager getByteArrayManager() {
     return byteArrayManager;
   }
 
+  public ByteBufferPool getPacketBufferPool() {
+    return packetBufferPool;
+  }
+
+  /**
+   * @return the thread pool for vectored reads, or null if the ranges are
+   * read by the calling thread
+   */
+  public ThreadPoolExecutor getVectoredReadThreadPool() {
+    return vectoredReadThreadPool;
+  }
+
+  public DFSVectoredReadMetrics getVectoredReadMetrics() {
+    return vectoredReadMetrics;
+  }
+
+  public DatanodeLatencyTracker getDatanodeLatencyTracker() {
+    return datanodeLatencyTracker;
+  }
+
   public int getNetworkDistance(DatanodeInfo datanodeInfo) {
     // If applications disable the feature or the client machine can't
     // resolve its network location, clientNode will be set to null.
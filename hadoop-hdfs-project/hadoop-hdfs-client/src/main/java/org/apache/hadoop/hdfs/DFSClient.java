@@ -99,6 +99,7 @@
 import org.apache.hadoop.hdfs.client.impl.LeaseRenewer;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.protocol.AclException;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -226,6 +227,7 @@ public class DFSClient implements java.io.Closeable, RemotePeerFactory,
       new DFSHedgedReadMetrics();
   private static ThreadPoolExecutor HEDGED_READ_THREAD_POOL;
   private static volatile ThreadPoolExecutor STRIPED_READ_THREAD_POOL;
+  private static volatile ThreadPoolExecutor BLOCK_PREFETCH_THREAD_POOL;
   private final int smallBufferSize;
 
   public DfsClientConf getConf() {
@@ -366,6 +368,10 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
 
     this.initThreadsNumForStripedReads(dfsClientConf.
         getStripedReadThreadpoolSize());
+    if (dfsClientConf.getBlockPrefetchThreadpoolSize() > 0) {
+      this.initThreadsNumForBlockPrefetch(dfsClientConf.
+          getBlockPrefetchThreadpoolSize());
+    }
     this.saslClient = new SaslDataTransferClient(
         conf, DataTransferSaslUtil.getSaslPropertiesResolver(conf),
         TrustedChannelResolver.getInstance(conf), nnFallbackToSimpleAuth);
@@ -1616,6 +1622,26 @@ public DirectoryListing listPaths(String src,  byte[] startAfter,
     }
   }
 
+  /**
+   * Get a partial listing of several directories in one call.
+   *
+   * Use an empty array as startAfter for the first call, and the
+   * startAfter of the previous {@link BatchedDirectoryListing} afterwards.
+   *
+   * @see ClientProtocol#getBatchedListing(String[], byte[], boolean)
+   */
+  public BatchedDirectoryListing batchedListPaths(String[] srcs,
+      byte[] startAfter, boolean needLocation) throws IOException {
+    checkOpen();
+    try (TraceScope ignored = tracer.newScope("batchedListPaths")) {
+      return namenode.getBatchedListing(srcs, startAfter, needLocation);
+    } catch (RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class,
+          FileNotFoundException.class,
+          UnresolvedPathException.class);
+    }
+  }
+
   /**
    * Get the file info for a specific file or directory.
    * @param src The string representation of the path to the file
@@ -2824,6 +2850,37 @@ public void rejectedExecution(Runnable runnable,
     }
   }
 
+  /**
+   * Create thread pool for opening the next block of sequential reads ahead,
+   * BLOCK_PREFETCH_THREAD_POOL, if it does not already exist. Prefetches
+   * which find all the threads busy are rejected, and the block is opened
+   * when the read reaches it.
+   * @param num Number of threads for block prefetch thread pool.
+   */
+  private void initThreadsNumForBlockPrefetch(int num) {
+    if (BLOCK_PREFETCH_THREAD_POOL != null) {
+      return;
+    }
+    synchronized (DFSClient.class) {
+      if (BLOCK_PREFETCH_THREAD_POOL == null) {
+        BLOCK_PREFETCH_THREAD_POOL = new ThreadPoolExecutor(1, num, 60,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new Daemon.DaemonFactory() {
+              private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t = super.newThread(r);
+                t.setName("blockPrefetch-" + threadIndex.getAndIncrement());
+                return t;
+              }
+            });
+        BLOCK_PREFETCH_THREAD_POOL.allowCoreThreadTimeOut(true);
+        LOG.debug("Using block prefetch; pool threads={}", num);
+      }
+    }
+  }
+
   ThreadPoolExecutor getHedgedReadsThreadPool() {
     return HEDGED_READ_THREAD_POOL;
   }
@@ -2832,6 +2889,15 @@ ThreadPoolExecutor getStripedReadsThreadPool() {
     return STRIPED_READ_THREAD_POOL;
   }
 
+  ThreadPoolExecutor getBlockPrefetchThreadPool() {
+    return BLOCK_PREFETCH_THREAD_POOL;
+  }
+
+  boolean isBlockPrefetchEnabled() {
+    return BLOCK_PREFETCH_THREAD_POOL != null &&
+        dfsClientConf.getBlockPrefetchThreadpoolSize() > 0;
+  }
+
   boolean isHedgedReadsEnabled() {
     return (HEDGED_READ_THREAD_POOL != null) &&
         HEDGED_READ_THREAD_POOL.getMaximumPoolSize() > 0;
@@ -31,6 +31,7 @@ public class DFSHedgedReadMetrics {
   public final AtomicLong hedgedReadOps = new AtomicLong();
   public final AtomicLong hedgedReadOpsWin = new AtomicLong();
   public final AtomicLong hedgedReadOpsInCurThread = new AtomicLong();
+  public final AtomicLong hedgedReadThresholdMillis = new AtomicLong();
 
   public void incHedgedReadOps() {
     hedgedReadOps.incrementAndGet();
@@ -44,6 +45,10 @@ public void incHedgedReadWins() {
     hedgedReadOpsWin.incrementAndGet();
   }
 
+  public void setHedgedReadThresholdMillis(long thresholdMillis) {
+    hedgedReadThresholdMillis.set(thresholdMillis);
+  }
+
   public long getHedgedReadOps() {
     return hedgedReadOps.longValue();
   }
@@ -55,4 +60,12 @@ public long getHedgedReadOpsInCurThread() {
   public long getHedgedReadWins() {
     return hedgedReadOpsWin.longValue();
   }
+
+  /**
+   * @return the last threshold a hedged read waited for, which follows the
+   * observed read latencies if the threshold is adaptive.
+   */
+  public long getHedgedReadThresholdMillis() {
+    return hedgedReadThresholdMillis.longValue();
+  }
 }
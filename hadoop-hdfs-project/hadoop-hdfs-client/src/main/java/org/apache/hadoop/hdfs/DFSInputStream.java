@@ -40,9 +40,12 @@
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -54,9 +57,12 @@
 import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.FileEncryptionInfo;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.HasEnhancedByteBufferAccess;
 import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.fs.StorageType;
+import org.apache.hadoop.fs.VectoredReadUtils;
+import org.apache.hadoop.fs.VectoredReadUtils.CombinedRange;
 import org.apache.hadoop.hdfs.DFSUtilClient.CorruptedBlocks;
 import org.apache.hadoop.hdfs.client.impl.BlockReaderFactory;
 import org.apache.hadoop.hdfs.client.impl.DfsClientConf;
@@ -80,6 +86,7 @@
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.IdentityHashStore;
 import org.apache.hadoop.util.StopWatch;
+import org.apache.hadoop.util.Time;
 import org.apache.htrace.core.SpanId;
 import org.apache.htrace.core.TraceScope;
 import org.apache.htrace.core.Tracer;
@@ -112,6 +119,7 @@ public class DFSInputStream extends FSInputStream
   protected long pos = 0;
   protected long blockEnd = -1;
   private BlockReader blockReader = null;
+  private BlockPrefetch blockPrefetch = null;
   ////
 
   // state shared by stateful and positional read:
@@ -155,6 +163,9 @@ public ReadStatistics(ReadStatistics rhs) {
       this.totalLocalBytesRead = rhs.getTotalLocalBytesRead();
       this.totalShortCircuitBytesRead = rhs.getTotalShortCircuitBytesRead();
       this.totalZeroCopyBytesRead = rhs.getTotalZeroCopyBytesRead();
+      this.totalBlockSwitches = rhs.getTotalBlockSwitches();
+      this.totalPrefetchedBlockSwitches = rhs.getTotalPrefetchedBlockSwitches();
+      this.totalBlockSwitchMicros = rhs.getTotalBlockSwitchMicros();
     }
 
     /**
@@ -195,6 +206,37 @@ public long getRemoteBytesRead() {
       return totalBytesRead - totalLocalBytesRead;
     }
 
+    /**
+     * @return The total number of times a sequential read opened a block.
+     */
+    public long getTotalBlockSwitches() {
+      return totalBlockSwitches;
+    }
+
+    /**
+     * @return The total number of times a sequential read found the block
+     * it opened prefetched.
+     */
+    public long getTotalPrefetchedBlockSwitches() {
+      return totalPrefetchedBlockSwitches;
+    }
+
+    /**
+     * @return The total time in microseconds sequential reads were stalled
+     * opening blocks.
+     */
+    public long getTotalBlockSwitchMicros() {
+      return totalBlockSwitchMicros;
+    }
+
+    void addBlockSwitch(long micros, boolean prefetched) {
+      this.totalBlockSwitches++;
+      if (prefetched) {
+        this.totalPrefetchedBlockSwitches++;
+      }
+      this.totalBlockSwitchMicros += micros;
+    }
+
     void addRemoteBytes(long amt) {
       this.totalBytesRead += amt;
     }
@@ -222,6 +264,9 @@ void clear() {
       this.totalLocalBytesRead = 0;
       this.totalShortCircuitBytesRead = 0;
       this.totalZeroCopyBytesRead = 0;
+      this.totalBlockSwitches = 0;
+      this.totalPrefetchedBlockSwitches = 0;
+      this.totalBlockSwitchMicros = 0;
     }
 
     private long totalBytesRead;
@@ -231,6 +276,82 @@ void clear() {
     private long totalShortCircuitBytesRead;
 
     private long totalZeroCopyBytesRead;
+
+    private long totalBlockSwitches;
+
+    private long totalPrefetchedBlockSwitches;
+
+    private long totalBlockSwitchMicros;
+  }
+
+  /**
+   * Opens a block of a sequential read in the background, before the read
+   * reaches it. The opened reader is either taken by the read, or closed.
+   */
+  private class BlockPrefetch implements Runnable {
+    private final long start;
+    private LocatedBlock block;
+    private DNAddrPair node;
+    private BlockReader reader;
+    private boolean done = false;
+    private boolean discarded = false;
+
+    BlockPrefetch(long start) {
+      this.start = start;
+    }
+
+    @Override
+    public void run() {
+      LocatedBlock newBlock = null;
+      DNAddrPair newNode = null;
+      BlockReader newReader = null;
+      try {
+        newBlock = getBlockAt(start);
+        newNode = getBestNodeDNAddrPair(newBlock, null);
+        if (newNode != null) {
+          newReader = getBlockReader(newBlock, 0, newBlock.getBlockSize(),
+              newNode.addr, newNode.storageType, newNode.info);
+        }
+      } catch (IOException e) {
+        // the read opens the block itself, and handles the failure
+        DFSClient.LOG.debug("Failed to prefetch the block at {} of {}",
+            start, src, e);
+      }
+      synchronized (this) {
+        if (discarded) {
+          IOUtils.closeQuietly(newReader);
+        } else {
+          block = newBlock;
+          node = newNode;
+          reader = newReader;
+        }
+        done = true;
+        notifyAll();
+      }
+    }
+
+    /**
+     * Wait for the block to be opened.
+     * @return true if there is a reader to take.
+     */
+    synchronized boolean await() throws InterruptedIOException {
+      while (!done) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException(
+              "Interrupted while waiting for the prefetch of " + src);
+        }
+      }
+      return reader != null;
+    }
+
+    synchronized void discard() {
+      discarded = true;
+      IOUtils.closeQuietly(reader);
+      reader = null;
+    }
   }
 
   /**
@@ -625,9 +746,27 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
       throw new IOException("Attempted to read past end of file");
     }
 
+    final long startNanos = System.nanoTime();
+    final BlockPrefetch prefetch = blockPrefetch;
+    blockPrefetch = null;
+
     // Will be getting a new BlockReader.
     closeCurrentBlockReaders();
 
+    if (prefetch != null) {
+      if (prefetch.start == target && prefetch.await() &&
+          !deadNodes.containsKey(prefetch.node.info)) {
+        this.pos = target;
+        this.blockEnd = prefetch.block.getStartOffset() +
+            prefetch.block.getBlockSize() - 1;
+        this.currentLocatedBlock = prefetch.block;
+        blockReader = prefetch.reader;
+        addBlockSwitch(startNanos, true);
+        return prefetch.node.info;
+      }
+      prefetch.discard();
+    }
+
     //
     // Connect to best DataNode for desired Block, with potential offset
     //
@@ -664,6 +803,7 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
           DFSClient.LOG.info("Successfully connected to " + targetAddr +
                              " for " + targetBlock.getBlock());
         }
+        addBlockSwitch(startNanos, false);
         return chosenNode;
       } catch (IOException ex) {
         checkInterrupted(ex);
@@ -688,6 +828,47 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
     }
   }
 
+  private void addBlockSwitch(long startNanos, boolean prefetched) {
+    final long micros = TimeUnit.NANOSECONDS.toMicros(
+        System.nanoTime() - startNanos);
+    synchronized (infoLock) {
+      readStatistics.addBlockSwitch(micros, prefetched);
+    }
+  }
+
+  /**
+   * Start opening the next block in the background if a sequential read is
+   * close to the end of the current one. Only complete blocks are opened
+   * ahead, as the length of the last block may still change.
+   */
+  private void maybePrefetchNextBlock() {
+    if (!dfsClient.isBlockPrefetchEnabled() || blockEnd < 0 ||
+        blockEnd - pos + 1 > dfsClient.getConf().getBlockPrefetchThreshold()) {
+      return;
+    }
+    final long next = blockEnd + 1;
+    if (blockPrefetch != null && blockPrefetch.start == next) {
+      return;
+    }
+    synchronized (infoLock) {
+      if (next >= locatedBlocks.getFileLength()) {
+        return;
+      }
+    }
+    BlockPrefetch prefetch = new BlockPrefetch(next);
+    try {
+      dfsClient.getBlockPrefetchThreadPool().execute(prefetch);
+    } catch (RejectedExecutionException e) {
+      DFSClient.LOG.debug("No thread to prefetch the block at {} of {}",
+          next, src);
+      return;
+    }
+    if (blockPrefetch != null) {
+      blockPrefetch.discard();
+    }
+    blockPrefetch = prefetch;
+  }
+
   private void checkInterrupted(IOException e) throws IOException {
     if (Thread.currentThread().isInterrupted() &&
         (e instanceof ClosedByInterruptException ||
@@ -956,6 +1137,7 @@ protected synchronized int readWithStrategy(ReaderStrategy strategy, int off,
 
           if (result >= 0) {
             pos += result;
+            maybePrefetchNextBlock();
           } else {
             // got a EOS from reader though we expect more data on it.
             throw new IOException("Unexpected EOS from the reader");
@@ -1089,17 +1271,32 @@ protected DNAddrPair getBestNodeDNAddrPair(LocatedBlock block,
     StorageType[] storageTypes = block.getStorageTypes();
     DatanodeInfo chosenNode = null;
     StorageType storageType = null;
+    // If reads are latency aware, choose the node with the lowest latency,
+    // else the first one, which is the closest.
+    final DatanodeLatencyTracker latencies =
+        dfsClient.getConf().isLatencyAwareReads() ?
+        dfsClient.getClientContext().getDatanodeLatencyTracker() : null;
+    double chosenLatency = 0;
     if (nodes != null) {
       for (int i = 0; i < nodes.length; i++) {
         if (!deadNodes.containsKey(nodes[i])
             && (ignoredNodes == null || !ignoredNodes.contains(nodes[i]))) {
+          double latency =
+              latencies == null ? 0 : latencies.getLatencyMs(nodes[i]);
+          if (chosenNode != null && latency >= chosenLatency) {
+            continue;
+          }
           chosenNode = nodes[i];
+          chosenLatency = latency;
           // Storage types are ordered to correspond with nodes, so use the same
           // index to get storage type.
+          storageType = null;
           if (storageTypes != null && i < storageTypes.length) {
             storageType = storageTypes[i];
           }
-          break;
+          if (latencies == null) {
+            break;
+          }
         }
       }
     }
@@ -1216,11 +1413,20 @@ void actualGetFromOneDataNode(final DNAddrPair datanode, LocatedBlock block,
       // start of the loop.
       block = refreshLocatedBlock(block);
       BlockReader reader = null;
+      final long startMs = Time.monotonicNow();
       try {
         DFSClientFaultInjector.get().fetchFromDatanodeException();
         reader = getBlockReader(block, startInBlk, len, datanode.addr,
             datanode.storageType, datanode.info);
-        int nread = reader.readAll(buf, offset, len);
+        // The first read returns once the first packet has arrived. The
+        // time until then does not grow with the length of the read, so it
+        // ranks the DataNodes regardless of the sizes of their reads.
+        int nread = reader.read(buf, offset, len);
+        final long firstByteMs = Time.monotonicNow() - startMs;
+        if (nread > 0 && nread < len) {
+          nread += Math.max(0,
+              reader.readAll(buf, offset + nread, len - nread));
+        }
         updateReadStatistics(readStatistics, nread, reader);
         dfsClient.updateFileSystemReadStats(
             reader.getNetworkDistance(), nread);
@@ -1229,6 +1435,9 @@ void actualGetFromOneDataNode(final DNAddrPair datanode, LocatedBlock block,
               "excpected " + len + ", got " + nread);
         }
         DFSClientFaultInjector.get().readFromDatanodeDelay();
+        // the latency of a hedged read which lost is recorded as well
+        dfsClient.getClientContext().getDatanodeLatencyTracker().addLatency(
+            datanode.info, firstByteMs, Time.monotonicNow() - startMs);
         return;
       } catch (ChecksumException e) {
         String msg = "fetchBlockByteRange(). Got a checksum exception for "
@@ -1289,7 +1498,7 @@ protected LocatedBlock refreshLocatedBlock(LocatedBlock block)
   private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
       long end, byte[] buf, int offset, CorruptedBlocks corruptedBlocks)
       throws IOException {
-    final DfsClientConf conf = dfsClient.getConf();
+    final long thresholdMillis = getHedgedReadThresholdMillis();
     ArrayList<Future<ByteBuffer>> futures = new ArrayList<>();
     CompletionService<ByteBuffer> hedgedService =
         new ExecutorCompletionService<>(dfsClient.getHedgedReadsThreadPool());
@@ -1316,7 +1525,7 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
         futures.add(firstRequest);
         try {
           Future<ByteBuffer> future = hedgedService.poll(
-              conf.getHedgedReadThresholdMillis(), TimeUnit.MILLISECONDS);
+              thresholdMillis, TimeUnit.MILLISECONDS);
           if (future != null) {
             ByteBuffer result = future.get();
             System.arraycopy(result.array(), result.position(), buf, offset,
@@ -1324,7 +1533,7 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
             return;
           }
           DFSClient.LOG.debug("Waited {}ms to read from {}; spawning hedged "
-              + "read", conf.getHedgedReadThresholdMillis(), chosenNode.info);
+              + "read", thresholdMillis, chosenNode.info);
           // Ignore this node on next go around.
           ignored.add(chosenNode.info);
           dfsClient.getHedgedReadMetrics().incHedgedReadOps();
@@ -1377,6 +1586,29 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
     }
   }
 
+  /**
+   * @return how long a positional read waits for a DataNode before starting
+   *         a hedged read. If the threshold is adaptive, this is the
+   *         configured percentile of the recent read latencies, capped by the
+   *         configured threshold.
+   */
+  private long getHedgedReadThresholdMillis() {
+    final DfsClientConf conf = dfsClient.getConf();
+    long thresholdMillis = conf.getHedgedReadThresholdMillis();
+    if (conf.getHedgedReadAdaptivePercentile() > 0) {
+      long percentileMillis = dfsClient.getClientContext()
+          .getDatanodeLatencyTracker()
+          .getPercentileMs(conf.getHedgedReadAdaptivePercentile());
+      if (percentileMillis >= 0) {
+        thresholdMillis = Math.min(thresholdMillis,
+            Math.max(1, percentileMillis));
+      }
+    }
+    dfsClient.getHedgedReadMetrics().setHedgedReadThresholdMillis(
+        thresholdMillis);
+    return thresholdMillis;
+  }
+
   @VisibleForTesting
   public long getHedgedReadOpsLoopNumForTesting() {
     return hedgedReadOpsLoopNumForTesting;
@@ -1469,6 +1701,58 @@ public int read(long position, byte[] buffer, int offset, int length)
     }
   }
 
+  /**
+   * Read the given ranges of the file. Ranges which are close to each other
+   * are combined, so they are read from the DataNodes at once. If the client
+   * context has a vectored read thread pool, the combined ranges are read
+   * concurrently on it, and their futures may complete after this returns.
+   * Otherwise they are read one at a time by the calling thread.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges,
+      final IntFunction<ByteBuffer> allocate) throws IOException {
+    dfsClient.checkOpen();
+    if (closed.get()) {
+      throw new IOException("Stream closed");
+    }
+    final DfsClientConf conf = dfsClient.getConf();
+    List<CombinedRange> combined = VectoredReadUtils.mergeSortedRanges(
+        VectoredReadUtils.validateAndSortRanges(ranges),
+        conf.getVectoredReadMinSeek(), conf.getVectoredReadMaxMergedSize());
+    final ClientContext context = dfsClient.getClientContext();
+    final ThreadPoolExecutor pool = context.getVectoredReadThreadPool();
+    final DFSVectoredReadMetrics metrics = context.getVectoredReadMetrics();
+    metrics.incVectoredReadOps();
+    metrics.incVectoredReadRanges(combined.size());
+    for (final CombinedRange range : combined) {
+      Runnable read = new Runnable() {
+        @Override
+        public void run() {
+          readCombinedRange(range, allocate);
+        }
+      };
+      if (pool != null) {
+        // runs in the calling thread if all the threads of the pool are busy
+        pool.execute(read);
+      } else {
+        metrics.incVectoredReadRangesInCurThread();
+        read.run();
+      }
+    }
+  }
+
+  private void readCombinedRange(CombinedRange range,
+      IntFunction<ByteBuffer> allocate) {
+    try {
+      byte[] data = new byte[range.getLength()];
+      readFully(range.getOffset(), data, 0, data.length);
+      VectoredReadUtils.completeRanges(range, data, allocate);
+    } catch (Throwable t) {
+      DFSClient.LOG.debug("Failed to read {} of {}", range, src, t);
+      VectoredReadUtils.failRanges(range, t);
+    }
+  }
+
   private int pread(long position, byte[] buffer, int offset, int length)
       throws IOException {
     // sanity checks
@@ -1742,6 +2026,10 @@ public FileEncryptionInfo getFileEncryptionInfo() {
   }
 
   protected void closeCurrentBlockReaders() {
+    if (blockPrefetch != null) {
+      blockPrefetch.discard();
+      blockPrefetch = null;
+    }
     if (blockReader == null) return;
     // Close the current block reader so that the new caching settings can
     // take effect immediately.
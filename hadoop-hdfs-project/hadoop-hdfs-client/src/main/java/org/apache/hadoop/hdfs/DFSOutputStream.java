@@ -20,6 +20,7 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.util.EnumSet;
 import java.util.concurrent.atomic.AtomicReference;
@@ -55,6 +56,7 @@
 import org.apache.hadoop.hdfs.server.namenode.RetryStartFileException;
 import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
 import org.apache.hadoop.hdfs.util.ByteArrayManager;
+import org.apache.hadoop.io.ByteBufferPool;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.security.AccessControlException;
@@ -101,6 +103,7 @@ public class DFSOutputStream extends FSOutputSummer
 
   protected final DFSClient dfsClient;
   protected final ByteArrayManager byteArrayManager;
+  private final ByteBufferPool packetBufferPool;
   // closed is accessed by different threads under different locks.
   protected volatile boolean closed = false;
 
@@ -121,13 +124,23 @@ public class DFSOutputStream extends FSOutputSummer
   protected final AtomicReference<CachingStrategy> cachingStrategy;
   private FileEncryptionInfo fileEncryptionInfo;
 
-  /** Use {@link ByteArrayManager} to create buffer for non-heartbeat packets.*/
+  /**
+   * Use {@link ByteArrayManager} to create buffer for non-heartbeat packets,
+   * or take a direct buffer from the pool of the client context, if any.
+   */
   protected DFSPacket createPacket(int packetSize, int chunksPerPkt,
       long offsetInBlock, long seqno, boolean lastPacketInBlock)
       throws InterruptedIOException {
     final byte[] buf;
     final int bufferSize = PacketHeader.PKT_MAX_HEADER_LEN + packetSize;
 
+    if (packetBufferPool != null && getStreamer().canWriteToChannel()) {
+      final ByteBuffer buffer = packetBufferPool.getBuffer(true, bufferSize);
+      buffer.clear();
+      return new DFSPacket(buffer, packetBufferPool, chunksPerPkt,
+          offsetInBlock, seqno, getChecksumSize(), lastPacketInBlock);
+    }
+
     try {
       buf = byteArrayManager.newByteArray(bufferSize);
     } catch (InterruptedException ie) {
@@ -212,6 +225,8 @@ private DFSOutputStream(DFSClient dfsClient, String src,
           blockSize + ").");
     }
     this.byteArrayManager = dfsClient.getClientContext().getByteArrayManager();
+    this.packetBufferPool =
+        dfsClient.getClientContext().getPacketBufferPool();
   }
 
   /** Construct a new output stream for creating a file. */
@@ -22,12 +22,14 @@
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
 import org.apache.hadoop.hdfs.util.ByteArrayManager;
+import org.apache.hadoop.io.ByteBufferPool;
 import org.apache.htrace.core.Span;
 import org.apache.htrace.core.SpanId;
 import org.apache.htrace.core.TraceScope;
@@ -47,11 +49,13 @@ public class DFSPacket {
   private boolean syncBlock; // this packet forces the current block to disk
   private int numChunks; // number of chunks currently in packet
   private final int maxChunks; // max chunks in packet
-  private byte[] buf;
+  private byte[] buf; // the array of a heap buffer
+  private ByteBuffer buffer;
+  private final ByteBufferPool bufferPool; // the pool of a direct buffer
   private final boolean lastPacketInBlock; // is this the last packet in block?
 
   /**
-   * buf is pointed into like follows:
+   * buffer is pointed into like follows:
    *  (C is checksum data, D is payload data)
    *
    * [_________CCCCCCCCC________________DDDDDDDDDDDDDDDD___]
@@ -84,12 +88,33 @@ public class DFSPacket {
    */
   public DFSPacket(byte[] buf, int chunksPerPkt, long offsetInBlock, long seqno,
                    int checksumSize, boolean lastPacketInBlock) {
+    this(buf == null ? null : ByteBuffer.wrap(buf), null, chunksPerPkt,
+        offsetInBlock, seqno, checksumSize, lastPacketInBlock);
+    this.buf = buf;
+  }
+
+  /**
+   * Create a new packet in a buffer of the given pool, which the buffer is
+   * returned to when the packet is released.
+   *
+   * @param buffer the buffer storing data and checksums
+   * @param bufferPool the pool of the buffer
+   * @param chunksPerPkt maximum number of chunks per packet.
+   * @param offsetInBlock offset in bytes into the HDFS block.
+   * @param seqno the sequence number of this packet
+   * @param checksumSize the size of checksum
+   * @param lastPacketInBlock if this is the last packet
+   */
+  DFSPacket(ByteBuffer buffer, ByteBufferPool bufferPool, int chunksPerPkt,
+      long offsetInBlock, long seqno, int checksumSize,
+      boolean lastPacketInBlock) {
     this.lastPacketInBlock = lastPacketInBlock;
     this.numChunks = 0;
     this.offsetInBlock = offsetInBlock;
     this.seqno = seqno;
 
-    this.buf = buf;
+    this.buffer = buffer;
+    this.bufferPool = bufferPool;
 
     checksumStart = PacketHeader.PKT_MAX_HEADER_LEN;
     checksumPos = checksumStart;
@@ -109,10 +134,11 @@ public DFSPacket(byte[] buf, int chunksPerPkt, long offsetInBlock, long seqno,
   synchronized void writeData(byte[] inarray, int off, int len)
       throws ClosedChannelException {
     checkBuffer();
-    if (dataPos + len > buf.length) {
+    if (dataPos + len > buffer.capacity()) {
       throw new BufferOverflowException();
     }
-    System.arraycopy(inarray, off, buf, dataPos, len);
+    buffer.position(dataPos);
+    buffer.put(inarray, off, len);
     dataPos += len;
   }
 
@@ -120,12 +146,14 @@ public synchronized void writeData(ByteBuffer inBuffer, int len)
       throws ClosedChannelException {
     checkBuffer();
     len =  len > inBuffer.remaining() ? inBuffer.remaining() : len;
-    if (dataPos + len > buf.length) {
+    if (dataPos + len > buffer.capacity()) {
       throw new BufferOverflowException();
     }
-    for (int i = 0; i < len; i++) {
-      buf[dataPos + i] = inBuffer.get();
-    }
+    ByteBuffer src = inBuffer.duplicate();
+    src.limit(src.position() + len);
+    buffer.position(dataPos);
+    buffer.put(src);
+    inBuffer.position(inBuffer.position() + len);
     dataPos += len;
   }
 
@@ -146,7 +174,8 @@ public synchronized void writeChecksum(byte[] inarray, int off, int len)
     if (checksumPos + len > dataStart) {
       throw new BufferOverflowException();
     }
-    System.arraycopy(inarray, off, buf, checksumPos, len);
+    buffer.position(checksumPos);
+    buffer.put(inarray, off, len);
     checksumPos += len;
   }
 
@@ -156,6 +185,18 @@ public synchronized void writeChecksum(byte[] inarray, int off, int len)
    * @throws IOException
    */
   public synchronized void writeTo(DataOutputStream stm) throws IOException {
+    writeTo(stm, null);
+  }
+
+  /**
+   * Write the full packet, including the header, to the given channel if the
+   * packet is in a direct buffer, or else to the given output stream. The
+   * stream must not buffer any data when a channel is given.
+   *
+   * @throws IOException
+   */
+  synchronized void writeTo(DataOutputStream stm, WritableByteChannel channel)
+      throws IOException {
     checkBuffer();
 
     final int dataLen = dataPos - dataStart;
@@ -168,10 +209,16 @@ public synchronized void writeTo(DataOutputStream stm) throws IOException {
     if (checksumPos != dataStart) {
       // Move the checksum to cover the gap. This can happen for the last
       // packet or during an hflush/hsync call.
-      System.arraycopy(buf, checksumStart, buf,
-          dataStart - checksumLen , checksumLen);
+      final int newChecksumStart = dataStart - checksumLen;
+      if (buffer.hasArray()) {
+        System.arraycopy(buffer.array(), buffer.arrayOffset() + checksumStart,
+            buffer.array(), buffer.arrayOffset() + newChecksumStart,
+            checksumLen);
+      } else {
+        moveUp(checksumStart, newChecksumStart, checksumLen);
+      }
       checksumPos = dataStart;
-      checksumStart = checksumPos - checksumLen;
+      checksumStart = newChecksumStart;
     }
 
     final int headerStart = checksumStart - header.getSerializedSize();
@@ -181,38 +228,82 @@ public synchronized void writeTo(DataOutputStream stm) throws IOException {
 
     // Copy the header data into the buffer immediately preceding the checksum
     // data.
-    System.arraycopy(header.getBytes(), 0, buf, headerStart,
-        header.getSerializedSize());
+    buffer.position(headerStart);
+    buffer.put(header.getBytes(), 0, header.getSerializedSize());
 
     // corrupt the data for testing.
+    final int last = headerStart + header.getSerializedSize() + checksumLen +
+        dataLen - 1;
     if (DFSClientFaultInjector.get().corruptPacket()) {
-      buf[headerStart+header.getSerializedSize() + checksumLen + dataLen-1] ^=
-          0xff;
+      buffer.put(last, (byte) (buffer.get(last) ^ 0xff));
     }
 
     // Write the now contiguous full packet to the output stream.
-    stm.write(buf, headerStart,
-        header.getSerializedSize() + checksumLen + dataLen);
+    if (channel != null && buffer.isDirect()) {
+      ByteBuffer b = buffer.duplicate();
+      b.limit(last + 1);
+      b.position(headerStart);
+      while (b.hasRemaining()) {
+        if (channel.write(b) < 0) {
+          throw new IOException("The stream is closed");
+        }
+      }
+    } else if (buffer.hasArray()) {
+      stm.write(buffer.array(), buffer.arrayOffset() + headerStart,
+          last + 1 - headerStart);
+    } else {
+      // only a stream wrapping the socket, e.g. for encryption, gets here
+      byte[] b = new byte[last + 1 - headerStart];
+      buffer.position(headerStart);
+      buffer.get(b);
+      stm.write(b);
+    }
 
     // undo corruption.
     if (DFSClientFaultInjector.get().uncorruptPacket()) {
-      buf[headerStart+header.getSerializedSize() + checksumLen + dataLen-1] ^=
-          0xff;
+      buffer.put(last, (byte) (buffer.get(last) ^ 0xff));
+    }
+  }
+
+  /**
+   * Move len bytes of the buffer from src up to dst. A bulk put between two
+   * views of the same memory may not overlap, so the bytes are moved in
+   * pieces no longer than the distance of the move, the last piece first.
+   */
+  private void moveUp(int src, int dst, int len) {
+    final int distance = dst - src;
+    final ByteBuffer from = buffer.duplicate();
+    final ByteBuffer to = buffer.duplicate();
+    to.limit(to.capacity());
+    for (int end = len; end > 0; end -= distance) {
+      final int start = Math.max(0, end - distance);
+      from.limit(src + end);
+      from.position(src + start);
+      to.position(dst + start);
+      to.put(from);
     }
   }
 
   private synchronized void checkBuffer() throws ClosedChannelException {
-    if (buf == null) {
+    if (buffer == null) {
       throw new ClosedChannelException();
     }
   }
 
   /**
-   * Release the buffer in this packet to ByteArrayManager.
+   * Release the buffer in this packet to its pool, or else to
+   * ByteArrayManager.
    */
   synchronized void releaseBuffer(ByteArrayManager bam) {
-    bam.release(buf);
+    if (bufferPool != null) {
+      if (buffer != null) {
+        bufferPool.putBuffer(buffer);
+      }
+    } else {
+      bam.release(buf);
+    }
     buf = null;
+    buffer = null;
   }
 
   /**
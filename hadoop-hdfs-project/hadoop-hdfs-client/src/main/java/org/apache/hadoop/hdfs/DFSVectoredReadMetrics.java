@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The client-side metrics for vectored reads, kept apart from those of
+ * hedged reads as the two use different thread pools.
+ */
+@InterfaceAudience.Private
+public class DFSVectoredReadMetrics {
+  public final AtomicLong vectoredReadOps = new AtomicLong();
+  public final AtomicLong vectoredReadRanges = new AtomicLong();
+  public final AtomicLong vectoredReadRangesInCurThread = new AtomicLong();
+
+  public void incVectoredReadOps() {
+    vectoredReadOps.incrementAndGet();
+  }
+
+  public void incVectoredReadRanges(long ranges) {
+    vectoredReadRanges.addAndGet(ranges);
+  }
+
+  public void incVectoredReadRangesInCurThread() {
+    vectoredReadRangesInCurThread.incrementAndGet();
+  }
+
+  public long getVectoredReadOps() {
+    return vectoredReadOps.longValue();
+  }
+
+  /**
+   * @return the number of ranges read from the DataNodes, after the ranges
+   * close to each other were combined.
+   */
+  public long getVectoredReadRanges() {
+    return vectoredReadRanges.longValue();
+  }
+
+  /**
+   * @return the number of combined ranges read by the calling thread, as the
+   * thread pool was disabled or all its threads were busy.
+   */
+  public long getVectoredReadRangesInCurThread() {
+    return vectoredReadRangesInCurThread.longValue();
+  }
+}
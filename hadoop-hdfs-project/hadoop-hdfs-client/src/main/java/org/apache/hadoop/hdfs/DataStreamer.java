@@ -30,6 +30,7 @@
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -360,6 +361,10 @@ synchronized void checkRestartingNodeDeadline(DatanodeInfo[] nodes) {
   protected volatile ExtendedBlock block; // its length is number of bytes acked
   protected Token<BlockTokenIdentifier> accessToken;
   private DataOutputStream blockStream;
+  // the socket under blockStream, if it does not wrap it, e.g. for encryption
+  private WritableByteChannel blockChannel;
+  /** Have the packets been written to blockChannel so far? */
+  private volatile boolean writeToChannel = true;
   private DataInputStream blockReplyStream;
   private ResponseProcessor response = null;
   private volatile DatanodeInfo[] nodes = null; // list of targets for current block
@@ -369,6 +374,16 @@ synchronized void checkRestartingNodeDeadline(DatanodeInfo[] nodes) {
 
   private volatile BlockConstructionStage stage;  // block construction stage
   protected long bytesSent = 0; // number of bytes that've been sent
+  /**
+   * Has the pipeline of the current block been set up without waiting for
+   * the response of the datanodes? The ResponseProcessor then reads the
+   * response ahead of the first ack.
+   */
+  private volatile boolean pipelineSetupPending = false;
+  /** The last block of the file before the pending pipeline was set up. */
+  private ExtendedBlock blockBeforeSetup;
+  /** Must the pipeline of the next block wait for the datanodes? */
+  private boolean syncPipelineSetup = false;
   private final boolean isLazyPersistFile;
 
   /** Nodes have been used in the pipeline before and have failed. */
@@ -657,7 +672,7 @@ public void run() {
         // write out data to remote datanode
         try (TraceScope ignored = dfsClient.getTracer().
             newScope("DataStreamer#writeTo", spanId)) {
-          one.writeTo(blockStream);
+          one.writeTo(blockStream, blockChannel);
           blockStream.flush();
         } catch (IOException e) {
           // HDFS-3398 treat primary DN is down since client is unable to
@@ -887,6 +902,7 @@ void closeStream() {
         b.add(e);
       } finally {
         blockStream = null;
+        blockChannel = null;
       }
     }
     if (blockReplyStream != null) {
@@ -960,6 +976,10 @@ public void run() {
       while (!responderClosed && dfsClient.clientRunning && !isLastPacketInBlock) {
         // process responses from datanodes.
         try {
+          if (pipelineSetupPending) {
+            readPipelineSetupResponse(targets);
+            pipelineSetupPending = false;
+          }
           // read an ack from the pipeline
           ack.readFields(blockReplyStream);
           if (ack.getSeqno() != DFSPacket.HEART_BEAT_SEQNO) {
@@ -1119,6 +1139,13 @@ private boolean processDatanodeOrExternalError() throws IOException {
       packetSendTime.clear();
     }
 
+    if (pipelineSetupPending) {
+      // the datanodes never confirmed the pipeline, so none of the packets
+      // were acked: allocate the block again rather than recover it
+      abandonPendingBlock();
+      return false;
+    }
+
     // If we had to recover the pipeline five times in a row for the
     // same packet, this client likely has corrupt data or corrupting
     // during transmission.
@@ -1172,6 +1199,15 @@ void setHflush() {
     isHflushed = true;
   }
 
+  /**
+   * @return true if packets in direct buffers are written to the socket
+   *         without a copy, which is the case unless the stream to the
+   *         datanodes is wrapped, e.g. for encryption.
+   */
+  boolean canWriteToChannel() {
+    return writeToChannel;
+  }
+
   private int findNewDatanode(final DatanodeInfo[] original
   ) throws IOException {
     if (nodes.length != original.length + 1) {
@@ -1498,6 +1534,8 @@ protected LocatedBlock nextBlockOutputStream() throws IOException {
     int count = dfsClient.getConf().getNumBlockWriteRetry();
     boolean success;
     ExtendedBlock oldBlock = block;
+    final boolean async = dfsClient.getConf().isAsyncPipelineSetup() &&
+        !syncPipelineSetup;
     do {
       errorState.resetInternalError();
       lastException.clear();
@@ -1515,7 +1553,7 @@ protected LocatedBlock nextBlockOutputStream() throws IOException {
       //
       // Connect to first DataNode in the list.
       //
-      success = createBlockOutputStream(nodes, storageTypes, 0L, false);
+      success = createBlockOutputStream(nodes, storageTypes, 0L, false, async);
 
       if (!success) {
         LOG.warn("Abandoning " + block);
@@ -1531,14 +1569,93 @@ protected LocatedBlock nextBlockOutputStream() throws IOException {
     if (!success) {
       throw new IOException("Unable to create new block.");
     }
+    blockBeforeSetup = oldBlock;
+    syncPipelineSetup = false;
     return lb;
   }
 
+  /**
+   * Abandon a new block whose pipeline was set up without waiting for the
+   * datanodes, after the setup failed. The block is allocated again without
+   * the bad datanode, if one was marked, and this time the pipeline waits
+   * for the datanodes. A restarting datanode is not excluded; as in a
+   * pipeline recovery, it is given some time to come back first.
+   */
+  private void abandonPendingBlock() throws IOException {
+    pipelineSetupPending = false;
+    final int badNodeIndex = errorState.getBadNodeIndex();
+    final DatanodeInfo badNode =
+        badNodeIndex >= 0 ? nodes[badNodeIndex] : null;
+    if (!handleRestartingDatanode()) {
+      return;
+    }
+    // a failure to abandon the block closes the streamer
+    errorState.reset();
+    lastException.clear();
+
+    LOG.warn("Abandoning " + block);
+    dfsClient.namenode.abandonBlock(block, stat.getFileId(), src,
+        dfsClient.clientName);
+    if (badNode != null) {
+      LOG.warn("Excluding datanode " + badNode);
+      excludedNodes.put(badNode, badNode);
+    }
+    block = blockBeforeSetup;
+    setPipeline(null, null, null);
+    syncPipelineSetup = true;
+    stage = BlockConstructionStage.PIPELINE_SETUP_CREATE;
+  }
+
+  /**
+   * Read the response of the datanodes to a pipeline set up without waiting
+   * for it, and mark the first bad datanode if the setup failed. Like in
+   * {@link #createBlockOutputStream}, a restarting datanode is marked as
+   * such if it is worth waiting for.
+   */
+  private void readPipelineSetupResponse(DatanodeInfo[] targets)
+      throws IOException {
+    BlockOpResponseProto resp = BlockOpResponseProto.parseFrom(
+        PBHelperClient.vintPrefixed(blockReplyStream));
+    Status pipelineStatus = resp.getStatus();
+    String firstBadLink = resp.getFirstBadLink();
+    if (pipelineStatus != SUCCESS) {
+      int badNodeIndex = 0;
+      for (int i = 0; i < targets.length; i++) {
+        // NB: Unconditionally using the xfer addr w/o hostname
+        if (firstBadLink.equals(targets[i].getXferAddr())) {
+          badNodeIndex = i;
+          break;
+        }
+      }
+      // If a node is already restarting, the restart is not likely from the
+      // same node and is treated as a regular node error.
+      if (PipelineAck.isRestartOOBStatus(pipelineStatus) &&
+          !errorState.isRestartingNode() &&
+          shouldWaitForRestart(badNodeIndex)) {
+        errorState.initRestartingNode(badNodeIndex, "Datanode "
+            + badNodeIndex + " is restarting: " + targets[badNodeIndex]);
+        throw new IOException("A datanode is restarting.");
+      }
+      errorState.setBadNodeIndex(badNodeIndex);
+    }
+    DataTransferProtoUtil.checkBlockOpStatus(resp,
+        "ack with firstBadLink as " + firstBadLink);
+  }
+
   // connects to the first datanode in the pipeline
   // Returns true if success, otherwise return failure.
   //
   boolean createBlockOutputStream(DatanodeInfo[] nodes,
       StorageType[] nodeStorageTypes, long newGS, boolean recoveryFlag) {
+    return createBlockOutputStream(nodes, nodeStorageTypes, newGS,
+        recoveryFlag, false);
+  }
+
+  // If async is true, the packets may be sent before the datanodes respond
+  // to the request, which is then read by the ResponseProcessor.
+  private boolean createBlockOutputStream(DatanodeInfo[] nodes,
+      StorageType[] nodeStorageTypes, long newGS, boolean recoveryFlag,
+      boolean async) {
     if (nodes.length == 0) {
       LOG.info("nodes are empty for write pipeline of " + block);
       return false;
@@ -1593,28 +1710,35 @@ boolean createBlockOutputStream(DatanodeInfo[] nodes,
             checksum4WriteBlock, cachingStrategy.get(), isLazyPersistFile,
             (targetPinnings != null && targetPinnings[0]), targetPinnings);
 
-        // receive ack for connect
-        BlockOpResponseProto resp = BlockOpResponseProto.parseFrom(
-            PBHelperClient.vintPrefixed(blockReplyStream));
-        Status pipelineStatus = resp.getStatus();
-        firstBadLink = resp.getFirstBadLink();
-
-        // Got an restart OOB ack.
-        // If a node is already restarting, this status is not likely from
-        // the same node. If it is from a different node, it is not
-        // from the local datanode. Thus it is safe to treat this as a
-        // regular node error.
-        if (PipelineAck.isRestartOOBStatus(pipelineStatus) &&
-            !errorState.isRestartingNode()) {
-          checkRestart = true;
-          throw new IOException("A datanode is restarting.");
-        }
+        if (async) {
+          pipelineSetupPending = true;
+        } else {
+          // receive ack for connect
+          BlockOpResponseProto resp = BlockOpResponseProto.parseFrom(
+              PBHelperClient.vintPrefixed(blockReplyStream));
+          Status pipelineStatus = resp.getStatus();
+          firstBadLink = resp.getFirstBadLink();
+
+          // Got an restart OOB ack.
+          // If a node is already restarting, this status is not likely from
+          // the same node. If it is from a different node, it is not
+          // from the local datanode. Thus it is safe to treat this as a
+          // regular node error.
+          if (PipelineAck.isRestartOOBStatus(pipelineStatus) &&
+              !errorState.isRestartingNode()) {
+            checkRestart = true;
+            throw new IOException("A datanode is restarting.");
+          }
 
-        String logInfo = "ack with firstBadLink as " + firstBadLink;
-        DataTransferProtoUtil.checkBlockOpStatus(resp, logInfo);
+          String logInfo = "ack with firstBadLink as " + firstBadLink;
+          DataTransferProtoUtil.checkBlockOpStatus(resp, logInfo);
+        }
 
         assert null == blockStream : "Previous blockStream unclosed";
         blockStream = out;
+        blockChannel = unbufOut instanceof WritableByteChannel ?
+            (WritableByteChannel) unbufOut : null;
+        writeToChannel = blockChannel != null;
         result =  true; // success
         errorState.resetInternalError();
       } catch (IOException ie) {
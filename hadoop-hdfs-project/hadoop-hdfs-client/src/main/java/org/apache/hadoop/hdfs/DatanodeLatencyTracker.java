@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * The latencies of the positional reads of the clients sharing a
+ * {@link ClientContext}, per DataNode and overall.
+ *
+ * The latency of each DataNode is an exponentially weighted moving average
+ * of the time to the first byte of its reads, which does not depend on how
+ * much a read asked for. It is ignored once it was not updated for a while,
+ * so a DataNode which was slow is tried again eventually. The overall
+ * latencies are the durations of the whole reads, which a hedged read
+ * waits for, kept as a window of the most recent reads, from which the
+ * percentiles are taken.
+ */
+@InterfaceAudience.Private
+public class DatanodeLatencyTracker {
+  /** The weight of a new latency in the average of a DataNode. */
+  private static final double WEIGHT = 0.25;
+  /** The age at which the average of a DataNode is ignored. */
+  @VisibleForTesting
+  static final long STALE_MS = 60 * 1000;
+  /** The number of recent latencies the percentiles are taken from. */
+  private static final int WINDOW_SIZE = 1024;
+  /** The fewest latencies the percentiles are taken from. */
+  @VisibleForTesting
+  static final int MIN_SAMPLES = 100;
+  /** How long a computed percentile is reused. */
+  private static final long PERCENTILE_REFRESH_MS = 1000;
+
+  private static class NodeLatency {
+    private double averageMs;
+    private long lastUpdateMs;
+  }
+
+  private final ConcurrentHashMap<String, NodeLatency> nodes =
+      new ConcurrentHashMap<>();
+
+  // protected by the lock on window
+  private final long[] window = new long[WINDOW_SIZE];
+  private int numSamples = 0;
+  private int nextSample = 0;
+  private double lastPercentile = -1;
+  private long lastPercentileMs = -1;
+  private long lastPercentileUpdateMs = 0;
+
+  /**
+   * Record the latency of a read from a DataNode.
+   * @param firstByteMs the time until the first data arrived.
+   * @param readMs the time until the read completed.
+   */
+  public void addLatency(DatanodeInfo datanode, long firstByteMs,
+      long readMs) {
+    addLatency(datanode, firstByteMs, readMs, Time.monotonicNow());
+  }
+
+  @VisibleForTesting
+  void addLatency(DatanodeInfo datanode, long firstByteMs, long readMs,
+      long nowMs) {
+    NodeLatency node = nodes.get(datanode.getDatanodeUuid());
+    if (node == null) {
+      NodeLatency newNode = new NodeLatency();
+      node = nodes.putIfAbsent(datanode.getDatanodeUuid(), newNode);
+      if (node == null) {
+        node = newNode;
+      }
+    }
+    synchronized (node) {
+      if (nowMs - node.lastUpdateMs >= STALE_MS || node.lastUpdateMs == 0) {
+        node.averageMs = firstByteMs;
+      } else {
+        node.averageMs = WEIGHT * firstByteMs + (1 - WEIGHT) * node.averageMs;
+      }
+      node.lastUpdateMs = Math.max(nowMs, 1);
+    }
+    synchronized (window) {
+      window[nextSample] = readMs;
+      nextSample = (nextSample + 1) % WINDOW_SIZE;
+      numSamples = Math.min(numSamples + 1, WINDOW_SIZE);
+    }
+  }
+
+  /**
+   * @return the average time to the first byte of the reads from the
+   *         DataNode, or 0 if it is unknown, so the DataNode is tried before
+   *         the ones known to be slower.
+   */
+  public double getLatencyMs(DatanodeInfo datanode) {
+    return getLatencyMs(datanode, Time.monotonicNow());
+  }
+
+  @VisibleForTesting
+  double getLatencyMs(DatanodeInfo datanode, long nowMs) {
+    NodeLatency node = nodes.get(datanode.getDatanodeUuid());
+    if (node == null) {
+      return 0;
+    }
+    synchronized (node) {
+      return nowMs - node.lastUpdateMs >= STALE_MS ? 0 : node.averageMs;
+    }
+  }
+
+  /**
+   * @param percentile the percentile, between 0 and 100.
+   * @return the given percentile of the recent latencies, or -1 if there are
+   *         too few of them.
+   */
+  public long getPercentileMs(double percentile) {
+    return getPercentileMs(percentile, Time.monotonicNow());
+  }
+
+  @VisibleForTesting
+  long getPercentileMs(double percentile, long nowMs) {
+    final long[] sorted;
+    synchronized (window) {
+      if (numSamples < MIN_SAMPLES) {
+        return -1;
+      }
+      if (percentile == lastPercentile &&
+          nowMs - lastPercentileUpdateMs < PERCENTILE_REFRESH_MS) {
+        return lastPercentileMs;
+      }
+      sorted = Arrays.copyOf(window, numSamples);
+    }
+    Arrays.sort(sorted);
+    int idx = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+    long result = sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+    synchronized (window) {
+      lastPercentile = percentile;
+      lastPercentileMs = result;
+      lastPercentileUpdateMs = nowMs;
+    }
+    return result;
+  }
+}
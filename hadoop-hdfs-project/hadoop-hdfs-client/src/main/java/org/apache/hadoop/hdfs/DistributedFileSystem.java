@@ -26,8 +26,10 @@
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -50,6 +52,7 @@
 import org.apache.hadoop.fs.GlobalStorageStatistics.StorageStatisticsProvider;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.PartialListing;
 import org.apache.hadoop.fs.StorageStatistics;
 import org.apache.hadoop.fs.XAttrSetFlag;
 import org.apache.hadoop.fs.Options.ChecksumOpt;
@@ -68,6 +71,7 @@
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
 import org.apache.hadoop.hdfs.client.impl.CorruptFileBlockIterator;
 import org.apache.hadoop.hdfs.DFSOpsCountStatistics.OpType;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -83,6 +87,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
@@ -90,6 +95,7 @@
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.Credentials;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.Progressable;
@@ -985,6 +991,97 @@ public RemoteIterator<FileStatus> next(final FileSystem fs, final Path p)
 
   }
 
+  /**
+   * Lists the given directories with as few NameNode calls as possible.
+   * The paths are sent in chunks of at most dfs.batched.ls.limit paths,
+   * and each call returns at most dfs.ls.limit entries across the chunk.
+   * Symlinks are not resolved: listing a path through a symlink reports an
+   * {@link UnresolvedLinkException} for that path.
+   */
+  @Override
+  public RemoteIterator<PartialListing<FileStatus>> batchedListStatusIterator(
+      final List<Path> paths) throws IOException {
+    List<Path> absPaths = new ArrayList<>(paths.size());
+    for (Path p : paths) {
+      absPaths.add(makeQualified(fixRelativePart(p)));
+    }
+    return new BatchedListingIterator(absPaths);
+  }
+
+  /**
+   * Iterates over the pages of a batched listing, fetching the next page
+   * from the NameNode only when the current one has been consumed.
+   */
+  private class BatchedListingIterator
+      implements RemoteIterator<PartialListing<FileStatus>> {
+    private final List<Path> paths;
+    private final int batchSize;
+    private final LinkedList<PartialListing<FileStatus>> fetched =
+        new LinkedList<>();
+    private int chunkStart = 0;
+    private byte[] startAfter = new byte[0];
+    private boolean chunkHasMore = false;
+
+    BatchedListingIterator(List<Path> paths) {
+      this.paths = paths;
+      this.batchSize = Math.max(1, getConf().getInt(
+          HdfsClientConfigKeys.DFS_BATCHED_LISTING_LIMIT,
+          HdfsClientConfigKeys.DFS_BATCHED_LISTING_LIMIT_DEFAULT));
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      while (fetched.isEmpty() && (chunkHasMore || chunkStart < paths.size())) {
+        fetchMore();
+      }
+      return !fetched.isEmpty();
+    }
+
+    @Override
+    public PartialListing<FileStatus> next() throws IOException {
+      if (!hasNext()) {
+        throw new NoSuchElementException("No more entry in " + paths);
+      }
+      return fetched.removeFirst();
+    }
+
+    private void fetchMore() throws IOException {
+      int chunkLen = Math.min(batchSize, paths.size() - chunkStart);
+      String[] srcs = new String[chunkLen];
+      for (int i = 0; i < chunkLen; i++) {
+        srcs[i] = getPathName(paths.get(chunkStart + i));
+      }
+      BatchedDirectoryListing listing =
+          dfs.batchedListPaths(srcs, startAfter, false);
+      statistics.incrementReadOps(1);
+      storageStatistics.incrementOpCounter(OpType.LIST_STATUS);
+      for (HdfsPartialListing l : listing.getListings()) {
+        Path parent = paths.get(chunkStart + l.getParentIdx());
+        if (l.getException() != null) {
+          fetched.add(new PartialListing<FileStatus>(parent,
+              l.getException().unwrapRemoteException(
+                  FileNotFoundException.class,
+                  AccessControlException.class,
+                  UnresolvedLinkException.class)));
+          continue;
+        }
+        List<FileStatus> statuses =
+            new ArrayList<>(l.getPartialListing().size());
+        for (HdfsFileStatus status : l.getPartialListing()) {
+          statuses.add(status.makeQualified(getUri(), parent));
+        }
+        fetched.add(new PartialListing<>(parent, statuses));
+      }
+      chunkHasMore = listing.hasMore();
+      if (chunkHasMore) {
+        startAfter = listing.getStartAfter();
+      } else {
+        chunkStart += chunkLen;
+        startAfter = new byte[0];
+      }
+    }
+  }
+
   /**
    * This class defines an iterator that returns
    * the file status of each file/subdirectory of a directory
@@ -1072,7 +1169,7 @@ public T next() throws IOException {
         curStat = null;
         return tmp;
       }
-      throw new java.util.NoSuchElementException("No more entry in " + p);
+      throw new NoSuchElementException("No more entry in " + p);
     }
   }
 
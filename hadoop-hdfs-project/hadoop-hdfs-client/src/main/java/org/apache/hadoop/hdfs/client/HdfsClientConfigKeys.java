@@ -137,6 +137,8 @@ public interface HdfsClientConfigKeys {
   String  DFS_HDFS_BLOCKS_METADATA_ENABLED =
       "dfs.datanode.hdfs-blocks-metadata.enabled";
   boolean DFS_HDFS_BLOCKS_METADATA_ENABLED_DEFAULT = false;
+  String  DFS_BATCHED_LISTING_LIMIT = "dfs.batched.ls.limit";
+  int     DFS_BATCHED_LISTING_LIMIT_DEFAULT = 100;
 
   String  DFS_DATANODE_KERBEROS_PRINCIPAL_KEY =
       "dfs.datanode.kerberos.principal";
@@ -278,6 +280,9 @@ interface Write {
     String  EXCLUDE_NODES_CACHE_EXPIRY_INTERVAL_KEY =
         PREFIX + "exclude.nodes.cache.expiry.interval.millis";
     long    EXCLUDE_NODES_CACHE_EXPIRY_INTERVAL_DEFAULT = 10*MINUTE;
+    String  DIRECT_BUFFER_POOL_ENABLED_KEY =
+        PREFIX + "direct-buffer-pool.enabled";
+    boolean DIRECT_BUFFER_POOL_ENABLED_DEFAULT = false;
 
     interface ByteArrayManager {
       String PREFIX = Write.PREFIX + "byte-array-manager.";
@@ -306,6 +311,9 @@ interface BlockWrite {
     String  LOCATEFOLLOWINGBLOCK_INITIAL_DELAY_MS_KEY =
         PREFIX + "locateFollowingBlock.initial.delay.ms";
     int     LOCATEFOLLOWINGBLOCK_INITIAL_DELAY_MS_DEFAULT = 400;
+    String  ASYNC_PIPELINE_SETUP_ENABLED_KEY =
+        PREFIX + "async.pipeline.setup.enabled";
+    boolean ASYNC_PIPELINE_SETUP_ENABLED_DEFAULT = false;
 
     interface ReplaceDatanodeOnFailure {
       String PREFIX = BlockWrite.PREFIX + "replace-datanode-on-failure.";
@@ -324,6 +332,19 @@ interface Read {
     String PREFIX = HdfsClientConfigKeys.PREFIX + "read.";
 
     String  PREFETCH_SIZE_KEY = PREFIX + "prefetch.size";
+    String  VECTORED_MIN_SEEK_KEY = PREFIX + "vectored.min.seek";
+    int     VECTORED_MIN_SEEK_DEFAULT = 4 * 1024;
+    String  VECTORED_MAX_MERGED_SIZE_KEY = PREFIX + "vectored.max.merged.size";
+    int     VECTORED_MAX_MERGED_SIZE_DEFAULT = 1024 * 1024;
+    String  VECTORED_THREADPOOL_SIZE_KEY = PREFIX + "vectored.threadpool.size";
+    int     VECTORED_THREADPOOL_SIZE_DEFAULT = 0;
+    String  BLOCK_PREFETCH_THREADPOOL_SIZE_KEY =
+        PREFIX + "block.prefetch.threadpool.size";
+    int     BLOCK_PREFETCH_THREADPOOL_SIZE_DEFAULT = 0;
+    String  BLOCK_PREFETCH_THRESHOLD_KEY = PREFIX + "block.prefetch.threshold";
+    long    BLOCK_PREFETCH_THRESHOLD_DEFAULT = 8 * 1024 * 1024;
+    String  LATENCY_AWARE_ENABLED_KEY = PREFIX + "latency.aware.enabled";
+    boolean LATENCY_AWARE_ENABLED_DEFAULT = false;
 
     interface ShortCircuit {
       String PREFIX = Read.PREFIX + "shortcircuit.";
@@ -373,6 +394,9 @@ interface HedgedRead {
     long    THRESHOLD_MILLIS_DEFAULT = 500;
     String  THREADPOOL_SIZE_KEY = PREFIX + "threadpool.size";
     int     THREADPOOL_SIZE_DEFAULT = 0;
+    String  ADAPTIVE_THRESHOLD_PERCENTILE_KEY =
+        PREFIX + "adaptive.threshold.percentile";
+    double  ADAPTIVE_THRESHOLD_PERCENTILE_DEFAULT = 0;
   }
 
   /** dfs.client.read.striped configuration properties */
@@ -108,6 +108,7 @@ public class DfsClientConf {
   private final int writePacketSize;
   private final int writeMaxPackets;
   private final ByteArrayManager.Conf writeByteArrayManagerConf;
+  private final boolean writeDirectBufferPool;
   private final int socketTimeout;
   private final int socketSendBufferSize;
   private final long excludedNodesCacheExpiry;
@@ -117,8 +118,15 @@ public class DfsClientConf {
   private final int numBlockWriteRetry;
   private final int numBlockWriteLocateFollowingRetry;
   private final int blockWriteLocateFollowingInitialDelayMs;
+  private final boolean asyncPipelineSetup;
   private final long defaultBlockSize;
   private final long prefetchSize;
+  private final int vectoredReadMinSeek;
+  private final int vectoredReadMaxMergedSize;
+  private final int vectoredReadThreadpoolSize;
+  private final int blockPrefetchThreadpoolSize;
+  private final long blockPrefetchThreshold;
+  private final boolean latencyAwareReads;
   private final short defaultReplication;
   private final String taskId;
   private final FsPermission uMask;
@@ -132,6 +140,7 @@ public class DfsClientConf {
 
   private final long hedgedReadThresholdMillis;
   private final int hedgedReadThreadpoolSize;
+  private final double hedgedReadAdaptivePercentile;
   private final List<Class<? extends ReplicaAccessorBuilder>>
       replicaAccessorBuilderClasses;
 
@@ -209,6 +218,9 @@ public DfsClientConf(Configuration conf) {
       writeByteArrayManagerConf = new ByteArrayManager.Conf(
           countThreshold, countLimit, countResetTimePeriodMs);
     }
+    writeDirectBufferPool = conf.getBoolean(
+        Write.DIRECT_BUFFER_POOL_ENABLED_KEY,
+        Write.DIRECT_BUFFER_POOL_ENABLED_DEFAULT);
 
     defaultBlockSize = conf.getLongBytes(DFS_BLOCK_SIZE_KEY,
         DFS_BLOCK_SIZE_DEFAULT);
@@ -220,6 +232,20 @@ public DfsClientConf(Configuration conf) {
         Write.EXCLUDE_NODES_CACHE_EXPIRY_INTERVAL_DEFAULT);
     prefetchSize = conf.getLong(Read.PREFETCH_SIZE_KEY,
         10 * defaultBlockSize);
+    vectoredReadMinSeek = conf.getInt(Read.VECTORED_MIN_SEEK_KEY,
+        Read.VECTORED_MIN_SEEK_DEFAULT);
+    vectoredReadMaxMergedSize = conf.getInt(Read.VECTORED_MAX_MERGED_SIZE_KEY,
+        Read.VECTORED_MAX_MERGED_SIZE_DEFAULT);
+    vectoredReadThreadpoolSize = conf.getInt(
+        Read.VECTORED_THREADPOOL_SIZE_KEY,
+        Read.VECTORED_THREADPOOL_SIZE_DEFAULT);
+    blockPrefetchThreadpoolSize = conf.getInt(
+        Read.BLOCK_PREFETCH_THREADPOOL_SIZE_KEY,
+        Read.BLOCK_PREFETCH_THREADPOOL_SIZE_DEFAULT);
+    blockPrefetchThreshold = conf.getLong(Read.BLOCK_PREFETCH_THRESHOLD_KEY,
+        Read.BLOCK_PREFETCH_THRESHOLD_DEFAULT);
+    latencyAwareReads = conf.getBoolean(Read.LATENCY_AWARE_ENABLED_KEY,
+        Read.LATENCY_AWARE_ENABLED_DEFAULT);
     numCachedConnRetry = conf.getInt(DFS_CLIENT_CACHED_CONN_RETRY_KEY,
         DFS_CLIENT_CACHED_CONN_RETRY_DEFAULT);
     numBlockWriteRetry = conf.getInt(
@@ -231,6 +257,9 @@ public DfsClientConf(Configuration conf) {
     blockWriteLocateFollowingInitialDelayMs = conf.getInt(
         BlockWrite.LOCATEFOLLOWINGBLOCK_INITIAL_DELAY_MS_KEY,
         BlockWrite.LOCATEFOLLOWINGBLOCK_INITIAL_DELAY_MS_DEFAULT);
+    asyncPipelineSetup = conf.getBoolean(
+        BlockWrite.ASYNC_PIPELINE_SETUP_ENABLED_KEY,
+        BlockWrite.ASYNC_PIPELINE_SETUP_ENABLED_DEFAULT);
     uMask = FsPermission.getUMask(conf);
     connectToDnViaHostname = conf.getBoolean(DFS_CLIENT_USE_DN_HOSTNAME,
         DFS_CLIENT_USE_DN_HOSTNAME_DEFAULT);
@@ -250,6 +279,13 @@ public DfsClientConf(Configuration conf) {
     hedgedReadThreadpoolSize = conf.getInt(
         HdfsClientConfigKeys.HedgedRead.THREADPOOL_SIZE_KEY,
         HdfsClientConfigKeys.HedgedRead.THREADPOOL_SIZE_DEFAULT);
+    hedgedReadAdaptivePercentile = conf.getDouble(
+        HedgedRead.ADAPTIVE_THRESHOLD_PERCENTILE_KEY,
+        HedgedRead.ADAPTIVE_THRESHOLD_PERCENTILE_DEFAULT);
+    Preconditions.checkArgument(hedgedReadAdaptivePercentile >= 0 &&
+        hedgedReadAdaptivePercentile <= 100,
+        HedgedRead.ADAPTIVE_THRESHOLD_PERCENTILE_KEY +
+        " must be between 0 and 100");
 
     stripedReadThreadpoolSize = conf.getInt(
         HdfsClientConfigKeys.StripedRead.THREADPOOL_SIZE_KEY,
@@ -411,6 +447,13 @@ public ByteArrayManager.Conf getWriteByteArrayManagerConf() {
     return writeByteArrayManagerConf;
   }
 
+  /**
+   * @return the writeDirectBufferPool
+   */
+  public boolean isWriteDirectBufferPool() {
+    return writeDirectBufferPool;
+  }
+
   /**
    * @return whether TCP_NODELAY should be set on client sockets
    */
@@ -467,6 +510,13 @@ public int getNumBlockWriteLocateFollowingRetry() {
     return numBlockWriteLocateFollowingRetry;
   }
 
+  /**
+   * @return the asyncPipelineSetup
+   */
+  public boolean isAsyncPipelineSetup() {
+    return asyncPipelineSetup;
+  }
+
   /**
    * @return the defaultBlockSize
    */
@@ -481,6 +531,48 @@ public long getPrefetchSize() {
     return prefetchSize;
   }
 
+  /**
+   * @return the vectoredReadMinSeek
+   */
+  public int getVectoredReadMinSeek() {
+    return vectoredReadMinSeek;
+  }
+
+  /**
+   * @return the vectoredReadMaxMergedSize
+   */
+  public int getVectoredReadMaxMergedSize() {
+    return vectoredReadMaxMergedSize;
+  }
+
+  /**
+   * @return the vectoredReadThreadpoolSize
+   */
+  public int getVectoredReadThreadpoolSize() {
+    return vectoredReadThreadpoolSize;
+  }
+
+  /**
+   * @return the blockPrefetchThreadpoolSize
+   */
+  public int getBlockPrefetchThreadpoolSize() {
+    return blockPrefetchThreadpoolSize;
+  }
+
+  /**
+   * @return the blockPrefetchThreshold
+   */
+  public long getBlockPrefetchThreshold() {
+    return blockPrefetchThreshold;
+  }
+
+  /**
+   * @return the latencyAwareReads
+   */
+  public boolean isLatencyAwareReads() {
+    return latencyAwareReads;
+  }
+
   /**
    * @return the defaultReplication
    */
@@ -551,6 +643,13 @@ public int getHedgedReadThreadpoolSize() {
     return hedgedReadThreadpoolSize;
   }
 
+  /**
+   * @return the hedgedReadAdaptivePercentile
+   */
+  public double getHedgedReadAdaptivePercentile() {
+    return hedgedReadAdaptivePercentile;
+  }
+
   /**
    * @return the stripedReadThreadpoolSize
    */
@@ -22,6 +22,7 @@
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
 
 import org.apache.hadoop.net.SocketInputStream;
 import org.apache.hadoop.net.SocketOutputStream;
@@ -53,6 +54,14 @@ public NioInetPeer(Socket socket) throws IOException {
     this.isLocal = socket.getInetAddress().equals(socket.getLocalAddress());
   }
 
+  /**
+   * @return the channel of the socket, e.g. to wait for it to become
+   *         readable in a selector.
+   */
+  public SocketChannel getSocketChannel() {
+    return socket.getChannel();
+  }
+
   @Override
   public ReadableByteChannel getInputStreamChannel() {
     return in;
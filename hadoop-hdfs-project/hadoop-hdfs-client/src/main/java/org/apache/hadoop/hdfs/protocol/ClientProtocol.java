@@ -674,6 +674,28 @@ boolean mkdirs(String src, FsPermission masked, boolean createParent)
   DirectoryListing getListing(String src, byte[] startAfter,
       boolean needLocation) throws IOException;
 
+  /**
+   * Get a partial listing of several directories in one call. The listing
+   * stops once the configured listing limit is reached, possibly in the
+   * middle of a directory; the next call continues from there. A failure to
+   * list one of the directories is reported in that directory's
+   * {@link HdfsPartialListing} and does not fail the call.
+   *
+   * @param srcs the directory names
+   * @param startAfter opaque cookie returned by the previous call, or an
+   *                   empty array for the first call
+   * @param needLocation if the FileStatus should contain block locations
+   *
+   * @return the next page of the batched listing
+   *
+   * @throws IllegalArgumentException if too many paths are given or the
+   *           cookie does not match the paths
+   * @throws IOException If an I/O error occurred
+   */
+  @Idempotent
+  BatchedDirectoryListing getBatchedListing(String[] srcs, byte[] startAfter,
+      boolean needLocation) throws IOException;
+
   /**
    * Get listing of all the snapshottable directories.
    *
@@ -58,6 +58,7 @@
 import org.apache.hadoop.hdfs.inotify.Event;
 import org.apache.hadoop.hdfs.inotify.EventBatch;
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
@@ -83,6 +84,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.LocatedStripedBlock;
@@ -119,6 +121,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.ShortCircuitShmSlotProto;
 import org.apache.hadoop.hdfs.protocol.proto.EncryptionZonesProtos.EncryptionZoneProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BatchedDirectoryListingProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BlockStoragePolicyProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.ContentSummaryProto;
@@ -143,6 +146,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.LocatedBlockProto.Builder;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.LocatedBlocksProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.QuotaUsageProto;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RemoteExceptionProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RollingUpgradeStatusProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshotDiffReportEntryProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshotDiffReportProto;
@@ -169,6 +173,7 @@
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.erasurecode.ECSchema;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.security.proto.SecurityProtos.TokenProto;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.DataChecksum;
@@ -1639,6 +1644,31 @@ public static DirectoryListing convert(DirectoryListingProto dl) {
         dl.getRemainingEntries());
   }
 
+  public static HdfsPartialListing convert(BatchedDirectoryListingProto l) {
+    if (l.hasException()) {
+      RemoteExceptionProto e = l.getException();
+      return new HdfsPartialListing(l.getParentIdx(),
+          new RemoteException(e.getClassName(),
+              e.hasMessage() ? e.getMessage() : null));
+    }
+    List<HdfsFileStatus> statuses =
+        new ArrayList<>(l.getPartialListingCount());
+    for (HdfsFileStatusProto fs : l.getPartialListingList()) {
+      statuses.add(convert(fs));
+    }
+    return new HdfsPartialListing(l.getParentIdx(), statuses);
+  }
+
+  public static BatchedDirectoryListing convertBatchedListing(
+      List<BatchedDirectoryListingProto> listings, boolean hasMore,
+      byte[] startAfter) {
+    HdfsPartialListing[] result = new HdfsPartialListing[listings.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = convert(listings.get(i));
+    }
+    return new BatchedDirectoryListing(result, hasMore, startAfter);
+  }
+
   public static HdfsFileStatus[] convert(HdfsFileStatusProto[] fs) {
     if (fs == null) return null;
     final int len = fs.length;
@@ -1956,6 +1986,25 @@ public static DirectoryListingProto convert(DirectoryListing d) {
         build();
   }
 
+  public static BatchedDirectoryListingProto convert(HdfsPartialListing l) {
+    BatchedDirectoryListingProto.Builder builder =
+        BatchedDirectoryListingProto.newBuilder()
+            .setParentIdx(l.getParentIdx());
+    if (l.getException() != null) {
+      RemoteExceptionProto.Builder e = RemoteExceptionProto.newBuilder()
+          .setClassName(l.getException().getClassName());
+      if (l.getException().getMessage() != null) {
+        e.setMessage(l.getException().getMessage());
+      }
+      builder.setException(e);
+    } else {
+      for (HdfsFileStatus fs : l.getPartialListing()) {
+        builder.addPartialListing(convert(fs));
+      }
+    }
+    return builder.build();
+  }
+
   public static GetFsStatsResponseProto convert(long[] fsStats) {
     GetFsStatsResponseProto.Builder result = GetFsStatsResponseProto
         .newBuilder();
@@ -17,9 +17,15 @@
  */
 package org.apache.hadoop.hdfs;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
 import java.util.Random;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
 import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.ElasticByteBufferPool;
 import org.apache.htrace.core.SpanId;
 import org.junit.Assert;
 import org.junit.Test;
@@ -56,6 +62,49 @@ public void testPacket() throws Exception {
 
   }
 
+  /**
+   * A packet in a direct buffer is written to a channel or to a stream just
+   * like a packet on the heap, and its buffer is returned to the pool.
+   */
+  @Test
+  public void testDirectPacket() throws Exception {
+    Random r = new Random(12345L);
+    byte[] data = new byte[chunkSize * 3 + 100];
+    r.nextBytes(data);
+    byte[] checksum = new byte[checksumSize * 3];
+    r.nextBytes(checksum);
+
+    DataOutputBuffer expected = new DataOutputBuffer();
+    DFSPacket p = new DFSPacket(new byte[PacketHeader.PKT_MAX_HEADER_LEN +
+        (chunkSize + checksumSize) * maxChunksPerPacket], maxChunksPerPacket,
+        0, 0, checksumSize, false);
+    p.writeChecksum(checksum, 0, checksum.length);
+    p.writeData(data, 0, data.length);
+    p.writeTo(expected);
+
+    ElasticByteBufferPool pool = new ElasticByteBufferPool();
+    ByteBuffer buffer = pool.getBuffer(true, PacketHeader.PKT_MAX_HEADER_LEN +
+        (chunkSize + checksumSize) * maxChunksPerPacket);
+    p = new DFSPacket(buffer, pool, maxChunksPerPacket, 0, 0, checksumSize,
+        false);
+    p.writeChecksum(checksum, 0, checksum.length);
+    p.writeData(ByteBuffer.wrap(data), data.length);
+
+    ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+    p.writeTo(null, Channels.newChannel(channelOut));
+    Assert.assertArrayEquals(
+        Arrays.copyOf(expected.getData(), expected.getLength()),
+        channelOut.toByteArray());
+
+    ByteArrayOutputStream streamOut = new ByteArrayOutputStream();
+    p.writeTo(new DataOutputStream(streamOut));
+    Assert.assertArrayEquals(channelOut.toByteArray(),
+        streamOut.toByteArray());
+
+    p.releaseBuffer(null);
+    Assert.assertSame(buffer, pool.getBuffer(true, buffer.capacity()));
+  }
+
   public static void assertArrayRegionsEqual(byte []buf1, int off1, byte []buf2,
                                              int off2, int len) {
     for (int i = 0; i < len; i++) {
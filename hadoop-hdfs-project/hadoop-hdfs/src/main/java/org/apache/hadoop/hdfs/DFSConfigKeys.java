@@ -132,6 +132,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       "dfs.datanode.cached-dfsused.check.interval.ms";
   public static final long DFS_DN_CACHED_DFSUSED_CHECK_INTERVAL_DEFAULT_MS =
       600000;
+  public static final String DFS_DATANODE_REPLICA_INDEX_ENABLED_KEY =
+      "dfs.datanode.replica-index.enabled";
+  public static final boolean DFS_DATANODE_REPLICA_INDEX_ENABLED_DEFAULT =
+      false;
 
   public static final String  DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT =
     "dfs.namenode.path.based.cache.block.map.allocation.percent";
@@ -302,13 +306,29 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING =
       "dfs.namenode.edits.asynclogging";
   public static final boolean DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT = false;
+  public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING_PIPELINED =
+      "dfs.namenode.edits.asynclogging.pipelined";
+  public static final boolean DFS_NAMENODE_EDITS_ASYNC_LOGGING_PIPELINED_DEFAULT =
+      false;
+  public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING_MAX_INFLIGHT_BATCHES =
+      "dfs.namenode.edits.asynclogging.max-inflight-batches";
+  public static final int     DFS_NAMENODE_EDITS_ASYNC_LOGGING_MAX_INFLIGHT_BATCHES_DEFAULT =
+      4;
 
   public static final String  DFS_LIST_LIMIT = "dfs.ls.limit";
   public static final int     DFS_LIST_LIMIT_DEFAULT = 1000;
+  public static final String  DFS_BATCHED_LISTING_LIMIT =
+      HdfsClientConfigKeys.DFS_BATCHED_LISTING_LIMIT;
+  public static final int     DFS_BATCHED_LISTING_LIMIT_DEFAULT =
+      HdfsClientConfigKeys.DFS_BATCHED_LISTING_LIMIT_DEFAULT;
   public static final String  DFS_CONTENT_SUMMARY_LIMIT_KEY = "dfs.content-summary.limit";
   public static final int     DFS_CONTENT_SUMMARY_LIMIT_DEFAULT = 5000;
   public static final String  DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_KEY = "dfs.content-summary.sleep-microsec";
   public static final long    DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_DEFAULT = 500;
+  public static final String  DFS_CONTENT_SUMMARY_CACHE_ENABLED_KEY = "dfs.content-summary.cache.enabled";
+  public static final boolean DFS_CONTENT_SUMMARY_CACHE_ENABLED_DEFAULT = false;
+  public static final String  DFS_CONTENT_SUMMARY_CACHE_MAX_DEPTH_KEY = "dfs.content-summary.cache.max-depth";
+  public static final int     DFS_CONTENT_SUMMARY_CACHE_MAX_DEPTH_DEFAULT = 3;
   public static final String  DFS_DATANODE_FAILED_VOLUMES_TOLERATED_KEY = "dfs.datanode.failed.volumes.tolerated";
   public static final int     DFS_DATANODE_FAILED_VOLUMES_TOLERATED_DEFAULT = 0;
   public static final String  DFS_DATANODE_SYNCONCLOSE_KEY = "dfs.datanode.synconclose";
@@ -371,6 +391,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_NAMENODE_REPLICATION_WORK_MULTIPLIER_PER_ITERATION =
       "dfs.namenode.replication.work.multiplier.per.iteration";
   public static final int DFS_NAMENODE_REPLICATION_WORK_MULTIPLIER_PER_ITERATION_DEFAULT = 2;
+  public static final String DFS_NAMENODE_RECONSTRUCTION_CHOOSE_TARGETS_THREADS_KEY =
+      "dfs.namenode.reconstruction.choose-targets.threads";
+  public static final int DFS_NAMENODE_RECONSTRUCTION_CHOOSE_TARGETS_THREADS_DEFAULT = 1;
 
   //Delegation token related keys
   public static final String  DFS_NAMENODE_DELEGATION_KEY_UPDATE_INTERVAL_KEY = "dfs.namenode.delegation.key.update-interval";
@@ -407,6 +430,26 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long
       DFS_NAMENODE_MAX_LOCK_HOLD_TO_RELEASE_LEASE_MS_DEFAULT = 25;
 
+  public static final String  DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY =
+      "dfs.namenode.lock.detailed-metrics.enabled";
+  public static final boolean DFS_NAMENODE_LOCK_DETAILED_METRICS_DEFAULT =
+      false;
+  public static final String  DFS_NAMENODE_LOCK_TOP_HOLDERS_NUM_KEY =
+      "dfs.namenode.lock.top-holders.num";
+  public static final int     DFS_NAMENODE_LOCK_TOP_HOLDERS_NUM_DEFAULT = 10;
+  public static final String  DFS_NAMENODE_LOCK_TOP_HOLDERS_MIN_HOLD_MS_KEY =
+      "dfs.namenode.lock.top-holders.min-hold-ms";
+  public static final long    DFS_NAMENODE_LOCK_TOP_HOLDERS_MIN_HOLD_MS_DEFAULT =
+      100;
+  public static final String  DFS_NAMENODE_READ_OPTIMISTIC_ENABLED_KEY =
+      "dfs.namenode.read.optimistic.enabled";
+  public static final boolean DFS_NAMENODE_READ_OPTIMISTIC_ENABLED_DEFAULT =
+      false;
+  public static final String  DFS_NAMENODE_DELETE_CHUNKED_RECLAIM_ENABLED_KEY =
+      "dfs.namenode.delete.chunked-reclaim.enabled";
+  public static final boolean DFS_NAMENODE_DELETE_CHUNKED_RECLAIM_ENABLED_DEFAULT =
+      false;
+
   public static final String  DFS_UPGRADE_DOMAIN_FACTOR = "dfs.namenode.upgrade.domain.factor";
   public static final int DFS_UPGRADE_DOMAIN_FACTOR_DEFAULT = DFS_REPLICATION_DEFAULT;
 
@@ -507,6 +550,21 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       "dfs.datanode.directoryscan.throttle.limit.ms.per.sec";
   public static final int
       DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT = 1000;
+  public static final String
+      DFS_DATANODE_DIRECTORYSCAN_THROTTLE_IOPS_KEY =
+      "dfs.datanode.directoryscan.throttle.iops";
+  public static final int
+      DFS_DATANODE_DIRECTORYSCAN_THROTTLE_IOPS_DEFAULT = 0;
+  public static final String
+      DFS_DATANODE_DIRECTORYSCAN_SKIP_UNCHANGED_DIRS_KEY =
+      "dfs.datanode.directoryscan.skip.unchanged.dirs";
+  public static final boolean
+      DFS_DATANODE_DIRECTORYSCAN_SKIP_UNCHANGED_DIRS_DEFAULT = false;
+  public static final String
+      DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY =
+      "dfs.datanode.directoryscan.reconcile.batch.size";
+  public static final int
+      DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_DEFAULT = 1000;
   public static final String  DFS_DATANODE_DNS_INTERFACE_KEY = "dfs.datanode.dns.interface";
   public static final String  DFS_DATANODE_DNS_INTERFACE_DEFAULT = "default";
   public static final String  DFS_DATANODE_DNS_NAMESERVER_KEY = "dfs.datanode.dns.nameserver";
@@ -521,10 +579,23 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_MAX_RECEIVER_THREADS_KEY =
       HdfsClientConfigKeys.DeprecatedKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_KEY;
   public static final int     DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT = 4096;
+  public static final String  DFS_DATANODE_TRANSFER_NONBLOCKING_ENABLED_KEY =
+      "dfs.datanode.transfer.nonblocking.enabled";
+  public static final boolean DFS_DATANODE_TRANSFER_NONBLOCKING_ENABLED_DEFAULT =
+      false;
+  public static final String  DFS_DATANODE_TRANSFER_SELECTOR_THREADS_KEY =
+      "dfs.datanode.transfer.selector.threads";
+  public static final int     DFS_DATANODE_TRANSFER_SELECTOR_THREADS_DEFAULT = 2;
+  public static final String  DFS_DATANODE_TRANSFER_MAX_CONNECTIONS_KEY =
+      "dfs.datanode.transfer.nonblocking.max.connections";
+  public static final int     DFS_DATANODE_TRANSFER_MAX_CONNECTIONS_DEFAULT =
+      40960;
   public static final String  DFS_DATANODE_SCAN_PERIOD_HOURS_KEY = "dfs.datanode.scan.period.hours";
   public static final int     DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT = 21 * 24;  // 3 weeks.
   public static final String  DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND = "dfs.block.scanner.volume.bytes.per.second";
   public static final long    DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND_DEFAULT = 1048576L;
+  public static final String  DFS_BLOCK_SCANNER_VOLUME_MAX_BYTES_PER_SECOND = "dfs.block.scanner.volume.max.bytes.per.second";
+  public static final long    DFS_BLOCK_SCANNER_VOLUME_MAX_BYTES_PER_SECOND_DEFAULT = 0L;
   public static final String  DFS_DATANODE_TRANSFERTO_ALLOWED_KEY = "dfs.datanode.transferTo.allowed";
   public static final boolean DFS_DATANODE_TRANSFERTO_ALLOWED_DEFAULT = true;
   public static final String  DFS_HEARTBEAT_INTERVAL_KEY = "dfs.heartbeat.interval";
@@ -592,6 +663,14 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_BLOCKREPORT_INITIAL_DELAY_DEFAULT = 0;
   public static final String  DFS_BLOCKREPORT_SPLIT_THRESHOLD_KEY = "dfs.blockreport.split.threshold";
   public static final long    DFS_BLOCKREPORT_SPLIT_THRESHOLD_DEFAULT = 1000 * 1000;
+  public static final String  DFS_BLOCKREPORT_DIGEST_ENABLED_KEY = "dfs.blockreport.digest.enabled";
+  public static final boolean DFS_BLOCKREPORT_DIGEST_ENABLED_DEFAULT = false;
+  public static final String  DFS_BLOCKREPORT_DIGEST_BLOCKS_PER_RANGE_KEY = "dfs.blockreport.digest.blocks.per.range";
+  public static final int     DFS_BLOCKREPORT_DIGEST_BLOCKS_PER_RANGE_DEFAULT = 1024;
+  public static final String  DFS_NAMENODE_BLOCKREPORT_DIFF_READLOCK_KEY = "dfs.namenode.blockreport.diff.readlock.enabled";
+  public static final boolean DFS_NAMENODE_BLOCKREPORT_DIFF_READLOCK_DEFAULT = false;
+  public static final String  DFS_NAMENODE_BLOCKREPORT_APPLY_BATCH_SIZE_KEY = "dfs.namenode.blockreport.apply.batch.size";
+  public static final int     DFS_NAMENODE_BLOCKREPORT_APPLY_BATCH_SIZE_DEFAULT = 1000;
   public static final String  DFS_NAMENODE_MAX_FULL_BLOCK_REPORT_LEASES = "dfs.namenode.max.full.block.report.leases";
   public static final int     DFS_NAMENODE_MAX_FULL_BLOCK_REPORT_LEASES_DEFAULT = 6;
   public static final String  DFS_NAMENODE_FULL_BLOCK_REPORT_LEASE_LENGTH_MS = "dfs.namenode.full.block.report.lease.length.ms";
@@ -614,6 +693,26 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_IMAGE_COMPRESSION_CODEC_DEFAULT =
                                    "org.apache.hadoop.io.compress.DefaultCodec";
 
+  // property for parallel fsimage loading
+  public static final String DFS_IMAGE_PARALLEL_LOAD_KEY =
+      "dfs.image.parallel.load";
+  public static final boolean DFS_IMAGE_PARALLEL_LOAD_DEFAULT = false;
+  public static final String DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY =
+      "dfs.image.parallel.target.sections";
+  public static final int DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT = 12;
+  public static final String DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY =
+      "dfs.image.parallel.inode.threshold";
+  public static final int DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT = 1000000;
+  public static final String DFS_IMAGE_PARALLEL_THREADS_KEY =
+      "dfs.image.parallel.threads";
+  public static final int DFS_IMAGE_PARALLEL_THREADS_DEFAULT = 4;
+  public static final String DFS_IMAGE_PARALLEL_SAVE_KEY =
+      "dfs.image.parallel.save";
+  public static final boolean DFS_IMAGE_PARALLEL_SAVE_DEFAULT = false;
+  public static final String DFS_IMAGE_COMPRESS_SUB_SECTIONS_KEY =
+      "dfs.image.compress.sub-sections";
+  public static final boolean DFS_IMAGE_COMPRESS_SUB_SECTIONS_DEFAULT = false;
+
   public static final String DFS_IMAGE_TRANSFER_RATE_KEY =
                                            "dfs.image.transfer.bandwidthPerSec";
   public static final long DFS_IMAGE_TRANSFER_RATE_DEFAULT = 0;  //no throttling
@@ -639,6 +738,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long    DFS_DATANODE_AVAILABLE_SPACE_VOLUME_CHOOSING_POLICY_BALANCED_SPACE_THRESHOLD_DEFAULT = 1024L * 1024L * 1024L * 10L; // 10 GB
   public static final String  DFS_DATANODE_AVAILABLE_SPACE_VOLUME_CHOOSING_POLICY_BALANCED_SPACE_PREFERENCE_FRACTION_KEY = "dfs.datanode.available-space-volume-choosing-policy.balanced-space-preference-fraction";
   public static final float   DFS_DATANODE_AVAILABLE_SPACE_VOLUME_CHOOSING_POLICY_BALANCED_SPACE_PREFERENCE_FRACTION_DEFAULT = 0.75f;
+  public static final String  DFS_DATANODE_REPLICA_LOCK_STRIPES_KEY = "dfs.datanode.replica.lock.stripes";
+  public static final int     DFS_DATANODE_REPLICA_LOCK_STRIPES_DEFAULT = 1024;
   public static final String  DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY =
       HdfsClientConfigKeys.DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY;
   public static final String  DFS_DATANODE_STARTUP_KEY = "dfs.datanode.startup";
@@ -703,6 +804,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_BLOCKPLACEMENTPOLICY_DEFAULT_PREFER_LOCAL_NODE_KEY =
       "dfs.namenode.block-placement-policy.default.prefer-local-node";
   public static final boolean  DFS_NAMENODE_BLOCKPLACEMENTPOLICY_DEFAULT_PREFER_LOCAL_NODE_DEFAULT = true;
+  public static final String  DFS_NAMENODE_BLOCKPLACEMENTPOLICY_INDEX_ENABLED_KEY =
+      "dfs.namenode.block-placement-policy.index.enabled";
+  public static final boolean DFS_NAMENODE_BLOCKPLACEMENTPOLICY_INDEX_ENABLED_DEFAULT = false;
 
   public static final String DFS_BLOCK_LOCAL_PATH_ACCESS_USER_KEY = "dfs.block.local-path-access.user";
   public static final String DFS_DOMAIN_SOCKET_PATH_KEY =
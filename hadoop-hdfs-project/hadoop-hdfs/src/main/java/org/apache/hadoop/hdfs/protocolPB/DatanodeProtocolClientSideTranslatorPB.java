@@ -32,6 +32,8 @@
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeStatus;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReceivedAndDeletedRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportDigestRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportDigestResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.CacheReportRequestProto;
@@ -48,6 +50,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.StorageReceivedDeletedBlocksProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsServerProtos.VersionRequestProto;
 import org.apache.hadoop.hdfs.server.protocol.BlockReportContext;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportDigestResponse;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
@@ -56,6 +59,7 @@
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo.Capability;
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageBlockReport;
+import org.apache.hadoop.hdfs.server.protocol.StorageBlockReportDigest;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
@@ -188,6 +192,12 @@ public DatanodeCommand blockReport(DatanodeRegistration registration,
       StorageBlockReportProto.Builder reportBuilder = StorageBlockReportProto
           .newBuilder().setStorage(PBHelperClient.convert(r.getStorage()));
       BlockListAsLongs blocks = r.getBlocks();
+      if (r.getRanges() != null) {
+        reportBuilder.setPartial(true);
+        for (long range : r.getRanges()) {
+          reportBuilder.addRanges(range);
+        }
+      }
       if (useBlocksBuffer) {
         reportBuilder.setNumberOfBlocks(blocks.getNumberOfBlocks());
         reportBuilder.addAllBlocksBuffers(blocks.getBlocksBuffers());
@@ -208,6 +218,28 @@ public DatanodeCommand blockReport(DatanodeRegistration registration,
     return resp.hasCmd() ? PBHelper.convert(resp.getCmd()) : null;
   }
 
+  @Override
+  public BlockReportDigestResponse blockReportDigest(
+      DatanodeRegistration registration, String poolId,
+      StorageBlockReportDigest[] digests, BlockReportContext context)
+      throws IOException {
+    BlockReportDigestRequestProto.Builder builder =
+        BlockReportDigestRequestProto.newBuilder()
+            .setRegistration(PBHelper.convert(registration))
+            .setBlockPoolId(poolId)
+            .setContext(PBHelper.convert(context));
+    for (StorageBlockReportDigest d : digests) {
+      builder.addDigests(PBHelper.convert(d));
+    }
+    BlockReportDigestResponseProto resp;
+    try {
+      resp = rpcProxy.blockReportDigest(NULL_CONTROLLER, builder.build());
+    } catch (ServiceException se) {
+      throw ProtobufHelper.getRemoteException(se);
+    }
+    return PBHelper.convert(resp);
+  }
+
   @Override
   public DatanodeCommand cacheReport(DatanodeRegistration registration,
       String poolId, List<Long> blockIds) throws IOException {
@@ -27,6 +27,8 @@
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeStatus;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReceivedAndDeletedRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReceivedAndDeletedResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportDigestRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportDigestResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.CacheReportRequestProto;
@@ -49,6 +51,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RollingUpgradeStatusProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsServerProtos.VersionRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsServerProtos.VersionResponseProto;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportDigestResponse;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
@@ -56,6 +59,7 @@
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageBlockReport;
+import org.apache.hadoop.hdfs.server.protocol.StorageBlockReportDigest;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
@@ -171,8 +175,15 @@ public BlockReportResponseProto blockReport(RpcController controller,
       } else {
         blocks = BlockListAsLongs.decodeLongs(s.getBlocksList(), maxDataLength);
       }
+      long[] ranges = null;
+      if (s.getPartial()) {
+        ranges = new long[s.getRangesCount()];
+        for (int i = 0; i < ranges.length; i++) {
+          ranges[i] = s.getRanges(i);
+        }
+      }
       report[index++] = new StorageBlockReport(PBHelperClient.convert(s.getStorage()),
-          blocks);
+          blocks, ranges);
     }
     try {
       cmd = impl.blockReport(PBHelper.convert(request.getRegistration()),
@@ -190,6 +201,28 @@ public BlockReportResponseProto blockReport(RpcController controller,
     return builder.build();
   }
 
+  @Override
+  public BlockReportDigestResponseProto blockReportDigest(
+      RpcController controller, BlockReportDigestRequestProto request)
+      throws ServiceException {
+    StorageBlockReportDigest[] digests =
+        new StorageBlockReportDigest[request.getDigestsCount()];
+    for (int i = 0; i < digests.length; i++) {
+      digests[i] = PBHelper.convert(request.getDigests(i));
+    }
+    BlockReportDigestResponse response;
+    try {
+      response = impl.blockReportDigest(
+          PBHelper.convert(request.getRegistration()),
+          request.getBlockPoolId(), digests,
+          request.hasContext() ?
+              PBHelper.convert(request.getContext()) : null);
+    } catch (IOException e) {
+      throw new ServiceException(e);
+    }
+    return PBHelper.convert(response);
+  }
+
   @Override
   public CacheReportResponseProto cacheReport(RpcController controller,
       CacheReportRequestProto request) throws ServiceException {
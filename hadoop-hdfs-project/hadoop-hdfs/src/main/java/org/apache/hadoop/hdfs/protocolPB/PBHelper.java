@@ -20,7 +20,9 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.google.protobuf.ByteString;
 
@@ -39,6 +41,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockECReconstructionCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockIdCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockRecoveryCommandProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportDigestResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.DatanodeCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.DatanodeRegistrationProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.FinalizeCommandProto;
@@ -46,6 +49,8 @@
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.NNHAStatusHeartbeatProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.ReceivedDeletedBlockInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.RegisterCommandProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.StorageBlockReportDigestProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.StorageReportRangesProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.VolumeFailureSummaryProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportContextProto;
 import org.apache.hadoop.hdfs.protocol.proto.ErasureCodingProtos.BlockECReconstructionInfoProto;
@@ -89,6 +94,7 @@
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringStripedBlock;
 import org.apache.hadoop.hdfs.server.protocol.BlockReportContext;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportDigestResponse;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations.BlockWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations.StripedBlockWithLocations;
@@ -108,6 +114,7 @@
 import org.apache.hadoop.hdfs.server.protocol.RegisterCommand;
 import org.apache.hadoop.hdfs.server.protocol.RemoteEditLog;
 import org.apache.hadoop.hdfs.server.protocol.RemoteEditLogManifest;
+import org.apache.hadoop.hdfs.server.protocol.StorageBlockReportDigest;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
 
 /**
@@ -838,6 +845,68 @@ public static BlockReportContextProto convert(BlockReportContext context) {
         build();
   }
 
+  public static StorageBlockReportDigest convert(
+      StorageBlockReportDigestProto proto) {
+    final int n = proto.getRangeStartsCount();
+    if (proto.getCountsCount() != n || proto.getDigestsCount() != n) {
+      throw new IllegalArgumentException(
+          "Inconsistent number of ranges in block report digest");
+    }
+    long[] rangeStarts = new long[n];
+    int[] counts = new int[n];
+    long[] digests = new long[n];
+    for (int i = 0; i < n; i++) {
+      rangeStarts[i] = proto.getRangeStarts(i);
+      counts[i] = proto.getCounts(i);
+      digests[i] = proto.getDigests(i);
+    }
+    return new StorageBlockReportDigest(
+        PBHelperClient.convert(proto.getStorage()), rangeStarts, counts,
+        digests);
+  }
+
+  public static StorageBlockReportDigestProto convert(
+      StorageBlockReportDigest digest) {
+    StorageBlockReportDigestProto.Builder builder =
+        StorageBlockReportDigestProto.newBuilder()
+            .setStorage(PBHelperClient.convert(digest.getStorage()));
+    for (int i = 0; i < digest.getNumRanges(); i++) {
+      builder.addRangeStarts(digest.getRangeStarts()[i])
+          .addCounts(digest.getCounts()[i])
+          .addDigests(digest.getDigests()[i]);
+    }
+    return builder.build();
+  }
+
+  public static BlockReportDigestResponse convert(
+      BlockReportDigestResponseProto proto) {
+    Map<String, long[]> storageRanges = new HashMap<>();
+    for (StorageReportRangesProto s : proto.getStorageRangesList()) {
+      long[] ranges = new long[s.getRangesCount()];
+      for (int i = 0; i < ranges.length; i++) {
+        ranges[i] = s.getRanges(i);
+      }
+      storageRanges.put(s.getStorageUuid(), ranges);
+    }
+    return new BlockReportDigestResponse(storageRanges);
+  }
+
+  public static BlockReportDigestResponseProto convert(
+      BlockReportDigestResponse response) {
+    BlockReportDigestResponseProto.Builder builder =
+        BlockReportDigestResponseProto.newBuilder();
+    for (Map.Entry<String, long[]> e :
+        response.getStorageRanges().entrySet()) {
+      StorageReportRangesProto.Builder s = StorageReportRangesProto
+          .newBuilder().setStorageUuid(e.getKey());
+      for (long r : e.getValue()) {
+        s.addRanges(r);
+      }
+      builder.addStorageRanges(s);
+    }
+    return builder.build();
+  }
+
   private static StorageTypesProto convertStorageTypesProto(
       StorageType[] targetStorageTypes) {
     StorageTypesProto.Builder builder = StorageTypesProto.newBuilder();
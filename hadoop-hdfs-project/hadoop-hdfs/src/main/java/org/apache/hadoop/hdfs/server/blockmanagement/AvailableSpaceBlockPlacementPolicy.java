@@ -27,6 +27,7 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.net.NetworkTopology;
 import org.apache.hadoop.net.Node;
@@ -76,6 +77,28 @@ protected DatanodeDescriptor chooseDataNode(final String scope,
         (DatanodeDescriptor) clusterMap.chooseRandom(scope, excludedNode);
     DatanodeDescriptor b =
         (DatanodeDescriptor) clusterMap.chooseRandom(scope, excludedNode);
+    return chooseMoreAvailable(a, b);
+  }
+
+  @Override
+  protected DatanodeDescriptor chooseDataNode(final String scope,
+      final Collection<Node> excludedNode, final StorageType storageType) {
+    if (placementIndex == null || storageType == null ||
+        !placementIndex.covers(scope)) {
+      return chooseDataNode(scope, excludedNode);
+    }
+    DatanodeDescriptor a =
+        placementIndex.chooseRandom(scope, excludedNode, storageType);
+    if (a == null) {
+      return null;
+    }
+    DatanodeDescriptor b =
+        placementIndex.chooseRandom(scope, excludedNode, storageType);
+    return chooseMoreAvailable(a, b);
+  }
+
+  private DatanodeDescriptor chooseMoreAvailable(DatanodeDescriptor a,
+      DatanodeDescriptor b) {
     int ret = compareDataNode(a, b);
     if (ret == 0) {
       return a;
@@ -39,8 +39,12 @@
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.ObjectName;
@@ -87,6 +91,7 @@
 import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockReportContext;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportDigestResponse;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations.BlockWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations.StripedBlockWithLocations;
@@ -96,6 +101,7 @@
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage.State;
 import org.apache.hadoop.hdfs.server.protocol.KeyUpdateCommand;
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
+import org.apache.hadoop.hdfs.server.protocol.StorageBlockReportDigest;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.util.FoldedTreeSet;
 import org.apache.hadoop.hdfs.util.LightWeightHashSet;
@@ -116,6 +122,7 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -293,6 +300,21 @@ public long getNumTimedOutPendingReconstructions() {
   // Max number of blocks to log info about during a block report.
   private final long maxNumBlocksToLog;
 
+  /**
+   * Whether to diff block reports against the stored blocks under the read
+   * lock, applying only the changes under the write lock.
+   */
+  private final boolean diffReportUnderReadLock;
+  // Max number of changes of a block report applied per write lock.
+  private final int reportApplyBatchSize;
+
+  /**
+   * Threads choosing the targets of the reconstruction work, or null if the
+   * RedundancyMonitor chooses them itself.
+   */
+  private final ExecutorService chooseTargetsExecutor;
+  private final int chooseTargetsThreads;
+
   /**
    * When running inside a Standby node, the node may receive block reports
    * from datanodes before receiving the corresponding namespace edits from
@@ -427,6 +449,20 @@ public BlockManager(final Namesystem namesystem, boolean haEnabled,
     this.maxNumBlocksToLog =
         conf.getLong(DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_KEY,
             DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_DEFAULT);
+    this.diffReportUnderReadLock = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_DIFF_READLOCK_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_DIFF_READLOCK_DEFAULT);
+    this.reportApplyBatchSize = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_APPLY_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_APPLY_BATCH_SIZE_DEFAULT));
+    this.chooseTargetsThreads = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_RECONSTRUCTION_CHOOSE_TARGETS_THREADS_KEY,
+        DFSConfigKeys
+            .DFS_NAMENODE_RECONSTRUCTION_CHOOSE_TARGETS_THREADS_DEFAULT));
+    this.chooseTargetsExecutor = chooseTargetsThreads > 1 ?
+        Executors.newFixedThreadPool(chooseTargetsThreads,
+            new ThreadFactoryBuilder().setNameFormat("ChooseTargets-%d")
+                .setDaemon(true).build()) : null;
     this.numBlocksPerIteration = conf.getInt(
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT,
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT_DEFAULT);
@@ -444,6 +480,8 @@ public BlockManager(final Namesystem namesystem, boolean haEnabled,
     LOG.info("replicationRecheckInterval = " + replicationRecheckInterval);
     LOG.info("encryptDataTransfer        = " + encryptDataTransfer);
     LOG.info("maxNumBlocksToLog          = " + maxNumBlocksToLog);
+    LOG.info("diffReportUnderReadLock    = " + diffReportUnderReadLock);
+    LOG.info("chooseTargetsThreads       = " + chooseTargetsThreads);
   }
 
   private static BlockTokenSecretManager createBlockTokenSecretManager(
@@ -572,6 +610,9 @@ public void close() {
       blockReportThread.join(3000);
     } catch (InterruptedException ie) {
     }
+    if (chooseTargetsExecutor != null) {
+      chooseTargetsExecutor.shutdownNow();
+    }
     datanodeManager.close();
     pendingReconstruction.stop();
     blocksMap.close();
@@ -1083,7 +1124,7 @@ public LocatedBlocks createLocatedBlocks(final BlockInfo[] blocks,
       final boolean inSnapshot, FileEncryptionInfo feInfo,
       ErasureCodingPolicy ecPolicy)
       throws IOException {
-    assert namesystem.hasReadLock();
+    assert namesystem.hasReadLockOrOptimisticRead();
     if (blocks == null) {
       return null;
     } else if (blocks.length == 0) {
@@ -1564,7 +1605,7 @@ int computeBlockReconstructionWork(int blocksToProcess) {
   int computeReconstructionWorkForBlocks(
       List<List<BlockInfo>> blocksToReconstruct) {
     int scheduledWork = 0;
-    List<BlockReconstructionWork> reconWork = new LinkedList<>();
+    List<BlockReconstructionWork> reconWork = new ArrayList<>();
 
     // Step 1: categorize at-risk blocks into replication and EC tasks
     namesystem.writeLock();
@@ -1586,21 +1627,22 @@ int computeReconstructionWorkForBlocks(
     }
 
     // Step 2: choose target nodes for each reconstruction task
-    final Set<Node> excludedNodes = new HashSet<>();
-    for(BlockReconstructionWork rw : reconWork){
-      // Exclude all of the containing nodes from being targets.
-      // This list includes decommissioning or corrupt nodes.
-      excludedNodes.clear();
-      for (DatanodeDescriptor dn : rw.getContainingNodes()) {
-        excludedNodes.add(dn);
+    final long chooseTargetsStartTime = Time.monotonicNow();
+    if (chooseTargetsExecutor != null && reconWork.size() > 1) {
+      try {
+        chooseTargetsInParallel(reconWork);
+      } catch (InterruptedException e) {
+        // nothing has been scheduled yet, the blocks are still queued
+        Thread.currentThread().interrupt();
+        return 0;
       }
-
-      // choose replication targets: NOT HOLDING THE GLOBAL LOCK
-      // It is costly to extract the filename for which chooseTargets is called,
-      // so for now we pass in the block collection itself.
-      final BlockPlacementPolicy placementPolicy =
-          placementPolicies.getPolicy(rw.getBlock().isStriped());
-      rw.chooseTargets(placementPolicy, storagePolicySuite, excludedNodes);
+    } else {
+      chooseTargets(reconWork, 0, 1);
+    }
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null && !reconWork.isEmpty()) {
+      metrics.addReconstructionChooseTargets(
+          Time.monotonicNow() - chooseTargetsStartTime);
     }
 
     // Step 3: add tasks to the DN
@@ -1622,6 +1664,9 @@ int computeReconstructionWorkForBlocks(
     } finally {
       namesystem.writeUnlock();
     }
+    if (metrics != null) {
+      metrics.incrReconstructionWorkScheduled(scheduledWork);
+    }
 
     if (blockLog.isDebugEnabled()) {
       // log which blocks have been scheduled for reconstruction
@@ -1646,6 +1691,62 @@ int computeReconstructionWorkForBlocks(
     return scheduledWork;
   }
 
+  /**
+   * Choose the targets of every n-th reconstruction task, starting with the
+   * given one. The placement policy is safe to call from several threads,
+   * as it already is by the concurrent addBlock calls of the clients.
+   */
+  private void chooseTargets(List<BlockReconstructionWork> reconWork,
+      int first, int n) {
+    final Set<Node> excludedNodes = new HashSet<>();
+    for (int i = first; i < reconWork.size(); i += n) {
+      final BlockReconstructionWork rw = reconWork.get(i);
+      // Exclude all of the containing nodes from being targets.
+      // This list includes decommissioning or corrupt nodes.
+      excludedNodes.clear();
+      for (DatanodeDescriptor dn : rw.getContainingNodes()) {
+        excludedNodes.add(dn);
+      }
+
+      // choose replication targets: NOT HOLDING THE GLOBAL LOCK
+      // It is costly to extract the filename for which chooseTargets is called,
+      // so for now we pass in the block collection itself.
+      final BlockPlacementPolicy placementPolicy =
+          placementPolicies.getPolicy(rw.getBlock().isStriped());
+      rw.chooseTargets(placementPolicy, storagePolicySuite, excludedNodes);
+    }
+  }
+
+  private void chooseTargetsInParallel(
+      final List<BlockReconstructionWork> reconWork)
+      throws InterruptedException {
+    final int numTasks = Math.min(chooseTargetsThreads, reconWork.size());
+    List<Callable<Void>> tasks = new ArrayList<>(numTasks);
+    for (int t = 0; t < numTasks; t++) {
+      final int first = t;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          chooseTargets(reconWork, first, numTasks);
+          return null;
+        }
+      });
+    }
+    for (Future<Void> f : chooseTargetsExecutor.invokeAll(tasks)) {
+      try {
+        f.get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+      }
+    }
+  }
+
   boolean hasEnoughEffectiveReplicas(BlockInfo block,
       NumberReplicas numReplicas, int pendingReplicaNum, int required) {
     int numEffectiveReplicas = numReplicas.liveReplicas() + pendingReplicaNum;
@@ -2136,6 +2237,34 @@ public boolean processReport(final DatanodeID nodeID,
       final DatanodeStorage storage,
       final BlockListAsLongs newReport,
       BlockReportContext context, boolean lastStorageInRpc) throws IOException {
+    return processReport(nodeID, storage, newReport, null, context,
+        lastStorageInRpc);
+  }
+
+  /**
+   * The given storage is reporting its blocks, either all of them or only
+   * those within the given ranges of block IDs.
+   *
+   * @param ranges the ranges covered by the report, or null for a full
+   *               report. See {@link StorageBlockReportDigest}.
+   * @return true if all known storages of the given DN have finished reporting.
+   * @throws IOException
+   */
+  public boolean processReport(final DatanodeID nodeID,
+      final DatanodeStorage storage,
+      final BlockListAsLongs newReport, final long[] ranges,
+      BlockReportContext context, boolean lastStorageInRpc) throws IOException {
+    ReportDiff diff = null;
+    long diffTime = 0;
+    if (diffReportUnderReadLock) {
+      final long diffStartTime = Time.monotonicNow();
+      diff = diffReport(nodeID, storage, newReport, ranges, context);
+      if (diff != null) {
+        applyReportDiff(nodeID, diff);
+      }
+      diffTime = Time.monotonicNow() - diffStartTime;
+    }
+
     namesystem.writeLock();
     final long startTime = Time.monotonicNow(); //after acquiring write lock
     final long endTime;
@@ -2172,6 +2301,14 @@ public boolean processReport(final DatanodeID nodeID,
         }
       }
 
+      if (ranges != null && (storageInfo.getBlockReportCount() == 0 ||
+          storageInfo.areBlockContentsStale())) {
+        // the NameNode lost the state of the storage since it compared the
+        // digests, e.g. because it restarted or failed over
+        throw new IOException("Partial block report for storage " +
+            storageInfo.getStorageID() + " from " + nodeID +
+            ", which needs a full report first.");
+      }
       if (storageInfo.getBlockReportCount() == 0) {
         // The first block report can be processed a lot more efficiently than
         // ordinary block reports.  This shortens restart times.
@@ -2179,8 +2316,11 @@ public boolean processReport(final DatanodeID nodeID,
             storageInfo.getStorageID() + " from datanode " +
             nodeID.getDatanodeUuid());
         processFirstBlockReport(storageInfo, newReport);
+      } else if (diff != null && diff.storageInfo == storageInfo) {
+        // the changes were applied already
+        invalidatedBlocks = diff.invalidated;
       } else {
-        invalidatedBlocks = processReport(storageInfo, newReport,
+        invalidatedBlocks = processReport(storageInfo, newReport, ranges,
             context != null ? context.isSorted() : false);
       }
       
@@ -2224,17 +2364,93 @@ public boolean processReport(final DatanodeID nodeID,
     // Log the block report processing stats from Namenode perspective
     final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
     if (metrics != null) {
-      metrics.addBlockReport((int) (endTime - startTime));
+      metrics.addBlockReport((int) (endTime - startTime + diffTime));
     }
     blockLog.info("BLOCK* processReport: from storage {} node {}, " +
-        "blocks: {}, hasStaleStorage: {}, processing time: {} msecs, " +
+        "blocks: {}, ranges: {}, hasStaleStorage: {}, processing time: {} " +
+        "msecs, of which {} msecs outside the write lock, " +
         "invalidatedBlocks: {}", storage.getStorageID(), nodeID,
         newReport.getNumberOfBlocks(),
-        node.hasStaleStorages(), (endTime - startTime),
-        invalidatedBlocks.size());
+        ranges == null ? "all" : ranges.length / 2,
+        node.hasStaleStorages(), (endTime - startTime + diffTime),
+        diff != null ? diffTime : 0, invalidatedBlocks.size());
     return !node.hasStaleStorages();
   }
 
+  /**
+   * Compare the digests of the replicas on the storages of a DataNode with
+   * the blocks recorded for the storages, and find the ranges of block IDs
+   * the DataNode needs to report. Storages which were not reported yet, or
+   * whose block contents are stale, need a full report.
+   *
+   * This runs under the read lock only, so only the ranges which differ are
+   * left to {@link #processReport} under the write lock.
+   */
+  public BlockReportDigestResponse compareBlockReportDigests(
+      final DatanodeID nodeID, final StorageBlockReportDigest[] digests,
+      final BlockReportContext context) throws IOException {
+    final Map<String, long[]> storageRanges = new HashMap<>();
+    int numRanges = 0;
+    int numMismatched = 0;
+    namesystem.readLock();
+    try {
+      DatanodeDescriptor node = datanodeManager.getDatanode(nodeID);
+      if (node == null || !node.isRegistered()) {
+        throw new IOException(
+            "BlockReportDigest from dead or unregistered node: " + nodeID);
+      }
+      if (namesystem.isInStartupSafeMode() || (context != null &&
+          !blockReportLeaseManager.checkLease(node, Time.monotonicNow(),
+              context.getLeaseId()))) {
+        // the report which follows is handled like any full report
+        return new BlockReportDigestResponse(storageRanges);
+      }
+      for (StorageBlockReportDigest digest : digests) {
+        DatanodeStorageInfo storageInfo =
+            node.getStorageInfo(digest.getStorage().getStorageID());
+        if (storageInfo == null || storageInfo.getBlockReportCount() == 0 ||
+            storageInfo.areBlockContentsStale()) {
+          continue;
+        }
+        long[] ranges = findMismatchedRanges(storageInfo, digest);
+        storageRanges.put(storageInfo.getStorageID(), ranges);
+        numRanges += digest.getNumRanges();
+        numMismatched += ranges.length / 2;
+      }
+    } finally {
+      namesystem.readUnlock();
+    }
+    LOG.debug("BlockReportDigest from {}: {} of {} storages can send a " +
+        "partial report, {} of {} ranges differ", nodeID,
+        storageRanges.size(), digests.length, numMismatched, numRanges);
+    return new BlockReportDigestResponse(storageRanges);
+  }
+
+  private long[] findMismatchedRanges(DatanodeStorageInfo storageInfo,
+      StorageBlockReportDigest digest) {
+    final int[] counts = new int[digest.getNumRanges()];
+    final long[] digests = new long[digest.getNumRanges()];
+    final DatanodeDescriptor dn = storageInfo.getDatanodeDescriptor();
+    Iterator<BlockInfo> it = storageInfo.getBlockIterator();
+    while (it.hasNext()) {
+      BlockInfo stored = it.next();
+      Block b = getBlockOnStorage(stored, storageInfo);
+      if (b == null) {
+        continue;
+      }
+      int range = digest.getRange(stored.getBlockId());
+      counts[range]++;
+      // only a complete replica the NameNode considers healthy can match,
+      // everything else is always left to the block report
+      boolean expectFinalized = stored.isComplete() &&
+          !corruptReplicas.isReplicaCorrupt(stored, dn);
+      digests[range] += StorageBlockReportDigest.digestReplica(
+          b.getBlockId(), b.getGenerationStamp(), b.getNumBytes(),
+          expectFinalized ? ReplicaState.FINALIZED : null);
+    }
+    return digest.getMismatchedRanges(counts, digests);
+  }
+
   private void removeZombieReplicas(BlockReportContext context,
       DatanodeStorageInfo zombie) {
     LOG.warn("processReport 0x{}: removing zombie storage {}, which no " +
@@ -2343,7 +2559,8 @@ void rescanPostponedMisreplicatedBlocks() {
   
   private Collection<Block> processReport(
       final DatanodeStorageInfo storageInfo,
-      final BlockListAsLongs report, final boolean sorted) throws IOException {
+      final BlockListAsLongs report, final long[] ranges,
+      final boolean sorted) throws IOException {
     // Normal case:
     // Modify the (block-->datanode) map, according to the difference
     // between the old and new block report.
@@ -2354,6 +2571,16 @@ private Collection<Block> processReport(
     Collection<BlockToMarkCorrupt> toCorrupt = new LinkedList<>();
     Collection<StatefulBlockInfo> toUC = new LinkedList<>();
 
+    reportDiffSorted(storageInfo, sortReport(storageInfo, report, sorted),
+        ranges, toAdd, toRemove, toInvalidate, toCorrupt, toUC);
+    applyReportChanges(storageInfo, toAdd, toRemove, toInvalidate, toCorrupt,
+        toUC);
+    return toInvalidate;
+  }
+
+  private Iterable<BlockReportReplica> sortReport(
+      DatanodeStorageInfo storageInfo, BlockListAsLongs report,
+      boolean sorted) {
     Iterable<BlockReportReplica> sortedReport;
     if (!sorted) {
       blockLog.warn("BLOCK* processReport: Report from the DataNode ({}) is "
@@ -2371,11 +2598,13 @@ private Collection<Block> processReport(
     } else {
       sortedReport = report;
     }
+    return sortedReport;
+  }
 
-    reportDiffSorted(storageInfo, sortedReport,
-                     toAdd, toRemove, toInvalidate, toCorrupt, toUC);
-
-
+  private void applyReportChanges(DatanodeStorageInfo storageInfo,
+      Collection<BlockInfoToAdd> toAdd, Collection<BlockInfo> toRemove,
+      Collection<Block> toInvalidate, Collection<BlockToMarkCorrupt> toCorrupt,
+      Collection<StatefulBlockInfo> toUC) throws IOException {
     DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
     // Process the blocks on each queue
     for (StatefulBlockInfo b : toUC) { 
@@ -2400,8 +2629,169 @@ private Collection<Block> processReport(
     for (BlockToMarkCorrupt b : toCorrupt) {
       markBlockAsCorrupt(b, storageInfo, node);
     }
+  }
 
-    return toInvalidate;
+  /**
+   * The changes a block report makes to a storage, found under the read lock
+   * by {@link #diffReport}.
+   */
+  private static class ReportDiff {
+    final DatanodeDescriptor node;
+    final DatanodeStorageInfo storageInfo;
+    /** Stored blocks which were not reported. */
+    final Collection<BlockInfo> unreported;
+    /** Reported replicas which change the state of their blocks. */
+    final List<BlockReportReplica> changed = new ArrayList<>();
+    /** Replicas invalidated by {@link #applyReportDiff}. */
+    final List<Block> invalidated = new ArrayList<>();
+
+    ReportDiff(DatanodeDescriptor node, DatanodeStorageInfo storageInfo,
+        Collection<BlockInfo> unreported) {
+      this.node = node;
+      this.storageInfo = storageInfo;
+      this.unreported = unreported;
+    }
+  }
+
+  /**
+   * Diff a report against the blocks stored for the storage under the read
+   * lock. The replicas which need no change, normally nearly all of them,
+   * are thus dealt with without blocking other operations.
+   *
+   * @return the diff, or null if the report has to be processed under the
+   *         write lock, like the first report of a storage.
+   */
+  private ReportDiff diffReport(final DatanodeID nodeID,
+      final DatanodeStorage storage, final BlockListAsLongs newReport,
+      final long[] ranges, final BlockReportContext context)
+      throws IOException {
+    Collection<BlockInfoToAdd> toAdd = new LinkedList<>();
+    Collection<BlockInfo> toRemove = new ArrayList<>();
+    Collection<Block> toInvalidate = new LinkedList<>();
+    Collection<BlockToMarkCorrupt> toCorrupt = new LinkedList<>();
+    Collection<StatefulBlockInfo> toUC = new LinkedList<>();
+    ReportDiff diff;
+
+    namesystem.readLock();
+    try {
+      DatanodeDescriptor node = datanodeManager.getDatanode(nodeID);
+      if (node == null || !node.isRegistered()) {
+        return null;
+      }
+      DatanodeStorageInfo storageInfo =
+          node.getStorageInfo(storage.getStorageID());
+      // a standby queues messages while diffing, which needs the write lock
+      if (storageInfo == null || storageInfo.getBlockReportCount() == 0 ||
+          (ranges != null && storageInfo.areBlockContentsStale()) ||
+          namesystem.isInStartupSafeMode() || shouldPostponeBlocksFromFuture) {
+        return null;
+      }
+      if (context != null && !blockReportLeaseManager.checkLease(node,
+          Time.monotonicNow(), context.getLeaseId())) {
+        return null;
+      }
+      reportDiffSorted(storageInfo, sortReport(storageInfo, newReport,
+          context != null ? context.isSorted() : false), ranges,
+          toAdd, toRemove, toInvalidate, toCorrupt, toUC);
+      diff = new ReportDiff(node, storageInfo, toRemove);
+    } finally {
+      namesystem.readUnlock();
+    }
+
+    // Collect the replicas which change anything, to be processed again
+    // under the write lock.
+    Set<Long> changedIds = new HashSet<>();
+    for (BlockInfoToAdd b : toAdd) {
+      changedIds.add(b.reported.getBlockId());
+    }
+    for (StatefulBlockInfo b : toUC) {
+      changedIds.add(b.reportedBlock.getBlockId());
+    }
+    for (BlockToMarkCorrupt b : toCorrupt) {
+      changedIds.add(b.getCorrupted().getBlockId());
+    }
+    for (Block b : toInvalidate) {
+      changedIds.add(b.getBlockId());
+    }
+    if (!changedIds.isEmpty()) {
+      for (BlockReportReplica r : newReport) {
+        if (changedIds.contains(r.getBlockId())) {
+          diff.changed.add(new BlockReportReplica(r));
+        }
+      }
+    }
+    return diff;
+  }
+
+  /**
+   * Apply a report diff in batches, each under the write lock. As the
+   * namespace may have changed since the diff, each change is checked
+   * against the current state of its block first.
+   */
+  private void applyReportDiff(final DatanodeID nodeID, final ReportDiff diff)
+      throws IOException {
+    final Iterator<BlockInfo> unreported = diff.unreported.iterator();
+    final Iterator<BlockReportReplica> changed = diff.changed.iterator();
+    while (unreported.hasNext() || changed.hasNext()) {
+      Collection<BlockInfoToAdd> toAdd = new LinkedList<>();
+      Collection<BlockInfo> toRemove = new LinkedList<>();
+      Collection<Block> toInvalidate = new LinkedList<>();
+      Collection<BlockToMarkCorrupt> toCorrupt = new LinkedList<>();
+      Collection<StatefulBlockInfo> toUC = new LinkedList<>();
+      namesystem.writeLock();
+      try {
+        if (datanodeManager.getDatanode(nodeID) != diff.node ||
+            !diff.node.isRegistered() || diff.node.getStorageInfo(
+                diff.storageInfo.getStorageID()) != diff.storageInfo) {
+          throw new IOException("ProcessReport from " + nodeID +
+              ", which re-registered or was removed while the report was " +
+              "processed");
+        }
+        int n = 0;
+        for (; n < reportApplyBatchSize && unreported.hasNext(); n++) {
+          BlockInfo b = unreported.next();
+          if (b.findStorageInfo(diff.storageInfo) >= 0) {
+            toRemove.add(b);
+          }
+        }
+        for (; n < reportApplyBatchSize && changed.hasNext(); n++) {
+          BlockReportReplica replica = changed.next();
+          if (shouldPostponeBlocksFromFuture && isGenStampInFuture(replica)) {
+            // turned standby since the diff
+            queueReportedBlock(diff.storageInfo, replica, replica.getState(),
+                QUEUE_REASON_FUTURE_GENSTAMP);
+            continue;
+          }
+          BlockInfo storedBlock =
+              blocksMap.getStoredBlock(new Block(getStoredBlockId(replica)));
+          if (storedBlock != null) {
+            reportDiffSortedInner(diff.storageInfo, replica,
+                replica.getState(), storedBlock, toAdd, toCorrupt, toUC);
+          } else {
+            toInvalidate.add(new Block(replica));
+          }
+        }
+        applyReportChanges(diff.storageInfo, toAdd, toRemove, toInvalidate,
+            toCorrupt, toUC);
+        diff.invalidated.addAll(toInvalidate);
+      } finally {
+        namesystem.writeUnlock();
+      }
+    }
+  }
+
+  /**
+   * @return the ID of the block which the given replica belongs to, which
+   *         is the block group for an internal block of a striped block.
+   */
+  private long getStoredBlockId(Block replica) {
+    long replicaID = replica.getBlockId();
+    if (BlockIdManager.isStripedBlockID(replicaID)
+        && (!hasNonEcBlockUsingStripedID ||
+            !blocksMap.containsBlock(replica))) {
+      replicaID = BlockIdManager.convertToStripedID(replicaID);
+    }
+    return replicaID;
   }
 
   /**
@@ -2526,6 +2916,7 @@ private void processFirstBlockReport(
 
   private void reportDiffSorted(DatanodeStorageInfo storageInfo,
       Iterable<BlockReportReplica> newReport,
+      long[] ranges,                        // block IDs covered, or null
       Collection<BlockInfoToAdd> toAdd,     // add to DatanodeDescriptor
       Collection<BlockInfo> toRemove,       // remove from DatanodeDescriptor
       Collection<Block> toInvalidate,       // should be removed from DN
@@ -2539,13 +2930,7 @@ private void reportDiffSorted(DatanodeStorageInfo storageInfo,
 
     for (BlockReportReplica replica : newReport) {
 
-      long replicaID = replica.getBlockId();
-      if (BlockIdManager.isStripedBlockID(replicaID)
-          && (!hasNonEcBlockUsingStripedID ||
-              !blocksMap.containsBlock(replica))) {
-        replicaID = BlockIdManager.convertToStripedID(replicaID);
-      }
-
+      long replicaID = getStoredBlockId(replica);
       ReplicaState reportedState = replica.getState();
 
       if (LOG.isDebugEnabled()) {
@@ -2588,7 +2973,11 @@ && isGenStampInFuture(replica)) {
           // replica has higher ID than storedBlock
           // Remove all stored blocks with IDs lower than replica
           do {
-            toRemove.add(storageBlock);
+            if (ranges == null ||
+                StorageBlockReportDigest.inRanges(ranges,
+                    storageBlock.getBlockId())) {
+              toRemove.add(storageBlock);
+            }
             storageBlock = storageBlocksIterator.hasNext()
                            ? storageBlocksIterator.next() : null;
           } while (storageBlock != null &&
@@ -2599,7 +2988,11 @@ && isGenStampInFuture(replica)) {
 
     // Iterate any remaing blocks that have not been reported and remove them
     while (storageBlocksIterator.hasNext()) {
-      toRemove.add(storageBlocksIterator.next());
+      BlockInfo b = storageBlocksIterator.next();
+      if (ranges == null ||
+          StorageBlockReportDigest.inRanges(ranges, b.getBlockId())) {
+        toRemove.add(b);
+      }
     }
   }
 
@@ -2650,7 +3043,7 @@ private void reportDiffSortedInner(
                 corruptReplicas.isReplicaCorrupt(storedBlock, dn))) {
       // Add replica if appropriate. If the replica was previously corrupt
       // but now okay, it might need to be updated.
-      toAdd.add(new BlockInfoToAdd(storedBlock, replica));
+      toAdd.add(new BlockInfoToAdd(storedBlock, new Block(replica)));
     }
   }
 
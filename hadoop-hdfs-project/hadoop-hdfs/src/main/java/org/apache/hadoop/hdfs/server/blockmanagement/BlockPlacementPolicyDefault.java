@@ -65,6 +65,8 @@ protected StringBuilder initialValue() {
   protected NetworkTopology clusterMap;
   protected Host2NodesMap host2datanodeMap;
   private FSClusterStats stats;
+  /** The DataNodes eligible for block placement, if the NameNode keeps them. */
+  protected PlacementIndex placementIndex;
   protected long heartbeatInterval;   // interval for DataNode heartbeats
   private long staleInterval;   // interval used to identify stale DataNodes
   
@@ -87,6 +89,7 @@ public void initialize(Configuration conf,  FSClusterStats stats,
         DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_FACTOR,
         DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_FACTOR_DEFAULT);
     this.stats = stats;
+    this.placementIndex = stats != null ? stats.getPlacementIndex() : null;
     this.clusterMap = clusterMap;
     this.host2datanodeMap = host2datanodeMap;
     this.heartbeatInterval = conf.getLong(
@@ -711,7 +714,11 @@ protected DatanodeStorageInfo chooseRandom(int numOfReplicas,
     boolean badTarget = false;
     DatanodeStorageInfo firstChosen = null;
     while (numOfReplicas > 0) {
-      DatanodeDescriptor chosenNode = chooseDataNode(scope, excludedNodes);
+      // the index only covers the common case of a single storage type
+      final StorageType storageType = storageTypes.size() == 1 &&
+          blocksize > 0 ? storageTypes.keySet().iterator().next() : null;
+      DatanodeDescriptor chosenNode =
+          chooseDataNode(scope, excludedNodes, storageType);
       if (chosenNode == null) {
         break;
       }
@@ -779,6 +786,22 @@ protected DatanodeDescriptor chooseDataNode(final String scope,
     return (DatanodeDescriptor) clusterMap.chooseRandom(scope, excludedNodes);
   }
 
+  /**
+   * Choose a datanode from the given <i>scope</i>, which is likely to have
+   * a good storage of the given type.
+   * @param storageType the storage type to place the block on, or null if
+   *                    there are several
+   * @return the chosen node, if there is any.
+   */
+  protected DatanodeDescriptor chooseDataNode(final String scope,
+      final Collection<Node> excludedNodes, final StorageType storageType) {
+    if (placementIndex != null && storageType != null &&
+        placementIndex.covers(scope)) {
+      return placementIndex.chooseRandom(scope, excludedNodes, storageType);
+    }
+    return chooseDataNode(scope, excludedNodes);
+  }
+
   /**
    * Choose a good storage of given storage type from datanode, and add it to
    * the result list.
@@ -29,6 +29,7 @@
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
@@ -231,8 +232,10 @@ public Type getType() {
    */
   private boolean disallowed = false;
 
-  // The number of replication work pending before targets are determined
-  private int pendingReplicationWithoutTargets = 0;
+  // The number of replication work pending before targets are determined.
+  // The targets of the work may be chosen by several threads at once.
+  private final AtomicInteger pendingReplicationWithoutTargets =
+      new AtomicInteger();
 
   // HB processing can use it to tell if it is the first HB since DN restarted
   private boolean heartbeatedSinceRegistration = false;
@@ -583,11 +586,11 @@ Iterator<BlockInfo> getBlockIterator() {
   }
 
   void incrementPendingReplicationWithoutTargets() {
-    pendingReplicationWithoutTargets++;
+    pendingReplicationWithoutTargets.incrementAndGet();
   }
 
   void decrementPendingReplicationWithoutTargets() {
-    pendingReplicationWithoutTargets--;
+    pendingReplicationWithoutTargets.decrementAndGet();
   }
 
   /**
@@ -640,7 +643,7 @@ void addBlocksToBeInvalidated(List<Block> blocklist) {
    * The number of work items that are pending to be replicated
    */
   int getNumberOfBlocksToBeReplicated() {
-    return pendingReplicationWithoutTargets + replicateBlocks.size();
+    return pendingReplicationWithoutTargets.get() + replicateBlocks.size();
   }
 
   /**
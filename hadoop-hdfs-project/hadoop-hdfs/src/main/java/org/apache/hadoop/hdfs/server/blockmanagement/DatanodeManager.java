@@ -1053,8 +1053,7 @@ nodes with its data cleared (or user can just remove the StorageID
         // also treat the registration message as a heartbeat
         // no need to update its timestamp
         // because its is done when the descriptor is created
-        heartbeatManager.addDatanode(nodeDescr);
-        heartbeatManager.updateDnStat(nodeDescr);
+        heartbeatManager.addNewDatanode(nodeDescr);
         incrementVersionCount(nodeReg.getSoftwareVersion());
         startDecommissioningIfExcluded(nodeDescr);
         success = true;
@@ -1508,17 +1507,24 @@ private void addCacheCommands(String blockPoolId, DatanodeDescriptor nodeinfo,
     }
   }
 
-  /** Handle heartbeat from datanodes. */
-  public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
-      StorageReport[] reports, final String blockPoolId,
-      long cacheCapacity, long cacheUsed, int xceiverCount, 
-      int maxTransfers, int failedVolumes,
+  /**
+   * Handle heartbeat from datanodes: update the statistics of the datanode.
+   * Like the handling of a lifeline, this does not need the namesystem lock,
+   * so heartbeats are not held up by the operations holding it.
+   *
+   * @return the datanode, or null if it has to register first.
+   * @throws DisallowedDatanodeException if the datanode is not allowed to
+   *         connect any more.
+   */
+  public DatanodeDescriptor updateHeartbeat(DatanodeRegistration nodeReg,
+      StorageReport[] reports, long cacheCapacity, long cacheUsed,
+      int xceiverCount, int failedVolumes,
       VolumeFailureSummary volumeFailureSummary) throws IOException {
     final DatanodeDescriptor nodeinfo;
     try {
       nodeinfo = getDatanode(nodeReg);
     } catch (UnregisteredNodeException e) {
-      return new DatanodeCommand[]{RegisterCommand.REGISTER};
+      return null;
     }
 
     // Check if this datanode should actually be shutdown instead.
@@ -1528,11 +1534,20 @@ public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
     }
 
     if (nodeinfo == null || !nodeinfo.isRegistered()) {
-      return new DatanodeCommand[]{RegisterCommand.REGISTER};
+      return null;
     }
     heartbeatManager.updateHeartbeat(nodeinfo, reports, cacheCapacity,
         cacheUsed, xceiverCount, failedVolumes, volumeFailureSummary);
+    return nodeinfo;
+  }
 
+  /**
+   * Get the commands to send back in reply to a heartbeat, once
+   * {@link #updateHeartbeat} processed it. The caller holds the namesystem
+   * read lock.
+   */
+  public DatanodeCommand[] getHeartbeatCommands(DatanodeDescriptor nodeinfo,
+      final String blockPoolId, int maxTransfers) throws IOException {
     // If we are in safemode, do not send back any recovery / replication
     // requests. Don't even drain the existing queue of work.
     if (namesystem.isInSafeMode()) {
@@ -1756,6 +1771,11 @@ public double getInServiceXceiverAverage() {
         }
         return avgLoad;
       }
+
+      @Override
+      public PlacementIndex getPlacementIndex() {
+        return heartbeatManager.getPlacementIndex();
+      }
     };
   }
 
@@ -23,146 +23,135 @@
 
 import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Datanode statistics.
  * For decommissioning/decommissioned nodes, only used capacity is counted.
+ *
+ * The totals are kept in {@link LongAdder}s, so the heartbeats of different
+ * nodes update them without excluding each other. The caller makes sure
+ * that a node is not added or subtracted concurrently with itself. The
+ * statistics per storage type are only needed for reporting, and are
+ * computed from the nodes when asked for.
  */
 class DatanodeStats {
 
-  private final StorageTypeStatsMap statsMap = new StorageTypeStatsMap();
-  private long capacityTotal = 0L;
-  private long capacityUsed = 0L;
-  private long capacityRemaining = 0L;
-  private long blockPoolUsed = 0L;
-  private int xceiverCount = 0;
-  private long cacheCapacity = 0L;
-  private long cacheUsed = 0L;
-
-  private int nodesInService = 0;
-  private int nodesInServiceXceiverCount = 0;
-  private int expiredHeartbeats = 0;
-
-  synchronized void add(final DatanodeDescriptor node) {
-    xceiverCount += node.getXceiverCount();
-    if (!(node.isDecommissionInProgress() || node.isDecommissioned())) {
-      capacityUsed += node.getDfsUsed();
-      blockPoolUsed += node.getBlockPoolUsed();
-      nodesInService++;
-      nodesInServiceXceiverCount += node.getXceiverCount();
-      capacityTotal += node.getCapacity();
-      capacityRemaining += node.getRemaining();
-      cacheCapacity += node.getCacheCapacity();
-      cacheUsed += node.getCacheUsed();
-    } else if (!node.isDecommissioned()) {
-      cacheCapacity += node.getCacheCapacity();
-      cacheUsed += node.getCacheUsed();
-    }
-    Set<StorageType> storageTypes = new HashSet<>();
-    for (DatanodeStorageInfo storageInfo : node.getStorageInfos()) {
-      if (storageInfo.getState() != DatanodeStorage.State.FAILED) {
-        statsMap.addStorage(storageInfo, node);
-        storageTypes.add(storageInfo.getStorageType());
-      }
-    }
-    for (StorageType storageType : storageTypes) {
-      statsMap.addNode(storageType, node);
-    }
+  private final LongAdder capacityTotal = new LongAdder();
+  private final LongAdder capacityUsed = new LongAdder();
+  private final LongAdder capacityRemaining = new LongAdder();
+  private final LongAdder blockPoolUsed = new LongAdder();
+  private final LongAdder xceiverCount = new LongAdder();
+  private final LongAdder cacheCapacity = new LongAdder();
+  private final LongAdder cacheUsed = new LongAdder();
+
+  private final LongAdder nodesInService = new LongAdder();
+  private final LongAdder nodesInServiceXceiverCount = new LongAdder();
+  private final LongAdder expiredHeartbeats = new LongAdder();
+
+  void add(final DatanodeDescriptor node) {
+    update(node, 1);
   }
 
-  synchronized void subtract(final DatanodeDescriptor node) {
-    xceiverCount -= node.getXceiverCount();
+  void subtract(final DatanodeDescriptor node) {
+    update(node, -1);
+  }
+
+  private void update(final DatanodeDescriptor node, final int sign) {
+    xceiverCount.add(sign * node.getXceiverCount());
     if (!(node.isDecommissionInProgress() || node.isDecommissioned())) {
-      capacityUsed -= node.getDfsUsed();
-      blockPoolUsed -= node.getBlockPoolUsed();
-      nodesInService--;
-      nodesInServiceXceiverCount -= node.getXceiverCount();
-      capacityTotal -= node.getCapacity();
-      capacityRemaining -= node.getRemaining();
-      cacheCapacity -= node.getCacheCapacity();
-      cacheUsed -= node.getCacheUsed();
+      capacityUsed.add(sign * node.getDfsUsed());
+      blockPoolUsed.add(sign * node.getBlockPoolUsed());
+      nodesInService.add(sign);
+      nodesInServiceXceiverCount.add(sign * node.getXceiverCount());
+      capacityTotal.add(sign * node.getCapacity());
+      capacityRemaining.add(sign * node.getRemaining());
+      cacheCapacity.add(sign * node.getCacheCapacity());
+      cacheUsed.add(sign * node.getCacheUsed());
     } else if (!node.isDecommissioned()) {
-      cacheCapacity -= node.getCacheCapacity();
-      cacheUsed -= node.getCacheUsed();
-    }
-    Set<StorageType> storageTypes = new HashSet<>();
-    for (DatanodeStorageInfo storageInfo : node.getStorageInfos()) {
-      if (storageInfo.getState() != DatanodeStorage.State.FAILED) {
-        statsMap.subtractStorage(storageInfo, node);
-        storageTypes.add(storageInfo.getStorageType());
-      }
-    }
-    for (StorageType storageType : storageTypes) {
-      statsMap.subtractNode(storageType, node);
+      cacheCapacity.add(sign * node.getCacheCapacity());
+      cacheUsed.add(sign * node.getCacheUsed());
     }
   }
 
   /** Increment expired heartbeat counter. */
   void incrExpiredHeartbeats() {
-    expiredHeartbeats++;
+    expiredHeartbeats.increment();
   }
 
-  synchronized Map<StorageType, StorageTypeStats> getStatsMap() {
+  /**
+   * @return the statistics per storage type of the given nodes.
+   */
+  static Map<StorageType, StorageTypeStats> getStatsMap(
+      final Iterable<DatanodeDescriptor> nodes) {
+    final StorageTypeStatsMap statsMap = new StorageTypeStatsMap();
+    for (DatanodeDescriptor node : nodes) {
+      statsMap.add(node);
+    }
     return statsMap.get();
   }
 
-  synchronized long getCapacityTotal() {
-    return capacityTotal;
+  long getCapacityTotal() {
+    return capacityTotal.sum();
   }
 
-  synchronized long getCapacityUsed() {
-    return capacityUsed;
+  long getCapacityUsed() {
+    return capacityUsed.sum();
   }
 
-  synchronized long getCapacityRemaining() {
-    return capacityRemaining;
+  long getCapacityRemaining() {
+    return capacityRemaining.sum();
   }
 
-  synchronized long getBlockPoolUsed() {
-    return blockPoolUsed;
+  long getBlockPoolUsed() {
+    return blockPoolUsed.sum();
   }
 
-  synchronized int getXceiverCount() {
-    return xceiverCount;
+  int getXceiverCount() {
+    return (int) xceiverCount.sum();
   }
 
-  synchronized long getCacheCapacity() {
-    return cacheCapacity;
+  long getCacheCapacity() {
+    return cacheCapacity.sum();
   }
 
-  synchronized long getCacheUsed() {
-    return cacheUsed;
+  long getCacheUsed() {
+    return cacheUsed.sum();
   }
 
-  synchronized int getNodesInService() {
-    return nodesInService;
+  int getNodesInService() {
+    return (int) nodesInService.sum();
   }
 
-  synchronized int getNodesInServiceXceiverCount() {
-    return nodesInServiceXceiverCount;
+  int getNodesInServiceXceiverCount() {
+    return (int) nodesInServiceXceiverCount.sum();
   }
 
-  synchronized int getExpiredHeartbeats() {
-    return expiredHeartbeats;
+  int getExpiredHeartbeats() {
+    return (int) expiredHeartbeats.sum();
   }
 
-  synchronized float getCapacityRemainingPercent() {
-    return DFSUtilClient.getPercentRemaining(capacityRemaining, capacityTotal);
+  float getCapacityRemainingPercent() {
+    return DFSUtilClient.getPercentRemaining(getCapacityRemaining(),
+        getCapacityTotal());
   }
 
-  synchronized float getPercentBlockPoolUsed() {
-    return DFSUtilClient.getPercentUsed(blockPoolUsed, capacityTotal);
+  float getPercentBlockPoolUsed() {
+    return DFSUtilClient.getPercentUsed(getBlockPoolUsed(),
+        getCapacityTotal());
   }
 
-  synchronized long getCapacityUsedNonDFS() {
-    final long nonDFSUsed = capacityTotal - capacityRemaining - capacityUsed;
+  long getCapacityUsedNonDFS() {
+    final long nonDFSUsed =
+        getCapacityTotal() - getCapacityRemaining() - getCapacityUsed();
     return nonDFSUsed < 0L? 0L : nonDFSUsed;
   }
 
-  synchronized float getCapacityUsedPercent() {
-    return DFSUtilClient.getPercentUsed(capacityUsed, capacityTotal);
+  float getCapacityUsedPercent() {
+    return DFSUtilClient.getPercentUsed(getCapacityUsed(), getCapacityTotal());
   }
 
   static final class StorageTypeStatsMap {
@@ -171,9 +160,30 @@ static final class StorageTypeStatsMap {
         new EnumMap<>(StorageType.class);
 
     private Map<StorageType, StorageTypeStats> get() {
+      // a storage type is only reported while some node in service has it
+      Iterator<StorageTypeStats> it =
+          storageTypeStatsMap.values().iterator();
+      while (it.hasNext()) {
+        if (it.next().getNodesInService() == 0) {
+          it.remove();
+        }
+      }
       return new EnumMap<>(storageTypeStatsMap);
     }
 
+    private void add(final DatanodeDescriptor node) {
+      Set<StorageType> storageTypes = new HashSet<>();
+      for (DatanodeStorageInfo storageInfo : node.getStorageInfos()) {
+        if (storageInfo.getState() != DatanodeStorage.State.FAILED) {
+          addStorage(storageInfo, node);
+          storageTypes.add(storageInfo.getStorageType());
+        }
+      }
+      for (StorageType storageType : storageTypes) {
+        addNode(storageType, node);
+      }
+    }
+
     private void addNode(StorageType storageType,
         final DatanodeDescriptor node) {
       StorageTypeStats storageTypeStats =
@@ -195,25 +205,5 @@ private void addStorage(final DatanodeStorageInfo info,
       }
       storageTypeStats.addStorage(info, node);
     }
-
-    private void subtractStorage(final DatanodeStorageInfo info,
-        final DatanodeDescriptor node) {
-      StorageTypeStats storageTypeStats =
-          storageTypeStatsMap.get(info.getStorageType());
-      if (storageTypeStats != null) {
-        storageTypeStats.subtractStorage(info, node);
-      }
-    }
-
-    private void subtractNode(StorageType storageType,
-        final DatanodeDescriptor node) {
-      StorageTypeStats storageTypeStats = storageTypeStatsMap.get(storageType);
-      if (storageTypeStats != null) {
-        storageTypeStats.subtractNode(node);
-        if (storageTypeStats.getNodesInService() == 0) {
-          storageTypeStatsMap.remove(storageType);
-        }
-      }
-    }
   }
 }
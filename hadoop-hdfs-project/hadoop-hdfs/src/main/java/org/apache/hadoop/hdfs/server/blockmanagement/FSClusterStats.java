@@ -57,4 +57,10 @@ public interface FSClusterStats {
    *         writes that are currently occurring on the cluster.
    */
   public double getInServiceXceiverAverage();
+
+  /**
+   * @return the index of the DataNodes eligible for block placement, or null
+   *         if the NameNode does not keep one.
+   */
+  public PlacementIndex getPlacementIndex();
 }
@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.server.blockmanagement;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -41,8 +42,9 @@
 
 /**
  * Manage the heartbeats received from datanodes.
- * The datanode list and statistics are synchronized
- * by the heartbeat manager lock.
+ * The datanode list is synchronized by the heartbeat manager lock.
+ * Heartbeats update the statistics under the lock of the reporting
+ * datanode only, so they do not contend on the heartbeat manager lock.
  */
 class HeartbeatManager implements DatanodeStatistics {
   static final Logger LOG = LoggerFactory.getLogger(HeartbeatManager.class);
@@ -56,7 +58,11 @@ class HeartbeatManager implements DatanodeStatistics {
    */
   private final List<DatanodeDescriptor> datanodes = new ArrayList<>();
 
-  /** Statistics, which are synchronized by the heartbeat manager lock. */
+  /**
+   * Statistics, which are updated under the lock of the datanode being
+   * added, removed or updated. They are kept in LongAdders, so a reader
+   * may see a concurrent update applied to some counters only.
+   */
   private final DatanodeStats stats = new DatanodeStats();
 
   /** The time period to check for expired datanodes */
@@ -67,11 +73,17 @@ class HeartbeatManager implements DatanodeStatistics {
 
   final Namesystem namesystem;
   final BlockManager blockManager;
+  /** The DataNodes eligible for block placement, or null if not kept. */
+  private final PlacementIndex placementIndex;
 
   HeartbeatManager(final Namesystem namesystem,
       final BlockManager blockManager, final Configuration conf) {
     this.namesystem = namesystem;
     this.blockManager = blockManager;
+    this.placementIndex = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKPLACEMENTPOLICY_INDEX_ENABLED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKPLACEMENTPOLICY_INDEX_ENABLED_DEFAULT)
+        ? new PlacementIndex() : null;
     boolean avoidStaleDataNodesForWrite = conf.getBoolean(
         DFSConfigKeys.DFS_NAMENODE_AVOID_STALE_DATANODE_FOR_WRITE_KEY,
         DFSConfigKeys.DFS_NAMENODE_AVOID_STALE_DATANODE_FOR_WRITE_DEFAULT);
@@ -195,16 +207,26 @@ public int getExpiredHeartbeats() {
 
   @Override
   public Map<StorageType, StorageTypeStats> getStorageTypeStats() {
-    return stats.getStatsMap();
+    return DatanodeStats.getStatsMap(Arrays.asList(getDatanodes()));
   }
 
-  synchronized void register(final DatanodeDescriptor d) {
-    if (!d.isAlive()) {
-      addDatanode(d);
+  /*
+   * The statistics of a node are updated under the lock of the node, so
+   * the heartbeats, which only change the statistics of their own node, do
+   * not need the lock of the HeartbeatManager. A live node is always
+   * counted in the statistics.
+   */
 
-      //update its timestamp
-      d.updateHeartbeatState(StorageReport.EMPTY_ARRAY, 0L, 0L, 0, 0, null);
-      stats.add(d);
+  synchronized void register(final DatanodeDescriptor d) {
+    synchronized (d) {
+      if (!d.isAlive()) {
+        addDatanode(d);
+
+        //update its timestamp
+        d.updateHeartbeatState(StorageReport.EMPTY_ARRAY, 0L, 0L, 0, 0, null);
+        stats.add(d);
+        refreshPlacementIndex(d);
+      }
     }
   }
 
@@ -216,67 +238,113 @@ synchronized void addDatanode(final DatanodeDescriptor d) {
     // update in-service node count
     datanodes.add(d);
     d.setAlive(true);
+    refreshPlacementIndex(d);
   }
 
   void updateDnStat(final DatanodeDescriptor d){
     stats.add(d);
   }
 
+  /** Add a newly registered node, counting it in the statistics. */
+  synchronized void addNewDatanode(final DatanodeDescriptor d) {
+    synchronized (d) {
+      addDatanode(d);
+      updateDnStat(d);
+    }
+  }
+
   synchronized void removeDatanode(DatanodeDescriptor node) {
-    if (node.isAlive()) {
-      stats.subtract(node);
-      datanodes.remove(node);
-      node.setAlive(false);
+    synchronized (node) {
+      if (node.isAlive()) {
+        stats.subtract(node);
+        datanodes.remove(node);
+        node.setAlive(false);
+        if (placementIndex != null) {
+          placementIndex.remove(node);
+        }
+      }
     }
   }
 
-  synchronized void updateHeartbeat(final DatanodeDescriptor node,
+  void updateHeartbeat(final DatanodeDescriptor node,
       StorageReport[] reports, long cacheCapacity, long cacheUsed,
       int xceiverCount, int failedVolumes,
       VolumeFailureSummary volumeFailureSummary) {
-    stats.subtract(node);
-    node.updateHeartbeat(reports, cacheCapacity, cacheUsed,
-      xceiverCount, failedVolumes, volumeFailureSummary);
-    stats.add(node);
+    synchronized (node) {
+      final boolean alive = node.isAlive();
+      if (alive) {
+        stats.subtract(node);
+      }
+      node.updateHeartbeat(reports, cacheCapacity, cacheUsed,
+        xceiverCount, failedVolumes, volumeFailureSummary);
+      if (alive) {
+        stats.add(node);
+        refreshPlacementIndex(node);
+      }
+    }
   }
 
-  synchronized void updateLifeline(final DatanodeDescriptor node,
+  void updateLifeline(final DatanodeDescriptor node,
       StorageReport[] reports, long cacheCapacity, long cacheUsed,
       int xceiverCount, int failedVolumes,
       VolumeFailureSummary volumeFailureSummary) {
-    stats.subtract(node);
-    // This intentionally calls updateHeartbeatState instead of
-    // updateHeartbeat, because we don't want to modify the
-    // heartbeatedSinceRegistration flag.  Arrival of a lifeline message does
-    // not count as arrival of the first heartbeat.
-    node.updateHeartbeatState(reports, cacheCapacity, cacheUsed,
-        xceiverCount, failedVolumes, volumeFailureSummary);
-    stats.add(node);
+    synchronized (node) {
+      final boolean alive = node.isAlive();
+      if (alive) {
+        stats.subtract(node);
+      }
+      // This intentionally calls updateHeartbeatState instead of
+      // updateHeartbeat, because we don't want to modify the
+      // heartbeatedSinceRegistration flag.  Arrival of a lifeline message
+      // does not count as arrival of the first heartbeat.
+      node.updateHeartbeatState(reports, cacheCapacity, cacheUsed,
+          xceiverCount, failedVolumes, volumeFailureSummary);
+      if (alive) {
+        stats.add(node);
+        refreshPlacementIndex(node);
+      }
+    }
   }
 
   synchronized void startDecommission(final DatanodeDescriptor node) {
-    if (!node.isAlive()) {
-      LOG.info("Dead node {} is decommissioned immediately.", node);
-      node.setDecommissioned();
-    } else {
-      stats.subtract(node);
-      node.startDecommission();
-      stats.add(node);
+    synchronized (node) {
+      if (!node.isAlive()) {
+        LOG.info("Dead node {} is decommissioned immediately.", node);
+        node.setDecommissioned();
+      } else {
+        stats.subtract(node);
+        node.startDecommission();
+        stats.add(node);
+        refreshPlacementIndex(node);
+      }
     }
   }
 
   synchronized void stopDecommission(final DatanodeDescriptor node) {
     LOG.info("Stopping decommissioning of {} node {}",
         node.isAlive() ? "live" : "dead", node);
-    if (!node.isAlive()) {
-      node.stopDecommission();
-    } else {
-      stats.subtract(node);
-      node.stopDecommission();
-      stats.add(node);
+    synchronized (node) {
+      if (!node.isAlive()) {
+        node.stopDecommission();
+      } else {
+        stats.subtract(node);
+        node.stopDecommission();
+        stats.add(node);
+        refreshPlacementIndex(node);
+      }
     }
   }
 
+  private void refreshPlacementIndex(DatanodeDescriptor node) {
+    if (placementIndex != null) {
+      placementIndex.refresh(node);
+    }
+  }
+
+  PlacementIndex getPlacementIndex() {
+    return placementIndex;
+  }
+
   @VisibleForTesting
   void restartHeartbeatStopWatch() {
     heartbeatStopWatch.reset().start();
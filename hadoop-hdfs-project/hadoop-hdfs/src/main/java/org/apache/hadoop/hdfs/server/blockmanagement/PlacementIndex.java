@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.StorageType;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage.State;
+import org.apache.hadoop.net.Node;
+import org.apache.hadoop.net.NodeBase;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * The live DataNodes which are eligible as targets of new replicas, per rack
+ * and storage type.
+ *
+ * A DataNode is eligible for a storage type if it is not (being)
+ * decommissioned and has a normal storage of the type with some space left.
+ * The {@link HeartbeatManager} refreshes the entry of a DataNode on every
+ * heartbeat, so the placement policy can pick a random eligible node of a
+ * scope directly, rather than picking random nodes of the whole scope from
+ * the {@link org.apache.hadoop.net.NetworkTopology} until one of them turns
+ * out to be eligible. The policy still checks the chosen node as before,
+ * since the index is only as fresh as the last heartbeat.
+ */
+@InterfaceAudience.Private
+public class PlacementIndex {
+  /** Random picks before scanning the candidates of a scope. */
+  private static final int MAX_RANDOM_PICKS = 8;
+
+  /** A list of DataNodes supporting constant time removal. */
+  private static class Candidates {
+    private final List<DatanodeDescriptor> nodes = new ArrayList<>();
+    private final Map<DatanodeDescriptor, Integer> positions =
+        new IdentityHashMap<>();
+
+    void add(DatanodeDescriptor node) {
+      if (!positions.containsKey(node)) {
+        positions.put(node, nodes.size());
+        nodes.add(node);
+      }
+    }
+
+    void remove(DatanodeDescriptor node) {
+      Integer pos = positions.remove(node);
+      if (pos != null) {
+        DatanodeDescriptor last = nodes.remove(nodes.size() - 1);
+        if (pos < nodes.size()) {
+          nodes.set(pos, last);
+          positions.put(last, pos);
+        }
+      }
+    }
+  }
+
+  /** Where a DataNode is currently indexed. */
+  private static class Entry {
+    private final String rack;
+    private final EnumSet<StorageType> types;
+
+    Entry(String rack, EnumSet<StorageType> types) {
+      this.rack = rack;
+      this.types = types;
+    }
+  }
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<String, EnumMap<StorageType, Candidates>> racks =
+      new HashMap<>();
+  private final EnumMap<StorageType, Candidates> all =
+      new EnumMap<>(StorageType.class);
+  // by identity, as the ID of a DataNode may change when it re-registers
+  private final Map<DatanodeDescriptor, Entry> entries =
+      new IdentityHashMap<>();
+
+  /** Update the entry of a live DataNode from its current state. */
+  void refresh(DatanodeDescriptor node) {
+    final String rack = node.getNetworkLocation();
+    final EnumSet<StorageType> types = EnumSet.noneOf(StorageType.class);
+    if (!node.isDecommissionInProgress() && !node.isDecommissioned()) {
+      for (DatanodeStorageInfo s : node.getStorageInfos()) {
+        if (s.getState() == State.NORMAL && s.getRemaining() > 0) {
+          types.add(s.getStorageType());
+        }
+      }
+    }
+
+    lock.writeLock().lock();
+    try {
+      Entry old = entries.get(node);
+      if (old != null && old.rack.equals(rack) && old.types.equals(types)) {
+        return;
+      }
+      removeEntry(node, old);
+      EnumMap<StorageType, Candidates> rackCandidates = racks.get(rack);
+      if (rackCandidates == null) {
+        rackCandidates = new EnumMap<>(StorageType.class);
+        racks.put(rack, rackCandidates);
+      }
+      for (StorageType t : types) {
+        getCandidates(rackCandidates, t).add(node);
+        getCandidates(all, t).add(node);
+      }
+      entries.put(node, new Entry(rack, types));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Remove a DataNode which is no longer alive. */
+  void remove(DatanodeDescriptor node) {
+    lock.writeLock().lock();
+    try {
+      removeEntry(node, entries.remove(node));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void removeEntry(DatanodeDescriptor node, Entry entry) {
+    if (entry == null) {
+      return;
+    }
+    EnumMap<StorageType, Candidates> rackCandidates = racks.get(entry.rack);
+    for (StorageType t : entry.types) {
+      rackCandidates.get(t).remove(node);
+      all.get(t).remove(node);
+    }
+  }
+
+  private static Candidates getCandidates(
+      EnumMap<StorageType, Candidates> map, StorageType t) {
+    Candidates c = map.get(t);
+    if (c == null) {
+      c = new Candidates();
+      map.put(t, c);
+    }
+    return c;
+  }
+
+  /**
+   * @return true if the index can choose nodes from the given scope, which
+   *         is the whole cluster, a rack or everything but a rack.
+   */
+  boolean covers(String scope) {
+    if (scope.equals(NodeBase.ROOT) || scope.startsWith("~")) {
+      return true;
+    }
+    lock.readLock().lock();
+    try {
+      return racks.containsKey(scope);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Randomly choose an eligible DataNode of the scope which is not excluded.
+   * The scope must be {@link #covers covered} by the index.
+   * @return the chosen node, or null if there is none.
+   */
+  DatanodeDescriptor chooseRandom(String scope,
+      Collection<Node> excludedNodes, StorageType type) {
+    final boolean exclude = scope.startsWith("~");
+    final String rack = exclude ? scope.substring(1) : scope;
+    lock.readLock().lock();
+    try {
+      final Candidates candidates;
+      if (exclude || rack.equals(NodeBase.ROOT)) {
+        candidates = all.get(type);
+      } else {
+        EnumMap<StorageType, Candidates> rackCandidates = racks.get(rack);
+        candidates = rackCandidates == null ? null : rackCandidates.get(type);
+      }
+      if (candidates == null || candidates.nodes.isEmpty()) {
+        return null;
+      }
+      final List<DatanodeDescriptor> nodes = candidates.nodes;
+      final ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (int i = 0; i < MAX_RANDOM_PICKS; i++) {
+        DatanodeDescriptor node = nodes.get(random.nextInt(nodes.size()));
+        if (isChoosable(node, rack, exclude, excludedNodes)) {
+          return node;
+        }
+      }
+      // most of the candidates are excluded, pick one of the rest
+      List<DatanodeDescriptor> choosable = new ArrayList<>();
+      for (DatanodeDescriptor node : nodes) {
+        if (isChoosable(node, rack, exclude, excludedNodes)) {
+          choosable.add(node);
+        }
+      }
+      return choosable.isEmpty() ? null :
+          choosable.get(random.nextInt(choosable.size()));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /*
+   * The location is checked again, as a DataNode may have registered in
+   * another rack since its last heartbeat.
+   */
+  private static boolean isChoosable(DatanodeDescriptor node, String rack,
+      boolean exclude, Collection<Node> excludedNodes) {
+    if (excludedNodes != null && excludedNodes.contains(node)) {
+      return false;
+    }
+    if (rack.equals(NodeBase.ROOT)) {
+      return true;
+    }
+    final String location = node.getNetworkLocation();
+    final boolean inRack = location.equals(rack) ||
+        location.startsWith(rack + NodeBase.PATH_SEPARATOR_STR);
+    return exclude != inRack;
+  }
+
+  @VisibleForTesting
+  int getNumCandidates(String rack, StorageType type) {
+    lock.readLock().lock();
+    try {
+      EnumMap<StorageType, Candidates> map =
+          rack == null ? all : racks.get(rack);
+      Candidates c = map == null ? null : map.get(type);
+      return c == null ? 0 : c.nodes.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+}
@@ -94,22 +94,4 @@ void addNode(final DatanodeDescriptor node) {
       nodesInService++;
     }
   }
-
-  void subtractStorage(final DatanodeStorageInfo info,
-      final DatanodeDescriptor node) {
-    capacityUsed -= info.getDfsUsed();
-    blockPoolUsed -= info.getBlockPoolUsed();
-    if (!(node.isDecommissionInProgress() || node.isDecommissioned())) {
-      capacityTotal -= info.getCapacity();
-      capacityRemaining -= info.getRemaining();
-    } else {
-      capacityTotal -= info.getDfsUsed();
-    }
-  }
-
-  void subtractNode(final DatanodeDescriptor node) {
-    if (!(node.isDecommissionInProgress() || node.isDecommissioned())) {
-      nodesInService--;
-    }
-  }
 }
@@ -37,6 +37,7 @@
 import org.apache.hadoop.ha.HAServiceProtocol.HAServiceState;
 import org.apache.hadoop.hdfs.client.BlockReportOptions;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs.BlockReportReplica;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
@@ -47,6 +48,7 @@
 import org.apache.hadoop.hdfs.server.common.IncorrectVersionException;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.protocol.BlockReportContext;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportDigestResponse;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
@@ -54,10 +56,12 @@
 import org.apache.hadoop.hdfs.server.protocol.HeartbeatResponse;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageBlockReport;
+import org.apache.hadoop.hdfs.server.protocol.StorageBlockReportDigest;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RpcNoSuchMethodException;
 import org.apache.hadoop.util.Time;
 import org.apache.hadoop.util.VersionInfo;
 import org.apache.hadoop.util.VersionUtil;
@@ -99,6 +103,8 @@ static enum RunningState {
   private final DataNode dn;
   private final DNConf dnConf;
   private long prevBlockReportId;
+  /** Cleared if the NN does not support block report digests. */
+  private boolean useBlockReportDigest;
 
   private final IncrementalBlockReportManager ibrManager;
 
@@ -118,6 +124,7 @@ static enum RunningState {
     this.dnConf = dn.getDnConf();
     this.ibrManager = new IncrementalBlockReportManager(dnConf.ibrInterval);
     prevBlockReportId = ThreadLocalRandom.current().nextLong();
+    useBlockReportDigest = true;
     scheduler = new Scheduler(dnConf.heartBeatInterval,
         dnConf.getLifelineIntervalMs(), dnConf.blockReportInterval);
   }
@@ -315,23 +322,31 @@ List<DatanodeCommand> blockReport(long fullBrLeaseId) throws IOException {
 
     // Convert the reports to the format expected by the NN.
     int i = 0;
-    int totalBlockCount = 0;
     StorageBlockReport reports[] =
         new StorageBlockReport[perVolumeBlockLists.size()];
 
     for(Map.Entry<DatanodeStorage, BlockListAsLongs> kvPair : perVolumeBlockLists.entrySet()) {
       BlockListAsLongs blockList = kvPair.getValue();
       reports[i++] = new StorageBlockReport(kvPair.getKey(), blockList);
-      totalBlockCount += blockList.getNumberOfBlocks();
     }
 
     // Send the reports to the NN.
     int numReportsSent = 0;
     int numRPCs = 0;
+    int numPartialReports = 0;
+    int totalBlockCount = 0;
     boolean success = false;
     long brSendStartTime = monotonicNow();
     long reportId = generateUniqueBlockReportId();
     try {
+      if (dnConf.blockReportDigestEnabled && useBlockReportDigest) {
+        numPartialReports = reduceToMismatchedRanges(reports, reportId,
+            fullBrLeaseId);
+        numRPCs++;
+      }
+      for (StorageBlockReport r : reports) {
+        totalBlockCount += r.getBlocks().getNumberOfBlocks();
+      }
       if (totalBlockCount < dnConf.blockReportSplitThreshold) {
         // Below split threshold, send all reports in a single message.
         DatanodeCommand cmd = bpNamenode.blockReport(
@@ -367,7 +382,8 @@ List<DatanodeCommand> blockReport(long fullBrLeaseId) throws IOException {
       LOG.info((success ? "S" : "Uns") +
           "uccessfully sent block report 0x" +
           Long.toHexString(reportId) + ",  containing " + reports.length +
-          " storage report(s), of which we sent " + numReportsSent + "." +
+          " storage report(s), of which we sent " + numReportsSent +
+          " (" + numPartialReports + " partial)." +
           " The reports had " + totalBlockCount +
           " total blocks and used " + numRPCs +
           " RPC(s). This took " + brCreateCost +
@@ -383,6 +399,54 @@ List<DatanodeCommand> blockReport(long fullBrLeaseId) throws IOException {
     return cmds.size() == 0 ? null : cmds;
   }
 
+  /**
+   * Send the digests of the block reports to the NN, and replace each report
+   * the NN does not need completely by one of the ranges which differ.
+   * @return the number of reports which were replaced.
+   */
+  private int reduceToMismatchedRanges(StorageBlockReport[] reports,
+      long reportId, long fullBrLeaseId) throws IOException {
+    StorageBlockReportDigest[] digests =
+        new StorageBlockReportDigest[reports.length];
+    for (int i = 0; i < reports.length; i++) {
+      digests[i] = StorageBlockReportDigest.compute(reports[i].getStorage(),
+          reports[i].getBlocks(), dnConf.blockReportDigestBlocksPerRange);
+    }
+    BlockReportDigestResponse response;
+    try {
+      response = bpNamenode.blockReportDigest(bpRegistration,
+          bpos.getBlockPoolId(), digests,
+          new BlockReportContext(1, 0, reportId, fullBrLeaseId, true));
+    } catch (RemoteException re) {
+      if (RpcNoSuchMethodException.class.getName().equals(
+          re.getClassName())) {
+        LOG.info(nnAddr + " does not support block report digests, " +
+            "sending full block reports");
+        useBlockReportDigest = false;
+        return 0;
+      }
+      throw re;
+    }
+
+    int numReduced = 0;
+    for (int i = 0; i < reports.length; i++) {
+      DatanodeStorage storage = reports[i].getStorage();
+      long[] ranges = response.getRanges(storage.getStorageID());
+      if (ranges == null) {
+        continue;
+      }
+      BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
+      for (BlockReportReplica r : reports[i].getBlocks()) {
+        if (StorageBlockReportDigest.inRanges(ranges, r.getBlockId())) {
+          builder.add(r);
+        }
+      }
+      reports[i] = new StorageBlockReport(storage, builder.build(), ranges);
+      numReduced++;
+    }
+    return numReduced;
+  }
+
   DatanodeCommand cacheReport() throws IOException {
     // If caching is disabled, do not send a cache report
     if (dn.getFSDataset().getCacheCapacity() == 0) {
@@ -20,6 +20,8 @@
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_MAX_BYTES_PER_SECOND;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_MAX_BYTES_PER_SECOND_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT;
 
@@ -37,7 +39,9 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Time;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,6 +70,11 @@ public class BlockScanner {
    */
   private final Conf conf;
 
+  /**
+   * The bandwidth the clients use on each volume.
+   */
+  private final ForegroundLoad foregroundLoad;
+
   /**
    * The cached scanner configuration.
    */
@@ -101,6 +110,7 @@ static class Conf {
 
     static boolean allowUnitTestSettings = false;
     final long targetBytesPerSec;
+    final long maxBytesPerSec;
     final long maxStalenessMs;
     final long scanPeriodMs;
     final long cursorSaveMs;
@@ -148,6 +158,9 @@ private static long getConfiguredScanPeriodMs(Configuration conf) {
       this.targetBytesPerSec = Math.max(0L, conf.getLong(
           DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND,
           DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND_DEFAULT));
+      this.maxBytesPerSec = Math.max(0L, conf.getLong(
+          DFS_BLOCK_SCANNER_VOLUME_MAX_BYTES_PER_SECOND,
+          DFS_BLOCK_SCANNER_VOLUME_MAX_BYTES_PER_SECOND_DEFAULT));
       this.maxStalenessMs = Math.max(0L, getUnitTestLong(conf,
           INTERNAL_DFS_BLOCK_SCANNER_MAX_STALENESS_MS,
           INTERNAL_DFS_BLOCK_SCANNER_MAX_STALENESS_MS_DEFAULT));
@@ -163,14 +176,94 @@ private static long getConfiguredScanPeriodMs(Configuration conf) {
         this.resultHandler = ScanResultHandler.class;
       }
     }
+
+    /**
+     * @return true if the scanners use the bandwidth the clients leave over.
+     */
+    boolean isAdaptive() {
+      return maxBytesPerSec > targetBytesPerSec;
+    }
+  }
+
+  /**
+   * Estimates the disk bandwidth the clients of the DataNode use on each of
+   * its volumes, from the bytes read and written by its data transfers.
+   * The reads and writes are assumed to spread evenly over the volumes.
+   */
+  static class ForegroundLoad {
+    /**
+     * The minimum interval between two samples of the DataNode metrics.
+     */
+    static final long SAMPLE_INTERVAL_MS = 1000;
+
+    /**
+     * The weight of the last sample in the moving average.
+     */
+    private static final double SAMPLE_WEIGHT = 0.5;
+
+    private final DataNode datanode;
+    private volatile int numVolumes = 1;
+    private long lastBytes = -1;
+    private long lastSampleMs;
+    private double bytesPerSec = 0;
+
+    ForegroundLoad(DataNode datanode) {
+      this.datanode = datanode;
+    }
+
+    void setNumVolumes(int numVolumes) {
+      this.numVolumes = Math.max(1, numVolumes);
+    }
+
+    /**
+     * @return the estimated bytes per second the clients read from and write
+     *         to a volume.
+     */
+    long getBytesPerSecPerVolume() {
+      DataNodeMetrics metrics = datanode.getMetrics();
+      if (metrics == null) {
+        return 0;
+      }
+      return update(metrics.getBytesRead() + metrics.getBytesWritten(),
+          Time.monotonicNow()) / numVolumes;
+    }
+
+    /**
+     * Take a sample of the total bytes transferred by the DataNode, unless
+     * the last one is too recent.
+     *
+     * @return the moving average of the bytes transferred per second.
+     */
+    @VisibleForTesting
+    synchronized long update(long totalBytes, long nowMs) {
+      if (lastBytes < 0) {
+        lastBytes = totalBytes;
+        lastSampleMs = nowMs;
+        return 0;
+      }
+      final long elapsedMs = nowMs - lastSampleMs;
+      if (elapsedMs >= SAMPLE_INTERVAL_MS) {
+        final double sample = (totalBytes - lastBytes) * 1000.0 / elapsedMs;
+        bytesPerSec = SAMPLE_WEIGHT * sample +
+            (1 - SAMPLE_WEIGHT) * bytesPerSec;
+        lastBytes = totalBytes;
+        lastSampleMs = nowMs;
+      }
+      return (long) bytesPerSec;
+    }
   }
 
   public BlockScanner(DataNode datanode, Configuration conf) {
     this.datanode = datanode;
     this.conf = new Conf(conf);
+    this.foregroundLoad = new ForegroundLoad(datanode);
     if (isEnabled()) {
       LOG.info("Initialized block scanner with targetBytesPerSec {}",
           this.conf.targetBytesPerSec);
+      if (this.conf.isAdaptive()) {
+        LOG.info("Block scanner shares {} bytes per second of each volume " +
+            "with the clients", this.conf.maxBytesPerSec);
+      }
     } else {
       LOG.info("Disabled block scanner.");
     }
@@ -208,9 +301,10 @@ public synchronized void addVolumeScanner(FsVolumeReference ref) {
       }
       LOG.debug("Adding scanner for volume {} (StorageID {})",
           volume.getBasePath(), volume.getStorageID());
-      scanner = new VolumeScanner(conf, datanode, ref);
+      scanner = new VolumeScanner(conf, datanode, ref, foregroundLoad);
       scanner.start();
       scanners.put(volume.getStorageID(), scanner);
+      foregroundLoad.setNumVolumes(scanners.size());
       success = true;
     } finally {
       if (!success) {
@@ -244,6 +338,7 @@ public synchronized void removeVolumeScanner(FsVolumeSpi volume) {
         volume.getBasePath(), volume.getStorageID());
     scanner.shutdown();
     scanners.remove(volume.getStorageID());
+    foregroundLoad.setNumVolumes(scanners.size());
     Uninterruptibles.joinUninterruptibly(scanner, 5, TimeUnit.MINUTES);
   }
 
@@ -91,6 +91,8 @@ public class DNConf {
   private final long lifelineIntervalMs;
   final long blockReportInterval;
   final long blockReportSplitThreshold;
+  final boolean blockReportDigestEnabled;
+  final int blockReportDigestBlocksPerRange;
   final long ibrInterval;
   final long initialBlockReportDelayMs;
   final long cacheReportInterval;
@@ -167,6 +169,12 @@ public DNConf(Configuration conf) {
         DFSConfigKeys.DFS_BLOCKREPORT_INCREMENTAL_INTERVAL_MSEC_DEFAULT);
     this.blockReportSplitThreshold = conf.getLong(DFS_BLOCKREPORT_SPLIT_THRESHOLD_KEY,
                                             DFS_BLOCKREPORT_SPLIT_THRESHOLD_DEFAULT);
+    this.blockReportDigestEnabled = conf.getBoolean(
+        DFSConfigKeys.DFS_BLOCKREPORT_DIGEST_ENABLED_KEY,
+        DFSConfigKeys.DFS_BLOCKREPORT_DIGEST_ENABLED_DEFAULT);
+    this.blockReportDigestBlocksPerRange = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_BLOCKREPORT_DIGEST_BLOCKS_PER_RANGE_KEY,
+        DFSConfigKeys.DFS_BLOCKREPORT_DIGEST_BLOCKS_PER_RANGE_DEFAULT));
     this.cacheReportInterval = conf.getLong(DFS_CACHEREPORT_INTERVAL_MSEC_KEY,
         DFS_CACHEREPORT_INTERVAL_MSEC_DEFAULT);
 
@@ -41,6 +41,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_OOB_TIMEOUT_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_OOB_TIMEOUT_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_PLUGINS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_REPLICA_INDEX_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_REPLICA_INDEX_ENABLED_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_STARTUP_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT;
@@ -200,6 +202,7 @@
 import org.apache.hadoop.tracing.TraceAdminProtocolServerSideTranslatorPB;
 import org.apache.hadoop.tracing.TraceUtils;
 import org.apache.hadoop.tracing.TracerConfigurationManager;
+import org.apache.hadoop.util.AutoCloseableLock;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.DiskChecker;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
@@ -1016,6 +1019,20 @@ private synchronized void initDirectoryScanner(Configuration conf) {
     }
   }
   
+  /**
+   * The replicas of a block pool which was just added may have been loaded
+   * from the replica indexes without looking at the disk, so have the
+   * {@link DirectoryScanner} verify them soon rather than at its next
+   * periodic scan.
+   */
+  private synchronized void verifyReplicaIndexes(Configuration conf) {
+    if (directoryScanner != null &&
+        conf.getBoolean(DFS_DATANODE_REPLICA_INDEX_ENABLED_KEY,
+            DFS_DATANODE_REPLICA_INDEX_ENABLED_DEFAULT)) {
+      directoryScanner.scheduleScan();
+    }
+  }
+
   private synchronized void shutdownDirectoryScanner() {
     if (directoryScanner != null) {
       directoryScanner.shutdown();
@@ -1529,6 +1546,7 @@ void initBlockPool(BPOfferService bpos) throws IOException {
     data.addBlockPool(nsInfo.getBlockPoolID(), conf);
     blockScanner.enableBlockPoolId(bpos.getBlockPoolId());
     initDirectoryScanner(conf);
+    verifyReplicaIndexes(conf);
   }
 
   List<BPOfferService> getAllBpOs() {
@@ -2804,7 +2822,8 @@ void transferReplicaForPipelineRecovery(final ExtendedBlock b,
     final BlockConstructionStage stage;
 
     //get replica information
-    synchronized(data) {
+    try (AutoCloseableLock lock = data.acquireReplicaLock(
+        b.getBlockPoolId(), b.getBlockId())) {
       Block storedBlock = data.getStoredBlock(b.getBlockPoolId(),
           b.getBlockId());
       if (null == storedBlock) {
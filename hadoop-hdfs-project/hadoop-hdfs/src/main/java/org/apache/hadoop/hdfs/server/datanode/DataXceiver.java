@@ -117,6 +117,10 @@ class DataXceiver extends Receiver implements Runnable {
   private final int ioFileBufferSize;
   private final int smallBufferSize;
   private Thread xceiver = null;
+  /** Number of operations processed on this connection so far. */
+  private int opsProcessed = 0;
+  /** Whether the connection may wait for its next operation in a selector. */
+  private boolean parkable = false;
 
   /**
    * Client Name used in previous operation. Not available on first request
@@ -218,44 +222,45 @@ private synchronized BlockReceiver getCurrentBlockReceiver() {
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
+    serve(false);
+  }
+
+  /**
+   * Serve the operations of a connection handed out by the non-blocking
+   * {@link DataXceiverSelector}. Once the connection goes idle it is parked
+   * with the selector instead of keeping this thread waiting for the next
+   * operation; the selector calls this again when the connection becomes
+   * readable.
+   */
+  void runNonBlocking(DataXceiverSelector selector) {
+    if (serve(true)) {
+      selector.park(this);
+    }
+  }
+
+  /**
+   * Serve operations until the connection is closed, or, if parking is
+   * allowed, until there is no further operation to read right away.
+   *
+   * @return true if the connection was parked, false if it was closed.
+   */
+  private boolean serve(boolean canPark) {
     Op op = null;
+    boolean parked = false;
 
     try {
       synchronized(this) {
         xceiver = Thread.currentThread();
       }
       dataXceiverServer.addPeer(peer, Thread.currentThread(), this);
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      try {
-        IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
-          socketIn, datanode.getXferAddress().getPort(),
-          datanode.getDatanodeId());
-        input = new BufferedInputStream(saslStreams.in,
-            smallBufferSize);
-        socketOut = saslStreams.out;
-      } catch (InvalidMagicNumberException imne) {
-        if (imne.isHandshake4Encryption()) {
-          LOG.info("Failed to read expected encryption handshake from client " +
-              "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
-              "is running an older version of Hadoop which does not support " +
-              "encryption");
-        } else {
-          LOG.info("Failed to read expected SASL data transfer protection " +
-              "handshake from client at " + peer.getRemoteAddressString() + 
-              ". Perhaps the client is running an older version of Hadoop " +
-              "which does not support SASL data transfer protection");
-        }
-        return;
+      if (opsProcessed == 0 && !initConnection()) {
+        return false;
       }
-      
-      super.initialize(new DataInputStream(input));
-      
+
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
       // Setting keepalive timeout to 0 disable this behavior.
-      do {
+      while (true) {
         updateCurrentThreadName("Waiting for operation #" + (opsProcessed + 1));
 
         try {
@@ -288,8 +293,15 @@ public void run() {
         opStartTime = monotonicNow();
         processOp(op);
         ++opsProcessed;
-      } while ((peer != null) &&
-          (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0));
+        if (peer == null || peer.isClosed()
+            || dnConf.socketKeepaliveTimeout <= 0) {
+          break;
+        }
+        if (canPark && parkable && in.available() == 0) {
+          parked = true;
+          return true;
+        }
+      }
     } catch (Throwable t) {
       String s = datanode.getDisplayName() + ":DataXceiver error processing "
           + ((op == null) ? "unknown" : op.name()) + " operation "
@@ -316,16 +328,71 @@ public void run() {
         LOG.error(s, t);
       }
     } finally {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
-            + datanode.getXceiverCount());
+      if (parked) {
+        synchronized(this) {
+          xceiver = null;
+        }
+        dataXceiverServer.parkPeer(peer);
+      } else {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(datanode.getDisplayName()
+              + ":Number of active connections is: "
+              + datanode.getXceiverCount());
+        }
+        updateCurrentThreadName("Cleaning up");
+        closeConnection();
       }
-      updateCurrentThreadName("Cleaning up");
-      if (peer != null) {
-        dataXceiverServer.closePeer(peer);
-        IOUtils.closeStream(in);
+    }
+    return false;
+  }
+
+  /**
+   * Do the SASL handshake of a new connection and set up the streams.
+   * @return false if the handshake failed and the connection must be closed.
+   */
+  private boolean initConnection() throws IOException {
+    peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+    InputStream input = socketIn;
+    try {
+      IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
+        socketIn, datanode.getXferAddress().getPort(),
+        datanode.getDatanodeId());
+      // Only plain connections can wait in a selector between operations;
+      // a SASL wrapper may hold decoded data the selector does not see.
+      parkable = saslStreams.in == socketIn;
+      input = new BufferedInputStream(saslStreams.in,
+          smallBufferSize);
+      socketOut = saslStreams.out;
+    } catch (InvalidMagicNumberException imne) {
+      if (imne.isHandshake4Encryption()) {
+        LOG.info("Failed to read expected encryption handshake from client " +
+            "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
+            "is running an older version of Hadoop which does not support " +
+            "encryption");
+      } else {
+        LOG.info("Failed to read expected SASL data transfer protection " +
+            "handshake from client at " + peer.getRemoteAddressString() + 
+            ". Perhaps the client is running an older version of Hadoop " +
+            "which does not support SASL data transfer protection");
       }
+      return false;
     }
+
+    super.initialize(new DataInputStream(input));
+    return true;
+  }
+
+  /** Close the connection and release it from the DataXceiverServer. */
+  void closeConnection() {
+    if (peer != null) {
+      dataXceiverServer.closePeer(peer);
+      IOUtils.closeStream(in);
+    }
+  }
+
+  /** @return the connection served by this DataXceiver. */
+  Peer getPeer() {
+    return peer;
   }
 
   @Override
@@ -0,0 +1,274 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hdfs.net.NioInetPeer;
+import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
+import org.slf4j.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * Serves data transfer connections without a thread per connection.
+ *
+ * An operation on a connection runs on a bounded pool of worker threads,
+ * using the same blocking {@link DataXceiver} code as the thread per
+ * connection mode, so reads keep the zero-copy transferTo path of
+ * {@link BlockSender}. Between operations, an idle connection is parked
+ * with one of a few selector threads, which hands it back to a worker once
+ * the next operation arrives, or closes it when the keepalive timeout
+ * expires. A DataNode serving many clients which keep their connections
+ * open thus needs threads only for the operations in progress.
+ *
+ * At most as many operations as there are workers wait for a free worker;
+ * beyond that a connection is closed rather than queued, as the thread per
+ * connection mode refuses connections beyond the xceiver limit.
+ */
+class DataXceiverSelector {
+  static final Logger LOG = DataNode.LOG;
+
+  /** A connection waiting for its next operation. */
+  private static final class Parked {
+    private final DataXceiver xceiver;
+    private long since;
+
+    Parked(DataXceiver xceiver, long since) {
+      this.xceiver = xceiver;
+      this.since = since;
+    }
+  }
+
+  /** Watches the idle connections assigned to it. */
+  private class Reactor implements Runnable {
+    private final Selector selector;
+    private final Queue<DataXceiver> toPark =
+        new ConcurrentLinkedQueue<DataXceiver>();
+
+    Reactor() throws IOException {
+      this.selector = Selector.open();
+    }
+
+    void park(DataXceiver xceiver) {
+      toPark.add(xceiver);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      long nextExpiryCheck = Time.monotonicNow() + expiryCheckInterval;
+      try {
+        while (running) {
+          selector.select(expiryCheckInterval);
+          long now = Time.monotonicNow();
+          registerParked(now);
+          dispatchReadable();
+          if (now >= nextExpiryCheck) {
+            closeExpired(now);
+            nextExpiryCheck = now + expiryCheckInterval;
+          }
+        }
+      } catch (Throwable t) {
+        if (running) {
+          LOG.error("DataXceiverSelector: selector thread exiting", t);
+        }
+      } finally {
+        // parked connections are closed by the DataXceiverServer
+        IOUtils.cleanup(null, selector);
+      }
+    }
+
+    /*
+     * Interest ops of the keys only change on this thread, which avoids
+     * blocking the workers on a selector which is in select().
+     */
+    private void registerParked(long now) {
+      DataXceiver xceiver;
+      while ((xceiver = toPark.poll()) != null) {
+        SocketChannel channel = getChannel(xceiver.getPeer());
+        try {
+          SelectionKey key = channel.keyFor(selector);
+          if (key == null) {
+            channel.register(selector, SelectionKey.OP_READ,
+                new Parked(xceiver, now));
+          } else {
+            ((Parked) key.attachment()).since = now;
+            key.interestOps(SelectionKey.OP_READ);
+          }
+        } catch (ClosedChannelException | CancelledKeyException e) {
+          xceiver.closeConnection();
+        }
+      }
+    }
+
+    private void dispatchReadable() {
+      Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+      while (it.hasNext()) {
+        SelectionKey key = it.next();
+        it.remove();
+        try {
+          key.interestOps(0);
+        } catch (CancelledKeyException e) {
+          // the connection has been closed meanwhile
+          continue;
+        }
+        dispatch(((Parked) key.attachment()).xceiver);
+      }
+    }
+
+    private void closeExpired(long now) {
+      for (SelectionKey key : selector.keys()) {
+        try {
+          Parked parked = (Parked) key.attachment();
+          if (key.interestOps() != 0 && now - parked.since >= keepaliveMs) {
+            LOG.debug("Closing idle connection {}", parked.xceiver.getPeer());
+            key.cancel();
+            parked.xceiver.closeConnection();
+          }
+        } catch (CancelledKeyException e) {
+          // the connection has been closed meanwhile
+        }
+      }
+    }
+  }
+
+  private final ThreadGroup threadGroup;
+  private final Reactor[] reactors;
+  private final ThreadPoolExecutor workers;
+  private final long keepaliveMs;
+  private final long expiryCheckInterval;
+  private volatile boolean running = true;
+
+  DataXceiverSelector(ThreadGroup threadGroup, int numSelectors,
+      int numWorkers, long keepaliveMs) throws IOException {
+    Preconditions.checkArgument(numSelectors > 0,
+        "The number of selector threads must be positive: %s", numSelectors);
+    this.threadGroup = threadGroup;
+    this.keepaliveMs = keepaliveMs;
+    this.expiryCheckInterval = Math.max(1, Math.min(500, keepaliveMs / 4));
+    this.reactors = new Reactor[numSelectors];
+    for (int i = 0; i < numSelectors; i++) {
+      reactors[i] = new Reactor();
+    }
+    final AtomicInteger workerId = new AtomicInteger();
+    this.workers = new ThreadPoolExecutor(numWorkers, numWorkers,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(numWorkers),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Daemon(DataXceiverSelector.this.threadGroup, r);
+            t.setName("DataXceiver worker #" + workerId.incrementAndGet());
+            return t;
+          }
+        });
+    // the workers only exist while there are operations to serve
+    this.workers.allowCoreThreadTimeOut(true);
+  }
+
+  void start() {
+    for (int i = 0; i < reactors.length; i++) {
+      Thread t = new Daemon(threadGroup, reactors[i]);
+      t.setName("DataXceiverSelector #" + i);
+      t.start();
+    }
+  }
+
+  void shutdown() {
+    running = false;
+    for (Reactor r : reactors) {
+      r.selector.wakeup();
+    }
+    workers.shutdownNow();
+  }
+
+  private static SocketChannel getChannel(Peer peer) {
+    return peer instanceof NioInetPeer ?
+        ((NioInetPeer) peer).getSocketChannel() : null;
+  }
+
+  /**
+   * Serve a new connection.
+   * @return false if the connection can not be served by the selector, and
+   *         needs a thread of its own.
+   */
+  boolean serve(DataXceiver xceiver) {
+    if (getChannel(xceiver.getPeer()) == null) {
+      return false;
+    }
+    dispatch(xceiver);
+    return true;
+  }
+
+  private void dispatch(final DataXceiver xceiver) {
+    try {
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          Thread current = Thread.currentThread();
+          String name = current.getName();
+          try {
+            xceiver.runNonBlocking(DataXceiverSelector.this);
+          } finally {
+            current.setName(name);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      if (running) {
+        LOG.warn("Closing connection {}: all {} workers are busy and {} "
+            + "operations are waiting", xceiver.getPeer(),
+            workers.getMaximumPoolSize(), workers.getQueue().size());
+      }
+      xceiver.closeConnection();
+    }
+  }
+
+  /**
+   * Wait for the next operation on an idle connection. A connection is
+   * always parked with the same selector thread.
+   */
+  void park(DataXceiver xceiver) {
+    int i = (System.identityHashCode(xceiver) & Integer.MAX_VALUE)
+        % reactors.length;
+    reactors[i].park(xceiver);
+  }
+
+  @VisibleForTesting
+  int getNumActiveWorkers() {
+    return workers.getActiveCount();
+  }
+}
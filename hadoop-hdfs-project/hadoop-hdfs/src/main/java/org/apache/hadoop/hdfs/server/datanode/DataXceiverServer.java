@@ -27,6 +27,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.PeerServer;
+import org.apache.hadoop.hdfs.net.TcpPeerServer;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Daemon;
@@ -58,6 +59,15 @@ class DataXceiverServer implements Runnable {
   int maxXceiverCount =
     DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT;
 
+  /**
+   * Serves the TCP connections without a thread per connection, if
+   * dfs.datanode.transfer.nonblocking.enabled is set; null otherwise.
+   */
+  private final DataXceiverSelector xceiverSelector;
+
+  /** Maximal number of connections when served by the selector. */
+  private final int maxConnections;
+
   /** A manager to make sure that cluster balancing does not
    * take too much resources.
    * 
@@ -118,7 +128,7 @@ synchronized void release() {
   
   
   DataXceiverServer(PeerServer peerServer, Configuration conf,
-      DataNode datanode) {
+      DataNode datanode) throws IOException {
     this.peerServer = peerServer;
     this.datanode = datanode;
     
@@ -135,26 +145,59 @@ synchronized void release() {
             DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT),
         conf.getInt(DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY,
             DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT));
+
+    // UNIX domain sockets can not be registered with a selector
+    if (peerServer instanceof TcpPeerServer && conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_NONBLOCKING_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_NONBLOCKING_ENABLED_DEFAULT)) {
+      this.xceiverSelector = new DataXceiverSelector(datanode.threadGroup,
+          conf.getInt(DFSConfigKeys.DFS_DATANODE_TRANSFER_SELECTOR_THREADS_KEY,
+              DFSConfigKeys.DFS_DATANODE_TRANSFER_SELECTOR_THREADS_DEFAULT),
+          maxXceiverCount, datanode.getDnConf().socketKeepaliveTimeout);
+      this.maxConnections = conf.getInt(
+          DFSConfigKeys.DFS_DATANODE_TRANSFER_MAX_CONNECTIONS_KEY,
+          DFSConfigKeys.DFS_DATANODE_TRANSFER_MAX_CONNECTIONS_DEFAULT);
+      LOG.info("Serving data transfer connections with a selector, at most "
+          + maxConnections + " connections and " + maxXceiverCount
+          + " operations at a time");
+    } else {
+      this.xceiverSelector = null;
+      this.maxConnections = maxXceiverCount;
+    }
   }
 
   @Override
   public void run() {
     Peer peer = null;
+    if (xceiverSelector != null) {
+      xceiverSelector.start();
+    }
     while (datanode.shouldRun && !datanode.shutdownForUpgrade) {
       try {
         peer = peerServer.accept();
 
-        // Make sure the xceiver count is not exceeded
-        int curXceiverCount = datanode.getXceiverCount();
-        if (curXceiverCount > maxXceiverCount) {
-          throw new IOException("Xceiver count " + curXceiverCount
-              + " exceeds the limit of concurrent xcievers: "
-              + maxXceiverCount);
+        if (xceiverSelector != null) {
+          // The selector bounds the threads; only limit the connections.
+          int numPeers = getNumPeers();
+          if (numPeers > maxConnections) {
+            throw new IOException("Connection count " + numPeers
+                + " exceeds the limit of concurrent connections: "
+                + maxConnections);
+          }
+        } else {
+          // Make sure the xceiver count is not exceeded
+          int curXceiverCount = datanode.getXceiverCount();
+          if (curXceiverCount > maxXceiverCount) {
+            throw new IOException("Xceiver count " + curXceiverCount
+                + " exceeds the limit of concurrent xcievers: "
+                + maxXceiverCount);
+          }
         }
 
-        new Daemon(datanode.threadGroup,
-            DataXceiver.create(peer, datanode, this))
-            .start();
+        DataXceiver xceiver = DataXceiver.create(peer, datanode, this);
+        if (xceiverSelector == null || !xceiverSelector.serve(xceiver)) {
+          new Daemon(datanode.threadGroup, xceiver).start();
+        }
       } catch (SocketTimeoutException ignored) {
         // wake up to see if should continue to run
       } catch (AsynchronousCloseException ace) {
@@ -211,6 +254,9 @@ public void run() {
     }
     // Close all peers.
     closeAllPeers();
+    if (xceiverSelector != null) {
+      xceiverSelector.shutdown();
+    }
   }
 
   void kill() {
@@ -234,6 +280,16 @@ synchronized void addPeer(Peer peer, Thread t, DataXceiver xceiver)
     peersXceiver.put(peer, xceiver);
   }
 
+  /**
+   * Mark a connection as idle between two operations, no longer served by a
+   * thread.
+   */
+  synchronized void parkPeer(Peer peer) {
+    if (peers.containsKey(peer)) {
+      peers.put(peer, null);
+    }
+  }
+
   synchronized void closePeer(Peer peer) {
     peers.remove(peer);
     peersXceiver.remove(peer);
@@ -269,8 +325,11 @@ public synchronized void stopWriters() {
   synchronized void restartNotifyPeers() {
     assert (datanode.shouldRun == true && datanode.shutdownForUpgrade);
     for (Thread t : peers.values()) {
-      // interrupt each and every DataXceiver thread.
-      t.interrupt();
+      // interrupt each and every DataXceiver thread. Idle connections
+      // parked with the selector have no thread.
+      if (t != null) {
+        t.interrupt();
+      }
     }
   }
 
@@ -295,6 +354,11 @@ synchronized int getNumPeersXceiver() {
     return peersXceiver.size();
   }
 
+  @VisibleForTesting
+  DataXceiverSelector getXceiverSelector() {
+    return xceiverSelector;
+  }
+
   @VisibleForTesting
   PeerServer getPeerServer() {
     return peerServer;
@@ -21,14 +21,18 @@
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -36,6 +40,7 @@
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -49,6 +54,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.StopWatch;
@@ -67,12 +73,23 @@ public class DirectoryScanner implements Runnable {
       + " starting at %dms with interval of %dms";
   private static final String START_MESSAGE_WITH_THROTTLE = START_MESSAGE
       + " and throttle limit of %dms/s";
+  /**
+   * A directory modified this close to its listing may change again without
+   * its modification time changing, on file systems with a coarse timestamp
+   * granularity, so its listing is not reused.
+   */
+  private static final long MTIME_GRANULARITY_MS = 2000;
+  /** The estimated disk operations of reconciling a difference. */
+  private static final int DISK_OPS_PER_DIFF = 3;
 
   private final FsDatasetSpi<?> dataset;
   private final ExecutorService reportCompileThreadPool;
   private final ScheduledExecutorService masterThread;
   private final long scanPeriodMsecs;
   private final int throttleLimitMsPerSec;
+  private final int iopsLimitPerVolume;
+  private final boolean skipUnchangedDirs;
+  private final int reconcileBatchSize;
   private volatile boolean shouldRun = false;
   private boolean retainDiffs = false;
   private final DataNode datanode;
@@ -89,6 +106,29 @@ public class DirectoryScanner implements Runnable {
    */
   @VisibleForTesting
   final AtomicLong timeWaitingMs = new AtomicLong(0L);
+  /** Total number of directories listed by the report compiler threads. */
+  @VisibleForTesting
+  final AtomicLong dirsListed = new AtomicLong(0L);
+  /**
+   * Total number of unchanged directories whose previous listing was reused
+   * by the report compiler threads.
+   */
+  @VisibleForTesting
+  final AtomicLong dirsSkipped = new AtomicLong(0L);
+  /** Total estimated number of disk operations of the scans. */
+  @VisibleForTesting
+  final AtomicLong diskOps = new AtomicLong(0L);
+  /** Total number of differences reconciled. */
+  @VisibleForTesting
+  final AtomicLong diffsReconciled = new AtomicLong(0L);
+  /** The volumes whose report is still being compiled in the current scan. */
+  private final AtomicInteger volumesPending = new AtomicInteger();
+  /**
+   * The directory listings of the last scan of each volume, indexed by
+   * storage ID, if unchanged directories are skipped.
+   */
+  private final Map<String, VolumeListings> listings =
+      new ConcurrentHashMap<String, VolumeListings>();
   /**
    * The complete list of block differences indexed by block pool ID.
    */
@@ -441,6 +481,16 @@ public long getGenStamp() {
       throttleLimitMsPerSec = throttle;
     }
 
+    iopsLimitPerVolume = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_IOPS_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_IOPS_DEFAULT);
+    skipUnchangedDirs = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_SKIP_UNCHANGED_DIRS_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_SKIP_UNCHANGED_DIRS_DEFAULT);
+    reconcileBatchSize = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_DEFAULT));
+
     int threads = 
         conf.getInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY,
                     DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT);
@@ -470,9 +520,23 @@ void start() {
     }
 
     LOG.info(logMsg);
+    if (iopsLimitPerVolume > 0) {
+      LOG.info("Disk operations of the scan are limited to "
+          + iopsLimitPerVolume + " per second per volume");
+    }
     masterThread.scheduleAtFixedRate(this, offset, scanPeriodMsecs, 
                                      TimeUnit.MILLISECONDS);
   }
+
+  /**
+   * Run a scan right away, besides the periodic ones.
+   */
+  void scheduleScan() {
+    if (shouldRun) {
+      LOG.info("Scheduling an immediate scan");
+      masterThread.schedule(this, 0, TimeUnit.MILLISECONDS);
+    }
+  }
   
   /**
    * Return whether the scanner has been started.
@@ -556,113 +620,151 @@ void shutdown() {
     if (!retainDiffs) clear();
   }
 
+  private DataNodeMetrics getMetrics() {
+    return datanode == null ? null : datanode.getMetrics();
+  }
+
   /**
-   * Reconcile differences between disk and in-memory blocks
+   * Reconcile differences between disk and in-memory blocks.
+   * The differences are reconciled in batches, which are paced by the disk
+   * operation throttle.
    */
   @VisibleForTesting
   void reconcile() throws IOException {
+    final long startTime = Time.monotonicNow();
     scan();
-    for (Entry<String, LinkedList<ScanInfo>> entry : diffs.entrySet()) {
-      String bpid = entry.getKey();
-      LinkedList<ScanInfo> diff = entry.getValue();
-      
-      for (ScanInfo info : diff) {
-        dataset.checkAndUpdate(bpid, info.getBlockId(), info.getBlockFile(),
-            info.getMetaFile(), info.getVolume());
+    final DiskOpThrottle throttle = new DiskOpThrottle(iopsLimitPerVolume);
+    int batch = 0;
+    try {
+      for (Entry<String, LinkedList<ScanInfo>> entry : diffs.entrySet()) {
+        String bpid = entry.getKey();
+        LinkedList<ScanInfo> diff = entry.getValue();
+
+        for (ScanInfo info : diff) {
+          dataset.checkAndUpdate(bpid, info.getBlockId(), info.getBlockFile(),
+              info.getMetaFile(), info.getVolume());
+          throttle.charge(DISK_OPS_PER_DIFF);
+          if (++batch == reconcileBatchSize) {
+            endReconcileBatch(batch, throttle);
+            batch = 0;
+          }
+        }
       }
+      endReconcileBatch(batch, throttle);
+    } catch (InterruptedException e) {
+      LOG.info("Interrupted while reconciling the differences");
+      Thread.currentThread().interrupt();
+    }
+    DataNodeMetrics metrics = getMetrics();
+    if (metrics != null) {
+      metrics.addDirectoryScan(Time.monotonicNow() - startTime);
     }
     if (!retainDiffs) clear();
   }
 
+  private void endReconcileBatch(int batch, DiskOpThrottle throttle)
+      throws InterruptedException {
+    diffsReconciled.addAndGet(batch);
+    diskOps.addAndGet(batch * DISK_OPS_PER_DIFF);
+    DataNodeMetrics metrics = getMetrics();
+    if (metrics != null) {
+      metrics.incrDirectoryScanDiffsReconciled(batch);
+      metrics.addDirectoryScanCost(0, 0, batch * DISK_OPS_PER_DIFF);
+    }
+    throttle.pace();
+  }
+
   /**
    * Scan for the differences between disk and in-memory blocks
    * Scan only the "finalized blocks" lists of both disk and memory.
+   *
+   * The comparison works on a copy of the in-memory blocks and does not hold
+   * the dataset lock, since the disk report is no more current than the copy
+   * anyway, and {@link FsDatasetSpi#checkAndUpdate} checks every difference
+   * again under the lock of its replica.
    */
   private void scan() {
     clear();
     Map<String, ScanInfo[]> diskReport = getDiskReport();
 
-    // Hold FSDataset lock to prevent further changes to the block map
-    synchronized(dataset) {
-      for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
-        String bpid = entry.getKey();
-        ScanInfo[] blockpoolReport = entry.getValue();
-        
-        Stats statsRecord = new Stats(bpid);
-        stats.put(bpid, statsRecord);
-        LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
-        diffs.put(bpid, diffRecord);
-        
-        statsRecord.totalBlocks = blockpoolReport.length;
-        List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
-        FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
-        Arrays.sort(memReport); // Sort based on blockId
-  
-        int d = 0; // index for blockpoolReport
-        int m = 0; // index for memReprot
-        while (m < memReport.length && d < blockpoolReport.length) {
-          FinalizedReplica memBlock = memReport[m];
-          ScanInfo info = blockpoolReport[d];
-          if (info.getBlockId() < memBlock.getBlockId()) {
-            if (!dataset.isDeletingBlock(bpid, info.getBlockId())) {
-              // Block is missing in memory
-              statsRecord.missingMemoryBlocks++;
-              addDifference(diffRecord, statsRecord, info);
-            }
-            d++;
-            continue;
-          }
-          if (info.getBlockId() > memBlock.getBlockId()) {
-            // Block is missing on the disk
-            addDifference(diffRecord, statsRecord,
-                          memBlock.getBlockId(), info.getVolume());
-            m++;
-            continue;
-          }
-          // Block file and/or metadata file exists on the disk
-          // Block exists in memory
-          if (info.getBlockFile() == null) {
-            // Block metadata file exits and block file is missing
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getGenStamp() != memBlock.getGenerationStamp()
-              || info.getBlockFileLength() != memBlock.getNumBytes()) {
-            // Block metadata file is missing or has wrong generation stamp,
-            // or block file length is different than expected
-            statsRecord.mismatchBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getBlockFile().compareTo(memBlock.getBlockFile()) != 0) {
-            // volumeMap record and on-disk files don't match.
-            statsRecord.duplicateBlocks++;
+    for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
+      String bpid = entry.getKey();
+      ScanInfo[] blockpoolReport = entry.getValue();
+      
+      Stats statsRecord = new Stats(bpid);
+      stats.put(bpid, statsRecord);
+      LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
+      diffs.put(bpid, diffRecord);
+      
+      statsRecord.totalBlocks = blockpoolReport.length;
+      List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
+      FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
+      Arrays.sort(memReport); // Sort based on blockId
+
+      int d = 0; // index for blockpoolReport
+      int m = 0; // index for memReprot
+      while (m < memReport.length && d < blockpoolReport.length) {
+        FinalizedReplica memBlock = memReport[m];
+        ScanInfo info = blockpoolReport[d];
+        if (info.getBlockId() < memBlock.getBlockId()) {
+          if (!dataset.isDeletingBlock(bpid, info.getBlockId())) {
+            // Block is missing in memory
+            statsRecord.missingMemoryBlocks++;
             addDifference(diffRecord, statsRecord, info);
           }
           d++;
-
-          if (d < blockpoolReport.length) {
-            // There may be multiple on-disk records for the same block, don't increment
-            // the memory record pointer if so.
-            ScanInfo nextInfo = blockpoolReport[Math.min(d, blockpoolReport.length - 1)];
-            if (nextInfo.getBlockId() != info.blockId) {
-              ++m;
-            }
-          } else {
-            ++m;
-          }
+          continue;
         }
-        while (m < memReport.length) {
-          FinalizedReplica current = memReport[m++];
+        if (info.getBlockId() > memBlock.getBlockId()) {
+          // Block is missing on the disk
           addDifference(diffRecord, statsRecord,
-                        current.getBlockId(), current.getVolume());
+                        memBlock.getBlockId(), info.getVolume());
+          m++;
+          continue;
         }
-        while (d < blockpoolReport.length) {
-          if (!dataset.isDeletingBlock(bpid, blockpoolReport[d].getBlockId())) {
-            statsRecord.missingMemoryBlocks++;
-            addDifference(diffRecord, statsRecord, blockpoolReport[d]);
+        // Block file and/or metadata file exists on the disk
+        // Block exists in memory
+        if (info.getBlockFile() == null) {
+          // Block metadata file exits and block file is missing
+          addDifference(diffRecord, statsRecord, info);
+        } else if (info.getGenStamp() != memBlock.getGenerationStamp()
+            || info.getBlockFileLength() != memBlock.getNumBytes()) {
+          // Block metadata file is missing or has wrong generation stamp,
+          // or block file length is different than expected
+          statsRecord.mismatchBlocks++;
+          addDifference(diffRecord, statsRecord, info);
+        } else if (info.getBlockFile().compareTo(memBlock.getBlockFile()) != 0) {
+          // volumeMap record and on-disk files don't match.
+          statsRecord.duplicateBlocks++;
+          addDifference(diffRecord, statsRecord, info);
+        }
+        d++;
+
+        if (d < blockpoolReport.length) {
+          // There may be multiple on-disk records for the same block, don't increment
+          // the memory record pointer if so.
+          ScanInfo nextInfo = blockpoolReport[Math.min(d, blockpoolReport.length - 1)];
+          if (nextInfo.getBlockId() != info.blockId) {
+            ++m;
           }
-          d++;
+        } else {
+          ++m;
+        }
+      }
+      while (m < memReport.length) {
+        FinalizedReplica current = memReport[m++];
+        addDifference(diffRecord, statsRecord,
+                      current.getBlockId(), current.getVolume());
+      }
+      while (d < blockpoolReport.length) {
+        if (!dataset.isDeletingBlock(bpid, blockpoolReport[d].getBlockId())) {
+          statsRecord.missingMemoryBlocks++;
+          addDifference(diffRecord, statsRecord, blockpoolReport[d]);
         }
-        LOG.info(statsRecord.toString());
-      } //end for
-    } //end synchronized
+        d++;
+      }
+      LOG.info(statsRecord.toString());
+    }
   }
 
   /**
@@ -719,6 +821,14 @@ private Map<String, ScanInfo[]> getDiskReport() {
       Map<Integer, Future<ScanInfoPerBlockPool>> compilersInProgress =
           new HashMap<Integer, Future<ScanInfoPerBlockPool>>();
 
+      Set<String> storageIds = new HashSet<String>();
+      for (FsVolumeSpi volume : volumes) {
+        storageIds.add(volume.getStorageID());
+      }
+      // Forget the listings of the volumes which were removed
+      listings.keySet().retainAll(storageIds);
+      setVolumesPending(volumes.size());
+
       for (int i = 0; i < volumes.size(); i++) {
         ReportCompiler reportCompiler =
             new ReportCompiler(datanode, volumes.get(i));
@@ -748,6 +858,7 @@ private Map<String, ScanInfo[]> getDiskReport() {
     } catch (IOException e) {
       LOG.error("Unexpected IOException by closing FsVolumeReference", e);
     }
+    setVolumesPending(0);
     if (dirReports != null) {
       // Compile consolidated report for all the volumes
       for (ScanInfoPerBlockPool report : dirReports) {
@@ -759,6 +870,14 @@ private Map<String, ScanInfo[]> getDiskReport() {
     return list.toSortedArrays();
   }
 
+  private void setVolumesPending(int volumes) {
+    volumesPending.set(volumes);
+    DataNodeMetrics metrics = getMetrics();
+    if (metrics != null) {
+      metrics.setDirectoryScanVolumesPending(volumes);
+    }
+  }
+
   /**
    * Helper method to determine if a file name is consistent with a block.
    * meta-data file
@@ -789,6 +908,14 @@ private class ReportCompiler implements Callable<ScanInfoPerBlockPool> {
     // Variable for tracking time spent running and waiting for testing
     // purposes
     private final StopWatch perfTimer = new StopWatch();
+    private final DiskOpThrottle diskOpThrottle =
+        new DiskOpThrottle(iopsLimitPerVolume);
+    // The directory listings of the previous scan of the volume, indexed by
+    // path, and those of this scan if unchanged directories are skipped
+    private final Map<String, DirListing> oldListings;
+    private final Map<String, DirListing> newListings;
+    private long dirsListed = 0;
+    private long dirsSkipped = 0;
 
     /**
      * Create a report compiler for the given volume on the given datanode.
@@ -799,6 +926,13 @@ private class ReportCompiler implements Callable<ScanInfoPerBlockPool> {
     public ReportCompiler(DataNode datanode, FsVolumeSpi volume) {
       this.datanode = datanode;
       this.volume = volume;
+      VolumeListings last = skipUnchangedDirs ?
+          listings.get(volume.getStorageID()) : null;
+      // the volume may have been removed and added back since
+      this.oldListings = last != null && last.volume == volume ?
+          last.dirs : Collections.<String, DirListing>emptyMap();
+      this.newListings = skipUnchangedDirs ?
+          new HashMap<String, DirListing>(oldListings.size()) : null;
     }
 
     /**
@@ -809,30 +943,62 @@ public ReportCompiler(DataNode datanode, FsVolumeSpi volume) {
      */
     @Override
     public ScanInfoPerBlockPool call() throws IOException {
-      String[] bpList = volume.getBlockPoolList();
-      ScanInfoPerBlockPool result = new ScanInfoPerBlockPool(bpList.length);
-      for (String bpid : bpList) {
-        LinkedList<ScanInfo> report = new LinkedList<>();
-        File bpFinalizedDir = volume.getFinalizedDir(bpid);
-
-        perfTimer.start();
-        throttleTimer.start();
+      try {
+        String[] bpList = volume.getBlockPoolList();
+        ScanInfoPerBlockPool result = new ScanInfoPerBlockPool(bpList.length);
+        for (String bpid : bpList) {
+          LinkedList<ScanInfo> report = new LinkedList<>();
+          File bpFinalizedDir = volume.getFinalizedDir(bpid);
+
+          perfTimer.start();
+          throttleTimer.start();
+
+          try {
+            result.put(bpid,
+                compileReport(volume, bpFinalizedDir, bpFinalizedDir, report));
+          } catch (InterruptedException ex) {
+            // Exit quickly and flag the scanner to do the same
+            return null;
+          }
+        }
+        if (newListings != null) {
+          listings.put(volume.getStorageID(),
+              new VolumeListings(volume, newListings));
+        }
+        return result;
+      } finally {
+        reportCost();
+      }
+    }
 
-        try {
-          result.put(bpid,
-              compileReport(volume, bpFinalizedDir, bpFinalizedDir, report));
-        } catch (InterruptedException ex) {
-          // Exit quickly and flag the scanner to do the same
-          result = null;
-          break;
+    private void reportCost() {
+      DirectoryScanner.this.dirsListed.addAndGet(dirsListed);
+      DirectoryScanner.this.dirsSkipped.addAndGet(dirsSkipped);
+      diskOps.addAndGet(diskOpThrottle.getTotal());
+      int pending = volumesPending.decrementAndGet();
+      DataNodeMetrics metrics = getMetrics();
+      if (metrics != null) {
+        metrics.addDirectoryScanCost(dirsListed, dirsSkipped,
+            diskOpThrottle.getTotal());
+        if (pending >= 0) {
+          metrics.setDirectoryScanVolumesPending(pending);
         }
       }
-      return result;
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Compiled the report of volume " + volume.getStorageID()
+            + ": listed " + dirsListed + " directories, skipped "
+            + dirsSkipped + " unchanged directories, "
+            + diskOpThrottle.getTotal() + " disk operations");
+      }
     }
 
     /**
      * Compile a list of {@link ScanInfo} for the blocks in the directory
-     * given by {@code dir}.
+     * given by {@code dir}. If unchanged directories are skipped and the
+     * directory was not modified since the previous scan, the names of the
+     * blocks and subdirectories found by that scan are reused rather than
+     * listed again. The block files are still read, as their lengths change
+     * without modifying the directory.
      *
      * @param vol the volume that contains the directory to scan
      * @param bpFinalizedDir the root directory of the directory to scan
@@ -845,6 +1011,34 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
 
       throttle();
 
+      final String path = dir.getPath();
+      long mtime = 0;
+      if (newListings != null) {
+        mtime = dir.lastModified();
+        diskOpThrottle.charge(1);
+        DirListing listing = oldListings.get(path);
+        if (listing != null && mtime != 0 && listing.mtime == mtime) {
+          dirsSkipped++;
+          newListings.put(path, listing);
+          for (int i = 0; i < listing.blockIds.length; i++) {
+            String blockFile = listing.blockFiles[i];
+            String metaFile = listing.metaFiles[i];
+            if (blockFile != null) {
+              // the length of the block file is read
+              diskOpThrottle.charge(1);
+            }
+            report.add(new ScanInfo(listing.blockIds[i],
+                blockFile == null ? null : new File(dir, blockFile),
+                metaFile == null ? null : new File(dir, metaFile), vol));
+          }
+          for (String subdir : listing.subdirs) {
+            compileReport(vol, bpFinalizedDir, new File(dir, subdir), report);
+          }
+          return report;
+        }
+      }
+      final long listTime = Time.now();
+
       List <String> fileNames;
       try {
         fileNames = IOUtils.listDirectory(dir, BlockDirFilter.INSTANCE);
@@ -855,7 +1049,11 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
         // Ignore this directory and proceed.
         return report;
       }
+      dirsListed++;
+      diskOpThrottle.charge(1);
       Collections.sort(fileNames);
+      final List<String> subdirs = new ArrayList<>();
+      final List<ScanInfo> blocks = new ArrayList<>();
 
       /*
        * Assumption: In the sorted list of files block file appears immediately
@@ -871,8 +1069,13 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
         }
 
         File file = new File(dir, fileNames.get(i));
-        if (file.isDirectory()) {
-          compileReport(vol, bpFinalizedDir, file, report);
+        // block and meta files are never directories
+        if (!file.getName().startsWith(Block.BLOCK_FILE_PREFIX)) {
+          diskOpThrottle.charge(1);
+          if (file.isDirectory()) {
+            subdirs.add(file.getName());
+            compileReport(vol, bpFinalizedDir, file, report);
+          }
           continue;
         }
         if (!Block.isBlockFilename(file)) {
@@ -880,7 +1083,7 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
             long blockId = Block.getBlockId(file.getName());
             verifyFileLocation(file.getParentFile(), bpFinalizedDir,
                 blockId);
-            report.add(new ScanInfo(blockId, null, file, vol));
+            blocks.add(new ScanInfo(blockId, null, file, vol));
           }
           continue;
         }
@@ -892,6 +1095,7 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
         // getting to the metafile for the block
         while (i + 1 < fileNames.size()) {
           File blkMetaFile = new File(dir, fileNames.get(i + 1));
+          diskOpThrottle.charge(1);
           if (!(blkMetaFile.isFile()
               && blkMetaFile.getName().startsWith(blockFile.getName()))) {
             break;
@@ -903,7 +1107,15 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
           }
         }
         verifyFileLocation(blockFile, bpFinalizedDir, blockId);
-        report.add(new ScanInfo(blockId, blockFile, metaFile, vol));
+        // the length of the block file is read
+        diskOpThrottle.charge(1);
+        blocks.add(new ScanInfo(blockId, blockFile, metaFile, vol));
+      }
+      report.addAll(blocks);
+      if (newListings != null && mtime != 0 &&
+          mtime < listTime - MTIME_GRANULARITY_MS) {
+        newListings.put(path, new DirListing(mtime,
+            subdirs.toArray(new String[subdirs.size()]), blocks));
       }
       return report;
     }
@@ -928,7 +1140,8 @@ private void verifyFileLocation(File actualBlockFile,
      * Called by the thread before each potential disk scan so that a pause
      * can be optionally inserted to limit the number of scans per second.
      * The limit is controlled by
-     * {@link DFSConfigKeys#DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY}.
+     * {@link DFSConfigKeys#DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY}
+     * and {@link DFSConfigKeys#DFS_DATANODE_DIRECTORYSCAN_THROTTLE_IOPS_KEY}.
      */
     private void throttle() throws InterruptedException {
       accumulateTimeRunning();
@@ -939,6 +1152,7 @@ private void throttle() throws InterruptedException {
         Thread.sleep(MILLIS_PER_SECOND - throttleLimitMsPerSec);
         throttleTimer.reset().start();
       }
+      diskOpThrottle.pace();
 
       accumulateTimeWaiting();
     }
@@ -960,6 +1174,95 @@ private void accumulateTimeWaiting() {
     }
   }
 
+  /**
+   * The names of the blocks and subdirectories found in a directory, which
+   * are still valid as long as the modification time of the directory is
+   * unchanged. Only names are kept, since the length of a block file can
+   * change without modifying its directory.
+   */
+  private static class DirListing {
+    private final long mtime;
+    private final String[] subdirs;
+    private final long[] blockIds;
+    /** The block file of each block, or null if it has none. */
+    private final String[] blockFiles;
+    /** The meta file of each block, or null if it has none. */
+    private final String[] metaFiles;
+
+    DirListing(long mtime, String[] subdirs, List<ScanInfo> blocks) {
+      this.mtime = mtime;
+      this.subdirs = subdirs;
+      this.blockIds = new long[blocks.size()];
+      this.blockFiles = new String[blocks.size()];
+      this.metaFiles = new String[blocks.size()];
+      for (int i = 0; i < blockIds.length; i++) {
+        ScanInfo info = blocks.get(i);
+        File blockFile = info.getBlockFile();
+        File metaFile = info.getMetaFile();
+        blockIds[i] = info.getBlockId();
+        blockFiles[i] = blockFile == null ? null : blockFile.getName();
+        metaFiles[i] = metaFile == null ? null : metaFile.getName();
+      }
+    }
+  }
+
+  /** The directory listings of a volume, indexed by path. */
+  private static class VolumeListings {
+    private final FsVolumeSpi volume;
+    private final Map<String, DirListing> dirs;
+
+    VolumeListings(FsVolumeSpi volume, Map<String, DirListing> dirs) {
+      this.volume = volume;
+      this.dirs = dirs;
+    }
+  }
+
+  /**
+   * Paces the disk operations of a thread so that they do not exceed a
+   * number per second on average. A thread which was idle for a while may
+   * issue up to a second worth of operations at once.
+   */
+  private static class DiskOpThrottle {
+    private final int opsPerSec;
+    private long total = 0;
+    private long windowStart = Time.monotonicNow();
+    private long windowOps = 0;
+
+    /**
+     * @param opsPerSec the number of operations per second, or 0 or less for
+     *                  no limit
+     */
+    DiskOpThrottle(int opsPerSec) {
+      this.opsPerSec = opsPerSec;
+    }
+
+    void charge(int ops) {
+      total += ops;
+      windowOps += ops;
+    }
+
+    long getTotal() {
+      return total;
+    }
+
+    /**
+     * Sleep until the operations charged so far are within the limit.
+     */
+    void pace() throws InterruptedException {
+      if (opsPerSec <= 0) {
+        return;
+      }
+      final long now = Time.monotonicNow();
+      final long due = windowStart + windowOps * MILLIS_PER_SECOND / opsPerSec;
+      if (due > now) {
+        Thread.sleep(due - now);
+      } else if (now - due > MILLIS_PER_SECOND) {
+        windowStart = now - MILLIS_PER_SECOND;
+        windowOps = 0;
+      }
+    }
+  }
+
   private enum BlockDirFilter implements FilenameFilter {
     INSTANCE;
 
@@ -21,10 +21,13 @@
 import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -34,9 +37,11 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.BlockScanner.Conf;
+import org.apache.hadoop.hdfs.server.datanode.BlockScanner.ForegroundLoad;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi.BlockIterator;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.util.Canceler;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Time;
@@ -101,9 +106,30 @@ public class VolumeScanner extends Thread {
   private long scannedBytesSum = 0;
 
   /**
-   * The throttler to use with BlockSender objects.
+   * The bandwidth the clients use on each volume.
    */
-  private final DataTransferThrottler throttler = new DataTransferThrottler(1);
+  private final ForegroundLoad foregroundLoad;
+
+  /**
+   * The throttler to use with BlockSender objects.  If the scanner shares
+   * the bandwidth of the volume with the clients, the bandwidth of the
+   * throttler follows their load while a block is being scanned.
+   */
+  private final DataTransferThrottler throttler = new DataTransferThrottler(1) {
+    private long lastAdjustedMs = 0;
+
+    @Override
+    public synchronized void throttle(long numOfBytes, Canceler canceler) {
+      if (conf.isAdaptive()) {
+        long nowMs = Time.monotonicNow();
+        if (nowMs - lastAdjustedMs >= ForegroundLoad.SAMPLE_INTERVAL_MS) {
+          setBandwidth(getScanBytesPerSec());
+          lastAdjustedMs = nowMs;
+        }
+      }
+      super.throttle(numOfBytes, canceler);
+    }
+  };
 
   /**
    * The null output stream to use with BlockSender objects.
@@ -119,6 +145,13 @@ public class VolumeScanner extends Thread {
   private final List<BlockIterator> blockIters =
       new LinkedList<BlockIterator>();
 
+  /**
+   * The block iterators which moved since they were last saved.  The
+   * others need not be written to their cursor files again.
+   */
+  private final Set<BlockIterator> unsavedBlockIters =
+      Collections.synchronizedSet(new HashSet<BlockIterator>());
+
   /**
    * Blocks which are suspect.
    * The scanner prioritizes scanning these blocks.
@@ -168,6 +201,7 @@ static class Statistics {
     long blocksScannedSinceRestart = 0;
     long scansSinceRestart = 0;
     long scanErrorsSinceRestart = 0;
+    long scanBytesPerSec = 0;
     long nextBlockPoolScanStartMs = -1;
     long blockPoolPeriodEndsMs = -1;
     ExtendedBlock lastBlockScanned = null;
@@ -182,6 +216,7 @@ static class Statistics {
       this.blocksScannedSinceRestart = other.blocksScannedSinceRestart;
       this.scansSinceRestart = other.scansSinceRestart;
       this.scanErrorsSinceRestart = other.scanErrorsSinceRestart;
+      this.scanBytesPerSec = other.scanBytesPerSec;
       this.nextBlockPoolScanStartMs = other.nextBlockPoolScanStartMs;
       this.blockPoolPeriodEndsMs = other.blockPoolPeriodEndsMs;
       this.lastBlockScanned = other.lastBlockScanned;
@@ -199,6 +234,7 @@ public String toString() {
               append(blocksScannedSinceRestart).
           append(", scansSinceRestart=").append(scansSinceRestart).
           append(", scanErrorsSinceRestart=").append(scanErrorsSinceRestart).
+          append(", scanBytesPerSec=").append(scanBytesPerSec).
           append(", nextBlockPoolScanStartMs=").append(nextBlockPoolScanStartMs).
           append(", blockPoolPeriodEndsMs=").append(blockPoolPeriodEndsMs).
           append(", lastBlockScanned=").append(lastBlockScanned).
@@ -229,6 +265,8 @@ public void printStats(StringBuilder p) {
           stats.scansSinceRestart));
       p.append(String.format("Block scan errors since restart   : %57d%n",
           stats.scanErrorsSinceRestart));
+      p.append(String.format("Current scan rate in bytes/sec    : %57d%n",
+          stats.scanBytesPerSec));
       if (stats.nextBlockPoolScanStartMs > 0) {
         p.append(String.format("Hours until next block pool scan  : %57.3f%n",
             positiveMsToHours(stats.nextBlockPoolScanStartMs -
@@ -291,11 +329,13 @@ public void handle(ExtendedBlock block, IOException e) {
     }
   }
 
-  VolumeScanner(Conf conf, DataNode datanode, FsVolumeReference ref) {
+  VolumeScanner(Conf conf, DataNode datanode, FsVolumeReference ref,
+      ForegroundLoad foregroundLoad) {
     this.conf = conf;
     this.datanode = datanode;
     this.ref = ref;
     this.volume = ref.getVolume();
+    this.foregroundLoad = foregroundLoad;
     ScanResultHandler handler;
     try {
       handler = conf.resultHandler.newInstance();
@@ -309,13 +349,46 @@ public void handle(ExtendedBlock block, IOException e) {
   }
 
   private void saveBlockIterator(BlockIterator iter) {
+    if (!unsavedBlockIters.remove(iter)) {
+      LOG.trace("{}: not saving {}, which did not move.", this, iter);
+      return;
+    }
     try {
       iter.save();
     } catch (IOException e) {
+      unsavedBlockIters.add(iter);
       LOG.warn("{}: error saving {}.", this, iter, e);
     }
   }
 
+  /**
+   * @return the rate to scan at, in bytes per second.
+   */
+  private long getScanBytesPerSec() {
+    if (!conf.isAdaptive()) {
+      return conf.targetBytesPerSec;
+    }
+    return calculateScanBytesPerSec(conf.targetBytesPerSec,
+        conf.maxBytesPerSec, foregroundLoad.getBytesPerSecPerVolume());
+  }
+
+  /**
+   * Calculate the rate to scan at, so that the scanner and the clients
+   * together use no more than the given bandwidth of the volume, unless the
+   * clients leave less than the target rate of the scanner.
+   *
+   * @param targetBytesPerSec      The rate the scanner needs at least.
+   * @param maxBytesPerSec         The bandwidth shared with the clients.
+   * @param foregroundBytesPerSec  The bandwidth the clients use.
+   *
+   * @return                       The rate to scan at.
+   */
+  @VisibleForTesting
+  static long calculateScanBytesPerSec(long targetBytesPerSec,
+      long maxBytesPerSec, long foregroundBytesPerSec) {
+    return Math.max(targetBytesPerSec, maxBytesPerSec - foregroundBytesPerSec);
+  }
+
   private void expireOldScannedBytesRecords(long monotonicMs) {
     long newMinute =
         TimeUnit.MINUTES.convert(monotonicMs, TimeUnit.MILLISECONDS);
@@ -338,15 +411,17 @@ private void expireOldScannedBytesRecords(long monotonicMs) {
   /**
    * Find a usable block iterator.<p/>
    *
-   * We will consider available block iterators in order.  This property is
-   * important so that we don't keep rescanning the same block pool id over
-   * and over, while other block pools stay unscanned.<p/>
-   *
    * A block pool is always ready to scan if the iterator is not at EOF.  If
    * the iterator is at EOF, the block pool will be ready to scan when
    * conf.scanPeriodMs milliseconds have elapsed since the iterator was last
    * rewound.<p/>
    *
+   * Of the block pools which are ready, we pick the one whose current scan
+   * started first, so the block pool whose blocks went unscanned the longest
+   * goes first.  Ties are broken by considering the block iterators in
+   * order, so that we don't keep rescanning the same block pool id over and
+   * over, while other block pools stay unscanned.<p/>
+   *
    * @return                     0 if we found a usable block iterator; the
    *                               length of time we should delay before
    *                               checking again otherwise.
@@ -370,30 +445,37 @@ private synchronized long findNextUsableBlockIter() {
     // every time the machine reboots (on most platforms).
     long nowMs = Time.now();
     long minTimeoutMs = Long.MAX_VALUE;
+    BlockIterator oldest = null;
     for (int i = 0; i < numBlockIters; i++) {
       int idx = (curIdx + i + 1) % numBlockIters;
       BlockIterator iter = blockIters.get(idx);
-      if (!iter.atEnd()) {
-        LOG.info("Now scanning bpid {} on volume {}",
-            iter.getBlockPoolId(), volume.getBasePath());
-        curBlockIter = iter;
-        return 0L;
-      }
       long iterStartMs = iter.getIterStartMs();
-      long waitMs = (iterStartMs + conf.scanPeriodMs) - nowMs;
-      if (waitMs <= 0) {
-        iter.rewind();
-        LOG.info("Now rescanning bpid {} on volume {}, after more than " +
-            "{} hour(s)", iter.getBlockPoolId(), volume.getBasePath(),
-            TimeUnit.HOURS.convert(conf.scanPeriodMs, TimeUnit.MILLISECONDS));
-        curBlockIter = iter;
-        return 0L;
+      if (!iter.atEnd() || iterStartMs + conf.scanPeriodMs <= nowMs) {
+        if (oldest == null || iterStartMs < oldest.getIterStartMs()) {
+          oldest = iter;
+        }
+        continue;
       }
-      minTimeoutMs = Math.min(minTimeoutMs, waitMs);
+      minTimeoutMs = Math.min(minTimeoutMs,
+          (iterStartMs + conf.scanPeriodMs) - nowMs);
+    }
+    if (oldest == null) {
+      LOG.info("{}: no suitable block pools found to scan.  Waiting {} ms.",
+          this, minTimeoutMs);
+      return minTimeoutMs;
     }
-    LOG.info("{}: no suitable block pools found to scan.  Waiting {} ms.",
-        this, minTimeoutMs);
-    return minTimeoutMs;
+    if (oldest.atEnd()) {
+      oldest.rewind();
+      unsavedBlockIters.add(oldest);
+      LOG.info("Now rescanning bpid {} on volume {}, after more than " +
+          "{} hour(s)", oldest.getBlockPoolId(), volume.getBasePath(),
+          TimeUnit.HOURS.convert(conf.scanPeriodMs, TimeUnit.MILLISECONDS));
+    } else {
+      LOG.info("Now scanning bpid {} on volume {}",
+          oldest.getBlockPoolId(), volume.getBasePath());
+    }
+    curBlockIter = oldest;
+    return 0L;
   }
 
   /**
@@ -489,8 +571,14 @@ private long runLoop(ExtendedBlock suspectBlock) {
       long monotonicMs = Time.monotonicNow();
       expireOldScannedBytesRecords(monotonicMs);
 
-      if (!calculateShouldScan(volume.getStorageID(), conf.targetBytesPerSec,
-          scannedBytesSum, startMinute, curMinute)) {
+      final long scanBytesPerSec = getScanBytesPerSec();
+      synchronized (stats) {
+        stats.scanBytesPerSec = scanBytesPerSec;
+      }
+      // Suspect blocks are scanned right away, as they were popped off the
+      // list already.
+      if (suspectBlock == null && !calculateShouldScan(volume.getStorageID(),
+          scanBytesPerSec, scannedBytesSum, startMinute, curMinute)) {
         // If neededBytesPerSec is too low, then wait few seconds for some old
         // scannedBytes records to expire.
         return 30000L;
@@ -518,6 +606,7 @@ private long runLoop(ExtendedBlock suspectBlock) {
           return 0L;
         }
         try {
+          unsavedBlockIters.add(curBlockIter);
           block = curBlockIter.nextBlock();
         } catch (IOException e) {
           // There was an error listing the next block in the volume.  This is a
@@ -536,14 +625,15 @@ private long runLoop(ExtendedBlock suspectBlock) {
         }
       }
       if (curBlockIter != null) {
-        long saveDelta = monotonicMs - curBlockIter.getLastSavedMs();
+        // The time saved in the cursor file is a wall-clock time.
+        long saveDelta = Time.now() - curBlockIter.getLastSavedMs();
         if (saveDelta >= conf.cursorSaveMs) {
           LOG.debug("{}: saving block iterator {} after {} ms.",
               this, curBlockIter, saveDelta);
           saveBlockIterator(curBlockIter);
         }
       }
-      bytesScanned = scanBlock(block, conf.targetBytesPerSec);
+      bytesScanned = scanBlock(block, scanBytesPerSec);
       if (bytesScanned >= 0) {
         scannedBytesSum += bytesScanned;
         scannedBytes[(int)(curMinute % MINUTES_PER_HOUR)] += bytesScanned;
@@ -702,6 +792,7 @@ public synchronized void enableBlockPoolId(String bpid) {
     }
     if (iter == null) {
       iter = volume.newBlockIterator(bpid, BLOCK_ITERATOR_NAME);
+      unsavedBlockIters.add(iter);
       LOG.trace("{}: created new block iterator for {}.", this, bpid);
     }
     iter.setMaxStalenessMs(conf.maxStalenessMs);
@@ -721,6 +812,7 @@ public synchronized void disableBlockPoolId(String bpid) {
       if (iter.getBlockPoolId().equals(bpid)) {
         LOG.trace("{}: disabling scanning on block pool {}", this, bpid);
         i.remove();
+        unsavedBlockIters.remove(iter);
         IOUtils.cleanup(null, iter);
         if (curBlockIter == iter) {
           curBlockIter = null;
@@ -59,6 +59,7 @@
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
+import org.apache.hadoop.util.AutoCloseableLock;
 import org.apache.hadoop.util.ReflectionUtils;
 
 /**
@@ -628,4 +629,22 @@ ReplicaInfo moveBlockAcrossStorage(final ExtendedBlock block,
    * Confirm whether the block is deleting
    */
   boolean isDeletingBlock(String bpid, long blockId);
+
+  /**
+   * Acquire the lock of the whole dataset. While it is held no other thread
+   * can change the replicas of any block pool. Release it by closing the
+   * returned lock, e.g. in a try-with-resources statement.
+   * @return the acquired dataset lock
+   */
+  AutoCloseableLock acquireDatasetLock();
+
+  /**
+   * Acquire the lock of a replica. While it is held no other thread can
+   * change the state of the replica, while the replicas of other blocks can
+   * still be changed. Release it by closing the returned lock.
+   * @param bpid the block pool of the replica
+   * @param blockId the block ID of the replica
+   * @return the acquired replica lock
+   */
+  AutoCloseableLock acquireReplicaLock(String bpid, long blockId);
 }
@@ -28,6 +28,7 @@
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Scanner;
 import java.util.concurrent.atomic.AtomicLong;
@@ -45,6 +46,7 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs.BlockReportReplica;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
@@ -54,6 +56,7 @@
 import org.apache.hadoop.hdfs.server.datanode.ReplicaWaitingToBeRecovered;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.nativeio.NativeIO;
+import org.apache.hadoop.util.AutoCloseableLock;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.DiskChecker;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
@@ -68,7 +71,8 @@
  * Taken together, all BlockPoolSlices sharing a block pool ID across a
  * cluster represent a single block pool.
  *
- * This class is synchronized by {@link FsVolumeImpl}.
+ * The usage and block counters are atomic; block files of different replicas
+ * may be added concurrently, each under the lock of its own replica.
  */
 class BlockPoolSlice {
   static final Log LOG = LogFactory.getLog(BlockPoolSlice.class);
@@ -93,6 +97,8 @@ class BlockPoolSlice {
   private final long cachedDfsUsedCheckTime;
   private final Timer timer;
   private final int maxDataLength;
+  // null if the replica index is disabled or could not be opened
+  private final ReplicaIndex replicaIndex;
 
   // TODO:FEDERATION scalability issue - a thread per DU is needed
   private final GetSpaceUsed dfsUsage;
@@ -157,6 +163,7 @@ class BlockPoolSlice {
         throw new IOException("Mkdirs failed to create " + tmpDir.toString());
       }
     }
+    this.replicaIndex = openReplicaIndex(conf);
     // Use cached value initially if available. Or the following call will
     // block until the initial du command completes.
     this.dfsUsage = new CachingGetSpaceUsed.Builder().setPath(bpDir)
@@ -180,6 +187,28 @@ File getDirectory() {
     return currentDir.getParentFile();
   }
 
+  private ReplicaIndex openReplicaIndex(Configuration conf) {
+    File indexFile = new File(currentDir, ReplicaIndex.FILE_NAME);
+    if (!conf.getBoolean(DFSConfigKeys.DFS_DATANODE_REPLICA_INDEX_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_REPLICA_INDEX_ENABLED_DEFAULT)) {
+      // the index is not updated from now on, so it must not be used once
+      // it is enabled again
+      if (indexFile.exists() && !indexFile.delete()) {
+        LOG.warn("Failed to delete replica index " + indexFile);
+      }
+      return null;
+    }
+    try {
+      return ReplicaIndex.open(indexFile);
+    } catch (IOException e) {
+      LOG.warn("Failed to open replica index " + indexFile, e);
+      if (indexFile.exists() && !indexFile.delete()) {
+        LOG.warn("Failed to delete replica index " + indexFile);
+      }
+      return null;
+    }
+  }
+
   File getFinalizedDir() {
     return finalizedDir;
   }
@@ -196,7 +225,7 @@ File getTmpDir() {
     return tmpDir;
   }
 
-  /** Run DU on local drives.  It must be synchronized from caller. */
+  /** Decrement the cached DU value of this slice. */
   void decDfsUsed(long value) {
     if (dfsUsage instanceof CachingGetSpaceUsed) {
       ((CachingGetSpaceUsed)dfsUsage).incDfsUsed(-value);
@@ -312,7 +341,8 @@ File createRbwFile(Block b) throws IOException {
   File addFinalizedBlock(Block b, File f) throws IOException {
     File blockDir = DatanodeUtil.idToBlockDir(finalizedDir, b.getBlockId());
     if (!blockDir.exists()) {
-      if (!blockDir.mkdirs()) {
+      // another replica of the same subdir may be finalized concurrently
+      if (!blockDir.mkdirs() && !blockDir.isDirectory()) {
         throw new IOException("Failed to mkdirs " + blockDir);
       }
     }
@@ -354,19 +384,88 @@ void getVolumeMap(ReplicaMap volumeMap,
       throws IOException {
     // Recover lazy persist replicas, they will be added to the volumeMap
     // when we scan the finalized directory.
+    int numRecovered = 0;
     if (lazypersistDir.exists()) {
-      int numRecovered = moveLazyPersistReplicasToFinalized(lazypersistDir);
+      numRecovered = moveLazyPersistReplicasToFinalized(lazypersistDir);
       FsDatasetImpl.LOG.info(
           "Recovered " + numRecovered + " replicas from " + lazypersistDir);
     }
 
     boolean  success = readReplicasFromCache(volumeMap, lazyWriteReplicaMap);
+    boolean fromIndex = false;
+    // the recovered lazy persist replicas are not in the index
+    if (!success && replicaIndex != null && numRecovered == 0) {
+      success = fromIndex =
+          readReplicasFromIndex(volumeMap, lazyWriteReplicaMap);
+      if (success) {
+        addToReplicasMap(volumeMap, rbwDir, lazyWriteReplicaMap, false);
+      }
+    }
     if (!success) {
       // add finalized replicas
       addToReplicasMap(volumeMap, finalizedDir, lazyWriteReplicaMap, true);
       // add rbw replicas
       addToReplicasMap(volumeMap, rbwDir, lazyWriteReplicaMap, false);
     }
+    if (replicaIndex != null && !fromIndex) {
+      rebuildReplicaIndex(volumeMap);
+    }
+  }
+
+  /**
+   * Add the finalized replicas recorded in the replica index to the volume
+   * map, without looking at the disk. The DirectoryScanner verifies them
+   * later on.
+   * @return false if there is no index to read the replicas from.
+   */
+  private boolean readReplicasFromIndex(final ReplicaMap volumeMap,
+      final RamDiskReplicaTracker lazyWriteReplicaMap) throws IOException {
+    if (!replicaIndex.isRestored()) {
+      LOG.info("Replica index " + replicaIndex + " was not found");
+      return false;
+    }
+    replicaIndex.forEach(new ReplicaIndex.Visitor() {
+      @Override
+      public void accept(Block replica) throws IOException {
+        addReplicaToReplicasMap(replica, volumeMap, lazyWriteReplicaMap, true);
+      }
+    });
+    LOG.info("Read " + replicaIndex.size() + " replicas from replica index " +
+        replicaIndex);
+    return true;
+  }
+
+  /** Record the finalized replicas of this slice in a new replica index. */
+  private void rebuildReplicaIndex(ReplicaMap volumeMap) {
+    try (AutoCloseableLock l = volumeMap.getReadLock().acquire()) {
+      Collection<ReplicaInfo> replicas = volumeMap.replicas(bpid);
+      replicaIndex.clear(replicas == null ? 0 : replicas.size());
+      if (replicas != null) {
+        for (ReplicaInfo replica : replicas) {
+          if (replica.getVolume() == volume &&
+              replica.getState() == ReplicaState.FINALIZED) {
+            addToReplicaIndex(replica);
+          }
+        }
+      }
+    }
+    LOG.info("Recorded " + replicaIndex.size() + " replicas in replica index " +
+        replicaIndex);
+  }
+
+  /** Record a finalized replica in the replica index, if it is enabled. */
+  void addToReplicaIndex(Block replica) {
+    if (replicaIndex != null) {
+      replicaIndex.put(replica.getBlockId(), replica.getGenerationStamp(),
+          replica.getNumBytes());
+    }
+  }
+
+  /** Remove a replica from the replica index, if it is enabled. */
+  void removeFromReplicaIndex(long blockId) {
+    if (replicaIndex != null) {
+      replicaIndex.remove(blockId);
+    }
   }
 
   /**
@@ -601,6 +700,10 @@ ReplicaInfo resolveDuplicateReplicas(
     // Update volumeMap and delete the replica
     volumeMap.add(bpid, replicaToKeep);
     if (replicaToDelete != null) {
+      if (replicaToDelete.getVolume() != replicaToKeep.getVolume()) {
+        ((FsVolumeImpl) replicaToDelete.getVolume()).removeFromReplicaIndex(
+            bpid, replicaToDelete.getBlockId());
+      }
       deleteReplica(replicaToDelete);
     }
     return replicaToKeep;
@@ -737,6 +840,9 @@ void shutdown(BlockListAsLongs blocksListToPersist) {
     saveReplicas(blocksListToPersist);
     saveDfsUsed();
     dfsUsedSaved = true;
+    if (replicaIndex != null) {
+      replicaIndex.close();
+    }
 
     if (dfsUsage instanceof CachingGetSpaceUsed) {
       IOUtils.cleanup(LOG, ((CachingGetSpaceUsed) dfsUsage));
@@ -745,7 +851,7 @@ void shutdown(BlockListAsLongs blocksListToPersist) {
 
   private boolean readReplicasFromCache(ReplicaMap volumeMap,
       final RamDiskReplicaTracker lazyWriteReplicaMap) {
-    ReplicaMap tmpReplicaMap = new ReplicaMap(this);
+    ReplicaMap tmpReplicaMap = new ReplicaMap();
     File replicaFile = new File(currentDir, REPLICA_CACHE_FILE);
     // Check whether the file exists or not.
     if (!replicaFile.exists()) {
@@ -789,13 +895,15 @@ private boolean readReplicasFromCache(ReplicaMap volumeMap,
       // Now it is safe to add the replica into volumeMap
       // In case of any exception during parsing this cache file, fall back
       // to scan all the files on disk.
-      for (Iterator<ReplicaInfo> iter =
-          tmpReplicaMap.replicas(bpid).iterator(); iter.hasNext(); ) {
-        ReplicaInfo info = iter.next();
-        // We use a lightweight GSet to store replicaInfo, we need to remove
-        // it from one GSet before adding to another.
-        iter.remove();
-        volumeMap.add(bpid, info);
+      try (AutoCloseableLock l = tmpReplicaMap.getWriteLock().acquire()) {
+        for (Iterator<ReplicaInfo> iter =
+            tmpReplicaMap.replicas(bpid).iterator(); iter.hasNext(); ) {
+          ReplicaInfo info = iter.next();
+          // We use a lightweight GSet to store replicaInfo, we need to remove
+          // it from one GSet before adding to another.
+          iter.remove();
+          volumeMap.add(bpid, info);
+        }
       }
       LOG.info("Successfully read replica from cache file : "
           + replicaFile.getPath());
@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.util.AutoCloseableLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The locks of {@link FsDatasetImpl}, from the coarsest to the finest:
+ * <ul>
+ * <li>The dataset lock. It is held exclusively to add or remove volumes, and
+ * shared by all the other operations.</li>
+ * <li>One lock per block pool. It is held exclusively to add or remove the
+ * block pool, and shared by the operations on its replicas.</li>
+ * <li>A fixed number of replica locks per block pool, picked by block ID.
+ * A replica lock is held while changing the state of a replica, including
+ * the renames and file creations on its volume.</li>
+ * </ul>
+ * A lock is always acquired after the ones above it. Operations on different
+ * replicas therefore run in parallel, so a slow disk or a long block report
+ * only holds up the operations which need the same replicas.
+ * <p>
+ * The replica map has a lock of its own, see {@link ReplicaMap}.
+ */
+class DatasetLockManager {
+  /**
+   * Locks acquired together when the chain is created, released in reverse
+   * order by {@link #release}. A released chain can not be acquired again.
+   */
+  static final class LockChain extends AutoCloseableLock {
+    private final Lock[] locks;
+
+    private LockChain(Lock... locks) {
+      super(locks[locks.length - 1]);
+      int i = 0;
+      try {
+        for (; i < locks.length; i++) {
+          locks[i].lock();
+        }
+      } catch (RuntimeException e) {
+        while (--i >= 0) {
+          locks[i].unlock();
+        }
+        throw e;
+      }
+      this.locks = locks;
+    }
+
+    @Override
+    public AutoCloseableLock acquire() {
+      throw new UnsupportedOperationException(
+          "A lock chain is acquired when it is created");
+    }
+
+    @Override
+    public boolean tryLock() {
+      throw new UnsupportedOperationException(
+          "A lock chain is acquired when it is created");
+    }
+
+    @Override
+    public void release() {
+      for (int i = locks.length - 1; i >= 0; i--) {
+        locks[i].unlock();
+      }
+    }
+
+    @Override
+    public Condition newCondition() {
+      throw new UnsupportedOperationException(
+          "Waiting would release only the last lock of the chain");
+    }
+  }
+
+  /** The locks of a block pool. */
+  private static final class BlockPoolLocks {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock[] replicaLocks;
+
+    BlockPoolLocks(int numReplicaLocks) {
+      replicaLocks = new ReentrantLock[numReplicaLocks];
+      for (int i = 0; i < numReplicaLocks; i++) {
+        replicaLocks[i] = new ReentrantLock();
+      }
+    }
+
+    Lock getReplicaLock(long blockId) {
+      // spread consecutive block IDs, which are allocated sequentially
+      long h = blockId * 0x9E3779B97F4A7C15L;
+      return replicaLocks[(int) ((h >>> 32) % replicaLocks.length)];
+    }
+  }
+
+  private final ReentrantReadWriteLock datasetLock =
+      new ReentrantReadWriteLock();
+  private final AutoCloseableLock datasetWriteLock =
+      new AutoCloseableLock(datasetLock.writeLock());
+  private final ConcurrentMap<String, BlockPoolLocks> blockPools =
+      new ConcurrentHashMap<>();
+  private final int numReplicaLocks;
+
+  DatasetLockManager(int numReplicaLocks) {
+    Preconditions.checkArgument(numReplicaLocks > 0,
+        "The number of replica locks must be positive: %s", numReplicaLocks);
+    this.numReplicaLocks = numReplicaLocks;
+  }
+
+  private BlockPoolLocks getBlockPoolLocks(String bpid) {
+    BlockPoolLocks locks = blockPools.get(bpid);
+    if (locks == null) {
+      // the entry stays when the block pool is removed, since a concurrent
+      // operation may still hold it; block pools come and go very rarely
+      locks = new BlockPoolLocks(numReplicaLocks);
+      BlockPoolLocks existing = blockPools.putIfAbsent(bpid, locks);
+      if (existing != null) {
+        locks = existing;
+      }
+    }
+    return locks;
+  }
+
+  /**
+   * Acquire the dataset lock exclusively, excluding every other operation on
+   * the dataset.
+   */
+  AutoCloseableLock lockDataset() {
+    return datasetWriteLock.acquire();
+  }
+
+  /**
+   * Acquire the lock of a block pool exclusively, excluding every other
+   * operation on its replicas.
+   */
+  LockChain lockBlockPool(String bpid) {
+    return new LockChain(datasetLock.readLock(),
+        getBlockPoolLocks(bpid).lock.writeLock());
+  }
+
+  /**
+   * Acquire the lock of a block pool shared, to read the replicas in it
+   * while the block pool can not be removed.
+   */
+  LockChain readLockBlockPool(String bpid) {
+    return new LockChain(datasetLock.readLock(),
+        getBlockPoolLocks(bpid).lock.readLock());
+  }
+
+  /**
+   * Acquire the lock of a replica, to change its state.
+   */
+  LockChain lockReplica(String bpid, long blockId) {
+    BlockPoolLocks locks = getBlockPoolLocks(bpid);
+    return new LockChain(datasetLock.readLock(), locks.lock.readLock(),
+        locks.getReplicaLock(blockId));
+  }
+}
@@ -302,45 +302,40 @@ void onMetaFileDeletion(String bpid, long value) {
     decDfsUsedAndNumBlocks(bpid, value, false);
   }
 
+  // The counters below are atomic, so the updates do not need the dataset
+  // lock; readers may see the block count and the usage of a slice a few
+  // operations apart, which is fine for reporting.
   private void decDfsUsedAndNumBlocks(String bpid, long value,
                                       boolean blockFileDeleted) {
-    synchronized(dataset) {
-      BlockPoolSlice bp = bpSlices.get(bpid);
-      if (bp != null) {
-        bp.decDfsUsed(value);
-        if (blockFileDeleted) {
-          bp.decrNumBlocks();
-        }
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.decDfsUsed(value);
+      if (blockFileDeleted) {
+        bp.decrNumBlocks();
       }
     }
   }
 
   void incDfsUsedAndNumBlocks(String bpid, long value) {
-    synchronized (dataset) {
-      BlockPoolSlice bp = bpSlices.get(bpid);
-      if (bp != null) {
-        bp.incDfsUsed(value);
-        bp.incrNumBlocks();
-      }
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.incDfsUsed(value);
+      bp.incrNumBlocks();
     }
   }
 
   void incDfsUsed(String bpid, long value) {
-    synchronized(dataset) {
-      BlockPoolSlice bp = bpSlices.get(bpid);
-      if (bp != null) {
-        bp.incDfsUsed(value);
-      }
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.incDfsUsed(value);
     }
   }
 
   @VisibleForTesting
   public long getDfsUsed() throws IOException {
     long dfsUsed = 0;
-    synchronized(dataset) {
-      for(BlockPoolSlice s : bpSlices.values()) {
-        dfsUsed += s.getDfsUsed();
-      }
+    for(BlockPoolSlice s : bpSlices.values()) {
+      dfsUsed += s.getDfsUsed();
     }
     return dfsUsed;
   }
@@ -857,6 +852,27 @@ File addFinalizedBlock(String bpid, Block b, File f, long bytesReserved)
     return getBlockPoolSlice(bpid).addFinalizedBlock(b, f);
   }
 
+  /**
+   * Record a finalized replica in the replica index of its block pool.
+   */
+  void addToReplicaIndex(String bpid, Block replica) {
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.addToReplicaIndex(replica);
+    }
+  }
+
+  /**
+   * Remove a replica which is no longer finalized on this volume from the
+   * replica index of its block pool.
+   */
+  void removeFromReplicaIndex(String bpid, long blockId) {
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.removeFromReplicaIndex(blockId);
+    }
+  }
+
   Executor getCacheExecutor() {
     return cacheExecutor;
   }
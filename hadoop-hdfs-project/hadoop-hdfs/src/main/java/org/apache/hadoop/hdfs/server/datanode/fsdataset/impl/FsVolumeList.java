@@ -31,6 +31,8 @@
 import java.util.TreeMap;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.StorageType;
@@ -287,6 +289,29 @@ void waitVolumeRemoved(int sleepMillis, Object monitor) {
     FsDatasetImpl.LOG.info("Volume reference is released.");
   }
 
+  /**
+   * Same as {@link #waitVolumeRemoved(int, Object)}, for callers holding a
+   * {@link java.util.concurrent.locks.Lock} rather than a monitor.
+   *
+   * @param sleepMillis interval to recheck.
+   * @param condition a condition of the lock held by the caller.
+   */
+  void waitVolumeRemoved(int sleepMillis, Condition condition) {
+    while (!checkVolumesRemoved()) {
+      if (FsDatasetImpl.LOG.isDebugEnabled()) {
+        FsDatasetImpl.LOG.debug("Waiting for volume reference to be released.");
+      }
+      try {
+        condition.await(sleepMillis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        FsDatasetImpl.LOG.info("Thread interrupted when waiting for "
+            + "volume reference to be released.");
+        Thread.currentThread().interrupt();
+      }
+    }
+    FsDatasetImpl.LOG.info("Volume reference is released.");
+  }
+
   @Override
   public String toString() {
     return volumes.toString();
@@ -0,0 +1,371 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.io.nativeio.NativeIO;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A persistent index of the finalized replicas of a {@link BlockPoolSlice},
+ * kept in a memory-mapped file.
+ *
+ * The file is an open addressing hash table of fixed size records keyed by
+ * block ID, which is updated in place as replicas are finalized, moved and
+ * deleted. On restart the replicas can be loaded from the index instead of
+ * walking the finalized directory, so the DataNode can register and report
+ * its blocks early.
+ *
+ * The index is a hint: the updates are not synced, so after a crash of the
+ * host it may miss some replicas or still hold deleted ones. Each record
+ * carries a check word, so a torn record is dropped rather than loaded, and
+ * the DirectoryScanner reconciles the rest with the disk in the background.
+ */
+class ReplicaIndex {
+  static final Log LOG = LogFactory.getLog(ReplicaIndex.class);
+
+  static final String FILE_NAME = "replica-index";
+
+  private static final long MAGIC = 0x4844465352494458L; // HDFSRIDX
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int RECORD_SIZE = 32;
+  // offsets of the fields of a record
+  private static final int GENSTAMP = 8;
+  private static final int NUM_BYTES = 16;
+  private static final int CHECK = 24;
+
+  private static final int MIN_CAPACITY = 1 << 10;
+  /** The largest table a single mapping can hold. */
+  private static final int MAX_CAPACITY = 1 << 25;
+
+  /** The check words of the records without a replica. */
+  private static final long EMPTY = 0;
+  private static final long REMOVED = 1;
+
+  /** Receives the replicas recorded in the index. */
+  interface Visitor {
+    void accept(Block replica) throws IOException;
+  }
+
+  private final File file;
+  private final boolean restored;
+  private MappedByteBuffer buffer;
+  private int capacity;
+  /** The number of replicas. */
+  private int size;
+  /** The number of records which are not empty, including removed ones. */
+  private int used;
+
+  private ReplicaIndex(File file, boolean restored) {
+    this.file = file;
+    this.restored = restored;
+  }
+
+  /**
+   * Open the index kept in the given file. An empty index is created if the
+   * file does not exist or does not hold a valid index.
+   */
+  static ReplicaIndex open(File file) throws IOException {
+    if (file.exists()) {
+      ReplicaIndex index = new ReplicaIndex(file, true);
+      if (index.load()) {
+        return index;
+      }
+      LOG.warn("Ignoring invalid replica index " + file);
+    }
+    ReplicaIndex index = new ReplicaIndex(file, false);
+    index.buffer = create(file, MIN_CAPACITY);
+    index.capacity = MIN_CAPACITY;
+    return index;
+  }
+
+  /** Map an existing file, and count the records in it. */
+  private boolean load() throws IOException {
+    final long length = file.length();
+    if (length < HEADER_SIZE) {
+      return false;
+    }
+    buffer = map(file, length);
+    capacity = buffer.getInt(12);
+    if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION ||
+        capacity < MIN_CAPACITY || capacity > MAX_CAPACITY ||
+        Integer.bitCount(capacity) != 1 ||
+        length != HEADER_SIZE + (long) capacity * RECORD_SIZE) {
+      NativeIO.POSIX.munmap(buffer);
+      buffer = null;
+      return false;
+    }
+    for (int slot = 0; slot < capacity; slot++) {
+      final int off = offset(slot);
+      final long check = buffer.getLong(off + CHECK);
+      if (check == EMPTY) {
+        continue;
+      }
+      used++;
+      if (check == REMOVED) {
+        continue;
+      }
+      if (check == checkWord(buffer.getLong(off),
+          buffer.getLong(off + GENSTAMP), buffer.getLong(off + NUM_BYTES))) {
+        size++;
+      } else {
+        // torn by a crash, the DirectoryScanner will find the replica
+        buffer.putLong(off + CHECK, REMOVED);
+      }
+    }
+    // the probes need empty records to end
+    return used <= capacity / 4 * 3 || rebuild(size);
+  }
+
+  /** Create a file holding an empty table of the given capacity. */
+  private static MappedByteBuffer create(File file, int capacity)
+      throws IOException {
+    final long length = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(0);
+      raf.setLength(length);
+    }
+    MappedByteBuffer b = map(file, length);
+    b.putLong(0, MAGIC);
+    b.putInt(8, VERSION);
+    b.putInt(12, capacity);
+    return b;
+  }
+
+  private static MappedByteBuffer map(File file, long length)
+      throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      return raf.getChannel().map(MapMode.READ_WRITE, 0, length);
+    }
+  }
+
+  /** @return true if the index was read from an existing file. */
+  boolean isRestored() {
+    return restored;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Pass every replica recorded in the index to the visitor. The visitor is
+   * called without the lock of the index, as it may update other indexes.
+   */
+  void forEach(Visitor visitor) throws IOException {
+    final long[] batch = new long[3 * 1024];
+    int slot = 0;
+    boolean done = false;
+    while (!done) {
+      int n = 0;
+      synchronized (this) {
+        if (buffer == null) {
+          return;
+        }
+        for (; slot < capacity && n < batch.length; slot++) {
+          final int off = offset(slot);
+          final long check = buffer.getLong(off + CHECK);
+          if (check != EMPTY && check != REMOVED) {
+            batch[n++] = buffer.getLong(off);
+            batch[n++] = buffer.getLong(off + NUM_BYTES);
+            batch[n++] = buffer.getLong(off + GENSTAMP);
+          }
+        }
+        done = slot >= capacity;
+      }
+      for (int i = 0; i < n; i += 3) {
+        visitor.accept(new Block(batch[i], batch[i + 1], batch[i + 2]));
+      }
+    }
+  }
+
+  /** Record a finalized replica, replacing the record of the block if any. */
+  synchronized void put(long blockId, long genStamp, long numBytes) {
+    if (buffer == null) {
+      return;
+    }
+    int slot = find(blockId);
+    if (slot < 0) {
+      if (used + 1 > capacity / 4 * 3 && !rebuild(size + 1)) {
+        return;
+      }
+      slot = freeSlot(blockId);
+      if (buffer.getLong(offset(slot) + CHECK) == EMPTY) {
+        used++;
+      }
+      size++;
+    }
+    write(slot, blockId, genStamp, numBytes);
+  }
+
+  /** Remove the record of a block, if any. */
+  synchronized void remove(long blockId) {
+    if (buffer == null) {
+      return;
+    }
+    final int slot = find(blockId);
+    if (slot >= 0) {
+      buffer.putLong(offset(slot) + CHECK, REMOVED);
+      size--;
+    }
+  }
+
+  /**
+   * Remove all the records, making room for the given number of replicas.
+   */
+  synchronized void clear(int expectedSize) {
+    if (buffer != null) {
+      size = 0;
+      rebuild(expectedSize);
+    }
+  }
+
+  /** Flush the index to the disk and unmap it. */
+  synchronized void close() {
+    if (buffer != null) {
+      buffer.force();
+      NativeIO.POSIX.munmap(buffer);
+      buffer = null;
+    }
+  }
+
+  /** @return the slot of the given block, or -1 if it is not recorded. */
+  private int find(long blockId) {
+    for (int slot = home(blockId); ; slot = (slot + 1) & (capacity - 1)) {
+      final int off = offset(slot);
+      final long check = buffer.getLong(off + CHECK);
+      if (check == EMPTY) {
+        return -1;
+      }
+      if (check != REMOVED && buffer.getLong(off) == blockId) {
+        return slot;
+      }
+    }
+  }
+
+  /** @return the first empty or removed slot on the probe of a block. */
+  private int freeSlot(long blockId) {
+    for (int slot = home(blockId); ; slot = (slot + 1) & (capacity - 1)) {
+      final long check = buffer.getLong(offset(slot) + CHECK);
+      if (check == EMPTY || check == REMOVED) {
+        return slot;
+      }
+    }
+  }
+
+  private void write(int slot, long blockId, long genStamp, long numBytes) {
+    final int off = offset(slot);
+    buffer.putLong(off, blockId);
+    buffer.putLong(off + GENSTAMP, genStamp);
+    buffer.putLong(off + NUM_BYTES, numBytes);
+    buffer.putLong(off + CHECK, checkWord(blockId, genStamp, numBytes));
+  }
+
+  /**
+   * Copy the replicas into a new table with room for the given number of
+   * replicas, which atomically replaces the file. On failure the index is
+   * deleted, so the next restart scans the disk.
+   * @return true if the index is still usable.
+   */
+  private boolean rebuild(int expectedSize) {
+    int newCapacity = MIN_CAPACITY;
+    while (newCapacity < MAX_CAPACITY &&
+        (long) expectedSize * 8 > (long) newCapacity * 3) {
+      newCapacity <<= 1;
+    }
+    final File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+    MappedByteBuffer newBuffer = null;
+    try {
+      if ((long) expectedSize * 4 > (long) MAX_CAPACITY * 3) {
+        throw new IOException("Too many replicas: " + expectedSize);
+      }
+      newBuffer = create(tmp, newCapacity);
+      final MappedByteBuffer oldBuffer = buffer;
+      final int oldCapacity = capacity;
+      buffer = newBuffer;
+      capacity = newCapacity;
+      used = 0;
+      int copied = 0;
+      for (int slot = 0; slot < oldCapacity && size > 0; slot++) {
+        final int off = offset(slot);
+        final long check = oldBuffer.getLong(off + CHECK);
+        if (check != EMPTY && check != REMOVED) {
+          final long blockId = oldBuffer.getLong(off);
+          write(freeSlot(blockId), blockId, oldBuffer.getLong(off + GENSTAMP),
+              oldBuffer.getLong(off + NUM_BYTES));
+          copied++;
+        }
+      }
+      used = copied;
+      newBuffer.force();
+      NativeIO.renameTo(tmp, file);
+      NativeIO.POSIX.munmap(oldBuffer);
+      return true;
+    } catch (IOException e) {
+      LOG.warn("Failed to rebuild replica index " + file +
+          ", it is dropped", e);
+      if (newBuffer != null && newBuffer != buffer) {
+        NativeIO.POSIX.munmap(newBuffer);
+      }
+      close();
+      if (!tmp.delete() && tmp.exists()) {
+        LOG.warn("Failed to delete " + tmp);
+      }
+      if (!file.delete() && file.exists()) {
+        LOG.warn("Failed to delete replica index " + file);
+      }
+      return false;
+    }
+  }
+
+  private int home(long blockId) {
+    return (int) mix(blockId) & (capacity - 1);
+  }
+
+  private static int offset(int slot) {
+    return HEADER_SIZE + slot * RECORD_SIZE;
+  }
+
+  @VisibleForTesting
+  static long checkWord(long blockId, long genStamp, long numBytes) {
+    long h = mix(mix(mix(blockId) ^ genStamp) ^ numBytes);
+    // never mistaken for an empty or removed record
+    return h == EMPTY || h == REMOVED ? h + 2 : h;
+  }
+
+  private static long mix(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return z ^ (z >>> 33);
+  }
+
+  @Override
+  public String toString() {
+    return file.getPath();
+  }
+}
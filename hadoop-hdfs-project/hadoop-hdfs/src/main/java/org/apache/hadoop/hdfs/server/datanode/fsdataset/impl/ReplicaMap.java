@@ -21,19 +21,27 @@
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.apache.hadoop.hdfs.util.FoldedTreeSet;
+import org.apache.hadoop.util.AutoCloseableLock;
 
 /**
  * Maintains the replica map. 
+ * <p>
+ * The map is thread safe: lookups share a read lock and updates take the
+ * write lock, both held only for the in-memory operation. Callers serialize
+ * the state changes of a replica with the locks of {@link DatasetLockManager}.
  */
 class ReplicaMap {
-  // Object using which this class is synchronized
-  private final Object mutex;
-  
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final AutoCloseableLock readLock =
+      new AutoCloseableLock(lock.readLock());
+  private final AutoCloseableLock writeLock =
+      new AutoCloseableLock(lock.writeLock());
+
   // Map of block pool Id to a set of ReplicaInfo.
   private final Map<String, FoldedTreeSet<ReplicaInfo>> map = new HashMap<>();
 
@@ -49,16 +57,8 @@ public int compare(Object o1, Object o2) {
         }
       };
 
-  ReplicaMap(Object mutex) {
-    if (mutex == null) {
-      throw new HadoopIllegalArgumentException(
-          "Object to synchronize on cannot be null");
-    }
-    this.mutex = mutex;
-  }
-  
   String[] getBlockPoolList() {
-    synchronized(mutex) {
+    try (AutoCloseableLock l = readLock.acquire()) {
       return map.keySet().toArray(new String[map.keySet().size()]);   
     }
   }
@@ -103,7 +103,7 @@ ReplicaInfo get(String bpid, Block block) {
    */
   ReplicaInfo get(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
+    try (AutoCloseableLock l = readLock.acquire()) {
       FoldedTreeSet<ReplicaInfo> set = map.get(bpid);
       if (set == null) {
         return null;
@@ -123,7 +123,7 @@ ReplicaInfo get(String bpid, long blockId) {
   ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
     checkBlockPool(bpid);
     checkBlock(replicaInfo);
-    synchronized(mutex) {
+    try (AutoCloseableLock l = writeLock.acquire()) {
       FoldedTreeSet<ReplicaInfo> set = map.get(bpid);
       if (set == null) {
         // Add an entry for block pool if it does not exist already
@@ -138,7 +138,9 @@ ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
    * Add all entries from the given replica map into the local replica map.
    */
   void addAll(ReplicaMap other) {
-    map.putAll(other.map);
+    try (AutoCloseableLock l = writeLock.acquire()) {
+      map.putAll(other.map);
+    }
   }
   
   /**
@@ -152,7 +154,7 @@ void addAll(ReplicaMap other) {
   ReplicaInfo remove(String bpid, Block block) {
     checkBlockPool(bpid);
     checkBlock(block);
-    synchronized(mutex) {
+    try (AutoCloseableLock l = writeLock.acquire()) {
       FoldedTreeSet<ReplicaInfo> set = map.get(bpid);
       if (set != null) {
         ReplicaInfo replicaInfo =
@@ -175,7 +177,7 @@ ReplicaInfo remove(String bpid, Block block) {
    */
   ReplicaInfo remove(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
+    try (AutoCloseableLock l = writeLock.acquire()) {
       FoldedTreeSet<ReplicaInfo> set = map.get(bpid);
       if (set != null) {
         return set.removeAndGet(blockId, LONG_AND_BLOCK_COMPARATOR);
@@ -190,7 +192,7 @@ ReplicaInfo remove(String bpid, long blockId) {
    * @return the number of replicas in the map
    */
   int size(String bpid) {
-    synchronized(mutex) {
+    try (AutoCloseableLock l = readLock.acquire()) {
       FoldedTreeSet<ReplicaInfo> set = map.get(bpid);
       return set != null ? set.size() : 0;
     }
@@ -198,10 +200,10 @@ int size(String bpid) {
   
   /**
    * Get a collection of the replicas for given block pool
-   * This method is <b>not synchronized</b>. It needs to be synchronized
-   * externally using the mutex, both for getting the replicas
-   * values from the map and iterating over it. Mutex can be accessed using
-   * {@link #getMutext()} method.
+   * This method is <b>not synchronized</b>. The caller must hold
+   * {@link #getReadLock()} both for getting the replicas from the map and
+   * iterating over them, or {@link #getWriteLock()} to remove replicas
+   * through the iterator.
    * 
    * @param bpid block pool id
    * @return a collection of the replicas belonging to the block pool
@@ -212,7 +214,7 @@ Collection<ReplicaInfo> replicas(String bpid) {
 
   void initBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
+    try (AutoCloseableLock l = writeLock.acquire()) {
       FoldedTreeSet<ReplicaInfo> set = map.get(bpid);
       if (set == null) {
         // Add an entry for block pool if it does not exist already
@@ -224,16 +226,23 @@ void initBlockPool(String bpid) {
   
   void cleanUpBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
+    try (AutoCloseableLock l = writeLock.acquire()) {
       map.remove(bpid);
     }
   }
-  
+
+  /**
+   * @return the lock to hold while iterating over {@link #replicas(String)}.
+   */
+  AutoCloseableLock getReadLock() {
+    return readLock;
+  }
+
   /**
-   * Give access to mutex used for synchronizing ReplicasMap
-   * @return object used as lock
+   * @return the lock to hold while removing replicas through the iterator of
+   *         {@link #replicas(String)}, or to make several updates atomic.
    */
-  Object getMutex() {
-    return mutex;
+  AutoCloseableLock getWriteLock() {
+    return writeLock;
   }
 }
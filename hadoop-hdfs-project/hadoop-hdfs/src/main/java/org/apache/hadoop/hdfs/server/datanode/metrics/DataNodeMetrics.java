@@ -28,6 +28,7 @@
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
@@ -131,6 +132,19 @@ public class DataNodeMetrics {
   @Metric("Count of erasure coding failed reconstruction tasks")
   MutableCounterLong ecFailedReconstructionTasks;
 
+  @Metric("Directories listed by the directory scanner")
+  MutableCounterLong directoryScanDirsListed;
+  @Metric("Unchanged directories skipped by the directory scanner")
+  MutableCounterLong directoryScanDirsSkipped;
+  @Metric("Estimated disk operations of the directory scanner")
+  MutableCounterLong directoryScanDiskOps;
+  @Metric("Differences reconciled by the directory scanner")
+  MutableCounterLong directoryScanDiffsReconciled;
+  @Metric("Volumes left to compile in the current directory scan")
+  MutableGaugeInt directoryScanVolumesPending;
+  @Metric("Duration of the directory scans in ms")
+  MutableRate directoryScans;
+
   final MetricsRegistry registry = new MetricsRegistry("datanode");
   final String name;
   JvmMetrics jvmMetrics = null;
@@ -279,6 +293,14 @@ public void addBlockChecksumOp(long latency) {
     blockChecksumOp.add(latency);
   }
 
+  public long getBytesWritten() {
+    return bytesWritten.value();
+  }
+
+  public long getBytesRead() {
+    return bytesRead.value();
+  }
+
   public void incrBytesRead(int delta) {
     bytesRead.incr(delta);
   }
@@ -429,4 +451,22 @@ public void incrECFailedReconstructionTasks() {
     ecFailedReconstructionTasks.incr();
   }
 
+  public void addDirectoryScanCost(long dirsListed, long dirsSkipped,
+      long diskOps) {
+    directoryScanDirsListed.incr(dirsListed);
+    directoryScanDirsSkipped.incr(dirsSkipped);
+    directoryScanDiskOps.incr(diskOps);
+  }
+
+  public void incrDirectoryScanDiffsReconciled(int delta) {
+    directoryScanDiffsReconciled.incr(delta);
+  }
+
+  public void setDirectoryScanVolumesPending(int volumes) {
+    directoryScanVolumesPending.set(volumes);
+  }
+
+  public void addDirectoryScan(long latency) {
+    directoryScans.add(latency);
+  }
 }
@@ -143,4 +143,15 @@ public void addTypeSpace(StorageType t, long val) {
   public void addTypeSpaces(EnumCounters<StorageType> that) {
     this.types.add(that);
   }
+
+  public void subtractContents(ContentCounts that) {
+    contents.subtract(that.contents);
+    types.subtract(that.types);
+  }
+
+  public ContentCounts copy() {
+    ContentCounts copy = new Builder().build();
+    copy.addContents(this);
+    return copy;
+  }
 }
@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Caches the {@link ContentCounts} of the directories in the top levels of
+ * the namespace, so that a content summary does not walk subtrees which did
+ * not change since they were last counted.
+ * <p>
+ * Entries are filled in by the content summary computation and dropped on
+ * mutation: every change to the namespace invalidates the entries of the
+ * changed inode and all of its ancestors. A summary computed after a change
+ * therefore only walks the changed path again, and reuses the cached counts
+ * of all its unchanged siblings.
+ * <p>
+ * Subtrees whose counts may change without going through the namespace are
+ * never cached: files under construction or with an incomplete last block,
+ * directories with snapshot diffs and reference nodes. Deleting a snapshot
+ * clears the whole cache.
+ * <p>
+ * The content summary is computed under the read lock, so lookups and
+ * updates can be concurrent; invalidation happens under the write lock. A
+ * computation which released the lock in the middle only stores its result
+ * if the directory was not invalidated in the meantime.
+ */
+class ContentSummaryCache {
+  /** A cached count, or a placeholder for a computation in progress. */
+  static final class Entry {
+    private final ContentCounts counts;
+    /** The effective storage policy the type spaces were computed with. */
+    private final byte storagePolicyId;
+
+    private Entry(ContentCounts counts, byte storagePolicyId) {
+      this.counts = counts;
+      this.storagePolicyId = storagePolicyId;
+    }
+  }
+
+  /** Directories deeper than this are not cached; the root is at 0. */
+  private final int maxDepth;
+  private final ConcurrentHashMap<Long, Entry> cache =
+      new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  ContentSummaryCache(int maxDepth) {
+    this.maxDepth = maxDepth;
+  }
+
+  /**
+   * @return the cached counts of the directory, or null if the directory is
+   *         not cached or the cached counts are stale.
+   */
+  ContentCounts get(INodeDirectory dir) {
+    final Entry e = cache.get(dir.getId());
+    if (e != null && e.counts != null
+        && e.storagePolicyId == dir.getStoragePolicyID()) {
+      hits.incrementAndGet();
+      return e.counts;
+    }
+    return null;
+  }
+
+  /**
+   * Start counting the given directory.
+   * @return the pending entry to pass to {@link #put} or {@link #abort}, or null if
+   *         the directory is not to be cached.
+   */
+  Entry begin(INodeDirectory dir) {
+    if (!isCacheable(dir)) {
+      return null;
+    }
+    misses.incrementAndGet();
+    final Entry pending = new Entry(null, dir.getStoragePolicyID());
+    cache.put(dir.getId(), pending);
+    return pending;
+  }
+
+  /**
+   * Store the counts of a directory, unless it has been invalidated since
+   * {@link #begin} was called.
+   */
+  void put(INodeDirectory dir, Entry pending, ContentCounts counts) {
+    cache.replace(dir.getId(), pending,
+        new Entry(counts, pending.storagePolicyId));
+  }
+
+  /** Give up counting the given directory. */
+  void abort(INodeDirectory dir, Entry pending) {
+    cache.remove(dir.getId(), pending);
+  }
+
+  /** Invalidate the given inode and all of its ancestors. */
+  void invalidate(INode inode) {
+    if (cache.isEmpty()) {
+      return;
+    }
+    for (INode i = inode; i != null; i = i.getParent()) {
+      cache.remove(i.getId());
+    }
+  }
+
+  /** Invalidate all the inodes of the given path. */
+  void invalidate(INodesInPath iip) {
+    if (cache.isEmpty()) {
+      return;
+    }
+    for (int i = 0; i < iip.length(); i++) {
+      final INode inode = iip.getINode(i);
+      if (inode != null) {
+        cache.remove(inode.getId());
+      }
+    }
+  }
+
+  /** Drop the entry of an inode which is removed from the namespace. */
+  void remove(INode inode) {
+    cache.remove(inode.getId());
+  }
+
+  void clear() {
+    cache.clear();
+  }
+
+  private boolean isCacheable(INodeDirectory dir) {
+    int depth = 0;
+    for (INode i = dir.getParent(); i != null; i = i.getParent()) {
+      if (++depth > maxDepth) {
+        return false;
+      }
+    }
+    return dir.isRoot() || dir.getParent() != null;
+  }
+
+  @VisibleForTesting
+  int size() {
+    return cache.size();
+  }
+
+  @VisibleForTesting
+  long getHits() {
+    return hits.get();
+  }
+
+  @VisibleForTesting
+  long getMisses() {
+    return misses.get();
+  }
+}
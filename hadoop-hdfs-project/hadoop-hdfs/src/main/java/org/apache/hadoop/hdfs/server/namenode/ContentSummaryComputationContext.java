@@ -34,6 +34,7 @@ public class ContentSummaryComputationContext {
   private long yieldCount = 0;
   private long sleepMilliSec = 0;
   private int sleepNanoSec = 0;
+  private long uncacheableCount = 0;
 
   /**
    * Constructor
@@ -106,7 +107,7 @@ public boolean yield() {
 
     // unlock
     dir.readUnlock();
-    fsn.readUnlock();
+    fsn.readUnlock("getContentSummary");
 
     try {
       Thread.sleep(sleepMilliSec, sleepNanoSec);
@@ -125,6 +126,27 @@ public ContentCounts getCounts() {
     return counts;
   }
 
+  /**
+   * @return the cache of directory counts to use, or null if the counts are
+   *         not to be cached.
+   */
+  ContentSummaryCache getContentSummaryCache() {
+    return dir == null ? null : dir.getContentSummaryCache();
+  }
+
+  /**
+   * Record that the subtree being counted contains content which may change
+   * without invalidating the cached counts of its ancestors.
+   */
+  public void markUncacheable() {
+    uncacheableCount++;
+  }
+
+  /** Return the number of times {@link #markUncacheable()} was called */
+  public long getUncacheableCount() {
+    return uncacheableCount;
+  }
+
   public BlockStoragePolicySuite getBlockStoragePolicySuite() {
     Preconditions.checkState((bsps != null || fsn != null),
         "BlockStoragePolicySuite must be either initialized or available via" +
@@ -188,6 +188,7 @@ static LocatedBlock prepareFileForAppend(final FSNamesystem fsn,
 
     file.recordModification(iip.getLatestSnapshotId());
     file.toUnderConstruction(leaseHolder, clientMachine);
+    fsn.getFSDirectory().invalidateContentSummary(file);
 
     fsn.getLeaseManager().addLease(
         file.getFileUnderConstructionFeature().getClientName(), file.getId());
@@ -495,6 +495,9 @@ static void unprotectedSetStoragePolicy(FSDirectory fsd, BlockManager bm,
       throw new FileNotFoundException(iip.getPath()
           + " is not a file or directory");
     }
+    // the cached counts below a directory are dropped on lookup once their
+    // effective storage policy no longer matches
+    fsd.invalidateContentSummary(inode);
   }
 
   private static void setDirStoragePolicy(
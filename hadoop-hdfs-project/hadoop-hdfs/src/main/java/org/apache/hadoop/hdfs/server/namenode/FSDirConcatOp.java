@@ -261,6 +261,8 @@ static void unprotectedConcat(FSDirectory fsd, INodesInPath targetIIP,
 
     trgInode.setModificationTime(timestamp, targetIIP.getLatestSnapshotId());
     trgParent.updateModificationTime(timestamp, targetIIP.getLatestSnapshotId());
+    // the srcs were in the same directory as the target
+    fsd.invalidateContentSummary(trgInode);
     // update quota on the parent directory with deltas
     FSDirectory.unprotectedUpdateCount(targetIIP, targetIIP.length() - 1, deltas);
   }
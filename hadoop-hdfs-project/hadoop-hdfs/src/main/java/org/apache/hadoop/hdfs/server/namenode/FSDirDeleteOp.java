@@ -22,13 +22,17 @@
 import org.apache.hadoop.fs.PathIsNotEmptyDirectoryException;
 import org.apache.hadoop.fs.UnresolvedLinkException;
 import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.hdfs.protocol.SnapshotException;
 import org.apache.hadoop.hdfs.server.namenode.INode.BlocksMapUpdateInfo;
 import org.apache.hadoop.hdfs.server.namenode.INode.ReclaimContext;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.util.ChunkedArrayList;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.SortedSet;
 
@@ -89,12 +93,15 @@ static long delete(FSDirectory fsd, INodesInPath iip,
    * @param recursive boolean true to apply to all sub-directories recursively
    * @param logRetryCache whether to record RPC ids in editlog for retry cache
    *          rebuilding
+   * @param reclaim if not null, collects what is left to reclaim after the
+   *          target has been unlinked, so that the caller can do it
+   *          incrementally after releasing the lock
    * @return blocks collected from the deleted path
    * @throws IOException
    */
   static BlocksMapUpdateInfo delete(
-      FSNamesystem fsn, String src, boolean recursive, boolean logRetryCache)
-      throws IOException {
+      FSNamesystem fsn, String src, boolean recursive, boolean logRetryCache,
+      DeferredReclaim reclaim) throws IOException {
     FSDirectory fsd = fsn.getFSDirectory();
     FSPermissionChecker pc = fsd.getPermissionChecker();
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
@@ -112,7 +119,7 @@ static BlocksMapUpdateInfo delete(
       checkProtectedDescendants(fsd, fsd.normalizePath(src));
     }
 
-    return deleteInternal(fsn, src, iip, logRetryCache);
+    return deleteInternal(fsn, src, iip, logRetryCache, reclaim);
   }
 
   /**
@@ -173,6 +180,21 @@ static void deleteForEditLog(FSDirectory fsd, String src, long mtime)
   static BlocksMapUpdateInfo deleteInternal(
       FSNamesystem fsn, String src, INodesInPath iip, boolean logRetryCache)
       throws IOException {
+    return deleteInternal(fsn, src, iip, logRetryCache, null);
+  }
+
+  /**
+   * Remove a file/directory from the namespace, optionally leaving the
+   * removal of the deleted inodes to the caller.
+   *
+   * @see #deleteInternal(FSNamesystem, String, INodesInPath, boolean)
+   * @param reclaim if not null, collects the deleted inodes instead of
+   *          removing them from the inode map, or the whole unlinked
+   *          subtree if it can be destroyed later
+   */
+  static BlocksMapUpdateInfo deleteInternal(
+      FSNamesystem fsn, String src, INodesInPath iip, boolean logRetryCache,
+      DeferredReclaim reclaim) throws IOException {
     assert fsn.hasWriteLock();
     if (NameNode.stateChangeLog.isDebugEnabled()) {
       NameNode.stateChangeLog.debug("DIR* NameSystem.delete: " + src);
@@ -184,20 +206,28 @@ static BlocksMapUpdateInfo deleteInternal(
 
     FSDirectory fsd = fsn.getFSDirectory();
     BlocksMapUpdateInfo collectedBlocks = new BlocksMapUpdateInfo();
-    List<INode> removedINodes = new ChunkedArrayList<>();
+    List<INode> removedINodes = reclaim != null ?
+        reclaim.removedINodes : new ChunkedArrayList<INode>();
     List<Long> removedUCFiles = new ChunkedArrayList<>();
 
     long mtime = now();
-    // Unlink the target directory from directory tree
-    long filesRemoved = delete(
-        fsd, iip, collectedBlocks, removedINodes, removedUCFiles, mtime);
+    long filesRemoved;
+    if (reclaim != null && canDeferSubtree(fsn, iip)) {
+      // Only unlink the target, its subtree is destroyed by the caller
+      filesRemoved = unlink(fsd, iip, reclaim, mtime);
+    } else {
+      // Unlink the target directory from directory tree
+      filesRemoved = delete(
+          fsd, iip, collectedBlocks, removedINodes, removedUCFiles, mtime);
+    }
     if (filesRemoved < 0) {
       return null;
     }
     fsd.getEditLog().logDelete(src, mtime, logRetryCache);
     incrDeletedFileCount(filesRemoved);
 
-    fsn.removeLeasesAndINodes(removedUCFiles, removedINodes, true);
+    fsn.removeLeasesAndINodes(removedUCFiles,
+        reclaim != null ? null : removedINodes, true);
 
     if (NameNode.stateChangeLog.isDebugEnabled()) {
       NameNode.stateChangeLog.debug("DIR* Namesystem.delete: "
@@ -210,6 +240,200 @@ static void incrDeletedFileCount(long count) {
     NameNode.getNameNodeMetrics().incrFilesDeleted(count);
   }
 
+  /**
+   * Destroy the next batch of a subtree unlinked by a delete whose reclaim
+   * was deferred. Its inodes are removed from the inode map and the leases
+   * of its open files are released; its blocks are only collected.
+   *
+   * @param fsn namespace
+   * @param reclaim the deferred reclaim holding the unlinked subtree
+   * @param collectedBlocks blocks of the destroyed files are added here
+   * @param limit maximum number of inodes to destroy
+   */
+  static void reclaimSubtree(FSNamesystem fsn, DeferredReclaim reclaim,
+      BlocksMapUpdateInfo collectedBlocks, int limit) throws IOException {
+    assert fsn.hasWriteLock();
+    FSDirectory fsd = fsn.getFSDirectory();
+    List<INode> removedINodes = new ChunkedArrayList<>();
+    List<Long> removedUCFiles = new ChunkedArrayList<>();
+    List<INodeDirectory> snapshottableDirs = new ArrayList<>();
+    ReclaimContext context = new ReclaimContext(
+        fsd.getBlockStoragePolicySuite(), collectedBlocks, removedINodes,
+        removedUCFiles);
+    fsd.writeLock();
+    try {
+      reclaim.destroyNext(context, snapshottableDirs, limit);
+      // only the root can have a quota above a deferred subtree
+      fsd.updateCountNoQuotaCheck(INodesInPath.fromINode(fsd.getRoot()), 1,
+          context.quotaDelta().getCountsCopy().negation());
+      fsn.removeSnapshottableDirs(snapshottableDirs);
+      fsn.removeLeasesAndINodes(removedUCFiles, removedINodes, false);
+    } finally {
+      fsd.writeUnlock();
+    }
+    incrDeletedFileCount(context.quotaDelta().getNsDelta());
+  }
+
+  /**
+   * Remove the next batch of the inodes destroyed by a delete whose reclaim
+   * was deferred from the inode map.
+   *
+   * @param fsd the FSDirectory instance
+   * @param reclaim the deferred reclaim holding the destroyed inodes
+   * @param limit maximum number of inodes to remove
+   * @return the number of inodes removed
+   */
+  static int removeINodes(FSDirectory fsd, DeferredReclaim reclaim,
+      int limit) {
+    assert fsd.getFSNamesystem().hasWriteLock();
+    final List<INode> batch = reclaim.nextRemovedINodes(limit);
+    fsd.writeLock();
+    try {
+      fsd.removeFromInodeMap(batch);
+    } finally {
+      fsd.writeUnlock();
+    }
+    return batch.size();
+  }
+
+  /**
+   * A subtree can be left to {@link #reclaimSubtree} instead of being walked
+   * right away if the target is a directory without snapshot data, there is
+   * no snapshot that could refer into it, and no ancestor but the root has a
+   * quota. Once unlinked, nothing else can then reach the subtree by path,
+   * and only the usage of the root, which is never moved, needs updating as
+   * the subtree is destroyed.
+   */
+  private static boolean canDeferSubtree(FSNamesystem fsn, INodesInPath iip) {
+    final INode target = iip.getLastINode();
+    if (!isPlainDirectory(target)
+        || fsn.getSnapshotManager().getNumSnapshots() > 0) {
+      return false;
+    }
+    for (int i = 1; i < iip.length() - 1; i++) {
+      if (iip.getINode(i).isQuotaSet()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isPlainDirectory(INode inode) {
+    return inode != null && !inode.isReference() && inode.isDirectory()
+        && !inode.asDirectory().isWithSnapshot();
+  }
+
+  /**
+   * Unlink the target directory from the directory tree without walking its
+   * subtree, which is handed over to the given {@link DeferredReclaim}.
+   *
+   * @return 0 if the target has been unlinked, -1 otherwise
+   */
+  private static long unlink(FSDirectory fsd, INodesInPath iip,
+      DeferredReclaim reclaim, long mtime) {
+    fsd.writeLock();
+    try {
+      if (!deleteAllowed(iip, iip.getPath())) {
+        return -1;
+      }
+      final INodeDirectory target = iip.getLastINode().asDirectory();
+      if (fsd.removeLastINode(iip) == -1) {
+        return -1;
+      }
+      target.getParent().updateModificationTime(mtime,
+          iip.getLatestSnapshotId());
+      // like a destroyed inode, the subtree no longer leads to the root
+      target.setParent(null);
+      reclaim.push(target);
+      return 0;
+    } finally {
+      fsd.writeUnlock();
+    }
+  }
+
+  /**
+   * What a delete leaves to its caller once the target has been unlinked, so
+   * that it can be reclaimed in batches with the FSNamesystem write lock
+   * released in between.
+   * <p>
+   * Usually the subtree is still destroyed under the lock and only the
+   * removal of its inodes from the inode map is deferred. If the subtree
+   * does not need to be walked right away, see
+   * {@link #canDeferSubtree(FSNamesystem, INodesInPath)}, it is instead
+   * destroyed here in post-order, a bounded number of inodes at a time.
+   */
+  static class DeferredReclaim {
+    /** Destroyed inodes that are still in the inode map. */
+    private final List<INode> removedINodes = new ChunkedArrayList<>();
+    /** Directories of the unlinked subtree that are still being walked. */
+    private final Deque<INodeDirectory> dirs = new ArrayDeque<>();
+    /** The remaining children of each directory in {@link #dirs}. */
+    private final Deque<Iterator<INode>> children = new ArrayDeque<>();
+    /** The destroyed inodes not yet removed from the inode map, if any. */
+    private Iterator<INode> toRemove;
+
+    /** @return destroyed inodes still to be removed from the inode map */
+    List<INode> getRemovedINodes() {
+      return removedINodes;
+    }
+
+    /** @return true if part of an unlinked subtree is left to destroy */
+    boolean hasSubtree() {
+      return !dirs.isEmpty();
+    }
+
+    /** @return true if nothing is left to reclaim */
+    boolean isEmpty() {
+      return removedINodes.isEmpty() && dirs.isEmpty();
+    }
+
+    /** Take up to limit destroyed inodes to remove from the inode map. */
+    private List<INode> nextRemovedINodes(int limit) {
+      if (toRemove == null) {
+        toRemove = removedINodes.iterator();
+      }
+      final List<INode> batch =
+          new ArrayList<>(Math.min(limit, removedINodes.size()));
+      while (batch.size() < limit && toRemove.hasNext()) {
+        batch.add(toRemove.next());
+      }
+      if (!toRemove.hasNext()) {
+        removedINodes.clear();
+        toRemove = null;
+      }
+      return batch;
+    }
+
+    private void push(INodeDirectory dir) {
+      dirs.push(dir);
+      children.push(dir.getChildrenList(CURRENT_STATE_ID).iterator());
+    }
+
+    /**
+     * Destroy up to limit inodes, children before their parent directory.
+     * Inodes with snapshot data are destroyed along with their subtree.
+     */
+    private void destroyNext(ReclaimContext context,
+        List<INodeDirectory> snapshottableDirs, int limit)
+        throws SnapshotException {
+      for (int i = 0; i < limit && !dirs.isEmpty(); i++) {
+        final Iterator<INode> iter = children.peek();
+        if (!iter.hasNext()) {
+          children.pop();
+          dirs.pop().destroyAfterChildren(context);
+          continue;
+        }
+        final INode child = iter.next();
+        if (isPlainDirectory(child)) {
+          push(child.asDirectory());
+        } else {
+          FSDirSnapshotOp.checkSnapshot(child, snapshottableDirs);
+          child.destroyAndCollectBlocks(context);
+        }
+      }
+    }
+  }
+
   private static boolean deleteAllowed(final INodesInPath iip,
       final String src) {
     if (iip.length() < 1 || iip.getLastINode() == null) {
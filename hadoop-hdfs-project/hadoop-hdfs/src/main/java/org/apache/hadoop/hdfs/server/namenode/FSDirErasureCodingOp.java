@@ -204,7 +204,7 @@ static boolean hasErasureCodingPolicy(final FSNamesystem fsn,
    */
   static ErasureCodingPolicy getErasureCodingPolicy(final FSNamesystem fsn,
       final INodesInPath iip) throws IOException {
-    assert fsn.hasReadLock();
+    assert fsn.hasReadLockOrOptimisticRead();
 
     return getErasureCodingPolicyForPath(fsn, iip);
   }
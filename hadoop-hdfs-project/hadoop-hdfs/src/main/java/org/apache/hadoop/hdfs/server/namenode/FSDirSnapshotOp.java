@@ -103,6 +103,7 @@ static String createSnapshot(
     try {
       snapshotPath = snapshotManager.createSnapshot(iip, snapshotRoot,
           snapshotName);
+      fsd.invalidateContentSummary(iip.getLastINode());
     } finally {
       fsd.writeUnlock();
     }
@@ -220,6 +221,8 @@ static INode.BlocksMapUpdateInfo deleteSnapshot(
     try {
       snapshotManager.deleteSnapshot(iip, snapshotName, context);
       fsd.updateCount(iip, context.quotaDelta(), false);
+      // the snapshot data of any file or directory below the root may be gone
+      fsd.clearContentSummaryCache();
       fsd.removeFromInodeMap(removedINodes);
       fsd.updateReplicationFactor(context.collectedBlocks()
                                       .toUpdateReplicationInfo());
@@ -138,6 +138,7 @@ private static INodeDirectory createRoot(FSNamesystem namesystem) {
   private final int lsLimit;  // max list limit
   private final int contentCountLimit; // max content summary counts per run
   private final long contentSleepMicroSec;
+  private final ContentSummaryCache contentSummaryCache; // null if disabled
   private final INodeMap inodeMap; // Synchronized by dirLock
   private long yieldCount = 0; // keep track of lock yield count.
   private int quotaInitThreads;
@@ -282,6 +283,12 @@ public int getWriteHoldCount() {
     this.contentSleepMicroSec = conf.getLong(
         DFSConfigKeys.DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_KEY,
         DFSConfigKeys.DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_DEFAULT);
+    this.contentSummaryCache = conf.getBoolean(
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_ENABLED_KEY,
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_ENABLED_DEFAULT) ?
+        new ContentSummaryCache(conf.getInt(
+            DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_MAX_DEPTH_KEY,
+            DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_MAX_DEPTH_DEFAULT)) : null;
     
     // filesystem limits
     this.maxComponentLength = conf.getInt(
@@ -473,6 +480,28 @@ long getContentSleepMicroSec() {
     return contentSleepMicroSec;
   }
 
+  ContentSummaryCache getContentSummaryCache() {
+    return contentSummaryCache;
+  }
+
+  /**
+   * Invalidate the cached content counts of the given inode and its
+   * ancestors, after a change which is not made through
+   * {@link #updateCount} or {@link #removeLastINode}.
+   */
+  void invalidateContentSummary(INode inode) {
+    if (contentSummaryCache != null) {
+      contentSummaryCache.invalidate(inode);
+    }
+  }
+
+  /** Invalidate all the cached content counts. */
+  void clearContentSummaryCache() {
+    if (contentSummaryCache != null) {
+      contentSummaryCache.clear();
+    }
+  }
+
   int getInodeXAttrsLimit() {
     return inodeXAttrsLimit;
   }
@@ -806,6 +835,9 @@ void updateCount(INodesInPath iip, int numOfINodes,
                     QuotaCounts counts, boolean checkQuota)
                     throws QuotaExceededException {
     assert hasWriteLock();
+    if (contentSummaryCache != null) {
+      contentSummaryCache.invalidate(iip);
+    }
     if (!namesystem.isImageLoaded()) {
       //still initializing. do not check or update quotas.
       return;
@@ -1142,6 +1174,9 @@ public long removeLastINode(final INodesInPath iip) {
     if (!parent.removeChild(last, latestSnapshot)) {
       return -1;
     }
+    if (contentSummaryCache != null) {
+      contentSummaryCache.invalidate(iip);
+    }
 
     return (!last.isInLatestSnapshot(latestSnapshot)
         && INodeReference.tryRemoveReference(last) > 0) ? 0 : 1;
@@ -1252,6 +1287,9 @@ public final void removeFromInodeMap(List<? extends INode> inodes) {
         if (inode != null && inode instanceof INodeWithAdditionalFields) {
           inodeMap.remove(inode);
           ezManager.removeEncryptionZone(inode.getId());
+          if (contentSummaryCache != null) {
+            contentSummaryCache.remove(inode);
+          }
         }
       }
     }
@@ -1271,6 +1309,36 @@ public INode getInode(long id) {
     }
   }
   
+  /**
+   * Check whether an inode was deleted but is still in the inode map because
+   * its delete is reclaiming inodes in batches, see
+   * {@link FSNamesystem#reclaimPendingDeletes()}. Such an inode, or the
+   * root of its unlinked subtree, no longer has a parent.
+   *
+   * @param inode an inode from the inode map
+   * @return true if the inode can no longer be reached from the root
+   */
+  boolean isUnlinked(INode inode) {
+    if (!getFSNamesystem().hasPendingReclaim()) {
+      return false;
+    }
+    readLock();
+    try {
+      for (INode i = inode; !i.isRoot(); i = i.getParent()) {
+        if (i.getParentReference() != null) {
+          // a reference is only left by a snapshot, which keeps the inode
+          return false;
+        }
+        if (i.getParent() == null) {
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      readUnlock();
+    }
+  }
+
   @VisibleForTesting
   int getInodeMapSize() {
     return inodeMap.size();
@@ -1288,6 +1356,7 @@ void reset() {
     try {
       rootDir = createRoot(getFSNamesystem());
       inodeMap.clear();
+      clearContentSummaryCache();
       addToInodeMap(rootDir);
       nameCache.reset();
       inodeId.setCurrentValue(INodeId.LAST_RESERVED_ID);
@@ -1453,7 +1522,7 @@ private static String resolveDotInodesPath(String src,
       return Path.SEPARATOR;
     }
     INode inode = fsd.getInode(id);
-    if (inode == null) {
+    if (inode == null || fsd.isUnlinked(inode)) {
       throw new FileNotFoundException(
           "File for given inode path does not exist: " + src);
     }
@@ -673,6 +673,7 @@ protected void logSync(long mytxid) {
       if (metrics != null) { // Metrics non-null only when used inside name node
         metrics.addSync(elapsed);
         metrics.incrTransactionsBatchedInSync(editsBatchedInSync);
+        metrics.addSyncBatchSize(editsBatchedInSync + 1);
         numTransactionsBatchedInSync.addAndGet(editsBatchedInSync);
       }
       
@@ -20,6 +20,7 @@
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -29,8 +30,12 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.util.ExitUtil;
+import org.apache.hadoop.util.Time;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
@@ -51,10 +56,34 @@ class FSEditLogAsync extends FSEditLog implements Runnable {
   // of the edit log buffer - ie. a sync will eventually be forced.
   private final Deque<Edit> syncWaitQ = new ArrayDeque<Edit>();
 
+  // when pipelined, batches of edits handed from the edit thread to the
+  // flush thread.  bounded so the edit thread stops accepting edits once
+  // too many batches are waiting on the journals.  null if not pipelined.
+  private final BlockingQueue<SyncBatch> inflightQ;
+  private Thread flushThread;
+  private final NameNodeMetrics metrics;
+
   FSEditLogAsync(Configuration conf, NNStorage storage, List<URI> editsDirs) {
     super(conf, storage, editsDirs);
     // op instances cannot be shared due to queuing for background thread.
     cache.disableCache();
+    boolean pipelined = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PIPELINED,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PIPELINED_DEFAULT);
+    if (pipelined) {
+      int maxInflightBatches = conf.getInt(
+          DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_MAX_INFLIGHT_BATCHES,
+          DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_MAX_INFLIGHT_BATCHES_DEFAULT);
+      Preconditions.checkArgument(maxInflightBatches > 0,
+          DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_MAX_INFLIGHT_BATCHES +
+          " must be positive");
+      inflightQ = new ArrayBlockingQueue<SyncBatch>(maxInflightBatches);
+      LOG.info("Async edit logging is pipelined with at most " +
+          maxInflightBatches + " in-flight batches");
+    } else {
+      inflightQ = null;
+    }
+    metrics = NameNode.getNameNodeMetrics();
   }
 
   private boolean isSyncThreadAlive() {
@@ -65,6 +94,16 @@ private boolean isSyncThreadAlive() {
 
   private void startSyncThread() {
     synchronized(syncThreadLock) {
+      if (inflightQ != null &&
+          (flushThread == null || !flushThread.isAlive())) {
+        flushThread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            runFlusher();
+          }
+        }, this.getClass().getSimpleName() + "Flusher");
+        flushThread.start();
+      }
       if (!isSyncThreadAlive()) {
         syncThread = new Thread(this, this.getClass().getSimpleName());
         syncThread.start();
@@ -84,6 +123,21 @@ private void stopSyncThread() {
           syncThread = null;
         }
       }
+      if (flushThread != null) {
+        try {
+          // let the flush thread sync whatever the edit thread handed off
+          // before it stopped, so no caller is left waiting on a response.
+          while (flushThread.isAlive() &&
+              !inflightQ.offer(SyncBatch.STOP, 1, TimeUnit.SECONDS)) {
+            // flush thread is still draining a full queue.
+          }
+          flushThread.join();
+        } catch (InterruptedException e) {
+          // we're quitting anyway.
+        } finally {
+          flushThread = null;
+        }
+      }
     }
   }
 
@@ -180,7 +234,11 @@ public void run() {
           // sync when editq runs dry, but have edits pending a sync.
           doSync = !syncWaitQ.isEmpty();
         }
-        if (doSync) {
+        if (doSync && inflightQ != null) {
+          // hand the batch to the flush thread and go back to buffering
+          // edits while the batch is synced.
+          handOffSyncBatch();
+        } else if (doSync) {
           // normally edit log exceptions cause the NN to terminate, but tests
           // relying on ExitUtil.terminate need to see the exception.
           RuntimeException syncEx = null;
@@ -201,6 +259,66 @@ public void run() {
     }
   }
 
+  private void handOffSyncBatch() throws InterruptedException {
+    SyncBatch batch = new SyncBatch(getLastWrittenTxId(),
+        new ArrayList<Edit>(syncWaitQ));
+    // blocks if max in-flight batches are already waiting on the journals.
+    inflightQ.put(batch);
+    syncWaitQ.clear();
+    if (metrics != null) {
+      metrics.setAsyncEditBatchesInFlight(inflightQ.size());
+    }
+  }
+
+  /**
+   * Body of the flush thread in pipelined mode.  Every batch queued by the
+   * time a sync starts is covered by that sync, so a slow journal results in
+   * larger syncs rather than a longer queue.
+   */
+  private void runFlusher() {
+    List<SyncBatch> batches = new ArrayList<SyncBatch>();
+    try {
+      boolean stopped = false;
+      while (!stopped) {
+        batches.add(inflightQ.take());
+        inflightQ.drainTo(batches);
+        long lastTxId = HdfsServerConstants.INVALID_TXID;
+        for (SyncBatch batch : batches) {
+          if (batch == SyncBatch.STOP) {
+            stopped = true;
+          } else {
+            lastTxId = Math.max(lastTxId, batch.txid);
+          }
+        }
+        RuntimeException syncEx = null;
+        if (lastTxId != HdfsServerConstants.INVALID_TXID) {
+          try {
+            logSync(lastTxId);
+          } catch (RuntimeException ex) {
+            syncEx = ex;
+          }
+        }
+        long now = Time.monotonicNow();
+        for (SyncBatch batch : batches) {
+          for (Edit edit : batch.edits) {
+            edit.logSyncNotify(syncEx);
+          }
+          if (metrics != null && batch != SyncBatch.STOP) {
+            metrics.addAsyncEditBatchSync(now - batch.queuedTime);
+          }
+        }
+        batches.clear();
+        if (metrics != null) {
+          metrics.setAsyncEditBatchesInFlight(inflightQ.size());
+        }
+      }
+    } catch (InterruptedException ie) {
+      LOG.info(Thread.currentThread().getName() + " was interrupted, exiting");
+    } catch (Throwable t) {
+      terminate(t);
+    }
+  }
+
   private void terminate(Throwable t) {
     String message = "Exception while edit logging: "+t.getMessage();
     LOG.fatal(message, t);
@@ -219,6 +337,21 @@ private Edit getEditInstance(FSEditLogOp op) {
     return edit;
   }
 
+  // edits that become durable once the log is synced through txid.
+  private static class SyncBatch {
+    static final SyncBatch STOP = new SyncBatch(
+        HdfsServerConstants.INVALID_TXID, new ArrayList<Edit>(0));
+
+    final long txid;
+    final List<Edit> edits;
+    final long queuedTime = Time.monotonicNow();
+
+    SyncBatch(long txid, List<Edit> edits) {
+      this.txid = txid;
+      this.edits = edits;
+    }
+  }
+
   private abstract static class Edit {
     final FSEditLog log;
     final FSEditLogOp op;
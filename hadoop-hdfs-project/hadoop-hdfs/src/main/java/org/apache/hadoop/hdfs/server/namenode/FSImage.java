@@ -907,7 +907,8 @@ void saveFSImage(SaveNamespaceContext context, StorageDirectory sd,
     File newFile = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE_NEW, txid);
     File dstFile = NNStorage.getStorageFile(sd, dstType, txid);
     
-    FSImageFormatProtobuf.Saver saver = new FSImageFormatProtobuf.Saver(context);
+    FSImageFormatProtobuf.Saver saver = new FSImageFormatProtobuf.Saver(context,
+        conf);
     FSImageCompression compression = FSImageCompression.createCompression(conf);
     saver.save(newFile, compression);
     
@@ -1032,10 +1033,18 @@ public void saveNamespace(FSNamesystem source) throws IOException {
   
   /**
    * Save the contents of the FS image to a new image file in each of the
-   * current storage directories.
+   * current storage directories. Inodes of earlier deletes that are still
+   * being reclaimed are reclaimed first, so that they are not saved.
    */
-  public synchronized void saveNamespace(FSNamesystem source, NameNodeFile nnf,
+  public void saveNamespace(FSNamesystem source, NameNodeFile nnf,
       Canceler canceler) throws IOException {
+    // may take the namesystem lock, so not under the FSImage monitor
+    source.reclaimPendingDeletes();
+    saveNamespaceInternal(source, nnf, canceler);
+  }
+
+  private synchronized void saveNamespaceInternal(FSNamesystem source,
+      NameNodeFile nnf, Canceler canceler) throws IOException {
     assert editLog != null : "editLog must be initialized";
     LOG.info("Save namespace ...");
     storage.attemptRestoreRemovedStorage();
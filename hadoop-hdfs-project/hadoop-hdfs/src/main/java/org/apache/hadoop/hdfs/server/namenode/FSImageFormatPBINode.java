@@ -18,13 +18,21 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -225,6 +233,9 @@ public static void updateBlocksMap(INodeFile file, BlockManager bm) {
       }
     }
 
+    /** Number of inodes added to shared structures per lock acquisition. */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
     private final FSDirectory dir;
     private final FSNamesystem fsn;
     private final FSImageFormatProtobuf.Loader parent;
@@ -257,13 +268,79 @@ void loadINodeDirectorySection(InputStream in) throws IOException {
       }
     }
 
+    /**
+     * Load the sub-sections of the INODE_DIR section concurrently. Every
+     * directory is listed in exactly one entry, so children lists can be
+     * filled without locking; the name cache and the blocks map are shared
+     * and updated in batches under the loader lock.
+     */
+    void loadINodeDirectorySectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, final String compressionCodec)
+        throws IOException {
+      LOG.info("Loading the INodeDirectory section in parallel with "
+          + sections.size() + " sub-sections");
+      final List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (final FileSummary.Section section : sections) {
+        futures.add(service.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            InputStream in = parent.getInputStreamForSection(section,
+                compressionCodec);
+            try {
+              loadINodeDirectoriesInSubSection(in);
+            } finally {
+              in.close();
+            }
+            return null;
+          }
+        }));
+      }
+      waitForSubSections(futures);
+    }
+
+    private void loadINodeDirectoriesInSubSection(InputStream in)
+        throws IOException {
+      final List<INodeReference> refList = parent.getLoaderContext()
+          .getRefList();
+      final List<INode> added = new ArrayList<INode>(LOAD_BATCH_SIZE);
+      while (true) {
+        INodeDirectorySection.DirEntry e = INodeDirectorySection.DirEntry
+            .parseDelimitedFrom(in);
+        if (e == null) {
+          break;
+        }
+        INodeDirectory p = dir.getInode(e.getParent()).asDirectory();
+        for (long id : e.getChildrenList()) {
+          INode child = dir.getInode(id);
+          if (linkToParent(p, child)) {
+            added.add(child);
+          }
+        }
+        for (int refId : e.getRefChildrenList()) {
+          INodeReference ref = refList.get(refId);
+          if (linkToParent(p, ref)) {
+            added.add(ref);
+          }
+        }
+        if (added.size() >= LOAD_BATCH_SIZE) {
+          addToCacheAndBlockMap(added);
+        }
+      }
+      addToCacheAndBlockMap(added);
+    }
+
+    private void addToCacheAndBlockMap(List<INode> children) {
+      synchronized (this) {
+        for (INode child : children) {
+          addToCacheAndBlockMap(child);
+        }
+      }
+      children.clear();
+    }
+
     void loadINodeSection(InputStream in, StartupProgress prog,
         Step currentStep) throws IOException {
-      INodeSection s = INodeSection.parseDelimitedFrom(in);
-      fsn.dir.resetLastInodeId(s.getLastInodeId());
-      long numInodes = s.getNumInodes();
-      LOG.info("Loading " + numInodes + " INodes.");
-      prog.setTotal(Phase.LOADING_FSIMAGE, currentStep, numInodes);
+      long numInodes = loadINodeSectionHeader(in, prog, currentStep);
       Counter counter = prog.getCounter(Phase.LOADING_FSIMAGE, currentStep);
       for (int i = 0; i < numInodes; ++i) {
         INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
@@ -277,6 +354,120 @@ void loadINodeSection(InputStream in, StartupProgress prog,
       }
     }
 
+    /**
+     * Load the header of the INODE section.
+     *
+     * @return the number of inodes in the section
+     */
+    long loadINodeSectionHeader(InputStream in, StartupProgress prog,
+        Step currentStep) throws IOException {
+      INodeSection s = INodeSection.parseDelimitedFrom(in);
+      fsn.dir.resetLastInodeId(s.getLastInodeId());
+      long numInodes = s.getNumInodes();
+      LOG.info("Loading " + numInodes + " INodes.");
+      prog.setTotal(Phase.LOADING_FSIMAGE, currentStep, numInodes);
+      return numInodes;
+    }
+
+    /**
+     * Load the sub-sections of the INODE section concurrently. Decoding the
+     * inodes is done without locking, while adding them to the shared inode
+     * map is done in batches under the loader lock.
+     */
+    void loadINodeSectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, final String compressionCodec,
+        long numInodes, StartupProgress prog, Step currentStep)
+        throws IOException {
+      LOG.info("Loading the INode section in parallel with "
+          + sections.size() + " sub-sections");
+      final Counter counter = prog.getCounter(Phase.LOADING_FSIMAGE,
+          currentStep);
+      final AtomicLong loaded = new AtomicLong();
+      final List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (final FileSummary.Section section : sections) {
+        futures.add(service.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            InputStream in = parent.getInputStreamForSection(section,
+                compressionCodec);
+            try {
+              loaded.addAndGet(loadINodesInSubSection(in, counter));
+            } finally {
+              in.close();
+            }
+            return null;
+          }
+        }));
+      }
+      waitForSubSections(futures);
+      if (loaded.get() != numInodes) {
+        throw new IOException("Expected to load " + numInodes
+            + " INodes from the image sub-sections but loaded "
+            + loaded.get());
+      }
+    }
+
+    private long loadINodesInSubSection(InputStream in, Counter counter)
+        throws IOException {
+      final List<INode> batch = new ArrayList<INode>(LOAD_BATCH_SIZE);
+      long numLoaded = 0;
+      while (true) {
+        INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
+        if (p == null) {
+          break;
+        }
+        if (p.getId() == INodeId.ROOT_INODE_ID) {
+          synchronized (this) {
+            loadRootINode(p);
+          }
+        } else {
+          batch.add(loadINode(p));
+          if (batch.size() >= LOAD_BATCH_SIZE) {
+            addToInodeMap(batch);
+          }
+        }
+        numLoaded++;
+        counter.increment();
+      }
+      addToInodeMap(batch);
+      return numLoaded;
+    }
+
+    private void addToInodeMap(List<INode> inodes) {
+      synchronized (this) {
+        for (INode n : inodes) {
+          dir.addToInodeMap(n);
+        }
+      }
+      inodes.clear();
+    }
+
+    private static void waitForSubSections(List<Future<?>> futures)
+        throws IOException {
+      try {
+        for (Future<?> f : futures) {
+          f.get();
+        }
+      } catch (InterruptedException e) {
+        for (Future<?> f : futures) {
+          f.cancel(true);
+        }
+        throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted while loading image sub-sections").initCause(e);
+      } catch (ExecutionException e) {
+        for (Future<?> f : futures) {
+          f.cancel(true);
+        }
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new IOException("Failed to load image sub-section", cause);
+      }
+    }
+
     /**
      * Load the under-construction files section, and update the lease map
      */
@@ -297,6 +488,17 @@ void loadFilesUnderConstructionSection(InputStream in) throws IOException {
     }
 
     private void addToParent(INodeDirectory parent, INode child) {
+      if (linkToParent(parent, child)) {
+        addToCacheAndBlockMap(child);
+      }
+    }
+
+    /**
+     * Add the child to the children list of the parent.
+     *
+     * @return false if the parent already had a child of the same name
+     */
+    private boolean linkToParent(INodeDirectory parent, INode child) {
       if (parent == dir.rootDir && FSDirectory.isReservedName(child)) {
         throw new HadoopIllegalArgumentException("File name \""
             + child.getLocalName() + "\" is reserved. Please "
@@ -304,9 +506,10 @@ private void addToParent(INodeDirectory parent, INode child) {
             + "name before upgrading to this release.");
       }
       // NOTE: This does not update space counts for parents
-      if (!parent.addChild(child)) {
-        return;
-      }
+      return parent.addChild(child);
+    }
+
+    private void addToCacheAndBlockMap(INode child) {
       dir.cacheName(child);
 
       if (child.isFile()) {
@@ -554,11 +757,18 @@ public static INodeSection.INodeDirectory.Builder buildINodeDirectory(
     }
 
     void serializeINodeDirectorySection(OutputStream out) throws IOException {
-      Iterator<INodeWithAdditionalFields> iter = fsn.getFSDirectory()
-          .getINodeMap().getMapIterator();
+      final INodeMap inodesMap = fsn.getFSDirectory().getINodeMap();
+      final int perSubSection = parent.getEntriesPerSubSection(
+          inodesMap.size(), countDirectories(inodesMap));
+      if (perSubSection > 0) {
+        parent.beginSubSections();
+        out = parent.getSectionOutputStream();
+      }
+      Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
       final ArrayList<INodeReference> refList = parent.getSaverContext()
           .getRefList();
       int i = 0;
+      int entries = 0;
       while (iter.hasNext()) {
         INodeWithAdditionalFields n = iter.next();
         if (!n.isDirectory()) {
@@ -580,6 +790,12 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
           }
           INodeDirectorySection.DirEntry e = b.build();
           e.writeDelimitedTo(out);
+          ++entries;
+          if (perSubSection > 0 && entries % perSubSection == 0) {
+            parent.commitSubSection(summary,
+                FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
+            out = parent.getSectionOutputStream();
+          }
         }
 
         ++i;
@@ -587,10 +803,25 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
           context.checkCancelled();
         }
       }
+      if (perSubSection > 0) {
+        parent.commitSubSection(summary,
+            FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
+      }
       parent.commitSection(summary,
           FSImageFormatProtobuf.SectionName.INODE_DIR);
     }
 
+    private static long countDirectories(INodeMap inodesMap) {
+      long count = 0;
+      Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
+      while (iter.hasNext()) {
+        if (iter.next().isDirectory()) {
+          count++;
+        }
+      }
+      return count;
+    }
+
     void serializeINodeSection(OutputStream out) throws IOException {
       INodeMap inodesMap = fsn.dir.getINodeMap();
 
@@ -599,19 +830,101 @@ void serializeINodeSection(OutputStream out) throws IOException {
       INodeSection s = b.build();
       s.writeDelimitedTo(out);
 
-      int i = 0;
+      final int perSubSection = parent.getEntriesPerSubSection(
+          inodesMap.size(), inodesMap.size());
+      if (perSubSection > 0) {
+        parent.beginSubSections();
+        out = parent.getSectionOutputStream();
+      }
       Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
-      while (iter.hasNext()) {
-        INodeWithAdditionalFields n = iter.next();
-        save(out, n);
-        ++i;
-        if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
-          context.checkCancelled();
+      if (parent.getSaverExecutor() != null) {
+        serializeINodesInParallel(parent.getSaverExecutor(), iter,
+            perSubSection);
+      } else {
+        int i = 0;
+        while (iter.hasNext()) {
+          INodeWithAdditionalFields n = iter.next();
+          save(out, n);
+          ++i;
+          if (perSubSection > 0 && i % perSubSection == 0) {
+            parent.commitSubSection(summary,
+                FSImageFormatProtobuf.SectionName.INODE_SUB);
+            out = parent.getSectionOutputStream();
+          }
+          if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
+            context.checkCancelled();
+          }
         }
       }
+      if (perSubSection > 0) {
+        parent.commitSubSection(summary,
+            FSImageFormatProtobuf.SectionName.INODE_SUB);
+      }
       parent.commitSection(summary, FSImageFormatProtobuf.SectionName.INODE);
     }
 
+    /**
+     * Encode the inodes in batches on the saver pool, writing the encoded
+     * batches to the image in iteration order. The number of batches in
+     * flight is bounded to limit the memory held by encoded data.
+     */
+    private void serializeINodesInParallel(ExecutorService service,
+        Iterator<INodeWithAdditionalFields> iter, int perSubSection)
+        throws IOException {
+      final int interval = FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL;
+      final int batchSize = perSubSection > 0 ?
+          Math.min(perSubSection, interval) : interval;
+      final int maxInFlight = parent.getSaveThreads() * 2;
+      final ArrayDeque<Future<byte[]>> pending =
+          new ArrayDeque<Future<byte[]>>();
+      final ArrayDeque<Integer> pendingSizes = new ArrayDeque<Integer>();
+      long sinceSubSection = 0;
+      try {
+        while (iter.hasNext() || !pending.isEmpty()) {
+          while (iter.hasNext() && pending.size() < maxInFlight) {
+            final List<INode> batch = new ArrayList<INode>(batchSize);
+            while (iter.hasNext() && batch.size() < batchSize) {
+              batch.add(iter.next());
+            }
+            pending.add(service.submit(new Callable<byte[]>() {
+              @Override
+              public byte[] call() throws IOException {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                for (INode n : batch) {
+                  save(bout, n);
+                }
+                return bout.toByteArray();
+              }
+            }));
+            pendingSizes.add(batch.size());
+          }
+          parent.getSectionOutputStream().write(pending.poll().get());
+          sinceSubSection += pendingSizes.poll();
+          if (perSubSection > 0 && sinceSubSection >= perSubSection) {
+            parent.commitSubSection(summary,
+                FSImageFormatProtobuf.SectionName.INODE_SUB);
+            sinceSubSection = 0;
+          }
+          context.checkCancelled();
+        }
+      } catch (InterruptedException e) {
+        throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted while saving inodes").initCause(e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new IOException("Failed to encode inodes", cause);
+      } finally {
+        for (Future<byte[]> f : pending) {
+          f.cancel(true);
+        }
+      }
+    }
+
     void serializeFilesUCSection(OutputStream out) throws IOException {
       Collection<Long> filesWithUC = fsn.getLeaseManager()
               .getINodeIdWithLeases();
@@ -36,14 +36,18 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CachePoolInfoProto;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSecretManager;
@@ -69,6 +73,7 @@
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
 /**
@@ -101,7 +106,7 @@ static <T> DeduplicationMap<T> newMap() {
         return new DeduplicationMap<T>();
       }
 
-      int getId(E value) {
+      synchronized int getId(E value) {
         if (value == null) {
           return 0;
         }
@@ -114,7 +119,7 @@ int getId(E value) {
         return v;
       }
 
-      int size() {
+      synchronized int size() {
         return map.size();
       }
 
@@ -151,6 +156,8 @@ public static final class Loader implements FSImageFormat.AbstractLoader {
      * when we're doing (rollingUpgrade rollback).
      */
     private final boolean requireSameLayoutVersion;
+    /** The image file being loaded, used to open sub-section streams. */
+    private File filename;
 
     Loader(Configuration conf, FSNamesystem fsn,
         boolean requireSameLayoutVersion) {
@@ -176,6 +183,7 @@ public LoaderContext getLoaderContext() {
 
     void load(File file) throws IOException {
       long start = Time.monotonicNow();
+      filename = file;
       imgDigest = MD5FileUtils.computeMd5ForFile(file);
       RandomAccessFile raFile = new RandomAccessFile(file, "r");
       FileInputStream fin = new FileInputStream(file);
@@ -204,6 +212,42 @@ private void loadInternal(RandomAccessFile raFile, FileInputStream fin)
 
       FileChannel channel = fin.getChannel();
 
+      final List<FileSummary.Section> inodeSubSections =
+          getSubSections(summary, SectionName.INODE_SUB);
+      final List<FileSummary.Section> inodeDirSubSections =
+          getSubSections(summary, SectionName.INODE_DIR_SUB);
+      final boolean hasSubSections = !inodeSubSections.isEmpty()
+          || !inodeDirSubSections.isEmpty();
+      ExecutorService executorService = null;
+      if (hasSubSections && !summary.getCodec().isEmpty()) {
+        // Sub-sections of compressed images are compressed independently,
+        // so the enclosing sections cannot be decoded as a single stream.
+        executorService = conf.getBoolean(
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT) ?
+            getParallelExecutorService() : getSerialExecutorService();
+      } else if (hasSubSections && conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT)) {
+        executorService = getParallelExecutorService();
+      } else if (hasSubSections) {
+        LOG.info("Image contains sub-sections but parallel loading is "
+            + "disabled; loading serially");
+      }
+      try {
+        loadSections(summary, fin, channel, executorService,
+            inodeSubSections, inodeDirSubSections);
+      } finally {
+        if (executorService != null) {
+          executorService.shutdownNow();
+        }
+      }
+    }
+
+    private void loadSections(FileSummary summary, FileInputStream fin,
+        FileChannel channel, ExecutorService executorService,
+        List<FileSummary.Section> inodeSubSections,
+        List<FileSummary.Section> inodeDirSubSections) throws IOException {
       FSImageFormatPBINode.Loader inodeLoader = new FSImageFormatPBINode.Loader(
           fsn, this);
       FSImageFormatPBSnapshot.Loader snapshotLoader = new FSImageFormatPBSnapshot.Loader(
@@ -254,14 +298,31 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
         case INODE: {
           currentStep = new Step(StepType.INODES);
           prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
-          inodeLoader.loadINodeSection(in, prog, currentStep);
+          if (executorService != null && !inodeSubSections.isEmpty()) {
+            long numInodes = inodeLoader.loadINodeSectionHeader(in, prog,
+                currentStep);
+            inodeLoader.loadINodeSectionInParallel(executorService,
+                inodeSubSections, summary.getCodec(), numInodes, prog,
+                currentStep);
+          } else {
+            inodeLoader.loadINodeSection(in, prog, currentStep);
+          }
         }
           break;
         case INODE_REFERENCE:
           snapshotLoader.loadINodeReferenceSection(in);
           break;
         case INODE_DIR:
-          inodeLoader.loadINodeDirectorySection(in);
+          if (executorService != null && !inodeDirSubSections.isEmpty()) {
+            inodeLoader.loadINodeDirectorySectionInParallel(executorService,
+                inodeDirSubSections, summary.getCodec());
+          } else {
+            inodeLoader.loadINodeDirectorySection(in);
+          }
+          break;
+        case INODE_SUB:
+        case INODE_DIR_SUB:
+          // loaded as part of the enclosing INODE / INODE_DIR section
           break;
         case FILES_UNDERCONSTRUCTION:
           inodeLoader.loadFilesUnderConstructionSection(in);
@@ -294,6 +355,52 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
       }
     }
 
+    private ExecutorService getParallelExecutorService() {
+      final int threads = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
+      LOG.info("Loading the image in parallel with {} threads", threads);
+      return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+          .setDaemon(true).setNameFormat("FSImageLoader-%d").build());
+    }
+
+    private ExecutorService getSerialExecutorService() {
+      LOG.info("Loading the image sub-sections serially");
+      return Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+          .setDaemon(true).setNameFormat("FSImageLoader-%d").build());
+    }
+
+    private static List<FileSummary.Section> getSubSections(
+        FileSummary summary, SectionName name) {
+      List<FileSummary.Section> subSections = Lists.newArrayList();
+      for (FileSummary.Section s : summary.getSectionsList()) {
+        if (SectionName.fromString(s.getName()) == name) {
+          subSections.add(s);
+        }
+      }
+      return subSections;
+    }
+
+    /**
+     * Open an independent stream over a section of the image being loaded,
+     * so that sections can be decoded concurrently. The caller is
+     * responsible for closing the returned stream.
+     */
+    InputStream getInputStreamForSection(FileSummary.Section section,
+        String compressionCodec) throws IOException {
+      FileInputStream fin = new FileInputStream(filename);
+      try {
+        fin.getChannel().position(section.getOffset());
+        InputStream in = new BufferedInputStream(new LimitInputStream(fin,
+            section.getLength()));
+        return FSImageUtil.wrapInputStreamForCompression(conf,
+            compressionCodec, in);
+      } catch (IOException e) {
+        fin.close();
+        throw e;
+      }
+    }
+
     private void loadNameSystemSection(InputStream in) throws IOException {
       NameSystemSection s = NameSystemSection.parseDelimitedFrom(in);
       BlockIdManager blockIdManager = fsn.getBlockManager().getBlockIdManager();
@@ -382,9 +489,44 @@ public static final class Saver {
     private CompressionCodec codec;
     private OutputStream underlyingOutputStream;
 
+    private final boolean parallelLoadEnabled;
+    private final boolean compressSubSections;
+    private final boolean parallelSaveEnabled;
+    private final int saveThreads;
+    /** Pool encoding inodes concurrently, or null for serial saving. */
+    private ExecutorService saverExecutor;
+    private final int targetSubSections;
+    private final int subSectionInodeThreshold;
+    /** Whether sub-sections are written for the image being saved. */
+    private boolean writeSubSections;
+    /** Start offset of the sub-section currently being written. */
+    private long subSectionOffset;
+
     Saver(SaveNamespaceContext context) {
+      this(context, new Configuration(false));
+    }
+
+    Saver(SaveNamespaceContext context, Configuration conf) {
       this.context = context;
       this.saverContext = new SaverContext();
+      this.parallelLoadEnabled = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT);
+      this.compressSubSections = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_COMPRESS_SUB_SECTIONS_KEY,
+          DFSConfigKeys.DFS_IMAGE_COMPRESS_SUB_SECTIONS_DEFAULT);
+      this.parallelSaveEnabled = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_DEFAULT);
+      this.saveThreads = Math.max(1, conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT));
+      this.targetSubSections = Math.max(1, conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT));
+      this.subSectionInodeThreshold = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT);
     }
 
     public MD5Hash getSavedDigest() {
@@ -403,16 +545,79 @@ public void commitSection(FileSummary.Builder summary, SectionName name)
         throws IOException {
       long oldOffset = currentOffset;
       flushSectionOutputStream();
+      resetSectionOutputStream();
+      long length = fileChannel.position() - oldOffset;
+      summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
+          .setLength(length).setOffset(currentOffset));
+      currentOffset += length;
+    }
+
+    /**
+     * Get the number of entries to write per sub-section of a section, so
+     * that the section can be loaded in parallel.
+     *
+     * @param numInodes number of inodes in the namespace
+     * @param numEntries number of entries in the section
+     * @return entries per sub-section, or 0 if no sub-sections are written
+     */
+    int getEntriesPerSubSection(long numInodes, long numEntries) {
+      if (!writeSubSections || numInodes < subSectionInodeThreshold) {
+        return 0;
+      }
+      return (int) Math.max(1,
+          (numEntries + targetSubSections - 1) / targetSubSections);
+    }
+
+    /** Mark the start of the first sub-section of the current section. */
+    void beginSubSections() throws IOException {
+      flushSectionOutputStream();
+      resetSectionOutputStream();
+      subSectionOffset = fileChannel.position();
+    }
+
+    /**
+     * @return the stream the current section is written to. The stream is
+     *         replaced whenever a compressed section or sub-section is
+     *         committed.
+     */
+    OutputStream getSectionOutputStream() {
+      return sectionOutputStream;
+    }
+
+    /** @return the pool used to encode inodes, or null to save serially. */
+    ExecutorService getSaverExecutor() {
+      return saverExecutor;
+    }
+
+    /** @return the number of threads encoding inodes concurrently. */
+    int getSaveThreads() {
+      return saveThreads;
+    }
+
+    /**
+     * Record the data written since the previous sub-section as a
+     * sub-section of the current section. Sub-sections are listed in the
+     * summary in addition to, and nested within, their enclosing section.
+     */
+    void commitSubSection(FileSummary.Builder summary, SectionName name)
+        throws IOException {
+      flushSectionOutputStream();
+      resetSectionOutputStream();
+      long position = fileChannel.position();
+      if (position > subSectionOffset) {
+        summary.addSections(FileSummary.Section.newBuilder()
+            .setName(name.name).setLength(position - subSectionOffset)
+            .setOffset(subSectionOffset));
+      }
+      subSectionOffset = position;
+    }
 
+    private void resetSectionOutputStream() throws IOException {
       if (codec != null) {
         sectionOutputStream = codec.createOutputStream(underlyingOutputStream);
       } else {
         sectionOutputStream = underlyingOutputStream;
       }
-      long length = fileChannel.position() - oldOffset;
-      summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
-          .setLength(length).setOffset(currentOffset));
-      currentOffset += length;
     }
 
     private void flushSectionOutputStream() throws IOException {
@@ -425,6 +630,11 @@ private void flushSectionOutputStream() throws IOException {
     void save(File file, FSImageCompression compression) throws IOException {
       FileOutputStream fout = new FileOutputStream(file);
       fileChannel = fout.getChannel();
+      if (parallelSaveEnabled) {
+        saverExecutor = Executors.newFixedThreadPool(saveThreads,
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("FSImageSaver-%d").build());
+      }
       try {
         LOG.info("Saving image file {} using {}", file, compression);
         long startTime = monotonicNow();
@@ -432,6 +642,10 @@ void save(File file, FSImageCompression compression) throws IOException {
         LOG.info("Image file {} of size {} bytes saved in {} seconds.", file,
             file.length(), (monotonicNow() - startTime) / 1000);
       } finally {
+        if (saverExecutor != null) {
+          saverExecutor.shutdownNow();
+          saverExecutor = null;
+        }
         fout.close();
       }
     }
@@ -480,6 +694,10 @@ private void saveInternal(FileOutputStream fout,
               context.getSourceNamesystem().getEffectiveLayoutVersion());
 
       codec = compression.getImageCodec();
+      // compressed sections can only be split into independently readable
+      // parts by compressing every sub-section on its own
+      writeSubSections = parallelLoadEnabled
+          && (codec == null || compressSubSections);
       if (codec != null) {
         b.setCodec(codec.getClass().getCanonicalName());
         sectionOutputStream = codec.createOutputStream(underlyingOutputStream);
@@ -609,7 +827,9 @@ public enum SectionName {
     FILES_UNDERCONSTRUCTION("FILES_UNDERCONSTRUCTION"),
     SNAPSHOT_DIFF("SNAPSHOT_DIFF"),
     SECRET_MANAGER("SECRET_MANAGER"),
-    CACHE_MANAGER("CACHE_MANAGER");
+    CACHE_MANAGER("CACHE_MANAGER"),
+    INODE_SUB("INODE_SUB"),
+    INODE_DIR_SUB("INODE_DIR_SUB");
 
     private static final SectionName[] values = SectionName.values();
 
@@ -105,6 +105,7 @@
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.URI;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -123,6 +124,7 @@
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -169,6 +171,7 @@
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.UnknownCryptoProtocolVersionException;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
@@ -186,6 +189,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.DatanodeReportType;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
 import org.apache.hadoop.hdfs.protocol.LastBlockWithStatus;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
@@ -197,6 +201,7 @@
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.datatransfer.ReplaceDatanodeOnFailure;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BatchedListingKeyProto;
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSecretManager;
@@ -251,13 +256,16 @@
 import org.apache.hadoop.hdfs.server.protocol.NamenodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
+import org.apache.hadoop.hdfs.server.protocol.RegisterCommand;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
 import org.apache.hadoop.hdfs.web.JsonUtil;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.ipc.CallerContext;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.ipc.RetriableException;
 import org.apache.hadoop.ipc.RetryCache;
 import org.apache.hadoop.ipc.Server;
@@ -290,6 +298,7 @@
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.ByteString;
 
 /**
  * FSNamesystem is a container of both transient
@@ -385,6 +394,28 @@ private void logAuditEvent(boolean succeeded,
 
   static final int DEFAULT_MAX_CORRUPT_FILEBLOCKS_RETURNED = 100;
   static int BLOCK_DELETION_INCREMENT = 1000;
+  /** Whether read-only RPCs first try to run without the lock. */
+  private final boolean optimisticReads;
+  /** Set while the current thread runs a lock-free read. */
+  private final ThreadLocal<Boolean> optimisticReader =
+      new ThreadLocal<Boolean>();
+  /** Whether deleted inodes are removed from the inode map incrementally. */
+  private final boolean chunkedDeleteReclaim;
+  /** Maximum number of paths in a single batched listing call. */
+  private final int batchedListingLimit;
+  /** Deleted inodes still to be removed from the inode map. */
+  private final AtomicLong pendingReclaimINodes = new AtomicLong();
+  /** Blocks of deleted files still to be removed from the blocks map. */
+  private final AtomicLong pendingReclaimBlocks = new AtomicLong();
+  /** Guards {@link #pendingReclaims}. */
+  private final ReentrantLock reclaimLock = new ReentrantLock();
+  /**
+   * Deletes whose inodes are still to be reclaimed. Their reclaim is only
+   * advanced under the write lock, by the deleting thread or by
+   * {@link #reclaimPendingDeletes()}.
+   */
+  private final List<FSDirDeleteOp.DeferredReclaim> pendingReclaims =
+      new ArrayList<FSDirDeleteOp.DeferredReclaim>();
   private final boolean isPermissionEnabled;
   private final UserGroupInformation fsOwner;
   private final String supergroup;
@@ -491,6 +522,9 @@ private void logAuditEvent(boolean succeeded,
    */
   private final ReentrantLock cpLock;
 
+  /** Per-operation profiler of {@link #fsLock} wait and hold times. */
+  private final FSNamesystemLockProfiler lockProfiler;
+
   /**
    * Used when this NN is in standby state to read from the shared edit log.
    */
@@ -710,6 +744,7 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
     LOG.info("fsLock is fair:" + fair);
     fsLock = new FSNamesystemLock(fair);
     cond = fsLock.writeLock().newCondition();
+    lockProfiler = new FSNamesystemLockProfiler(conf);
     cpLock = new ReentrantLock();
 
     this.fsImage = fsImage;
@@ -783,6 +818,17 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
       
       this.standbyShouldCheckpoint = conf.getBoolean(
           DFS_HA_STANDBY_CHECKPOINTS_KEY, DFS_HA_STANDBY_CHECKPOINTS_DEFAULT);
+      this.optimisticReads = conf.getBoolean(
+          DFSConfigKeys.DFS_NAMENODE_READ_OPTIMISTIC_ENABLED_KEY,
+          DFSConfigKeys.DFS_NAMENODE_READ_OPTIMISTIC_ENABLED_DEFAULT);
+      this.chunkedDeleteReclaim = conf.getBoolean(
+          DFSConfigKeys.DFS_NAMENODE_DELETE_CHUNKED_RECLAIM_ENABLED_KEY,
+          DFSConfigKeys.DFS_NAMENODE_DELETE_CHUNKED_RECLAIM_ENABLED_DEFAULT);
+      this.batchedListingLimit = conf.getInt(
+          DFSConfigKeys.DFS_BATCHED_LISTING_LIMIT,
+          DFSConfigKeys.DFS_BATCHED_LISTING_LIMIT_DEFAULT);
+      Preconditions.checkArgument(batchedListingLimit > 0,
+          DFSConfigKeys.DFS_BATCHED_LISTING_LIMIT + " must be greater than 0");
       // # edit autoroll threshold is a multiple of the checkpoint threshold 
       this.editLogRollerThreshold = (long)
           (conf.getFloat(
@@ -1141,6 +1187,8 @@ void startActiveServices() throws IOException {
         LOG.info("Catching up to latest edits from old active before " +
             "taking over writer role in edits logs");
         editLogTailer.catchupDuringFailover();
+        // edits applied while in standby state did not maintain the cache
+        dir.clearContentSummaryCache();
         
         blockManager.setPostponeBlocksFromFuture(false);
         blockManager.getDatanodeManager().markAllDatanodesStale();
@@ -1167,6 +1215,9 @@ void startActiveServices() throws IOException {
         getFSImage().editLog.openForWrite(getEffectiveLayoutVersion());
       }
 
+      // Finish deletes stopped by an earlier transition to standby, before
+      // the usage of the root is recounted.
+      reclaimPendingDeletes();
       // Initialize the quota.
       dir.updateCountForQuota();
       // Enable quota checks.
@@ -1501,37 +1552,99 @@ public static List<URI> getSharedEditsDirs(Configuration conf) {
   static final short WRITELOCK_REPORTING_THRESHOLD = 1000;
   /** Last time stamp for write lock. Keep the longest one for multi-entrance.*/
   private long writeLockHeldTimeStamp;
+  /** Time the current write lock holder waited to acquire it. */
+  private long writeLockWaitTime;
+  /** Per-thread time stamp of the outermost read lock acquisition. */
+  private final ThreadLocal<long[]> readLockTimes =
+      new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+          // {acquired time stamp, wait time}
+          return new long[2];
+        }
+      };
 
   @Override
   public void readLock() {
+    if (!lockProfiler.isEnabled()) {
+      this.fsLock.readLock().lock();
+      return;
+    }
+    final long start = monotonicNow();
     this.fsLock.readLock().lock();
+    if (fsLock.getReadHoldCount() == 1) {
+      final long[] times = readLockTimes.get();
+      times[0] = monotonicNow();
+      times[1] = times[0] - start;
+    }
   }
   @Override
   public void readUnlock() {
+    readUnlock(FSNamesystemLockProfiler.OP_NAME_OTHER);
+  }
+
+  /**
+   * Release the read lock, attributing the lock wait and hold time to the
+   * given operation.
+   */
+  public void readUnlock(String opName) {
+    final boolean profile = lockProfiler.isEnabled() &&
+        fsLock.getReadHoldCount() == 1;
     this.fsLock.readLock().unlock();
+    if (profile) {
+      final long[] times = readLockTimes.get();
+      lockProfiler.addWaitTime(opName, false, times[1]);
+      lockProfiler.addHoldTime(opName, false, monotonicNow() - times[0]);
+    }
   }
   @Override
   public void writeLock() {
+    // the wait is only timed for the profiler
+    final boolean profile = lockProfiler.isEnabled();
+    final long start = profile ? monotonicNow() : 0;
     this.fsLock.writeLock().lock();
     if (fsLock.getWriteHoldCount() == 1) {
+      fsLock.beginWrite();
       writeLockHeldTimeStamp = monotonicNow();
+      writeLockWaitTime = profile ? writeLockHeldTimeStamp - start : 0;
     }
   }
   @Override
   public void writeLockInterruptibly() throws InterruptedException {
+    final boolean profile = lockProfiler.isEnabled();
+    final long start = profile ? monotonicNow() : 0;
     this.fsLock.writeLock().lockInterruptibly();
     if (fsLock.getWriteHoldCount() == 1) {
+      fsLock.beginWrite();
       writeLockHeldTimeStamp = monotonicNow();
+      writeLockWaitTime = profile ? writeLockHeldTimeStamp - start : 0;
     }
   }
   @Override
   public void writeUnlock() {
+    writeUnlock(FSNamesystemLockProfiler.OP_NAME_OTHER);
+  }
+
+  /**
+   * Release the write lock, attributing the lock wait and hold time to the
+   * given operation.
+   */
+  public void writeUnlock(String opName) {
     final boolean needReport = fsLock.getWriteHoldCount() == 1 &&
         fsLock.isWriteLockedByCurrentThread();
-    final long writeLockInterval = monotonicNow() - writeLockHeldTimeStamp;
+    final long writeLockInterval = needReport ?
+        monotonicNow() - writeLockHeldTimeStamp : 0;
+    final long waitTime = writeLockWaitTime;
 
+    if (needReport) {
+      fsLock.endWrite();
+    }
     this.fsLock.writeLock().unlock();
 
+    if (needReport && lockProfiler.isEnabled()) {
+      lockProfiler.addWaitTime(opName, true, waitTime);
+      lockProfiler.addHoldTime(opName, true, writeLockInterval);
+    }
     if (needReport && writeLockInterval >= WRITELOCK_REPORTING_THRESHOLD) {
       LOG.info("FSNamesystem write lock held for " + writeLockInterval +
           " ms via\n" + StringUtils.getStackTrace(Thread.currentThread()));
@@ -1545,6 +1658,73 @@ public boolean hasWriteLock() {
   public boolean hasReadLock() {
     return this.fsLock.getReadHoldCount() > 0 || hasWriteLock();
   }
+  @Override
+  public boolean hasReadLockOrOptimisticRead() {
+    return hasReadLock() || optimisticReader.get() != null;
+  }
+
+  /**
+   * A read-only namesystem operation which can be run without the lock.
+   * It must not modify any state, as it may see a concurrent write half
+   * done and be run again.
+   */
+  interface OptimisticRead<T> {
+    T run() throws IOException;
+  }
+
+  /**
+   * Run a read-only operation. If optimistic reads are enabled, the
+   * operation first runs without the lock, and its result, or whatever it
+   * threw, is kept only if no write lock was taken in the meantime.
+   * Otherwise it is run again under the read lock.
+   *
+   * @param op the operation
+   * @param opName operation name for lock profiling
+   * @return the result of the operation
+   */
+  <T> T readOptimistically(OptimisticRead<T> op, String opName)
+      throws IOException {
+    if (optimisticReads && fsLock.getReadHoldCount() == 0 && !hasWriteLock()) {
+      final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      final long stamp = fsLock.tryOptimisticRead();
+      if (stamp != 0) {
+        T result = null;
+        Throwable error = null;
+        optimisticReader.set(Boolean.TRUE);
+        try {
+          result = op.run();
+        } catch (Throwable t) {
+          // possibly caused by an inconsistent view of a concurrent write,
+          // only reported below if no write happened.
+          error = t;
+        } finally {
+          optimisticReader.remove();
+        }
+        if (fsLock.validate(stamp)) {
+          if (metrics != null) {
+            metrics.incrOptimisticReads();
+          }
+          if (error instanceof IOException) {
+            throw (IOException) error;
+          } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+          } else if (error != null) {
+            throw (Error) error;
+          }
+          return result;
+        }
+      }
+      if (metrics != null) {
+        metrics.incrOptimisticReadRetries();
+      }
+    }
+    readLock();
+    try {
+      return op.run();
+    } finally {
+      readUnlock(opName);
+    }
+  }
 
   public int getReadHoldCount() {
     return this.fsLock.getReadHoldCount();
@@ -1653,7 +1833,7 @@ public BlocksWithLocations getBlocks(DatanodeID datanode, long size)
       checkOperation(OperationCategory.READ);
       return getBlockManager().getBlocksWithLocations(datanode, size);
     } finally {
-      readUnlock();
+      readUnlock("getBlocks");
     }
   }
 
@@ -1722,7 +1902,7 @@ void setPermission(String src, FsPermission permission) throws IOException {
       logAuditEvent(false, "setPermission", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setPermission");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setPermission", src, null, auditStat);
@@ -1745,7 +1925,7 @@ void setOwner(String src, String username, String group)
       logAuditEvent(false, "setOwner", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setOwner");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setOwner", src, null, auditStat);
@@ -1755,36 +1935,42 @@ void setOwner(String src, String username, String group)
    * Get block locations within the specified range.
    * @see ClientProtocol#getBlockLocations(String, long, long)
    */
-  LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
-      long offset, long length) throws IOException {
+  LocatedBlocks getBlockLocations(String clientMachine, final String srcArg,
+      final long offset, final long length) throws IOException {
     checkOperation(OperationCategory.READ);
     GetBlockLocationsResult res = null;
-    FSPermissionChecker pc = getPermissionChecker();
-    readLock();
+    final FSPermissionChecker pc = getPermissionChecker();
     try {
-      checkOperation(OperationCategory.READ);
-      res = FSDirStatAndListingOp.getBlockLocations(
-          dir, pc, srcArg, offset, length, true);
-      if (isInSafeMode()) {
-        for (LocatedBlock b : res.blocks.getLocatedBlocks()) {
-          // if safemode & no block locations yet then throw safemodeException
-          if ((b.getLocations() == null) || (b.getLocations().length == 0)) {
-            SafeModeException se = newSafemodeException(
-                "Zero blocklocations for " + srcArg);
-            if (haEnabled && haContext != null &&
-                haContext.getState().getServiceState() == HAServiceState.ACTIVE) {
-              throw new RetriableException(se);
-            } else {
-              throw se;
+      res = readOptimistically(new OptimisticRead<GetBlockLocationsResult>() {
+        @Override
+        public GetBlockLocationsResult run() throws IOException {
+          checkOperation(OperationCategory.READ);
+          GetBlockLocationsResult result = FSDirStatAndListingOp
+              .getBlockLocations(dir, pc, srcArg, offset, length, true);
+          if (isInSafeMode()) {
+            for (LocatedBlock b : result.blocks.getLocatedBlocks()) {
+              // if safemode & no block locations yet then throw
+              // safemodeException
+              if ((b.getLocations() == null) ||
+                  (b.getLocations().length == 0)) {
+                SafeModeException se = newSafemodeException(
+                    "Zero blocklocations for " + srcArg);
+                if (haEnabled && haContext != null &&
+                    haContext.getState().getServiceState() ==
+                        HAServiceState.ACTIVE) {
+                  throw new RetriableException(se);
+                } else {
+                  throw se;
+                }
+              }
             }
           }
+          return result;
         }
-      }
+      }, "open");
     } catch (AccessControlException e) {
       logAuditEvent(false, "open", srcArg);
       throw e;
-    } finally {
-      readUnlock();
     }
 
     logAuditEvent(true, "open", srcArg);
@@ -1830,7 +2016,7 @@ LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
       } catch (Throwable e) {
         LOG.warn("Failed to update the access time of " + src, e);
       } finally {
-        writeUnlock();
+        writeUnlock("open");
       }
     }
 
@@ -1883,7 +2069,7 @@ void concat(String target, String [] srcs, boolean logRetryCache)
       logAuditEvent(success, "concat", Arrays.toString(srcs), target, stat);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("concat");
       if (success) {
         getEditLog().logSync();
       }
@@ -1908,7 +2094,7 @@ void setTimes(String src, long mtime, long atime) throws IOException {
       logAuditEvent(false, "setTimes", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setTimes");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setTimes", src, null, auditStat);
@@ -1946,7 +2132,7 @@ boolean truncate(String src, long newLength, String clientName,
         r = FSDirTruncateOp.truncate(this, src, newLength, clientName,
             clientMachine, mtime, toRemoveBlocks, pc);
       } finally {
-        writeUnlock();
+        writeUnlock("truncate");
       }
       getEditLog().logSync();
       if (!toRemoveBlocks.getToDeleteList().isEmpty()) {
@@ -1981,7 +2167,7 @@ void createSymlink(String target, String link,
       logAuditEvent(false, "createSymlink", link, target, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("createSymlink");
     }
     getEditLog().logSync();
     logAuditEvent(true, "createSymlink", link, target, auditStat);
@@ -2013,7 +2199,7 @@ boolean setReplication(final String src, final short replication)
       logAuditEvent(false, "setReplication", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setReplication");
     }
     if (success) {
       getEditLog().logSync();
@@ -2041,7 +2227,7 @@ void setStoragePolicy(String src, String policyName) throws IOException {
       logAuditEvent(false, "setStoragePolicy", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setStoragePolicy");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setStoragePolicy", src, null, auditStat);
@@ -2064,7 +2250,7 @@ void unsetStoragePolicy(String src) throws IOException {
       logAuditEvent(false, "unsetStoragePolicy", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("unsetStoragePolicy");
     }
     getEditLog().logSync();
     logAuditEvent(true, "unsetStoragePolicy", src, null, auditStat);
@@ -2208,7 +2394,7 @@ private HdfsFileStatus startFileInt(final String src,
         blockManager.verifyReplication(src, replication, clientMachine);
       }
     } finally {
-      readUnlock();
+      readUnlock("create");
     }
     
     checkOperation(OperationCategory.WRITE);
@@ -2275,7 +2461,7 @@ private HdfsFileStatus startFileInt(final String src,
       skipSync = e instanceof StandbyException;
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("create");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -2330,7 +2516,7 @@ boolean recoverLease(String src, String holder, String clientMachine)
       skipSync = true;
       throw se;
     } finally {
-      writeUnlock();
+      writeUnlock("recoverLease");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -2459,7 +2645,7 @@ LastBlockWithStatus appendFile(String srcArg, String holder,
         skipSync = true;
         throw se;
       } finally {
-        writeUnlock();
+        writeUnlock("append");
         // There might be transactions logged while trying to recover the lease
         // They need to be sync'ed even when an exception was thrown.
         if (!skipSync) {
@@ -2510,7 +2696,7 @@ LocatedBlock getAdditionalBlock(
       r = FSDirWriteFileOp.validateAddBlock(this, pc, src, fileId, clientName,
                                             previous, onRetryBlock);
     } finally {
-      readUnlock();
+      readUnlock("getAdditionalBlock");
     }
 
     if (r == null) {
@@ -2530,7 +2716,7 @@ LocatedBlock getAdditionalBlock(
       lb = FSDirWriteFileOp.storeAllocatedBlock(
           this, src, fileId, clientName, previous, targets);
     } finally {
-      writeUnlock();
+      writeUnlock("getAdditionalBlock");
     }
     getEditLog().logSync();
     return lb;
@@ -2586,7 +2772,7 @@ LocatedBlock getAdditionalDatanode(String src, long fileId,
           "src=%s, fileId=%d, blk=%s, clientName=%s, clientMachine=%s",
           src, fileId, blk, clientName, clientMachine));
     } finally {
-      readUnlock();
+      readUnlock("getAdditionalDatanode");
     }
 
     if (clientnode == null) {
@@ -2620,7 +2806,7 @@ void abandonBlock(ExtendedBlock b, long fileId, String src, String holder)
       NameNode.stateChangeLog.debug("BLOCK* NameSystem.abandonBlock: {} is " +
           "removed from pendingCreates", b);
     } finally {
-      writeUnlock();
+      writeUnlock("abandonBlock");
     }
     getEditLog().logSync();
   }
@@ -2682,7 +2868,7 @@ boolean completeFile(final String src, String holder,
       success = FSDirWriteFileOp.completeFile(this, pc, src, holder, last,
                                               fileId);
     } finally {
-      writeUnlock();
+      writeUnlock("completeFile");
     }
     getEditLog().logSync();
     if (success) {
@@ -2760,7 +2946,7 @@ boolean renameTo(String src, String dst, boolean logRetryCache)
       logAuditEvent(false, "rename", src, dst, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("rename");
     }
     boolean success = ret != null && ret.success;
     if (success) {
@@ -2784,7 +2970,7 @@ void renameTo(final String src, final String dst,
           ")", src, dst, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("rename");
     }
 
     getEditLog().logSync();
@@ -2809,21 +2995,38 @@ void renameTo(final String src, final String dst,
   boolean delete(String src, boolean recursive, boolean logRetryCache)
       throws IOException {
     BlocksMapUpdateInfo toRemovedBlocks = null;
+    FSDirDeleteOp.DeferredReclaim toReclaim =
+        chunkedDeleteReclaim ? new FSDirDeleteOp.DeferredReclaim() : null;
+    boolean reclaiming = false;
     writeLock();
     boolean ret = false;
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot delete " + src);
       toRemovedBlocks = FSDirDeleteOp.delete(
-          this, src, recursive, logRetryCache);
+          this, src, recursive, logRetryCache, toReclaim);
       ret = toRemovedBlocks != null;
+      if (toReclaim != null && !toReclaim.isEmpty()) {
+        pendingReclaimINodes.addAndGet(toReclaim.getRemovedINodes().size());
+        beginReclaim(toReclaim);
+        reclaiming = true;
+      }
     } catch (AccessControlException e) {
       logAuditEvent(false, "delete", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("delete");
     }
     getEditLog().logSync();
+    if (reclaiming) {
+      try {
+        reclaimDeleted(toReclaim, toRemovedBlocks);
+      } catch (StandbyException e) {
+        // the delete is logged, the rest is reclaimed before the next image
+        LOG.info("Stopped reclaiming the inodes deleted with " + src + ": "
+            + e.getMessage());
+      }
+    }
     if (toRemovedBlocks != null) {
       removeBlocks(toRemovedBlocks); // Incremental deletion of blocks
     }
@@ -2848,16 +3051,151 @@ FSPermissionChecker getPermissionChecker()
   void removeBlocks(BlocksMapUpdateInfo blocks) {
     List<BlockInfo> toDeleteList = blocks.getToDeleteList();
     Iterator<BlockInfo> iter = toDeleteList.iterator();
-    while (iter.hasNext()) {
+    long remaining = toDeleteList.size();
+    pendingReclaimBlocks.addAndGet(remaining);
+    try {
+      while (iter.hasNext()) {
+        writeLock();
+        try {
+          int i = 0;
+          for (; i < BLOCK_DELETION_INCREMENT && iter.hasNext(); i++) {
+            blockManager.removeBlock(iter.next());
+          }
+          remaining -= i;
+          pendingReclaimBlocks.addAndGet(-i);
+        } finally {
+          writeUnlock("removeBlocks");
+        }
+      }
+    } finally {
+      pendingReclaimBlocks.addAndGet(-remaining);
+    }
+  }
+
+  /**
+   * Finish a delete whose reclaim was deferred. An unlinked subtree is
+   * destroyed and the deleted inodes are removed from the inode map with the
+   * writelock dropped and reacquired every BLOCK_DELETION_INCREMENT inodes.
+   * Like other write operations, this stops once the namenode is no longer
+   * active; what is left is reclaimed by {@link #reclaimPendingDeletes()}.
+   *
+   * @param reclaim what the delete left to reclaim
+   * @param collectedBlocks blocks of the destroyed files are added here
+   * @throws StandbyException if the namenode left the active state
+   */
+  private void reclaimDeleted(FSDirDeleteOp.DeferredReclaim reclaim,
+      BlocksMapUpdateInfo collectedBlocks) throws IOException {
+    boolean done = false;
+    while (!done) {
       writeLock();
       try {
-        for (int i = 0; i < BLOCK_DELETION_INCREMENT && iter.hasNext(); i++) {
-          blockManager.removeBlock(iter.next());
-        }
+        checkOperation(OperationCategory.WRITE);
+        done = reclaimNext(reclaim, collectedBlocks);
       } finally {
-        writeUnlock();
+        writeUnlock("reclaimDeleted");
+      }
+    }
+  }
+
+  /**
+   * Reclaim the next BLOCK_DELETION_INCREMENT inodes of a delete, either
+   * destroying its unlinked subtree or removing its destroyed inodes from
+   * the inode map.
+   *
+   * @param reclaim what the delete left to reclaim
+   * @param collectedBlocks blocks of the destroyed files are added here
+   * @return true if nothing is left to reclaim
+   */
+  private boolean reclaimNext(FSDirDeleteOp.DeferredReclaim reclaim,
+      BlocksMapUpdateInfo collectedBlocks) throws IOException {
+    assert hasWriteLock();
+    if (reclaim.hasSubtree()) {
+      FSDirDeleteOp.reclaimSubtree(
+          this, reclaim, collectedBlocks, BLOCK_DELETION_INCREMENT);
+    } else {
+      pendingReclaimINodes.addAndGet(-FSDirDeleteOp.removeINodes(
+          dir, reclaim, BLOCK_DELETION_INCREMENT));
+    }
+    if (!reclaim.isEmpty()) {
+      return false;
+    }
+    endReclaim(reclaim);
+    return true;
+  }
+
+  /**
+   * Record that a delete left inodes to be reclaimed after releasing the
+   * write lock, until {@link #endReclaim} is called for it.
+   */
+  private void beginReclaim(FSDirDeleteOp.DeferredReclaim reclaim) {
+    reclaimLock.lock();
+    try {
+      pendingReclaims.add(reclaim);
+    } finally {
+      reclaimLock.unlock();
+    }
+  }
+
+  /** Record that nothing is left to reclaim of a delete. */
+  private void endReclaim(FSDirDeleteOp.DeferredReclaim reclaim) {
+    reclaimLock.lock();
+    try {
+      pendingReclaims.remove(reclaim);
+    } finally {
+      reclaimLock.unlock();
+    }
+  }
+
+  /** @return true if a delete still has inodes to reclaim */
+  boolean hasPendingReclaim() {
+    reclaimLock.lock();
+    try {
+      return !pendingReclaims.isEmpty();
+    } finally {
+      reclaimLock.unlock();
+    }
+  }
+
+  /**
+   * Finish reclaiming the inodes of earlier deletes, including those left
+   * behind by a transition to standby, so that an image saved afterwards
+   * does not contain them. The write lock is held until all of them are
+   * reclaimed, so the caller must hold either the write lock or no
+   * FSNamesystem lock at all.
+   *
+   * @throws IOException if a reclaim is pending and only the read lock is
+   *           held
+   */
+  void reclaimPendingDeletes() throws IOException {
+    if (!hasPendingReclaim()) {
+      return;
+    }
+    if (!hasWriteLock() && hasReadLock()) {
+      throw new IOException(
+          "Cannot reclaim deleted inodes holding only the read lock");
+    }
+    BlocksMapUpdateInfo collectedBlocks = new BlocksMapUpdateInfo();
+    writeLock();
+    try {
+      while (true) {
+        final FSDirDeleteOp.DeferredReclaim reclaim;
+        reclaimLock.lock();
+        try {
+          if (pendingReclaims.isEmpty()) {
+            break;
+          }
+          reclaim = pendingReclaims.get(0);
+        } finally {
+          reclaimLock.unlock();
+        }
+        while (!reclaimNext(reclaim, collectedBlocks)) {
+          // reclaim it in full, the lock is not released in between
+        }
       }
+    } finally {
+      writeUnlock("reclaimPendingDeletes");
     }
+    removeBlocks(collectedBlocks); // Incremental deletion of blocks
   }
   
   /**
@@ -2904,19 +3242,21 @@ void removeLeasesAndINodes(List<Long> removedUCFiles,
    *         or null if file not found
    * @throws StandbyException
    */
-  HdfsFileStatus getFileInfo(final String src, boolean resolveLink)
+  HdfsFileStatus getFileInfo(final String src, final boolean resolveLink)
     throws IOException {
     checkOperation(OperationCategory.READ);
     HdfsFileStatus stat = null;
-    readLock();
     try {
-      checkOperation(OperationCategory.READ);
-      stat = FSDirStatAndListingOp.getFileInfo(dir, src, resolveLink);
+      stat = readOptimistically(new OptimisticRead<HdfsFileStatus>() {
+        @Override
+        public HdfsFileStatus run() throws IOException {
+          checkOperation(OperationCategory.READ);
+          return FSDirStatAndListingOp.getFileInfo(dir, src, resolveLink);
+        }
+      }, "getfileinfo");
     } catch (AccessControlException e) {
       logAuditEvent(false, "getfileinfo", src);
       throw e;
-    } finally {
-      readUnlock();
     }
     logAuditEvent(true, "getfileinfo", src);
     return stat;
@@ -2935,7 +3275,7 @@ boolean isFileClosed(final String src) throws IOException {
       logAuditEvent(false, "isFileClosed", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("isFileClosed");
     }
   }
 
@@ -2955,7 +3295,7 @@ boolean mkdirs(String src, PermissionStatus permissions,
       logAuditEvent(false, "mkdirs", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("mkdirs");
     }
     getEditLog().logSync();
     logAuditEvent(true, "mkdirs", src, null, auditStat);
@@ -2989,7 +3329,7 @@ ContentSummary getContentSummary(final String src) throws IOException {
       logAuditEvent(success, "contentSummary", src);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("getContentSummary");
     }
     logAuditEvent(success, "contentSummary", src);
     return cs;
@@ -3022,7 +3362,7 @@ QuotaUsage getQuotaUsage(final String src) throws IOException {
       logAuditEvent(success, "quotaUsage", src);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("getQuotaUsage");
     }
     logAuditEvent(success, "quotaUsage", src);
     return quotaUsage;
@@ -3052,7 +3392,7 @@ void setQuota(String src, long nsQuota, long ssQuota, StorageType type)
       logAuditEvent(success, "setQuota", src);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("setQuota");
       if (success) {
         getEditLog().logSync();
       }
@@ -3098,7 +3438,7 @@ void fsync(String src, long fileId, String clientName, long lastBlockLength)
       }
       FSDirWriteFileOp.persistBlocks(dir, src, pendingFile, false);
     } finally {
-      writeUnlock();
+      writeUnlock("fsync");
     }
     getEditLog().logSync();
   }
@@ -3546,7 +3886,7 @@ void commitBlockSynchronization(ExtendedBlock oldBlock,
         FSDirWriteFileOp.persistBlocks(dir, src, iFile, false);
       }
     } finally {
-      writeUnlock();
+      writeUnlock("commitBlockSynchronization");
     }
     getEditLog().logSync();
     if (closeFile) {
@@ -3591,7 +3931,7 @@ void renewLease(String holder) throws IOException {
       checkNameNodeSafeMode("Cannot renew lease for " + holder);
       leaseManager.renewLease(holder);
     } finally {
-      readUnlock();
+      readUnlock("renewLease");
     }
   }
 
@@ -3620,12 +3960,117 @@ DirectoryListing getListing(String src, byte[] startAfter,
       logAuditEvent(false, "listStatus", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("listStatus");
     }
     logAuditEvent(true, "listStatus", src);
     return dl;
   }
 
+  /**
+   * Get a partial listing of several directories under a single read lock.
+   * The listing stops once dfs.ls.limit entries have been collected or a
+   * directory has more entries than fit in one listing; the returned
+   * startAfter cookie records where the next call continues. A failure to
+   * list one of the paths is returned in that path's listing.
+   */
+  BatchedDirectoryListing getBatchedListing(String[] srcs, byte[] startAfter,
+      boolean needLocation) throws IOException {
+    if (srcs.length > batchedListingLimit) {
+      throw new IllegalArgumentException("Too many source paths (" +
+          srcs.length + " > " + batchedListingLimit + ")");
+    }
+    if (srcs.length == 0) {
+      throw new IllegalArgumentException("No source paths were given");
+    }
+
+    // the cookie is only valid for the exact list of paths it was issued for
+    MessageDigest md5 = MD5Hash.getDigester();
+    for (String src : srcs) {
+      md5.update(src.getBytes(Charsets.UTF_8));
+      md5.update((byte) 0);
+    }
+    byte[] checksum = md5.digest();
+    int srcsIndex = 0;
+    byte[] indexStartAfter = HdfsFileStatus.EMPTY_NAME;
+    if (startAfter.length > 0) {
+      BatchedListingKeyProto key = BatchedListingKeyProto.parseFrom(startAfter);
+      if (!Arrays.equals(checksum, key.getChecksum().toByteArray())) {
+        throw new IllegalArgumentException(
+            "The startAfter key does not match the source paths");
+      }
+      srcsIndex = key.getPathIndex();
+      if (srcsIndex >= srcs.length) {
+        throw new IllegalArgumentException("Invalid path index " + srcsIndex);
+      }
+      indexStartAfter = key.getStartAfter().toByteArray();
+    }
+
+    checkOperation(OperationCategory.READ);
+    final List<HdfsPartialListing> listings = new ArrayList<>();
+    final List<String> allowed = new ArrayList<>();
+    final List<String> denied = new ArrayList<>();
+    int numEntries = 0;
+    int nextIndex = srcs.length;
+    byte[] nextStartAfter = HdfsFileStatus.EMPTY_NAME;
+    readLock();
+    try {
+      checkOperation(NameNode.OperationCategory.READ);
+      for (; srcsIndex < srcs.length; srcsIndex++) {
+        final String src = srcs[srcsIndex];
+        DirectoryListing dl = null;
+        try {
+          dl = getListingInt(dir, src, indexStartAfter, needLocation);
+          if (dl == null) {
+            throw new FileNotFoundException("Path " + src +
+                " does not exist");
+          }
+          listings.add(new HdfsPartialListing(srcsIndex,
+              Arrays.asList(dl.getPartialListing())));
+          numEntries += dl.getPartialListing().length;
+          allowed.add(src);
+        } catch (IOException | InvalidPathException e) {
+          if (e instanceof AccessControlException) {
+            denied.add(src);
+          }
+          listings.add(new HdfsPartialListing(srcsIndex,
+              new RemoteException(e.getClass().getName(), e.getMessage())));
+        }
+        indexStartAfter = HdfsFileStatus.EMPTY_NAME;
+        if (dl != null && dl.hasMore()) {
+          // continue this directory in the next call
+          nextIndex = srcsIndex;
+          nextStartAfter = dl.getLastName();
+          break;
+        }
+        if (numEntries >= dir.getLsLimit()) {
+          nextIndex = srcsIndex + 1;
+          break;
+        }
+      }
+    } finally {
+      readUnlock("batchedListStatus");
+    }
+    for (String src : allowed) {
+      logAuditEvent(true, "listStatus", src);
+    }
+    for (String src : denied) {
+      logAuditEvent(false, "listStatus", src);
+    }
+
+    boolean hasMore = nextIndex < srcs.length;
+    byte[] cookie = null;
+    if (hasMore) {
+      cookie = BatchedListingKeyProto.newBuilder()
+          .setChecksum(ByteString.copyFrom(checksum))
+          .setPathIndex(nextIndex)
+          .setStartAfter(ByteString.copyFrom(nextStartAfter))
+          .build().toByteArray();
+    }
+    return new BatchedDirectoryListing(
+        listings.toArray(new HdfsPartialListing[listings.size()]), hasMore,
+        cookie);
+  }
+
   /////////////////////////////////////////////////////////
   //
   // These methods are called by datanodes
@@ -3659,7 +4104,7 @@ void registerDatanode(DatanodeRegistration nodeReg) throws IOException {
     try {
       blockManager.registerDatanode(nodeReg);
     } finally {
-      writeUnlock();
+      writeUnlock("registerDatanode");
     }
   }
   
@@ -3689,14 +4134,20 @@ HeartbeatResponse handleHeartbeat(DatanodeRegistration nodeReg,
       int xceiverCount, int xmitsInProgress, int failedVolumes,
       VolumeFailureSummary volumeFailureSummary,
       boolean requestFullBlockReportLease) throws IOException {
+    final DatanodeManager dm = blockManager.getDatanodeManager();
+    // the statistics are updated without the lock, so that a heartbeat
+    // keeps its datanode alive even while writers hold the lock for long
+    final DatanodeDescriptor nodeinfo = dm.updateHeartbeat(nodeReg, reports,
+        cacheCapacity, cacheUsed, xceiverCount, failedVolumes,
+        volumeFailureSummary);
     readLock();
     try {
       //get datanode commands
       final int maxTransfer = blockManager.getMaxReplicationStreams()
           - xmitsInProgress;
-      DatanodeCommand[] cmds = blockManager.getDatanodeManager().handleHeartbeat(
-          nodeReg, reports, getBlockPoolId(), cacheCapacity, cacheUsed,
-          xceiverCount, maxTransfer, failedVolumes, volumeFailureSummary);
+      DatanodeCommand[] cmds = nodeinfo == null ?
+          new DatanodeCommand[]{RegisterCommand.REGISTER} :
+          dm.getHeartbeatCommands(nodeinfo, getBlockPoolId(), maxTransfer);
       long blockReportLeaseId = 0;
       if (requestFullBlockReportLease) {
         blockReportLeaseId =  blockManager.requestBlockReportLeaseId(nodeReg);
@@ -3709,7 +4160,7 @@ nodeReg, reports, getBlockPoolId(), cacheCapacity, cacheUsed,
       return new HeartbeatResponse(cmds, haState, rollingUpgradeInfo,
           blockReportLeaseId);
     } finally {
-      readUnlock();
+      readUnlock("handleHeartbeat");
     }
   }
 
@@ -4088,6 +4539,18 @@ public int getNumEncryptionZones() {
     return dir.ezManager.getNumEncryptionZones();
   }
 
+  @Metric({"PendingDeleteReclaimINodes",
+      "Number of deleted inodes not yet removed from the inode map"})
+  public long getPendingDeleteReclaimINodes() {
+    return pendingReclaimINodes.get();
+  }
+
+  @Metric({"PendingDeleteReclaimBlocks",
+      "Number of blocks of deleted files not yet removed from the blocks map"})
+  public long getPendingDeleteReclaimBlocks() {
+    return pendingReclaimBlocks.get();
+  }
+
   /**
    * Returns the length of the wait Queue for the FSNameSystemLock.
    *
@@ -4129,7 +4592,7 @@ DatanodeInfo[] datanodeReport(final DatanodeReportType type
       }
       return arr;
     } finally {
-      readUnlock();
+      readUnlock("datanodeReport");
     }
   }
 
@@ -4166,6 +4629,9 @@ boolean saveNamespace(final long timeWindow, final long txGap)
     checkSuperuserPrivilege();
 
     boolean saved = false;
+    // no new deletes can start in safe mode, but an earlier one may still be
+    // reclaiming its inodes; finish it before the read lock is taken.
+    reclaimPendingDeletes();
     cpLock();  // Block if a checkpointing is in progress on standby.
     readLock();
     try {
@@ -4437,7 +4903,7 @@ public void processIncrementalBlockReport(final DatanodeID nodeID,
     try {
       blockManager.processIncrementalBlockReport(nodeID, srdb);
     } finally {
-      writeUnlock();
+      writeUnlock("processIncrementalBlockReport");
     }
   }
   
@@ -4699,6 +5165,11 @@ public int getNumStaleStorages() {
     return getBlockManager().getDatanodeManager().getNumStaleStorages();
   }
 
+  @Override // FSNamesystemMBean
+  public String getTopLockHolders() {
+    return lockProfiler.getTopHoldersJson();
+  }
+
   @Override // FSNamesystemMBean
   public String getTopUserOpCounts() {
     if (!topConf.isEnabled) {
@@ -4751,7 +5222,7 @@ private long nextBlockId(boolean isStriped) throws IOException {
     return blockId;
   }
 
-  private boolean isFileDeleted(INodeFile file) {
+  boolean isFileDeleted(INodeFile file) {
     // Not in the inodeMap or in the snapshot but marked deleted.
     if (dir.getInode(file.getId()) == null) {
       return true;
@@ -4845,7 +5316,7 @@ void reportBadBlocks(LocatedBlock[] blocks) throws IOException {
         }
       }
     } finally {
-      writeUnlock();
+      writeUnlock("reportBadBlocks");
     }
   }
 
@@ -4881,7 +5352,7 @@ LocatedBlock bumpBlockGenerationStamp(ExtendedBlock block,
       blockManager.setBlockToken(locatedBlock,
           BlockTokenIdentifier.AccessMode.WRITE);
     } finally {
-      writeUnlock();
+      writeUnlock("bumpBlockGenerationStamp");
     }
     // Ensure we record the new generation stamp
     getEditLog().logSync();
@@ -4916,7 +5387,7 @@ void updatePipeline(
       updatePipelineInternal(clientName, oldBlock, newBlock, newNodes,
           newStorageIDs, logRetryCache);
     } finally {
-      writeUnlock();
+      writeUnlock("updatePipeline");
     }
     getEditLog().logSync();
     LOG.info("updatePipeline(" + oldBlock.getLocalBlock() + " => "
@@ -5100,7 +5571,7 @@ Collection<CorruptFileBlockInfo> listCorruptFileBlocks(String path,
       }
       return corruptFiles;
     } finally {
-      readUnlock();
+      readUnlock("listCorruptFileBlocks");
     }
   }
 
@@ -5945,7 +6416,7 @@ String createSnapshot(String snapshotRoot, String snapshotName,
           snapshotPath, null);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("createSnapshot");
     }
     getEditLog().logSync();
     logAuditEvent(success, "createSnapshot", snapshotRoot,
@@ -6048,7 +6519,7 @@ SnapshotDiffReport getSnapshotDiffReport(String path,
           toSnapshotRoot, null);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("getSnapshotDiffReport");
     }
     logAuditEvent(success, "computeSnapshotDiff", fromSnapshotRoot,
         toSnapshotRoot, null);
@@ -6079,7 +6550,7 @@ void deleteSnapshot(String snapshotRoot, String snapshotName,
       logAuditEvent(success, "deleteSnapshot", rootPath, null, null);
       throw ace;
     } finally {
-      writeUnlock();
+      writeUnlock("deleteSnapshot");
     }
     getEditLog().logSync();
 
@@ -6141,7 +6612,7 @@ RollingUpgradeInfo startRollingUpgrade() throws IOException {
         getFSImage().rollEditLog(getEffectiveLayoutVersion());
       }
     } finally {
-      writeUnlock();
+      writeUnlock("startRollingUpgrade");
     }
 
     getEditLog().logSync();
@@ -6329,7 +6800,7 @@ RollingUpgradeInfo finalizeRollingUpgrade() throws IOException {
       getFSImage().renameCheckpoint(NameNodeFile.IMAGE_ROLLBACK,
           NameNodeFile.IMAGE);
     } finally {
-      writeUnlock();
+      writeUnlock("finalizeRollingUpgrade");
     }
 
     if (!haEnabled) {
@@ -6551,7 +7022,7 @@ void modifyAclEntries(final String src, List<AclEntry> aclSpec)
       logAuditEvent(false, "modifyAclEntries", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("modifyAclEntries");
     }
     getEditLog().logSync();
     logAuditEvent(true, "modifyAclEntries", src, null, auditStat);
@@ -6570,7 +7041,7 @@ void removeAclEntries(final String src, List<AclEntry> aclSpec)
       logAuditEvent(false, "removeAclEntries", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeAclEntries");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeAclEntries", src, null, auditStat);
@@ -6588,7 +7059,7 @@ void removeDefaultAcl(final String src) throws IOException {
       logAuditEvent(false, "removeDefaultAcl", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeDefaultAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeDefaultAcl", src, null, auditStat);
@@ -6606,7 +7077,7 @@ void removeAcl(final String src) throws IOException {
       logAuditEvent(false, "removeAcl", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeAcl", src, null, auditStat);
@@ -6624,7 +7095,7 @@ void setAcl(final String src, List<AclEntry> aclSpec) throws IOException {
       logAuditEvent(false, "setAcl", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setAcl", src, null, auditStat);
@@ -6641,7 +7112,7 @@ AclStatus getAclStatus(String src) throws IOException {
       logAuditEvent(false, "getAclStatus", src);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("getAclStatus");
     }
     logAuditEvent(true, "getAclStatus", src);
     return ret;
@@ -6676,7 +7147,7 @@ void createEncryptionZone(final String src, final String keyName,
         resultingStat = FSDirEncryptionZoneOp.createEncryptionZone(dir, src,
             pc, metadata.getCipher(), keyName, logRetryCache);
       } finally {
-        writeUnlock();
+        writeUnlock("createEncryptionZone");
       }
 
       getEditLog().logSync();
@@ -6817,7 +7288,7 @@ void setXAttr(String src, XAttr xAttr, EnumSet<XAttrSetFlag> flag,
       logAuditEvent(false, "setXAttr", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setXAttr");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setXAttr", src, null, auditStat);
@@ -6835,7 +7306,7 @@ List<XAttr> getXAttrs(final String src, List<XAttr> xAttrs)
       logAuditEvent(false, "getXAttrs", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("getXAttrs");
     }
     logAuditEvent(true, "getXAttrs", src);
     return fsXattrs;
@@ -6852,7 +7323,7 @@ List<XAttr> listXAttrs(String src) throws IOException {
       logAuditEvent(false, "listXAttrs", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("listXAttrs");
     }
     logAuditEvent(true, "listXAttrs", src);
     return fsXattrs;
@@ -6870,7 +7341,7 @@ void removeXAttr(String src, XAttr xAttr, boolean logRetryCache)
       logAuditEvent(false, "removeXAttr", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeXAttr");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeXAttr", src, null, auditStat);
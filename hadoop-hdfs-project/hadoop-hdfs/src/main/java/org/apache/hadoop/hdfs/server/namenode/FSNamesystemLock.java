@@ -1,4 +1,3 @@
-
 /**
  * Licensed to the Apache Software Foundation (ASF) under one
  * or more contributor license agreements.  See the NOTICE file
@@ -21,19 +20,29 @@
 
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
 import com.google.common.annotations.VisibleForTesting;
 
 /**
  * Mimics a ReentrantReadWriteLock so more sophisticated locking capabilities
  * are possible.
+ *
+ * For readers that run without any lock, a {@link StampedLock} is
+ * write-locked for as long as a thread holds the coarse write lock. Such a
+ * reader takes an optimistic stamp before reading and must discard its
+ * result unless the stamp still validates afterwards.
  */
 class FSNamesystemLock implements ReadWriteLock {
   @VisibleForTesting
   protected ReentrantReadWriteLock coarseLock;
-  
+
+  /** Write-locked while the coarse write lock is held. */
+  private final StampedLock writeStamp = new StampedLock();
+  /** Stamp of the current coarse write lock holder. */
+  private long heldWriteStamp;
+
   FSNamesystemLock(boolean fair) {
     this.coarseLock = new ReentrantReadWriteLock(fair);
   }
@@ -70,4 +79,34 @@ public boolean isWriteLockedByCurrentThread() {
   public int getQueueLength() {
     return coarseLock.getQueueLength();
   }
+
+  /**
+   * Mark the start of a write. Must be called by the coarse write lock
+   * holder right after acquiring it for the first time.
+   */
+  void beginWrite() {
+    heldWriteStamp = writeStamp.writeLock();
+  }
+
+  /**
+   * Mark the end of a write. Must be called by the coarse write lock holder
+   * right before finally releasing it.
+   */
+  void endWrite() {
+    writeStamp.unlockWrite(heldWriteStamp);
+  }
+
+  /**
+   * @return a stamp for a lock-free read, or 0 if a write is in progress
+   */
+  long tryOptimisticRead() {
+    return writeStamp.tryOptimisticRead();
+  }
+
+  /**
+   * @return true if no write started since the given stamp was obtained
+   */
+  boolean validate(long stamp) {
+    return writeStamp.validate(stamp);
+  }
 }
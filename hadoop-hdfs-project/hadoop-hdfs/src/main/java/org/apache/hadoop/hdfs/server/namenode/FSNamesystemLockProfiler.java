@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.util.StringUtils;
+import org.mortbay.util.ajax.JSON;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Profiles how long the FSNamesystem lock is waited for and held, broken
+ * down by the name of the operation that released it. Wait and hold times
+ * are published through {@link NameNodeMetrics}; in addition the longest
+ * lock holders seen since startup are retained together with a sample of
+ * the releasing thread's stack, so that pathological callers can be
+ * identified through JMX.
+ */
+class FSNamesystemLockProfiler {
+  /** Operation name used by callers that do not supply one. */
+  static final String OP_NAME_OTHER = "OTHER";
+
+  private final boolean enabled;
+  private final int numTopHolders;
+  private final long minTrackedHoldTimeMs;
+
+  /** Min-heap of the longest lock holders, guarded by itself. */
+  private final PriorityQueue<LockHolder> topHolders;
+  /**
+   * Shortest hold time currently present in a full {@link #topHolders}, used
+   * to avoid synchronizing and capturing stacks on the common path.
+   */
+  private volatile long topHoldersFloorMs;
+
+  FSNamesystemLockProfiler(Configuration conf) {
+    this.enabled = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_DEFAULT);
+    this.numTopHolders = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_LOCK_TOP_HOLDERS_NUM_KEY,
+        DFSConfigKeys.DFS_NAMENODE_LOCK_TOP_HOLDERS_NUM_DEFAULT);
+    this.minTrackedHoldTimeMs = conf.getLong(
+        DFSConfigKeys.DFS_NAMENODE_LOCK_TOP_HOLDERS_MIN_HOLD_MS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_LOCK_TOP_HOLDERS_MIN_HOLD_MS_DEFAULT);
+    this.topHolders = new PriorityQueue<LockHolder>(
+        Math.max(1, numTopHolders), LockHolder.BY_HOLD_TIME);
+    this.topHoldersFloorMs = minTrackedHoldTimeMs;
+  }
+
+  /** @return true if per-operation lock profiling is enabled. */
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Record the time a thread waited to acquire the lock.
+   *
+   * @param opName name of the operation that acquired the lock
+   * @param write whether the write lock was acquired
+   * @param waitTimeMs time spent waiting, in milliseconds
+   */
+  void addWaitTime(String opName, boolean write, long waitTimeMs) {
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addLockWaitTime(opName, write, waitTimeMs);
+    }
+  }
+
+  /**
+   * Record the time a thread held the lock, and retain a stack sample if
+   * it is among the longest holders.
+   *
+   * @param opName name of the operation that released the lock
+   * @param write whether the write lock was released
+   * @param holdTimeMs time the lock was held, in milliseconds
+   */
+  void addHoldTime(String opName, boolean write, long holdTimeMs) {
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addLockHoldTime(opName, write, holdTimeMs);
+    }
+    if (numTopHolders <= 0 || holdTimeMs < topHoldersFloorMs) {
+      return;
+    }
+    final Thread current = Thread.currentThread();
+    final LockHolder holder = new LockHolder(opName, write, holdTimeMs,
+        System.currentTimeMillis(), current.getName(),
+        StringUtils.getStackTrace(current));
+    synchronized (topHolders) {
+      topHolders.add(holder);
+      if (topHolders.size() > numTopHolders) {
+        topHolders.poll();
+      }
+      if (topHolders.size() == numTopHolders) {
+        topHoldersFloorMs =
+            Math.max(minTrackedHoldTimeMs, topHolders.peek().holdTimeMs);
+      }
+    }
+  }
+
+  /** @return the longest lock holders, longest first. */
+  @VisibleForTesting
+  List<LockHolder> getTopHolders() {
+    final List<LockHolder> holders;
+    synchronized (topHolders) {
+      holders = new ArrayList<LockHolder>(topHolders);
+    }
+    Collections.sort(holders, Collections.reverseOrder(LockHolder.BY_HOLD_TIME));
+    return holders;
+  }
+
+  /** @return the longest lock holders as a JSON list, longest first. */
+  String getTopHoldersJson() {
+    final List<Map<String, Object>> list =
+        new ArrayList<Map<String, Object>>();
+    for (LockHolder holder : getTopHolders()) {
+      final Map<String, Object> map = new TreeMap<String, Object>();
+      map.put("operation", holder.opName);
+      map.put("lockType", holder.write ? "write" : "read");
+      map.put("holdTimeMs", holder.holdTimeMs);
+      map.put("timestamp", holder.timestamp);
+      map.put("thread", holder.threadName);
+      map.put("stackTrace", holder.stackTrace);
+      list.add(map);
+    }
+    return JSON.toString(list);
+  }
+
+  /** A single sampled lock hold. */
+  static class LockHolder {
+    static final Comparator<LockHolder> BY_HOLD_TIME =
+        new Comparator<LockHolder>() {
+          @Override
+          public int compare(LockHolder a, LockHolder b) {
+            return Long.compare(a.holdTimeMs, b.holdTimeMs);
+          }
+        };
+
+    final String opName;
+    final boolean write;
+    final long holdTimeMs;
+    final long timestamp;
+    final String threadName;
+    final String stackTrace;
+
+    LockHolder(String opName, boolean write, long holdTimeMs, long timestamp,
+        String threadName, String stackTrace) {
+      this.opName = opName;
+      this.write = write;
+      this.holdTimeMs = holdTimeMs;
+      this.timestamp = timestamp;
+      this.threadName = threadName;
+      this.stackTrace = stackTrace;
+    }
+  }
+}
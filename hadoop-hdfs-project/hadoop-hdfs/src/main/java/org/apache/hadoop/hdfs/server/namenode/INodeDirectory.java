@@ -628,12 +628,42 @@ public QuotaCounts computeQuotaUsage4CurrentDirectory(
   @Override
   public ContentSummaryComputationContext computeContentSummary(int snapshotId,
       ContentSummaryComputationContext summary) {
+    final ContentSummaryCache cache = snapshotId == Snapshot.CURRENT_STATE_ID ?
+        summary.getContentSummaryCache() : null;
+    if (cache == null) {
+      return computeContentSummaryInt(snapshotId, summary);
+    }
+    final ContentCounts cached = cache.get(this);
+    if (cached != null) {
+      summary.getCounts().addContents(cached);
+      return summary;
+    }
+    final ContentSummaryCache.Entry pending = cache.begin(this);
+    if (pending == null) {
+      return computeContentSummaryInt(snapshotId, summary);
+    }
+    final ContentCounts before = summary.getCounts().copy();
+    final long uncacheable = summary.getUncacheableCount();
+    computeContentSummaryInt(snapshotId, summary);
+    if (uncacheable == summary.getUncacheableCount()) {
+      final ContentCounts counts = summary.getCounts().copy();
+      counts.subtractContents(before);
+      cache.put(this, pending, counts);
+    } else {
+      cache.abort(this, pending);
+    }
+    return summary;
+  }
+
+  private ContentSummaryComputationContext computeContentSummaryInt(
+      int snapshotId, ContentSummaryComputationContext summary) {
     final DirectoryWithSnapshotFeature sf = getDirectoryWithSnapshotFeature();
     if (sf != null && snapshotId == Snapshot.CURRENT_STATE_ID) {
       // if the getContentSummary call is against a non-snapshot path, the
       // computation should include all the deleted files/directories
       sf.computeContentSummary4Snapshot(summary.getBlockStoragePolicySuite(),
           summary.getCounts());
+      summary.markUncacheable();
     }
     final DirectoryWithQuotaFeature q = getDirectoryWithQuotaFeature();
     if (q != null && snapshotId == Snapshot.CURRENT_STATE_ID) {
@@ -787,6 +817,23 @@ public void destroyAndCollectBlocks(ReclaimContext reclaimContext) {
     clear();
     reclaimContext.removedINodes.add(this);
   }
+
+  /**
+   * Destroy this directory once its children have been destroyed one by one
+   * rather than by {@link #destroyAndCollectBlocks(ReclaimContext)}. Only
+   * valid for a directory without snapshot data.
+   */
+  void destroyAfterChildren(ReclaimContext reclaimContext) {
+    Preconditions.checkState(!isWithSnapshot(),
+        "Directory %s has snapshot data", this);
+    reclaimContext.quotaDelta().add(
+        new QuotaCounts.Builder().nameSpace(1).build());
+    if (getAclFeature() != null) {
+      AclStorage.removeAclFeature(getAclFeature());
+    }
+    clear();
+    reclaimContext.removedINodes.add(this);
+  }
   
   @Override
   public void cleanSubtree(ReclaimContext reclaimContext, final int snapshotId,
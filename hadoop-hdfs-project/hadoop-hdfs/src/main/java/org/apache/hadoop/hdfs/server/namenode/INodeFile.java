@@ -758,6 +758,12 @@ public final ContentSummaryComputationContext computeContentSummary(
       int snapshotId, final ContentSummaryComputationContext summary) {
     final ContentCounts counts = summary.getCounts();
     counts.addContent(Content.FILE, 1);
+    final BlockInfo lastBlock = getLastBlock();
+    if (isUnderConstruction() ||
+        (lastBlock != null && !lastBlock.isComplete())) {
+      // the length of the last block is updated outside the namespace
+      summary.markUncacheable();
+    }
     final long fileLen = computeFileSize(snapshotId);
     counts.addContent(Content.LENGTH, fileLen);
     counts.addContent(Content.DISKSPACE, storagespaceConsumed(null)
@@ -315,6 +315,8 @@ public void destroyAndCollectBlocks(ReclaimContext reclaimContext) {
   @Override
   public ContentSummaryComputationContext computeContentSummary(int snapshotId,
       ContentSummaryComputationContext summary) {
+    // the referred inode may also be changed through another path
+    summary.markUncacheable();
     return referred.computeContentSummary(snapshotId, summary);
   }
 
@@ -505,6 +507,7 @@ public int getLastSnapshotId() {
     public final ContentSummaryComputationContext computeContentSummary(
         int snapshotId, ContentSummaryComputationContext summary) {
       final int s = snapshotId < lastSnapshotId ? snapshotId : lastSnapshotId;
+      summary.markUncacheable();
       // only count storagespace for WithName
       final QuotaCounts q = computeQuotaUsage(
           summary.getBlockStoragePolicySuite(), getStoragePolicyID(), false, s);
@@ -376,6 +376,12 @@ synchronized boolean checkLeases() {
         try {
           INodesInPath iip = INodesInPath.fromINode(fsd.getInode(id));
           p = iip.getPath();
+          if (fsnamesystem.isFileDeleted(iip.getLastINode().asFile())) {
+            // The file is in a deleted subtree whose inodes have not been
+            // reclaimed yet, see FSNamesystem#delete
+            removing.add(id);
+            continue;
+          }
           // Sanity check to make sure the path is correct
           if (!p.startsWith("/")) {
             throw new IOException("Invalid path in the lease " + p);
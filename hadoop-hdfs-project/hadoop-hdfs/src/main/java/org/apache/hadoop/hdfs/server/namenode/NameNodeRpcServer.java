@@ -83,6 +83,7 @@
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
 import org.apache.hadoop.hdfs.protocol.AclException;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
@@ -103,6 +104,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.RollingUpgradeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.NSQuotaExceededException;
@@ -141,6 +143,7 @@
 import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.server.namenode.web.resources.NamenodeWebHdfsMethods;
 import org.apache.hadoop.hdfs.server.protocol.BlockReportContext;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportDigestResponse;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
@@ -155,6 +158,7 @@
 import org.apache.hadoop.hdfs.server.protocol.NodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.RemoteEditLogManifest;
 import org.apache.hadoop.hdfs.server.protocol.StorageBlockReport;
+import org.apache.hadoop.hdfs.server.protocol.StorageBlockReportDigest;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
@@ -1119,6 +1123,23 @@ public DirectoryListing getListing(String src, byte[] startAfter,
     return files;
   }
 
+  @Override // ClientProtocol
+  public BatchedDirectoryListing getBatchedListing(String[] srcs,
+      byte[] startAfter, boolean needLocation) throws IOException {
+    checkNNStartup();
+    BatchedDirectoryListing result = namesystem.getBatchedListing(srcs,
+        startAfter, needLocation);
+    metrics.incrGetListingOps();
+    int numFiles = 0;
+    for (HdfsPartialListing listing : result.getListings()) {
+      if (listing.getPartialListing() != null) {
+        numFiles += listing.getPartialListing().size();
+      }
+    }
+    metrics.incrFilesInGetListingOps(numFiles);
+    return result;
+  }
+
   @Override // ClientProtocol
   public HdfsFileStatus getFileInfo(String src)  throws IOException {
     checkNNStartup();
@@ -1445,7 +1466,8 @@ public DatanodeCommand blockReport(final DatanodeRegistration nodeReg,
         @Override
         public Boolean call() throws IOException {
           return bm.processReport(nodeReg, reports[index].getStorage(),
-              blocks, context, (index == reports.length - 1));
+              blocks, reports[index].getRanges(), context,
+              (index == reports.length - 1));
         }
       });
       metrics.incrStorageBlockReportOps();
@@ -1463,6 +1485,21 @@ public Boolean call() throws IOException {
     return null;
   }
 
+  @Override // DatanodeProtocol
+  public BlockReportDigestResponse blockReportDigest(
+      DatanodeRegistration nodeReg, String poolId,
+      StorageBlockReportDigest[] digests, BlockReportContext context)
+      throws IOException {
+    checkNNStartup();
+    verifyRequest(nodeReg);
+    if (blockStateChangeLog.isDebugEnabled()) {
+      blockStateChangeLog.debug("*BLOCK* NameNode.blockReportDigest: "
+           + "from " + nodeReg + ", digests.length=" + digests.length);
+    }
+    return namesystem.getBlockManager().compareBlockReportDigests(nodeReg,
+        digests, context);
+  }
+
   @Override
   public DatanodeCommand cacheReport(DatanodeRegistration nodeReg,
       String poolId, List<Long> blockIds) throws IOException {
@@ -34,6 +34,13 @@ public interface Namesystem extends RwLock, SafeMode {
 
   boolean isInSnapshot(long blockCollectionID);
 
+  /**
+   * Like {@link #hasReadLock()}, but also true while the current thread runs
+   * a read without the lock whose result is discarded unless no write
+   * happened in the meantime. Only for code that tolerates such reads.
+   */
+  boolean hasReadLockOrOptimisticRead();
+
   CacheManager getCacheManager();
 
   HAContext getHAContext();
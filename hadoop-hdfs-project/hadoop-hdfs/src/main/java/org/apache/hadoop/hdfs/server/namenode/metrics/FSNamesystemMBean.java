@@ -185,6 +185,15 @@ public interface FSNamesystemMBean {
    */
   public String getTopUserOpCounts();
 
+  /**
+   * Returns a JSON list of the longest FSNamesystem lock holders seen since
+   * startup, each with the operation name, hold time and a stack sample.
+   * The list is only populated when detailed lock metrics are enabled.
+   *
+   * @return JSON string
+   */
+  public String getTopLockHolders();
+
   /**
    * Return the number of encryption zones in the system.
    */
@@ -20,6 +20,9 @@
 import static org.apache.hadoop.metrics2.impl.MsInfo.ProcessName;
 import static org.apache.hadoop.metrics2.impl.MsInfo.SessionId;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.NamenodeRole;
@@ -53,6 +56,10 @@ public class NameNodeMetrics {
   @Metric("Number of files/dirs deleted by delete or rename operations")
   MutableCounterLong filesDeleted;
   @Metric MutableCounterLong fileInfoOps;
+  @Metric("Number of read operations completed without the namesystem lock")
+  MutableCounterLong optimisticReads;
+  @Metric("Number of lock-free read operations retried under the lock")
+  MutableCounterLong optimisticReadRetries;
   @Metric MutableCounterLong addBlockOps;
   @Metric MutableCounterLong getAdditionalDatanodeOps;
   @Metric MutableCounterLong createSymlinkOps;
@@ -111,7 +118,16 @@ public long totalFileOps(){
   final MutableQuantiles[] syncsQuantiles;
   @Metric("Journal transactions batched in sync")
   MutableCounterLong transactionsBatchedInSync;
+  final MutableQuantiles[] syncBatchSizeQuantiles;
+  @Metric("Pipelined async edit batches awaiting sync")
+  MutableGaugeInt asyncEditBatchesInFlight;
+  @Metric("Pipelined async edit batch queue to sync time")
+  MutableRate asyncEditBatchSync;
   @Metric("Block report") MutableRate blockReport;
+  @Metric("Number of blocks scheduled for reconstruction")
+  MutableCounterLong reconstructionWorkScheduled;
+  @Metric("Time choosing the targets of reconstruction work in msec")
+  MutableRate reconstructionChooseTargets;
   final MutableQuantiles[] blockReportQuantiles;
   @Metric("Cache report") MutableRate cacheReport;
   final MutableQuantiles[] cacheReportQuantiles;
@@ -128,15 +144,23 @@ public long totalFileOps(){
   @Metric("GetImageServlet putImage")
   MutableRate putImage;
 
+  /** Percentile intervals, also used for dynamically named quantiles. */
+  private final int[] intervals;
+  /** FSNamesystem lock wait/hold quantiles, keyed by metric name. */
+  private final ConcurrentMap<String, MutableQuantiles[]> lockQuantiles =
+      new ConcurrentHashMap<String, MutableQuantiles[]>();
+
   JvmMetrics jvmMetrics = null;
   
   NameNodeMetrics(String processName, String sessionId, int[] intervals,
       final JvmMetrics jvmMetrics) {
     this.jvmMetrics = jvmMetrics;
+    this.intervals = intervals;
     registry.tag(ProcessName, processName).tag(SessionId, sessionId);
     
     final int len = intervals.length;
     syncsQuantiles = new MutableQuantiles[len];
+    syncBatchSizeQuantiles = new MutableQuantiles[len];
     blockReportQuantiles = new MutableQuantiles[len];
     cacheReportQuantiles = new MutableQuantiles[len];
     
@@ -145,6 +169,9 @@ public long totalFileOps(){
       syncsQuantiles[i] = registry.newQuantiles(
           "syncs" + interval + "s",
           "Journal syncs", "ops", "latency", interval);
+      syncBatchSizeQuantiles[i] = registry.newQuantiles(
+          "syncBatchSize" + interval + "s",
+          "Transactions per journal sync", "syncs", "transactions", interval);
       blockReportQuantiles[i] = registry.newQuantiles(
           "blockReport" + interval + "s", 
           "Block report", "ops", "latency", interval);
@@ -179,6 +206,14 @@ public void incrGetBlockLocations() {
     getBlockLocations.incr();
   }
 
+  public void incrOptimisticReads() {
+    optimisticReads.incr();
+  }
+
+  public void incrOptimisticReadRetries() {
+    optimisticReadRetries.incr();
+  }
+
   public void incrFilesCreated() {
     filesCreated.incr();
   }
@@ -294,6 +329,20 @@ public void addSync(long elapsed) {
     }
   }
 
+  public void addSyncBatchSize(long transactions) {
+    for (MutableQuantiles q : syncBatchSizeQuantiles) {
+      q.add(transactions);
+    }
+  }
+
+  public void setAsyncEditBatchesInFlight(int batches) {
+    asyncEditBatchesInFlight.set(batches);
+  }
+
+  public void addAsyncEditBatchSync(long elapsed) {
+    asyncEditBatchSync.add(elapsed);
+  }
+
   public void setFsImageLoadTime(long elapsed) {
     fsImageLoadTime.set((int) elapsed);
   }
@@ -305,6 +354,14 @@ public void addBlockReport(long latency) {
     }
   }
 
+  public void incrReconstructionWorkScheduled(long count) {
+    reconstructionWorkScheduled.incr(count);
+  }
+
+  public void addReconstructionChooseTargets(long latency) {
+    reconstructionChooseTargets.add(latency);
+  }
+
   public void addCacheBlockReport(long latency) {
     cacheReport.add(latency);
     for (MutableQuantiles q : cacheReportQuantiles) {
@@ -327,4 +384,64 @@ public void addGetImage(long latency) {
   public void addPutImage(long latency) {
     putImage.add(latency);
   }
+
+  /**
+   * Add a sample of the time spent waiting for the FSNamesystem lock.
+   *
+   * @param opName name of the operation that acquired the lock
+   * @param write whether it was the write lock
+   * @param latency wait time in milliseconds
+   */
+  public void addLockWaitTime(String opName, boolean write, long latency) {
+    addLockLatency(getLockMetricName(opName, write, "WaitTime"), latency);
+  }
+
+  /**
+   * Add a sample of the time the FSNamesystem lock was held.
+   *
+   * @param opName name of the operation that released the lock
+   * @param write whether it was the write lock
+   * @param latency hold time in milliseconds
+   */
+  public void addLockHoldTime(String opName, boolean write, long latency) {
+    addLockLatency(getLockMetricName(opName, write, "HoldTime"), latency);
+  }
+
+  private void addLockLatency(String name, long latency) {
+    // MetricsRegistry#add creates the rate on first use
+    registry.add(name, latency);
+    for (MutableQuantiles q : getLockQuantiles(name)) {
+      q.add(latency);
+    }
+  }
+
+  private MutableQuantiles[] getLockQuantiles(String name) {
+    MutableQuantiles[] quantiles = lockQuantiles.get(name);
+    if (quantiles == null) {
+      synchronized (lockQuantiles) {
+        quantiles = lockQuantiles.get(name);
+        if (quantiles == null) {
+          quantiles = new MutableQuantiles[intervals.length];
+          for (int i = 0; i < intervals.length; i++) {
+            quantiles[i] = registry.newQuantiles(
+                name + intervals[i] + "s", "FSNamesystem lock " + name,
+                "ops", "latency", intervals[i]);
+          }
+          lockQuantiles.put(name, quantiles);
+        }
+      }
+    }
+    return quantiles;
+  }
+
+  private static String getLockMetricName(String opName, boolean write,
+      String suffix) {
+    final StringBuilder b = new StringBuilder(write ? "FSNWriteLock" :
+        "FSNReadLock");
+    if (!opName.isEmpty()) {
+      b.append(Character.toUpperCase(opName.charAt(0)))
+          .append(opName, 1, opName.length());
+    }
+    return b.append(suffix).toString();
+  }
 }
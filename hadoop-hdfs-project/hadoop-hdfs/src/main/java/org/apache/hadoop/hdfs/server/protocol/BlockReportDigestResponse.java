@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.protocol;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * The answer of the NameNode to the block report digests of a Datanode:
+ * the ranges of block IDs which need to be reported for each storage.
+ */
+@InterfaceAudience.Private
+public class BlockReportDigestResponse {
+  /** Storage ID to the ranges to report, see {@link StorageBlockReport}. */
+  private final Map<String, long[]> storageRanges;
+
+  public BlockReportDigestResponse(Map<String, long[]> storageRanges) {
+    this.storageRanges = storageRanges;
+  }
+
+  public Map<String, long[]> getStorageRanges() {
+    return Collections.unmodifiableMap(storageRanges);
+  }
+
+  /**
+   * @return the ranges of block IDs to report for the given storage, or null
+   *         if the storage needs a full report.
+   */
+  public long[] getRanges(String storageId) {
+    return storageRanges.get(storageId);
+  }
+}
@@ -140,6 +140,28 @@ public HeartbeatResponse sendHeartbeat(DatanodeRegistration registration,
   public DatanodeCommand blockReport(DatanodeRegistration registration,
             String poolId, StorageBlockReport[] reports,
             BlockReportContext context) throws IOException;
+
+  /**
+   * blockReportDigest() lets the DataNode find out which parts of a full
+   * block report the NameNode needs. For each storage, the NameNode compares
+   * the per-range digests of the replicas with the blocks it has recorded,
+   * and returns the ranges of block IDs which differ. The DataNode then
+   * sends {@link #blockReport} with only the replicas in those ranges, using
+   * the same context.
+   * @param registration datanode registration
+   * @param poolId the block pool ID for the blocks
+   * @param digests digest of the replicas per storage
+   * @param context Context information for the following block report.
+   *
+   * @return the ranges to report per storage; storages without ranges need
+   *         a full report.
+   * @throws IOException
+   */
+  @Idempotent
+  public BlockReportDigestResponse blockReportDigest(
+      DatanodeRegistration registration, String poolId,
+      StorageBlockReportDigest[] digests, BlockReportContext context)
+      throws IOException;
     
 
   /**
@@ -26,10 +26,22 @@
 public class StorageBlockReport {
   private final DatanodeStorage storage;
   private final BlockListAsLongs blocks;
+  private final long[] ranges;
   
   public StorageBlockReport(DatanodeStorage storage, BlockListAsLongs blocks) {
+    this(storage, blocks, null);
+  }
+
+  /**
+   * @param ranges if not null, the report only covers the block IDs in
+   *               these ranges, given as pairs of the first and the last
+   *               block ID, see {@link StorageBlockReportDigest}.
+   */
+  public StorageBlockReport(DatanodeStorage storage, BlockListAsLongs blocks,
+      long[] ranges) {
     this.storage = storage;
     this.blocks = blocks;
+    this.ranges = ranges;
   }
 
   public DatanodeStorage getStorage() {
@@ -39,4 +51,9 @@ public DatanodeStorage getStorage() {
   public BlockListAsLongs getBlocks() {
     return blocks;
   }
+
+  /** @return the ranges covered by the report, or null if it is complete. */
+  public long[] getRanges() {
+    return ranges;
+  }
 }
@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.protocol;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs.BlockReportReplica;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+
+/**
+ * Digest of the replicas of a Datanode storage.
+ *
+ * The block IDs are split into consecutive ranges, each holding about the
+ * same number of replicas, and each range carries the number of replicas
+ * in it and the sum of their hashes. The NameNode computes the same digest
+ * over the blocks it has recorded for the storage, and only the ranges
+ * which differ need to be reported.
+ */
+@InterfaceAudience.Private
+public class StorageBlockReportDigest {
+  private final DatanodeStorage storage;
+  /** The first block ID of each range, starting with Long.MIN_VALUE. */
+  private final long[] rangeStarts;
+  private final int[] counts;
+  private final long[] digests;
+
+  public StorageBlockReportDigest(DatanodeStorage storage, long[] rangeStarts,
+      int[] counts, long[] digests) {
+    if (rangeStarts.length == 0 || rangeStarts[0] != Long.MIN_VALUE ||
+        counts.length != rangeStarts.length ||
+        digests.length != rangeStarts.length) {
+      throw new IllegalArgumentException("Invalid block report digest for " +
+          "storage " + storage.getStorageID());
+    }
+    this.storage = storage;
+    this.rangeStarts = rangeStarts;
+    this.counts = counts;
+    this.digests = digests;
+  }
+
+  /**
+   * Compute the digest of a block report.
+   * @param storage the reported storage
+   * @param blocks the replicas, sorted by block ID
+   * @param blocksPerRange the number of replicas to put into each range
+   */
+  public static StorageBlockReportDigest compute(DatanodeStorage storage,
+      BlockListAsLongs blocks, int blocksPerRange) {
+    final int numRanges = Math.max(1,
+        (blocks.getNumberOfBlocks() + blocksPerRange - 1) / blocksPerRange);
+    long[] starts = new long[numRanges];
+    int[] counts = new int[numRanges];
+    long[] digests = new long[numRanges];
+    starts[0] = Long.MIN_VALUE;
+    int range = 0;
+    long lastKey = Long.MIN_VALUE;
+    for (BlockReportReplica r : blocks) {
+      long key = getRangeKey(r.getBlockId());
+      // a range ends once it is full, but never between two replicas
+      // with the same key
+      if (counts[range] >= blocksPerRange && key != lastKey &&
+          range + 1 < numRanges) {
+        starts[++range] = key;
+      }
+      counts[range]++;
+      digests[range] += digestReplica(r.getBlockId(), r.getGenerationStamp(),
+          r.getNumBytes(), r.getState());
+      lastKey = key;
+    }
+    return new StorageBlockReportDigest(storage,
+        Arrays.copyOf(starts, range + 1), Arrays.copyOf(counts, range + 1),
+        Arrays.copyOf(digests, range + 1));
+  }
+
+  public DatanodeStorage getStorage() {
+    return storage;
+  }
+
+  public long[] getRangeStarts() {
+    return rangeStarts;
+  }
+
+  public int[] getCounts() {
+    return counts;
+  }
+
+  public long[] getDigests() {
+    return digests;
+  }
+
+  public int getNumRanges() {
+    return rangeStarts.length;
+  }
+
+  /** @return the index of the range which the given block belongs to. */
+  public int getRange(long blockId) {
+    int i = Arrays.binarySearch(rangeStarts, getRangeKey(blockId));
+    return i >= 0 ? i : -i - 2;
+  }
+
+  /**
+   * Compare this digest with the digest of the same ranges computed by the
+   * receiver.
+   * @return the first and the last block ID of each range which differs,
+   *         with adjacent ranges merged.
+   */
+  public long[] getMismatchedRanges(int[] otherCounts, long[] otherDigests) {
+    long[] ranges = new long[2 * rangeStarts.length];
+    int n = 0;
+    for (int i = 0; i < rangeStarts.length; i++) {
+      if (counts[i] == otherCounts[i] && digests[i] == otherDigests[i]) {
+        continue;
+      }
+      long last = i + 1 < rangeStarts.length ?
+          rangeStarts[i + 1] - 1 : Long.MAX_VALUE;
+      if (n > 0 && ranges[n - 1] == rangeStarts[i] - 1) {
+        ranges[n - 1] = last;
+      } else {
+        ranges[n++] = rangeStarts[i];
+        ranges[n++] = last;
+      }
+    }
+    return Arrays.copyOf(ranges, n);
+  }
+
+  /**
+   * The key by which the replicas are assigned to the ranges. The internal
+   * blocks of a striped block group all fall into the range of the group,
+   * which is the ID the NameNode keeps for them.
+   */
+  public static long getRangeKey(long blockId) {
+    return blockId < 0 ?
+        blockId & ~HdfsServerConstants.BLOCK_GROUP_INDEX_MASK : blockId;
+  }
+
+  /**
+   * @param ranges pairs of the first and the last block ID of a range,
+   *               sorted by block ID
+   * @return true if the given block belongs to one of the ranges.
+   */
+  public static boolean inRanges(long[] ranges, long blockId) {
+    final long key = getRangeKey(blockId);
+    int low = 0;
+    int high = ranges.length / 2 - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (key < ranges[2 * mid]) {
+        high = mid - 1;
+      } else if (key > ranges[2 * mid + 1]) {
+        low = mid + 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The hash of a replica, which is summed up per range.
+   * @param state the replica state, or null for a block which should never
+   *              match a reported replica
+   */
+  public static long digestReplica(long blockId, long genStamp, long numBytes,
+      ReplicaState state) {
+    long h = mix(blockId);
+    h = mix(h ^ genStamp);
+    h = mix(h ^ numBytes);
+    return mix(h ^ (state == null ? -1 : state.getValue()));
+  }
+
+  private static long mix(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return z ^ (z >>> 33);
+  }
+}
@@ -0,0 +1,273 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.PartialListing;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests listing several directories with a single batched listing call.
+ */
+public class TestBatchedListDirectories {
+  private static final int LS_LIMIT = 5;
+  private static final int NUM_DIRS = 6;
+
+  private static MiniDFSCluster cluster;
+  private static DistributedFileSystem dfs;
+  private static List<Path> dirs = new ArrayList<>();
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, LS_LIMIT);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    dfs = cluster.getFileSystem();
+    // directory i holds 2 * i files, so some of them span several pages
+    for (int i = 0; i < NUM_DIRS; i++) {
+      Path dir = new Path("/batched/dir" + i);
+      dfs.mkdirs(dir);
+      for (int j = 0; j < 2 * i; j++) {
+        DFSTestUtil.createFile(dfs, new Path(dir, "file" + j), 1, (short) 1,
+            0L);
+      }
+      dirs.add(dir);
+    }
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  private static Map<Path, List<FileStatus>> listAll(FileSystem fs,
+      List<Path> paths) throws IOException {
+    Map<Path, List<FileStatus>> listings = new LinkedHashMap<>();
+    RemoteIterator<PartialListing<FileStatus>> it =
+        fs.batchedListStatusIterator(paths);
+    while (it.hasNext()) {
+      PartialListing<FileStatus> listing = it.next();
+      List<FileStatus> statuses = listings.get(listing.getListedPath());
+      if (statuses == null) {
+        statuses = new ArrayList<>();
+        listings.put(listing.getListedPath(), statuses);
+      }
+      statuses.addAll(listing.get());
+    }
+    return listings;
+  }
+
+  private static void assertSameListing(FileSystem fs, Path dir,
+      List<FileStatus> batched) throws IOException {
+    assertEquals(Arrays.asList(fs.listStatus(dir)), batched);
+  }
+
+  @Test
+  public void testListMultipleDirectories() throws Exception {
+    Map<Path, List<FileStatus>> listings = listAll(dfs, dirs);
+    assertEquals(dfs.makeQualified(dirs.get(0)),
+        listings.keySet().iterator().next());
+    assertEquals(NUM_DIRS, listings.size());
+    int i = 0;
+    for (Map.Entry<Path, List<FileStatus>> e : listings.entrySet()) {
+      assertEquals(dfs.makeQualified(dirs.get(i)), e.getKey());
+      assertEquals(2 * i, e.getValue().size());
+      assertSameListing(dfs, dirs.get(i), e.getValue());
+      i++;
+    }
+  }
+
+  @Test
+  public void testPagedByListLimit() throws Exception {
+    String[] srcs = new String[dirs.size()];
+    for (int i = 0; i < srcs.length; i++) {
+      srcs[i] = dirs.get(i).toString();
+    }
+    byte[] startAfter = new byte[0];
+    int calls = 0;
+    int total = 0;
+    BatchedDirectoryListing page;
+    do {
+      page = dfs.getClient().batchedListPaths(srcs, startAfter, false);
+      int entries = 0;
+      for (int i = 0; i < page.getListings().length; i++) {
+        entries += page.getListings()[i].getPartialListing().size();
+      }
+      // a page only exceeds the limit by the tail of its last directory
+      assertTrue(entries < 2 * LS_LIMIT);
+      total += entries;
+      startAfter = page.getStartAfter();
+      calls++;
+    } while (page.hasMore());
+    assertTrue("Expected several pages, got " + calls, calls > 1);
+    assertEquals(NUM_DIRS * (NUM_DIRS - 1), total);
+  }
+
+  @Test
+  public void testClientSplitsPathsIntoChunks() throws Exception {
+    Configuration conf = new Configuration(dfs.getConf());
+    conf.setInt(DFSConfigKeys.DFS_BATCHED_LISTING_LIMIT, 2);
+    try (FileSystem fs = FileSystem.newInstance(dfs.getUri(), conf)) {
+      Map<Path, List<FileStatus>> listings = listAll(fs, dirs);
+      assertEquals(NUM_DIRS, listings.size());
+      for (int i = 0; i < NUM_DIRS; i++) {
+        assertSameListing(dfs, dirs.get(i),
+            listings.get(dfs.makeQualified(dirs.get(i))));
+      }
+    }
+  }
+
+  @Test
+  public void testTooManyPaths() throws Exception {
+    String[] srcs = new String[DFSConfigKeys.DFS_BATCHED_LISTING_LIMIT_DEFAULT
+        + 1];
+    Arrays.fill(srcs, "/batched/dir1");
+    try {
+      dfs.getClient().batchedListPaths(srcs, new byte[0], false);
+      fail("Listing too many paths should fail");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("Too many source paths", e);
+    }
+  }
+
+  @Test
+  public void testStartAfterMustMatchPaths() throws Exception {
+    String[] srcs = new String[] {"/batched/dir5", "/batched/dir4"};
+    BatchedDirectoryListing page =
+        dfs.getClient().batchedListPaths(srcs, new byte[0], false);
+    assertTrue(page.hasMore());
+    try {
+      dfs.getClient().batchedListPaths(new String[] {"/batched/dir4"},
+          page.getStartAfter(), false);
+      fail("A startAfter key for other paths should be rejected");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("does not match", e);
+    }
+  }
+
+  @Test
+  public void testNonExistentPath() throws Exception {
+    Path missing = new Path("/batched/missing");
+    List<Path> paths = Arrays.asList(dirs.get(1), missing, dirs.get(2));
+    RemoteIterator<PartialListing<FileStatus>> it =
+        dfs.batchedListStatusIterator(paths);
+    assertSameListing(dfs, dirs.get(1), it.next().get());
+    PartialListing<FileStatus> listing = it.next();
+    assertEquals(dfs.makeQualified(missing), listing.getListedPath());
+    try {
+      listing.get();
+      fail("Listing a missing path should fail");
+    } catch (FileNotFoundException e) {
+      GenericTestUtils.assertExceptionContains(missing.toString(), e);
+    }
+    assertSameListing(dfs, dirs.get(2), it.next().get());
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void testFileIsListedAsItself() throws Exception {
+    Path file = new Path(dirs.get(1), "file0");
+    Map<Path, List<FileStatus>> listings =
+        listAll(dfs, Arrays.asList(file));
+    List<FileStatus> statuses = listings.get(dfs.makeQualified(file));
+    assertEquals(1, statuses.size());
+    assertEquals(dfs.makeQualified(file), statuses.get(0).getPath());
+  }
+
+  @Test
+  public void testPermissionDenied() throws Exception {
+    final Path secret = new Path("/batched-secret");
+    dfs.mkdirs(secret);
+    dfs.setPermission(secret, new FsPermission((short) 0700));
+    final List<Path> paths = Arrays.asList(dirs.get(1), secret);
+    UserGroupInformation user = UserGroupInformation.createUserForTesting(
+        "someone", new String[] {"nogroup"});
+    user.doAs(new PrivilegedExceptionAction<Void>() {
+      @Override
+      public Void run() throws Exception {
+        try (FileSystem fs = FileSystem.newInstance(dfs.getUri(),
+            dfs.getConf())) {
+          RemoteIterator<PartialListing<FileStatus>> it =
+              fs.batchedListStatusIterator(paths);
+          assertSameListing(dfs, dirs.get(1), it.next().get());
+          try {
+            it.next().get();
+            fail("Listing a directory without permission should fail");
+          } catch (AccessControlException e) {
+            GenericTestUtils.assertExceptionContains("Permission denied", e);
+          }
+          assertFalse(it.hasNext());
+        }
+        return null;
+      }
+    });
+  }
+
+  @Test
+  public void testDefaultImplementation() throws Exception {
+    // the FileSystem default lists one path at a time
+    FileSystem local = FileSystem.getLocal(new Configuration());
+    Path root = new Path(GenericTestUtils.getTestDir(
+        "TestBatchedListDirectories").getAbsolutePath());
+    local.delete(root, true);
+    Path dir = new Path(root, "dir");
+    local.mkdirs(dir);
+    local.create(new Path(dir, "f")).close();
+    RemoteIterator<PartialListing<FileStatus>> it =
+        local.batchedListStatusIterator(
+            Arrays.asList(dir, new Path(root, "missing")));
+    assertEquals(1, it.next().get().size());
+    try {
+      it.next().get();
+      fail("Listing a missing path should fail");
+    } catch (FileNotFoundException e) {
+      // expected
+    }
+    assertFalse(it.hasNext());
+    local.delete(root, true);
+  }
+}
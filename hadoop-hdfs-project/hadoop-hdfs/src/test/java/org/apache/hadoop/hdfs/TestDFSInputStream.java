@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hdfs;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -136,4 +137,50 @@ public void testSeekToNewSource() throws IOException {
       cluster.shutdown();
     }
   }
+
+  /**
+   * Tests that a sequential read finds the blocks after the first one opened
+   * ahead, when block prefetch is enabled.
+   */
+  @Test(timeout=60000)
+  public void testBlockPrefetch() throws IOException {
+    final int blockSize = 64 * 1024;
+    final int numBlocks = 5;
+    Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setInt(HdfsClientConfigKeys.Read.BLOCK_PREFETCH_THREADPOOL_SIZE_KEY,
+        2);
+    conf.setLong(HdfsClientConfigKeys.Read.BLOCK_PREFETCH_THRESHOLD_KEY,
+        blockSize / 4);
+    // the locations of every block are fetched separately
+    conf.setLong(HdfsClientConfigKeys.Read.PREFETCH_SIZE_KEY, blockSize);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      DistributedFileSystem fs = cluster.getFileSystem();
+      final int fileLength = numBlocks * blockSize;
+      DFSTestUtil.createFile(fs, new Path("/testfile"), fileLength,
+          fileLength, blockSize, (short) 1, 0xBEEFL);
+      byte[] expected = new byte[fileLength];
+      new Random(0xBEEFL).nextBytes(expected);
+
+      byte[] actual = new byte[fileLength];
+      DFSInputStream fin = fs.dfs.open("/testfile");
+      try {
+        for (int off = 0; off < fileLength;) {
+          int n = fin.read(actual, off, Math.min(4096, fileLength - off));
+          assertFalse(n < 0);
+          off += n;
+        }
+        assertArrayEquals(expected, actual);
+        DFSInputStream.ReadStatistics stats = fin.getReadStatistics();
+        assertEquals(numBlocks, stats.getTotalBlockSwitches());
+        assertEquals(numBlocks - 1, stats.getTotalPrefetchedBlockSwitches());
+      } finally {
+        fin.close();
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
 }
@@ -21,30 +21,38 @@
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FsTracer;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.DataStreamer.LastExceptionInStreamer;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
 import org.apache.hadoop.hdfs.client.impl.DfsClientConf;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.datatransfer.BlockConstructionStage;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockManager;
 import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeDescriptor;
 import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeManager;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeFaultInjector;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
 import org.apache.htrace.core.SpanId;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -52,7 +60,9 @@
 import org.junit.Test;
 import org.mockito.internal.util.reflection.Whitebox;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.doThrow;
@@ -202,6 +212,100 @@ public void testNoLocalWriteFlag() throws IOException {
     assertEquals(1, 3 - numDataNodesWithData);
   }
 
+  /**
+   * The packets sent ahead of a pipeline setup which fails are sent again,
+   * after the block is allocated without the bad datanode.
+   */
+  @Test(timeout = 60000)
+  public void testAsyncPipelineSetup() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(
+        HdfsClientConfigKeys.BlockWrite.ASYNC_PIPELINE_SETUP_ENABLED_KEY, true);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 1024 * 1024);
+    MiniDFSCluster dfsCluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(4).build();
+    DataNodeFaultInjector old = DataNodeFaultInjector.get();
+    final AtomicInteger mirrorConnections = new AtomicInteger();
+    // fail the first connection to a mirror for the second block
+    DataNodeFaultInjector.set(new DataNodeFaultInjector() {
+      @Override
+      public void failMirrorConnection() throws IOException {
+        if (mirrorConnections.incrementAndGet() == 3) {
+          throw new IOException("Failing mirror connection for testing");
+        }
+      }
+    });
+    try {
+      DistributedFileSystem fs = dfsCluster.getFileSystem();
+      Path p = new Path("/testAsyncPipelineSetup");
+      byte[] data = new byte[3 * 1024 * 1024 + 1000];
+      new Random().nextBytes(data);
+      try (FSDataOutputStream out = fs.create(p)) {
+        out.write(data);
+      }
+      assertTrue(mirrorConnections.get() > 8);
+      assertArrayEquals(data, DFSTestUtil.readFileBuffer(fs, p));
+      for (LocatedBlock lb : DFSTestUtil.getAllBlocks(fs, p)) {
+        assertEquals(3, lb.getLocations().length);
+      }
+    } finally {
+      DataNodeFaultInjector.set(old);
+      dfsCluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testDirectBufferPool() throws IOException {
+    Configuration conf = new HdfsConfiguration(cluster.getConfiguration(0));
+    // a new client context, with its own pool
+    conf.set(HdfsClientConfigKeys.DFS_CLIENT_CONTEXT, "testDirectBufferPool");
+    conf.setBoolean(
+        HdfsClientConfigKeys.Write.DIRECT_BUFFER_POOL_ENABLED_KEY, true);
+    DistributedFileSystem fs = (DistributedFileSystem)
+        FileSystem.newInstance(cluster.getURI(), conf);
+    try {
+      ClientContext context = fs.getClient().getClientContext();
+      Assert.assertNotNull(context.getPacketBufferPool());
+      // count the direct buffers taken from and returned to the pool
+      final ByteBufferPool pool = new ElasticByteBufferPool();
+      final AtomicInteger taken = new AtomicInteger();
+      final AtomicInteger returned = new AtomicInteger();
+      Whitebox.setInternalState(context, "packetBufferPool",
+          new ByteBufferPool() {
+            @Override
+            public ByteBuffer getBuffer(boolean direct, int length) {
+              if (direct) {
+                taken.incrementAndGet();
+              }
+              return pool.getBuffer(direct, length);
+            }
+
+            @Override
+            public void putBuffer(ByteBuffer buffer) {
+              if (buffer.isDirect()) {
+                returned.incrementAndGet();
+              }
+              pool.putBuffer(buffer);
+            }
+          });
+
+      Path p = new Path("/testDirectBufferPool");
+      byte[] data = new byte[1024 * 1024 + 1000];
+      new Random().nextBytes(data);
+      try (FSDataOutputStream out = fs.create(p)) {
+        out.write(data, 0, 1000);
+        out.hflush();
+        out.write(data, 1000, data.length - 1000);
+      }
+      assertArrayEquals(data, DFSTestUtil.readFileBuffer(fs, p));
+      // every packet was in a pooled buffer, which was returned once acked
+      assertTrue(taken.get() > 0);
+      assertEquals(taken.get(), returned.get());
+    } finally {
+      fs.close();
+    }
+  }
+
   @AfterClass
   public static void tearDown() {
     if (cluster != null) {
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.junit.Test;
+
+/**
+ * Tests the {@link DatanodeLatencyTracker} used to choose replicas and
+ * hedged read thresholds.
+ */
+public class TestDatanodeLatencyTracker {
+  private final DatanodeInfo fast =
+      DFSTestUtil.getDatanodeInfo("1.1.1.1", "fast", 9866);
+  private final DatanodeInfo slow =
+      DFSTestUtil.getDatanodeInfo("2.2.2.2", "slow", 9866);
+
+  @Test
+  public void testNodeLatency() {
+    DatanodeLatencyTracker tracker = new DatanodeLatencyTracker();
+    assertEquals(0, tracker.getLatencyMs(fast, 1000), 0);
+
+    tracker.addLatency(fast, 4, 4, 1000);
+    tracker.addLatency(slow, 100, 100, 1000);
+    assertEquals(4, tracker.getLatencyMs(fast, 1000), 0);
+    assertTrue(tracker.getLatencyMs(slow, 1000) >
+        tracker.getLatencyMs(fast, 1000));
+
+    // the average follows a node which becomes slow
+    for (int i = 0; i < 20; i++) {
+      tracker.addLatency(fast, 200, 200, 2000);
+    }
+    assertTrue(tracker.getLatencyMs(fast, 2000) > 150);
+
+    // and is forgotten after a while, so the node is tried again
+    assertEquals(0, tracker.getLatencyMs(fast,
+        2000 + DatanodeLatencyTracker.STALE_MS), 0);
+  }
+
+  @Test
+  public void testPercentile() {
+    DatanodeLatencyTracker tracker = new DatanodeLatencyTracker();
+    for (int i = 1; i < DatanodeLatencyTracker.MIN_SAMPLES; i++) {
+      tracker.addLatency(fast, 5, 5, 1000);
+    }
+    assertEquals(-1, tracker.getPercentileMs(95, 1000));
+
+    // one read of a hundred hits a slow node
+    tracker.addLatency(slow, 500, 500, 1000);
+    assertEquals(500, tracker.getPercentileMs(100, 1000));
+    assertEquals(5, tracker.getPercentileMs(95, 1000));
+
+    // the percentile is reused for a while
+    for (int i = 0; i < DatanodeLatencyTracker.MIN_SAMPLES; i++) {
+      tracker.addLatency(slow, 500, 500, 1000);
+    }
+    assertEquals(5, tracker.getPercentileMs(95, 1500));
+    assertEquals(500, tracker.getPercentileMs(95, 3000));
+  }
+
+  /**
+   * The DataNodes are ranked by the time to their first byte, while the
+   * percentiles are of the durations of the whole reads.
+   */
+  @Test
+  public void testFirstByteAndReadLatency() {
+    DatanodeLatencyTracker tracker = new DatanodeLatencyTracker();
+    // large reads from a node which answers quickly
+    for (int i = 0; i < DatanodeLatencyTracker.MIN_SAMPLES; i++) {
+      tracker.addLatency(fast, 2, 300, 1000);
+    }
+    // a small read from a node which is slow to answer
+    tracker.addLatency(slow, 50, 60, 1000);
+    assertTrue(tracker.getLatencyMs(fast, 1000) <
+        tracker.getLatencyMs(slow, 1000));
+    assertEquals(300, tracker.getPercentileMs(50, 1000));
+  }
+}
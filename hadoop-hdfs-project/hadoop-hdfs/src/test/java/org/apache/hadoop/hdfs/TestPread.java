@@ -18,24 +18,34 @@
 package org.apache.hadoop.hdfs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.function.IntFunction;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtocol;
 import org.apache.hadoop.hdfs.server.datanode.SimulatedFSDataset;
@@ -491,6 +501,137 @@ public void testPreadLocalFS() throws IOException {
     }
   }
 
+  /**
+   * With latency aware reads, a read goes to the replica with the lowest
+   * recent latency rather than the first one.
+   */
+  @Test
+  public void testLatencyAwareReplicaChoice() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(HdfsClientConfigKeys.Read.LATENCY_AWARE_ENABLED_KEY, true);
+    // a context of its own, so the latencies are not shared with other tests
+    conf.set(HdfsClientConfigKeys.DFS_CLIENT_CONTEXT,
+        "testLatencyAwareReplicaChoice");
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    DistributedFileSystem fileSys = cluster.getFileSystem();
+    DFSClient dfsClient = fileSys.getClient();
+    DFSInputStream input = null;
+    try {
+      Path file = new Path("/latencyAwareRead.dat");
+      DFSTestUtil.createFile(fileSys, file, blockSize, (short) 3, seed);
+      input = dfsClient.open(file.toString());
+      LocatedBlock block = input.getAllBlocks().get(0);
+      DatanodeInfo[] locations = block.getLocations();
+      assertEquals(3, locations.length);
+
+      // the first replica is the slowest, the last one the fastest
+      DatanodeLatencyTracker latencies =
+          dfsClient.getClientContext().getDatanodeLatencyTracker();
+      latencies.addLatency(locations[0], 100, 100);
+      latencies.addLatency(locations[1], 50, 50);
+      latencies.addLatency(locations[2], 5, 5);
+      assertEquals(locations[2],
+          input.getBestNodeDNAddrPair(block, null).info);
+      List<DatanodeInfo> ignored = Arrays.asList(locations[2]);
+      assertEquals(locations[1],
+          input.getBestNodeDNAddrPair(block, ignored).info);
+
+      // a pread reads from the fastest replica, so only its latency changes
+      byte[] buffer = new byte[blockSize];
+      assertEquals(blockSize, input.read(0, buffer, 0, blockSize));
+      assertEquals(100, latencies.getLatencyMs(locations[0]), 0);
+      assertEquals(50, latencies.getLatencyMs(locations[1]), 0);
+    } finally {
+      IOUtils.cleanup(null, input);
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Tests vectored read in DFS, with and without the vectored read thread
+   * pool to read the ranges concurrently.
+   */
+  @Test
+  public void testVectoredReadDFS() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    conf.setInt(HdfsClientConfigKeys.Read.VECTORED_MIN_SEEK_KEY, 100);
+    conf.setInt(HdfsClientConfigKeys.Read.VECTORED_MAX_MERGED_SIZE_KEY,
+        blockSize);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    try {
+      Path file = new Path("/vectoredreadtest.dat");
+      DFSTestUtil.createFile(cluster.getFileSystem(), file, fileSize,
+          fileSize, blockSize, (short) 3, seed);
+      byte[] expected = new byte[fileSize];
+      new Random(seed).nextBytes(expected);
+
+      DistributedFileSystem fs = cluster.getFileSystem();
+      DFSVectoredReadMetrics metrics =
+          fs.getClient().getClientContext().getVectoredReadMetrics();
+      long ops = metrics.getVectoredReadOps();
+      long ranges = metrics.getVectoredReadRanges();
+      long rangesInCurThread = metrics.getVectoredReadRangesInCurThread();
+      vectoredReadFile(fs, file, expected);
+      assertEquals(ops + 1, metrics.getVectoredReadOps());
+      assertEquals(ranges + 4, metrics.getVectoredReadRanges());
+      assertEquals(rangesInCurThread + 4,
+          metrics.getVectoredReadRangesInCurThread());
+
+      // the thread pool belongs to the client context
+      conf.set(HdfsClientConfigKeys.DFS_CLIENT_CONTEXT, "testVectoredRead");
+      conf.setInt(HdfsClientConfigKeys.Read.VECTORED_THREADPOOL_SIZE_KEY, 5);
+      DistributedFileSystem pooledFs = (DistributedFileSystem)
+          FileSystem.newInstance(cluster.getURI(), conf);
+      try {
+        ClientContext context = pooledFs.getClient().getClientContext();
+        assertNotNull(context.getVectoredReadThreadPool());
+        vectoredReadFile(pooledFs, file, expected);
+        assertEquals(1, context.getVectoredReadMetrics().getVectoredReadOps());
+      } finally {
+        pooledFs.close();
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  private void vectoredReadFile(FileSystem fileSys, Path name,
+      byte[] expected) throws Exception {
+    List<FileRange> ranges = Arrays.asList(
+        new FileRange(200, 50),
+        // combined with the range before
+        new FileRange(100, 50),
+        // crosses a block boundary
+        new FileRange(blockSize - 100, 200),
+        new FileRange(10 * blockSize + 7, blockSize),
+        new FileRange(fileSize - 10, 20));
+    try (FSDataInputStream stm = fileSys.open(name)) {
+      stm.readVectored(ranges, new IntFunction<ByteBuffer>() {
+        @Override
+        public ByteBuffer apply(int size) {
+          return ByteBuffer.allocate(size);
+        }
+      });
+      for (FileRange range : ranges.subList(0, ranges.size() - 1)) {
+        ByteBuffer data = range.getData().get();
+        byte[] actual = new byte[data.remaining()];
+        assertEquals(range.getLength(), actual.length);
+        data.get(actual);
+        checkAndEraseData(actual, (int) range.getOffset(), expected,
+            "Vectored read of " + range);
+      }
+      try {
+        ranges.get(ranges.size() - 1).getData().get();
+        fail("read past the end of the file");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof EOFException);
+      }
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     new TestPread().testPreadDFS();
   }
@@ -582,6 +582,106 @@ private DatanodeStorageInfo[] scheduleSingleReplication(BlockInfo block) {
     return pipeline;
   }
 
+  /**
+   * Test that the targets of many reconstruction tasks are chosen correctly
+   * by several threads.
+   */
+  @Test
+  public void testChooseTargetsInParallel() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.NET_TOPOLOGY_SCRIPT_FILE_NAME_KEY,
+        "need to set a dummy value here so it assumes a multi-rack cluster");
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_RECONSTRUCTION_CHOOSE_TARGETS_THREADS_KEY, 4);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_MAX_STREAMS_KEY, 100);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_STREAMS_HARD_LIMIT_KEY,
+        100);
+    bm = new BlockManager(fsn, false, conf);
+    addNodes(nodes);
+
+    final int numBlocks = 20;
+    List<DatanodeDescriptor> origNodes = getNodes(getStorages(0, 1));
+    List<List<BlockInfo>> blocksToReconstruct = new ArrayList<>();
+    for (int i = 0; i < LowRedundancyBlocks.LEVEL; i++) {
+      blocksToReconstruct.add(new ArrayList<BlockInfo>());
+    }
+    for (int i = 0; i < numBlocks; i++) {
+      blocksToReconstruct.get(LowRedundancyBlocks.QUEUE_LOW_REDUNDANCY)
+          .add(addBlockOnNodes(i, origNodes));
+    }
+    try {
+      assertEquals(numBlocks,
+          bm.computeReconstructionWorkForBlocks(blocksToReconstruct));
+
+      int numScheduled = 0;
+      for (DatanodeDescriptor dn : origNodes) {
+        List<BlockTargetPair> repls = dn.getReplicationCommand(numBlocks);
+        if (repls == null) {
+          continue;
+        }
+        for (BlockTargetPair repl : repls) {
+          assertEquals(1, repl.targets.length);
+          assertTrue("Target should be on the other rack",
+              rackB.contains(repl.targets[0].getDatanodeDescriptor()));
+          assertTrue(bm.pendingReconstruction.getNumReplicas(
+              bm.getStoredBlock(repl.block)) > 0);
+          numScheduled++;
+        }
+      }
+      assertEquals(numBlocks, numScheduled);
+    } finally {
+      bm.close();
+    }
+  }
+
+  /**
+   * Test that the pending replication count of a source node shared by many
+   * tasks returns to 0 when their targets are chosen concurrently.
+   */
+  @Test(timeout = 60000)
+  public void testPendingReplicationWithoutTargetsConcurrently()
+      throws Exception {
+    final DatanodeDescriptor src = DFSTestUtil.getLocalDatanodeDescriptor();
+    final BlockPlacementPolicy placement =
+        Mockito.mock(BlockPlacementPolicy.class);
+    final BlockStoragePolicySuite storagePolicySuite =
+        BlockStoragePolicySuite.createDefaultSuite();
+    final BlockCollection bc = Mockito.mock(BlockCollection.class);
+    final int numTasks = 10000;
+    final int numThreads = 8;
+    final List<ReplicationWork> work = new ArrayList<>(numTasks);
+    for (int i = 0; i < numTasks; i++) {
+      work.add(new ReplicationWork(
+          new BlockInfoContiguous(new Block(i), (short) 3), bc,
+          new DatanodeDescriptor[] {src},
+          Collections.<DatanodeDescriptor>emptyList(),
+          Collections.<DatanodeStorageInfo>emptyList(), 1, 0));
+    }
+    assertEquals(numTasks, src.getNumberOfBlocksToBeReplicated());
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < numThreads; t++) {
+        final int first = t;
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            for (int i = first; i < numTasks; i += numThreads) {
+              work.get(i).chooseTargets(placement, storagePolicySuite, null);
+            }
+          }
+        }));
+      }
+      for (Future<?> f : futures) {
+        f.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(0, src.getNumberOfBlocksToBeReplicated());
+  }
+
   private LinkedListMultimap<DatanodeStorageInfo, BlockTargetPair> getAllPendingReconstruction() {
     LinkedListMultimap<DatanodeStorageInfo, BlockTargetPair> repls =
       LinkedListMultimap.create();
@@ -903,6 +1003,57 @@ public void testFullBR() throws Exception {
     }
   }
 
+  @Test
+  public void testFullBRDiffUnderReadLock() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_DIFF_READLOCK_KEY,
+        true);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_APPLY_BATCH_SIZE_KEY,
+        1);
+    bm = new BlockManager(fsn, false, conf);
+
+    DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.setAlive(true);
+    DatanodeRegistration nodeReg =
+        new DatanodeRegistration(node, null, null, "");
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+
+    ArrayList<BlockInfo> blocks = new ArrayList<>();
+    for (int id = 1; id <= 10; id++) {
+      blocks.add(addBlockToBM(id));
+    }
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        generateReport(blocks),
+        new BlockReportContext(1, 0, System.nanoTime(), 0, true), false);
+    assertEquals(1, ds.getBlockReportCount());
+    assertEquals(10, ds.numBlocks());
+
+    // blk_3 is gone from the DN, blk_4 and blk_5 are new to the storage,
+    // and blk_100 is unknown to the NN
+    BlockInfo removed = blocks.remove(2);
+    bm.removeStoredBlock(bm.getStoredBlock(new Block(4)), node);
+    bm.removeStoredBlock(bm.getStoredBlock(new Block(5)), node);
+    assertEquals(7, ds.numBlocks());
+    BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
+    for (BlockInfo block : blocks) {
+      builder.add(new FinalizedReplica(block, null, null));
+    }
+    builder.add(new FinalizedReplica(new Block(100, 0, 1000), null, null));
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        builder.build(),
+        new BlockReportContext(1, 0, System.nanoTime(), 0, true), false);
+
+    assertEquals(2, ds.getBlockReportCount());
+    assertEquals(9, ds.numBlocks());
+    assertTrue(removed.findStorageInfo(ds) < 0);
+    for (BlockInfo block : blocks) {
+      assertTrue(bm.getStoredBlock(block).findStorageInfo(ds) >= 0);
+    }
+    assertEquals(1, bm.getPendingDeletionBlocksCount());
+  }
+
   private BlockListAsLongs generateReport(List<BlockInfo> blocks) {
     BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
     for (BlockInfo block : blocks) {
@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportContext;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportDigestResponse;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.hdfs.server.protocol.StorageBlockReportDigest;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Tests the block reports which only cover the ranges of block IDs whose
+ * digests differ between the DataNode and the NameNode.
+ */
+public class TestBlockReportDigest {
+  private static final DatanodeStorage STORAGE =
+      new DatanodeStorage(DatanodeStorage.generateUuid());
+
+  private static BlockListAsLongs buildReport(long... blockIds) {
+    BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
+    for (long id : blockIds) {
+      builder.add(new FinalizedReplica(new Block(id, 1024, 1000), null, null));
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void testMismatchedRanges() {
+    StorageBlockReportDigest digest = StorageBlockReportDigest.compute(
+        STORAGE, buildReport(1, 2, 3, 4, 5, 6, 7), 2);
+    assertEquals(4, digest.getNumRanges());
+    assertArrayEquals(new long[] {Long.MIN_VALUE, 3, 5, 7},
+        digest.getRangeStarts());
+    assertEquals(1, digest.getRange(4));
+    assertEquals(3, digest.getRange(Long.MAX_VALUE));
+
+    // the same replicas produce the same digest
+    StorageBlockReportDigest same = StorageBlockReportDigest.compute(
+        STORAGE, buildReport(1, 2, 3, 4, 5, 6, 7), 2);
+    assertEquals(0, digest.getMismatchedRanges(
+        same.getCounts(), same.getDigests()).length);
+
+    // block 4 is missing, and block 5 has another generation stamp
+    int[] counts = digest.getCounts().clone();
+    long[] digests = digest.getDigests().clone();
+    counts[1]--;
+    digests[1] -= StorageBlockReportDigest.digestReplica(4, 1000, 1024,
+        ReplicaState.FINALIZED);
+    digests[2] += 1;
+    long[] ranges = digest.getMismatchedRanges(counts, digests);
+    // adjacent ranges are merged
+    assertArrayEquals(new long[] {3, 6}, ranges);
+    assertFalse(StorageBlockReportDigest.inRanges(ranges, 2));
+    assertTrue(StorageBlockReportDigest.inRanges(ranges, 3));
+    assertTrue(StorageBlockReportDigest.inRanges(ranges, 6));
+    assertFalse(StorageBlockReportDigest.inRanges(ranges, 7));
+  }
+
+  @Test
+  public void testStripedBlocksShareTheRangeOfTheGroup() {
+    long groupId = Long.MIN_VALUE + 1024;
+    StorageBlockReportDigest digest = StorageBlockReportDigest.compute(
+        STORAGE, buildReport(groupId + 1, groupId + 2, groupId + 16), 1);
+    assertArrayEquals(new long[] {Long.MIN_VALUE, groupId + 16},
+        digest.getRangeStarts());
+    assertEquals(0, digest.getRange(groupId));
+  }
+
+  /**
+   * A replica the NameNode lost is found through the digests, and added back
+   * by the partial report which follows.
+   */
+  @Test(timeout = 120000)
+  public void testPartialReportRestoresReplica() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_BLOCKREPORT_DIGEST_ENABLED_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_BLOCKREPORT_DIGEST_BLOCKS_PER_RANGE_KEY, 2);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      for (int i = 0; i < 10; i++) {
+        DFSTestUtil.createFile(cluster.getFileSystem(), new Path("/f" + i),
+            1024, (short) 1, i);
+      }
+      final FSNamesystem fsn = cluster.getNamesystem();
+      final BlockManager bm = fsn.getBlockManager();
+      final DataNode dn = cluster.getDataNodes().get(0);
+      final String bpid = cluster.getNamesystem().getBlockPoolId();
+      DataNodeTestUtils.triggerBlockReport(dn);
+
+      // nothing differs after a report
+      DatanodeRegistration reg = dn.getDNRegistrationForBP(bpid);
+      assertEquals(0, countMismatchedRanges(cluster, dn, reg, bpid));
+
+      ExtendedBlock block = DFSTestUtil.getFirstBlock(
+          cluster.getFileSystem(), new Path("/f5"));
+      final BlockInfo stored = bm.getStoredBlock(block.getLocalBlock());
+      assertNotNull(stored);
+      fsn.writeLock();
+      try {
+        bm.removeStoredBlock(stored,
+            bm.getDatanodeManager().getDatanode(reg));
+      } finally {
+        fsn.writeUnlock();
+      }
+      assertEquals(0, bm.countNodes(stored).liveReplicas());
+      assertEquals(1, countMismatchedRanges(cluster, dn, reg, bpid));
+
+      DataNodeTestUtils.triggerBlockReport(dn);
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return bm.countNodes(stored).liveReplicas() == 1;
+        }
+      }, 100, 30000);
+      assertEquals(0, countMismatchedRanges(cluster, dn, reg, bpid));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  private static int countMismatchedRanges(MiniDFSCluster cluster,
+      DataNode dn, DatanodeRegistration reg, String bpid) throws Exception {
+    Map<DatanodeStorage, BlockListAsLongs> reports =
+        dn.getFSDataset().getBlockReports(bpid);
+    StorageBlockReportDigest[] digests =
+        new StorageBlockReportDigest[reports.size()];
+    int i = 0;
+    for (Map.Entry<DatanodeStorage, BlockListAsLongs> e : reports.entrySet()) {
+      digests[i++] = StorageBlockReportDigest.compute(e.getKey(), e.getValue(),
+          2);
+    }
+    BlockReportDigestResponse response =
+        cluster.getNameNodeRpc().blockReportDigest(reg, bpid, digests,
+            new BlockReportContext(1, 0, 0, 0, true));
+    int numRanges = 0;
+    for (DatanodeStorage storage : reports.keySet()) {
+      long[] ranges = response.getRanges(storage.getStorageID());
+      assertNotNull("full report required for " + storage, ranges);
+      numRanges += ranges.length / 2;
+    }
+    return numRanges;
+  }
+}
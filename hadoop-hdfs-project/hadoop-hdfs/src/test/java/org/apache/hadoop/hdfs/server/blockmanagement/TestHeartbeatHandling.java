@@ -22,6 +22,7 @@
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
@@ -32,6 +33,8 @@
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.server.common.GenerationStamp;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
 import org.apache.hadoop.hdfs.server.datanode.InternalDataNodeTestUtils;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
@@ -42,6 +45,7 @@
 import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.junit.Test;
 import org.mockito.Mockito;
 
@@ -252,6 +256,60 @@ public void testHeartbeatBlockRecovery() throws Exception {
     }
   }
 
+  /**
+   * The statistics of a datanode are updated from its heartbeat even while
+   * another thread holds the namesystem write lock.
+   */
+  @Test(timeout = 60000)
+  public void testHeartbeatStatsUpdatedWithoutLock() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .storagesPerDatanode(1).build();
+    try {
+      cluster.waitActive();
+      final FSNamesystem namesystem = cluster.getNamesystem();
+      final DatanodeManager dm =
+          namesystem.getBlockManager().getDatanodeManager();
+      final DataNode dn = cluster.getDataNodes().get(0);
+      DataNodeTestUtils.setHeartbeatsDisabledForTests(dn, true);
+      final DatanodeRegistration nodeReg = InternalDataNodeTestUtils
+          .getDNRegistrationForBP(dn, namesystem.getBlockPoolId());
+      final DatanodeStorageInfo storage =
+          NameNodeAdapter.getDatanode(namesystem, nodeReg).getStorageInfos()[0];
+      final long capacity = 100L << 30;
+      final StorageReport[] reports = {new StorageReport(
+          new DatanodeStorage(storage.getStorageID(), storage.getState(),
+              storage.getStorageType()),
+          false, capacity, 1L << 30, capacity - (1L << 30), 1L << 30)};
+
+      final AtomicReference<Throwable> error = new AtomicReference<>();
+      Thread heartbeat = new Thread() {
+        @Override
+        public void run() {
+          try {
+            dm.updateHeartbeat(nodeReg, reports, 0L, 0L, 0, 0, null);
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      };
+      namesystem.writeLock();
+      try {
+        heartbeat.start();
+        heartbeat.join(30000);
+        assertFalse(heartbeat.isAlive());
+        assertEquals(capacity, dm.getDatanodeStatistics().getCapacityTotal());
+      } finally {
+        namesystem.writeUnlock();
+      }
+      if (error.get() != null) {
+        throw new AssertionError(error.get());
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   @Test
   public void testHeartbeatStopWatch() throws Exception {
    Namesystem ns = Mockito.mock(Namesystem.class);
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.fs.StorageType;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.net.Node;
+import org.apache.hadoop.net.NodeBase;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link PlacementIndex} over a large simulated cluster.
+ */
+public class TestPlacementIndex {
+  private static final int NUM_RACKS = 100;
+  private static final int NUM_NODES = 5000;
+  private static final long CAPACITY = 100L << 30;
+
+  private final PlacementIndex index = new PlacementIndex();
+  private DatanodeDescriptor[] nodes;
+
+  /** Every other DataNode is full. */
+  @Before
+  public void setup() {
+    String[] racks = new String[NUM_NODES];
+    for (int i = 0; i < NUM_NODES; i++) {
+      racks[i] = "/rack" + (i % NUM_RACKS);
+    }
+    DatanodeStorageInfo[] storages =
+        DFSTestUtil.createDatanodeStorageInfos(NUM_NODES, racks, null, null);
+    nodes = DFSTestUtil.toDatanodeDescriptor(storages);
+    for (int i = 0; i < NUM_NODES; i++) {
+      long remaining = isFull(i) ? 0 : CAPACITY / 2;
+      storages[i].setUtilizationForTesting(CAPACITY, CAPACITY - remaining,
+          remaining, CAPACITY - remaining);
+      index.refresh(nodes[i]);
+    }
+  }
+
+  private static boolean isFull(int i) {
+    return (i / NUM_RACKS) % 2 == 1;
+  }
+
+  @Test
+  public void testOnlyEligibleNodesAreChosen() {
+    assertEquals(NUM_NODES / 2, index.getNumCandidates(null, StorageType.DISK));
+    assertEquals(NUM_NODES / NUM_RACKS / 2,
+        index.getNumCandidates("/rack7", StorageType.DISK));
+    assertEquals(0, index.getNumCandidates(null, StorageType.SSD));
+    assertNull(index.chooseRandom(NodeBase.ROOT, null, StorageType.SSD));
+
+    for (int i = 0; i < 1000; i++) {
+      DatanodeDescriptor node =
+          index.chooseRandom(NodeBase.ROOT, null, StorageType.DISK);
+      assertTrue(node.getStorageInfos()[0].getRemaining() > 0);
+
+      node = index.chooseRandom("/rack7", null, StorageType.DISK);
+      assertEquals("/rack7", node.getNetworkLocation());
+      assertTrue(node.getStorageInfos()[0].getRemaining() > 0);
+
+      node = index.chooseRandom("~/rack7", null, StorageType.DISK);
+      assertFalse("/rack7".equals(node.getNetworkLocation()));
+      assertTrue(node.getStorageInfos()[0].getRemaining() > 0);
+    }
+    assertTrue(index.covers("/rack7"));
+    assertFalse(index.covers("/rack7/nodegroup"));
+  }
+
+  @Test
+  public void testExcludedNodes() {
+    Set<Node> excluded = new HashSet<>();
+    for (int i = 0; i < NUM_NODES / NUM_RACKS; i++) {
+      DatanodeDescriptor node =
+          index.chooseRandom("/rack7", excluded, StorageType.DISK);
+      assertNotNull(node);
+      assertTrue(excluded.add(node));
+      if (excluded.size() == NUM_NODES / NUM_RACKS / 2) {
+        break;
+      }
+    }
+    assertNull(index.chooseRandom("/rack7", excluded, StorageType.DISK));
+  }
+
+  @Test
+  public void testRefresh() {
+    DatanodeDescriptor node = nodes[7];
+    node.startDecommission();
+    index.refresh(node);
+    assertEquals(NUM_NODES / 2 - 1,
+        index.getNumCandidates(null, StorageType.DISK));
+    node.stopDecommission();
+    index.refresh(node);
+    assertEquals(NUM_NODES / 2,
+        index.getNumCandidates(null, StorageType.DISK));
+
+    // a node which moved to another rack
+    node.setNetworkLocation("/rack8");
+    index.refresh(node);
+    assertEquals(NUM_NODES / NUM_RACKS / 2 - 1,
+        index.getNumCandidates("/rack7", StorageType.DISK));
+    assertEquals(NUM_NODES / NUM_RACKS / 2 + 1,
+        index.getNumCandidates("/rack8", StorageType.DISK));
+
+    index.remove(node);
+    assertEquals(NUM_NODES / 2 - 1,
+        index.getNumCandidates(null, StorageType.DISK));
+    assertEquals(NUM_NODES / NUM_RACKS / 2,
+        index.getNumCandidates("/rack8", StorageType.DISK));
+  }
+}
@@ -62,6 +62,7 @@
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.metrics2.MetricsCollector;
 import org.apache.hadoop.metrics2.util.MBeans;
+import org.apache.hadoop.util.AutoCloseableLock;
 import org.apache.hadoop.util.DataChecksum;
 
 /**
@@ -528,6 +529,7 @@ public FsDatasetSpi getDataset() {
   private final SimulatedVolume volume;
   private final String datanodeUuid;
   private final DataNode datanode;
+  private final AutoCloseableLock datasetLock = new AutoCloseableLock();
   
 
   public SimulatedFSDataset(DataStorage storage, Configuration conf) {
@@ -1359,5 +1361,15 @@ public boolean getPinning(ExtendedBlock b) throws IOException {
   public boolean isDeletingBlock(String bpid, long blockId) {
     throw new UnsupportedOperationException();
   }
+
+  @Override
+  public AutoCloseableLock acquireDatasetLock() {
+    return datasetLock.acquire();
+  }
+
+  @Override
+  public AutoCloseableLock acquireReplicaLock(String bpid, long blockId) {
+    return datasetLock.acquire();
+  }
 }
 
@@ -698,6 +698,56 @@ public void testCalculateNeededBytesPerSec() throws Exception {
         calculateShouldScan("test", 100000L, 365000000L, 0, 60));
   }
 
+  /**
+   * Test that a scanner sharing the bandwidth of a volume with the clients
+   * backs off while they are busy, so their latency stays close to what it is
+   * when the volume is used up to the shared bandwidth, and speeds up again
+   * once they are idle.  The latency of the volume is modelled as an M/M/1
+   * queue.
+   */
+  @Test(timeout=60000)
+  public void testAdaptiveScanRate() throws Exception {
+    final long mb = 1024L * 1024L;
+    final long diskBytesPerSec = 100 * mb;
+    final long targetBytesPerSec = mb;
+    final long maxBytesPerSec = 80 * mb;
+    final double serviceMs = 5.0;
+    final double latencyAtMaxMs =
+        serviceMs / (1 - (double) maxBytesPerSec / diskBytesPerSec);
+
+    BlockScanner.ForegroundLoad load = new BlockScanner.ForegroundLoad(null);
+    assertEquals(0, load.update(0, 0));
+    long totalBytes = 0;
+    long prevScanBytesPerSec = 0;
+    for (int sec = 1; sec <= 30; sec++) {
+      // The clients are busy during the second ten seconds.
+      long foregroundBytesPerSec = (sec > 10 && sec <= 20) ? 70 * mb : 0;
+      totalBytes += foregroundBytesPerSec;
+      long scanBytesPerSec = VolumeScanner.calculateScanBytesPerSec(
+          targetBytesPerSec, maxBytesPerSec,
+          load.update(totalBytes, sec * 1000L));
+      assertTrue(scanBytesPerSec >= targetBytesPerSec);
+      assertTrue(scanBytesPerSec <= maxBytesPerSec);
+
+      double utilization = Math.min(0.99,
+          (double) (foregroundBytesPerSec + scanBytesPerSec) / diskBytesPerSec);
+      double latencyMs = serviceMs / (1 - utilization);
+      LOG.info("second {}: foreground {} bytes/s, scan {} bytes/s, " +
+          "latency {} ms", sec, foregroundBytesPerSec, scanBytesPerSec,
+          latencyMs);
+      if (sec <= 10) {
+        assertEquals(maxBytesPerSec, scanBytesPerSec);
+      } else if (sec >= 14 && sec <= 20) {
+        assertTrue(scanBytesPerSec < maxBytesPerSec / 4);
+        assertTrue(latencyMs <= 1.5 * latencyAtMaxMs);
+      } else if (sec > 20) {
+        assertTrue(scanBytesPerSec >= prevScanBytesPerSec);
+      }
+      prevScanBytesPerSec = scanBytesPerSec;
+    }
+    assertTrue(prevScanBytesPerSec > maxBytesPerSec * 0.99);
+  }
+
   /**
    * Test that we can mark certain blocks as suspect, and get them quickly
    * rescanned that way.  See HDFS-7686 and HDFS-7548.
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_CONTEXT;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.ClientContext;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.PeerCache;
+import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Tests serving the data transfer connections with a
+ * {@link DataXceiverSelector}.
+ */
+public class TestDataXceiverSelector {
+  private static final Path TEST_FILE = new Path("/test");
+  private static final int KEEPALIVE_TIMEOUT = 1000;
+  private static final int FILE_LEN = 64 * 1024;
+
+  private final Configuration conf = new HdfsConfiguration();
+  private MiniDFSCluster cluster;
+  private DataNode dn;
+
+  @Before
+  public void setup() throws Exception {
+    conf.setBoolean(
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_NONBLOCKING_ENABLED_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY,
+        KEEPALIVE_TIMEOUT);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    dn = cluster.getDataNodes().get(0);
+    assertNotNull(dn.getXferServer().getXceiverSelector());
+  }
+
+  @After
+  public void teardown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  private void waitForPeers(final int numPeers) throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return dn.getXferServer().getNumPeers() == numPeers;
+      }
+    }, 10, 10000);
+  }
+
+  private void waitForNoActiveWorkers() throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return dn.getXferServer().getXceiverSelector()
+            .getNumActiveWorkers() == 0;
+      }
+    }, 10, 10000);
+  }
+
+  /**
+   * A connection kept open by the client is parked between reads, is reused
+   * by the next read, and is closed once the keepalive timeout expires.
+   */
+  @Test(timeout=60000)
+  public void testIdleConnectionIsParked() throws Exception {
+    Configuration clientConf = new Configuration(conf);
+    clientConf.setLong(DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY, 60000L);
+    clientConf.set(DFS_CLIENT_CONTEXT, "testIdleConnectionIsParked");
+    FileSystem fs = FileSystem.get(cluster.getURI(), clientConf);
+    PeerCache peerCache = ClientContext.getFromConf(clientConf).getPeerCache();
+
+    DFSTestUtil.createFile(fs, TEST_FILE, FILE_LEN, (short)1, 0L);
+    byte[] expected = DFSTestUtil.readFileBuffer(fs, TEST_FILE);
+    assertEquals(FILE_LEN, expected.length);
+    assertEquals(1, peerCache.size());
+
+    // the open connection waits in the selector, not on a thread
+    waitForPeers(1);
+    waitForNoActiveWorkers();
+
+    // the next reads reuse it
+    for (int i = 0; i < 5; i++) {
+      assertArrayEquals(expected, DFSTestUtil.readFileBuffer(fs, TEST_FILE));
+      assertEquals(1, peerCache.size());
+    }
+    waitForPeers(1);
+
+    // the selector closes it after the keepalive timeout
+    Thread.sleep(KEEPALIVE_TIMEOUT + 500);
+    waitForPeers(0);
+    Peer peer = peerCache.get(dn.getDatanodeId(), false);
+    assertNotNull(peer);
+    assertEquals(-1, peer.getInputStream().read());
+  }
+
+  /**
+   * Many clients reading concurrently are served by the worker pool.
+   */
+  @Test(timeout=120000)
+  public void testConcurrentReaders() throws Exception {
+    final FileSystem fs = cluster.getFileSystem();
+    DFSTestUtil.createFile(fs, TEST_FILE, FILE_LEN, (short)1, 0L);
+    final byte[] expected = DFSTestUtil.readFileBuffer(fs, TEST_FILE);
+
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    List<Thread> readers = new ArrayList<Thread>();
+    for (int t = 0; t < 32; t++) {
+      readers.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 20; i++) {
+              assertArrayEquals(expected,
+                  DFSTestUtil.readFileBuffer(fs, TEST_FILE));
+            }
+          } catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    for (Thread t : readers) {
+      t.start();
+    }
+    for (Thread t : readers) {
+      t.join();
+    }
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+    waitForNoActiveWorkers();
+  }
+}
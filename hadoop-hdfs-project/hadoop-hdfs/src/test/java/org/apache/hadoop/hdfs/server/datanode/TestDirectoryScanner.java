@@ -63,6 +63,7 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.LazyPersistTestCase;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.AutoCloseableLock;
 import org.apache.hadoop.util.Time;
 import org.junit.Before;
 import org.junit.Test;
@@ -113,7 +114,7 @@ private List<LocatedBlock> createFile(String fileNamePrefix,
 
   /** Truncate a block file */
   private long truncateBlockFile() throws IOException {
-    synchronized (fds) {
+    try (AutoCloseableLock lock = fds.acquireDatasetLock()) {
       for (ReplicaInfo b : FsDatasetTestUtil.getReplicas(fds, bpid)) {
         File f = b.getBlockFile();
         File mf = b.getMetaFile();
@@ -138,7 +139,7 @@ private long truncateBlockFile() throws IOException {
 
   /** Delete a block file */
   private long deleteBlockFile() {
-    synchronized(fds) {
+    try (AutoCloseableLock lock = fds.acquireDatasetLock()) {
       for (ReplicaInfo b : FsDatasetTestUtil.getReplicas(fds, bpid)) {
         File f = b.getBlockFile();
         File mf = b.getMetaFile();
@@ -154,7 +155,7 @@ private long deleteBlockFile() {
 
   /** Delete block meta file */
   private long deleteMetaFile() {
-    synchronized(fds) {
+    try (AutoCloseableLock lock = fds.acquireDatasetLock()) {
       for (ReplicaInfo b : FsDatasetTestUtil.getReplicas(fds, bpid)) {
         File file = b.getMetaFile();
         // Delete a metadata file
@@ -173,7 +174,7 @@ private long deleteMetaFile() {
    * @throws IOException
    */
   private void duplicateBlock(long blockId) throws IOException {
-    synchronized (fds) {
+    try (AutoCloseableLock lock = fds.acquireDatasetLock()) {
       ReplicaInfo b = FsDatasetTestUtil.fetchReplicaInfo(fds, bpid, blockId);
       try (FsDatasetSpi.FsVolumeReferences volumes =
           fds.getFsVolumeReferences()) {
@@ -768,6 +769,85 @@ private float runThrottleTest(int blocks) throws IOException {
     return (float)scanner.timeWaitingMs.get() / scanner.timeRunningMs.get();
   }
 
+  /**
+   * The directories which were not modified since the previous scan are not
+   * listed again, and a change to one of them is still found, as well as a
+   * change to the length of a block file in an unmodified directory.
+   */
+  @Test(timeout = 300000)
+  public void testSkipUnchangedDirs() throws Exception {
+    Configuration conf = new Configuration(CONF);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_SKIP_UNCHANGED_DIRS_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_IOPS_KEY,
+        1000);
+    cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      bpid = cluster.getNamesystem().getBlockPoolId();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      client = cluster.getFileSystem().getClient();
+      DataNode dataNode = cluster.getDataNodes().get(0);
+      scanner = new DirectoryScanner(dataNode, fds, conf);
+      scanner.setRetainDiffs(true);
+
+      createFile(GenericTestUtils.getMethodName(), BLOCK_LENGTH * 100, false);
+      // Directories modified just before a scan are listed again by the next
+      // one, so make them look older
+      long mtime = Time.now() - 60 * 1000;
+      try (FsVolumeReferences volumes = fds.getFsVolumeReferences()) {
+        for (FsVolumeSpi volume : volumes) {
+          setDirMtimes(volume.getFinalizedDir(bpid), mtime);
+        }
+      }
+
+      scan(100, 0, 0, 0, 0, 0);
+      long listed = scanner.dirsListed.get();
+      assertTrue(listed > 0);
+      assertEquals(0, scanner.dirsSkipped.get());
+      long diskOps = scanner.diskOps.get();
+      assertTrue(diskOps > 100);
+
+      scan(100, 0, 0, 0, 0, 0);
+      assertEquals(listed, scanner.dirsListed.get());
+      assertEquals(listed, scanner.dirsSkipped.get());
+      // only the modification times and the block file lengths were read
+      assertEquals(diskOps + listed + 100, scanner.diskOps.get());
+
+      // Truncating a block file does not modify its directory
+      truncateBlockFile();
+      scan(100, 1, 0, 0, 0, 1);
+      assertEquals(listed, scanner.dirsListed.get());
+      scan(100, 0, 0, 0, 0, 0);
+
+      // Deleting a meta file modifies its directory
+      long blockId = deleteMetaFile();
+      scan(100, 1, 1, 0, 0, 1);
+      verifyGenStamp(blockId, HdfsConstants.GRANDFATHER_GENERATION_STAMP);
+      assertEquals(listed + 1, scanner.dirsListed.get());
+      assertEquals(2, scanner.diffsReconciled.get());
+    } finally {
+      if (scanner != null) {
+        scanner.shutdown();
+        scanner = null;
+      }
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  private static void setDirMtimes(File dir, long mtime) {
+    File[] children = dir.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.isDirectory()) {
+          setDirMtimes(child, mtime);
+        }
+      }
+    }
+    assertTrue(dir.setLastModified(mtime));
+  }
+
   private void verifyAddition(long blockId, long genStamp, long size) {
     final ReplicaInfo replicainfo;
     replicainfo = FsDatasetTestUtil.fetchReplicaInfo(fds, bpid, blockId);
@@ -22,8 +22,12 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import org.apache.hadoop.conf.Configuration;
@@ -45,9 +49,12 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.base.Supplier;
+
 /** Test if a datanode can correctly upgrade itself */
 public class TestDatanodeRestart {
   // test finalized replicas persist across DataNode restarts
@@ -75,6 +82,68 @@ public class TestDatanodeRestart {
     }
   }
   
+  // test finalized replicas are loaded from the replica index on restart
+  @Test
+  public void testReplicasFromIndex() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_REPLICA_INDEX_ENABLED_KEY, true);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+        .build();
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < 10; i++) {
+        DFSTestUtil.createFile(fs, new Path("/f" + i), 1024, (short) 1, i);
+      }
+      DFSTestUtil.appendFile(fs, new Path("/f0"), 512);
+      fs.delete(new Path("/f1"), false);
+
+      final String bpid = cluster.getNamesystem().getBlockPoolId();
+      DataNode dn = cluster.getDataNodes().get(0);
+      final ReplicaMap replicas = dataset(dn).volumeMap;
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return replicas.size(bpid) == 9;
+        }
+      }, 100, 30000);
+      Map<Long, Long> genStamps = new HashMap<>();
+      for (ReplicaInfo r : replicas.replicas(bpid)) {
+        genStamps.put(r.getBlockId(), r.getGenerationStamp());
+      }
+      List<File> bpCurrentDirs = new ArrayList<>();
+      try (FsDatasetSpi.FsVolumeReferences volumes =
+          dataset(dn).getFsVolumeReferences()) {
+        for (FsVolumeSpi vol : volumes) {
+          bpCurrentDirs.add(new File(((FsVolumeImpl) vol)
+              .getBlockPoolSlice(bpid).getDirectory(), "current"));
+        }
+      }
+
+      // without the replica cache written on shutdown, as after a crash
+      MiniDFSCluster.DataNodeProperties dnProps = cluster.stopDataNode(0);
+      for (File dir : bpCurrentDirs) {
+        Assert.assertTrue(new File(dir, ReplicaIndex.FILE_NAME).exists());
+        new File(dir, "replicas").delete();
+      }
+      cluster.restartDataNode(dnProps);
+      cluster.waitActive();
+
+      dn = cluster.getDataNodes().get(0);
+      ReplicaMap restored = dataset(dn).volumeMap;
+      Assert.assertEquals(9, restored.size(bpid));
+      for (Map.Entry<Long, Long> e : genStamps.entrySet()) {
+        ReplicaInfo r = restored.get(bpid, e.getKey());
+        Assert.assertEquals(ReplicaState.FINALIZED, r.getState());
+        Assert.assertEquals((long) e.getValue(), r.getGenerationStamp());
+      }
+      Assert.assertEquals(1536,
+          DFSTestUtil.readFileBuffer(fs, new Path("/f0")).length);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   // test rbw replicas persist across DataNode restarts
   public void testRbwReplicas() throws IOException {
     Configuration conf = new HdfsConfiguration();
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.DatasetLockManager.LockChain;
+import org.apache.hadoop.util.AutoCloseableLock;
+import org.junit.Test;
+
+/**
+ * Tests which operations of {@link FsDatasetImpl} exclude each other through
+ * the {@link DatasetLockManager}.
+ */
+public class TestDatasetLockManager {
+  private static final String BPID = "BP-TEST";
+  private static final String OTHER_BPID = "BP-OTHER";
+  // block IDs 1 and 2 fall into different stripes out of 1024
+  private final DatasetLockManager lockManager = new DatasetLockManager(1024);
+
+  /** Lock a replica in another thread, counting down the latch once held. */
+  private CountDownLatch lockReplicaAsync(final String bpid,
+      final long blockId) {
+    final CountDownLatch acquired = new CountDownLatch(1);
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        try (LockChain l = lockManager.lockReplica(bpid, blockId)) {
+          acquired.countDown();
+        }
+      }
+    };
+    t.setDaemon(true);
+    t.start();
+    return acquired;
+  }
+
+  @Test(timeout = 30000)
+  public void testDifferentReplicasDoNotBlock() throws Exception {
+    try (LockChain l = lockManager.lockReplica(BPID, 1)) {
+      assertTrue(lockReplicaAsync(BPID, 2).await(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testSameReplicaBlocks() throws Exception {
+    CountDownLatch acquired;
+    try (LockChain l = lockManager.lockReplica(BPID, 1)) {
+      acquired = lockReplicaAsync(BPID, 1);
+      assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+      // the replica lock is reentrant
+      try (LockChain l2 = lockManager.lockReplica(BPID, 1)) {
+        assertFalse(acquired.await(10, TimeUnit.MILLISECONDS));
+      }
+    }
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test(timeout = 30000)
+  public void testBlockPoolLock() throws Exception {
+    CountDownLatch acquired;
+    try (LockChain l = lockManager.lockBlockPool(BPID)) {
+      acquired = lockReplicaAsync(BPID, 1);
+      assertTrue(lockReplicaAsync(OTHER_BPID, 1).await(10, TimeUnit.SECONDS));
+      assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+    }
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+
+    // readers of a block pool do not exclude the replica operations
+    try (LockChain l = lockManager.readLockBlockPool(BPID)) {
+      assertTrue(lockReplicaAsync(BPID, 1).await(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testDatasetLock() throws Exception {
+    CountDownLatch acquired;
+    try (AutoCloseableLock l = lockManager.lockDataset()) {
+      acquired = lockReplicaAsync(OTHER_BPID, 1);
+      assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+      // the holder of the dataset lock can still run replica operations
+      try (LockChain l2 = lockManager.lockReplica(BPID, 1)) {
+        assertFalse(acquired.await(10, TimeUnit.MILLISECONDS));
+      }
+    }
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+  }
+
+  /**
+   * A replica lock handed out as an {@link AutoCloseableLock}, as readers
+   * take it through FsDatasetSpi, releases the whole chain when closed.
+   */
+  @Test(timeout = 30000)
+  public void testReplicaLockReleasesChain() throws Exception {
+    final CountDownLatch acquired = new CountDownLatch(1);
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        try (AutoCloseableLock l = lockManager.lockDataset()) {
+          acquired.countDown();
+        }
+      }
+    };
+    t.setDaemon(true);
+    try (AutoCloseableLock l = lockManager.lockReplica(BPID, 1)) {
+      assertTrue(lockReplicaAsync(BPID, 2).await(10, TimeUnit.SECONDS));
+      t.start();
+      assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+    }
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+  }
+}
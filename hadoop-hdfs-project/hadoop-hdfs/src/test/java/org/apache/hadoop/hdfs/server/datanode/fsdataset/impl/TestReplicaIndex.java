@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the persistent {@link ReplicaIndex} of a block pool slice.
+ */
+public class TestReplicaIndex {
+  private File file;
+
+  @Before
+  public void setup() throws IOException {
+    File dir = GenericTestUtils.getTestDir("TestReplicaIndex");
+    FileUtil.fullyDelete(dir);
+    assertTrue(dir.mkdirs());
+    file = new File(dir, ReplicaIndex.FILE_NAME);
+  }
+
+  private static Map<Long, Block> readAll(ReplicaIndex index)
+      throws IOException {
+    final Map<Long, Block> replicas = new HashMap<>();
+    index.forEach(new ReplicaIndex.Visitor() {
+      @Override
+      public void accept(Block replica) {
+        replicas.put(replica.getBlockId(), replica);
+      }
+    });
+    return replicas;
+  }
+
+  /**
+   * The replicas survive reopening the index, after it grew well beyond its
+   * initial capacity and had many replicas removed.
+   */
+  @Test
+  public void testReopen() throws IOException {
+    ReplicaIndex index = ReplicaIndex.open(file);
+    assertFalse(index.isRestored());
+    for (long id = 1; id <= 10000; id++) {
+      index.put(id, 1000 + id, 1024);
+    }
+    for (long id = 1; id <= 10000; id += 2) {
+      index.remove(id);
+    }
+    // a replica which was appended to
+    index.put(2, 5000, 2048);
+    index.close();
+
+    index = ReplicaIndex.open(file);
+    assertTrue(index.isRestored());
+    assertEquals(5000, index.size());
+    Map<Long, Block> replicas = readAll(index);
+    assertEquals(5000, replicas.size());
+    assertEquals(5000, replicas.get(2L).getGenerationStamp());
+    assertEquals(2048, replicas.get(2L).getNumBytes());
+    assertEquals(1004, replicas.get(4L).getGenerationStamp());
+    assertEquals(1024, replicas.get(4L).getNumBytes());
+    assertFalse(replicas.containsKey(3L));
+
+    index.clear(0);
+    assertEquals(0, index.size());
+    index.close();
+    assertEquals(0, readAll(ReplicaIndex.open(file)).size());
+  }
+
+  /**
+   * A record which was torn by a crash is dropped.
+   */
+  @Test
+  public void testTornRecord() throws IOException {
+    ReplicaIndex index = ReplicaIndex.open(file);
+    final long id = 0x1234567890L;
+    index.put(id, 1001, 1024);
+    index.put(id + 1, 1001, 1024);
+    index.close();
+
+    // change the length of the first replica, but not its check word
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      for (long off = 32; off < raf.length(); off += 32) {
+        raf.seek(off);
+        if (raf.readLong() == id) {
+          raf.seek(off + 16);
+          raf.writeLong(512);
+        }
+      }
+    }
+    index = ReplicaIndex.open(file);
+    Map<Long, Block> replicas = readAll(index);
+    assertEquals(1, replicas.size());
+    assertTrue(replicas.containsKey(id + 1));
+    index.close();
+  }
+
+  /**
+   * A file which does not hold an index is replaced by an empty index.
+   */
+  @Test
+  public void testInvalidFile() throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.writeLong(42);
+      raf.setLength(4096);
+    }
+    ReplicaIndex index = ReplicaIndex.open(file);
+    assertFalse(index.isRestored());
+    assertEquals(0, index.size());
+    index.close();
+  }
+}
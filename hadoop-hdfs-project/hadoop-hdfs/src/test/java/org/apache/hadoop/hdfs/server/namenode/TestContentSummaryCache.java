@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that content summaries served from the {@link ContentSummaryCache}
+ * match a full walk of the namespace after every kind of mutation.
+ */
+public class TestContentSummaryCache {
+  private static final int BLOCKSIZE = 1024;
+  private static final short REPLICATION = 3;
+  private static final long seed = 0L;
+
+  private MiniDFSCluster cluster;
+  private FSNamesystem fsn;
+  private FSDirectory fsdir;
+  private DistributedFileSystem dfs;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCKSIZE);
+    conf.setBoolean(DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_ENABLED_KEY, true);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(REPLICATION)
+        .build();
+    cluster.waitActive();
+    fsn = cluster.getNamesystem();
+    fsdir = fsn.getFSDirectory();
+    dfs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  /**
+   * Compares the summary returned to the client with one computed by walking
+   * the whole subtree, which never consults the cache.
+   */
+  private void assertSummary(Path path) throws Exception {
+    ContentSummary actual = dfs.getContentSummary(path);
+    ContentSummary expected;
+    fsn.readLock();
+    try {
+      INode inode = fsdir.getINode(path.toString());
+      assertNotNull(path.toString(), inode);
+      expected = inode.computeContentSummary(
+          fsdir.getBlockStoragePolicySuite());
+    } finally {
+      fsn.readUnlock();
+    }
+    assertEquals(path.toString(), expected.toString(true),
+        actual.toString(true));
+    assertEquals(path.toString(), expected, actual);
+  }
+
+  private void assertAll() throws Exception {
+    assertSummary(new Path("/"));
+    assertSummary(new Path("/a"));
+    assertSummary(new Path("/a/b"));
+    assertSummary(new Path("/a/c"));
+  }
+
+  private void createFile(Path path, long len) throws Exception {
+    DFSTestUtil.createFile(dfs, path, BLOCKSIZE / 16, len, BLOCKSIZE,
+        REPLICATION, seed);
+  }
+
+  @Test(timeout = 60000)
+  public void testRepeatedSummaryHitsCache() throws Exception {
+    createFile(new Path("/a/b/f1"), BLOCKSIZE * 2);
+    createFile(new Path("/a/c/f2"), BLOCKSIZE / 2);
+    ContentSummaryCache cache = fsdir.getContentSummaryCache();
+    assertNotNull(cache);
+
+    assertAll();
+    long hits = cache.getHits();
+    long misses = cache.getMisses();
+    assertTrue(cache.size() > 0);
+
+    // nothing changed, so /a is served from the cache without a walk
+    assertSummary(new Path("/a"));
+    assertTrue(cache.getHits() > hits);
+
+    // a change under /a/b leaves the counts of /a/c cached
+    hits = cache.getHits();
+    createFile(new Path("/a/b/f3"), BLOCKSIZE);
+    assertSummary(new Path("/a"));
+    assertTrue(cache.getHits() > hits);
+    assertTrue(cache.getMisses() > misses);
+  }
+
+  @Test(timeout = 60000)
+  public void testSummaryAfterMutations() throws Exception {
+    createFile(new Path("/a/b/f1"), BLOCKSIZE * 2);
+    createFile(new Path("/a/b/f2"), BLOCKSIZE);
+    createFile(new Path("/a/c/f3"), BLOCKSIZE / 2);
+    createFile(new Path("/a/c/f4"), BLOCKSIZE + 1);
+    assertAll();
+
+    dfs.mkdirs(new Path("/a/b/d"));
+    assertAll();
+
+    dfs.setReplication(new Path("/a/b/f1"), (short) 1);
+    assertAll();
+
+    dfs.rename(new Path("/a/b/f2"), new Path("/a/c/f2"));
+    assertAll();
+
+    dfs.delete(new Path("/a/c/f3"), false);
+    assertAll();
+
+    DFSTestUtil.appendFile(dfs, new Path("/a/b/f1"), BLOCKSIZE / 4);
+    assertAll();
+
+    dfs.concat(new Path("/a/c/f2"), new Path[] {new Path("/a/c/f4")});
+    assertAll();
+
+    dfs.setStoragePolicy(new Path("/a/c"),
+        HdfsConstants.ONESSD_STORAGE_POLICY_NAME);
+    assertAll();
+    dfs.setStoragePolicy(new Path("/a"),
+        HdfsConstants.ALLSSD_STORAGE_POLICY_NAME);
+    assertAll();
+
+    dfs.setQuota(new Path("/a/b"), 100, Long.MAX_VALUE - 1);
+    assertAll();
+
+    dfs.delete(new Path("/a/b"), true);
+    assertSummary(new Path("/"));
+    assertSummary(new Path("/a"));
+  }
+
+  @Test(timeout = 60000)
+  public void testOpenFileIsNotCached() throws Exception {
+    createFile(new Path("/a/b/f1"), BLOCKSIZE);
+    dfs.mkdirs(new Path("/a/c"));
+    assertAll();
+
+    FSDataOutputStream out = dfs.create(new Path("/a/c/open"));
+    try {
+      out.write(new byte[BLOCKSIZE + BLOCKSIZE / 2]);
+      out.hflush();
+      assertAll();
+      out.write(new byte[BLOCKSIZE]);
+      out.hflush();
+      assertAll();
+    } finally {
+      out.close();
+    }
+    assertAll();
+  }
+
+  @Test(timeout = 60000)
+  public void testSummaryWithSnapshots() throws Exception {
+    createFile(new Path("/a/b/f1"), BLOCKSIZE);
+    createFile(new Path("/a/c/f2"), BLOCKSIZE);
+    assertAll();
+
+    dfs.allowSnapshot(new Path("/a"));
+    dfs.createSnapshot(new Path("/a"), "s1");
+    assertAll();
+
+    dfs.delete(new Path("/a/c/f2"), false);
+    createFile(new Path("/a/c/f3"), BLOCKSIZE * 3);
+    assertAll();
+
+    dfs.deleteSnapshot(new Path("/a"), "s1");
+    assertAll();
+  }
+}
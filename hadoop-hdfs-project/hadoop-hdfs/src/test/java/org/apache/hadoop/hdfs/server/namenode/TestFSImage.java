@@ -29,6 +29,7 @@
 import java.io.ByteArrayOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.EnumSet;
 
 import org.apache.hadoop.hdfs.protocol.Block;
@@ -57,6 +58,8 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
+import org.apache.hadoop.hdfs.server.common.Storage.StorageDirectory;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.LeaseManager.Lease;
 import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeDirType;
 import org.apache.hadoop.hdfs.util.MD5FileUtils;
@@ -89,6 +92,101 @@ public void testCompression() throws IOException {
     testPersistHelper(conf);
   }
 
+  @Test(timeout=120000)
+  public void testParallelLoad() throws IOException {
+    testParallelSaveAndLoadHelper(getParallelImageConf());
+  }
+
+  @Test(timeout=120000)
+  public void testParallelSaveWithCompressedSubSections() throws IOException {
+    Configuration conf = getParallelImageConf();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_KEY, true);
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_COMPRESS_KEY, true);
+    conf.set(DFSConfigKeys.DFS_IMAGE_COMPRESSION_CODEC_KEY,
+        "org.apache.hadoop.io.compress.GzipCodec");
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_COMPRESS_SUB_SECTIONS_KEY, true);
+    testParallelSaveAndLoadHelper(conf);
+  }
+
+  private static Configuration getParallelImageConf() {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 0);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 4);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 3);
+    return conf;
+  }
+
+  private void testParallelSaveAndLoadHelper(Configuration conf)
+      throws IOException {
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      final int numDirs = 20;
+      final int filesPerDir = 5;
+      for (int i = 0; i < numDirs; i++) {
+        for (int j = 0; j < filesPerDir; j++) {
+          DFSTestUtil.createFile(fs, new Path("/dir" + i + "/sub/file" + j),
+              j * 10, (short) 1, j);
+        }
+      }
+
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+
+      StorageDirectory sd = cluster.getNameNode().getFSImage().getStorage()
+          .getStorageDir(0);
+      File image = FSImageTestUtil.findLatestImageFile(sd);
+      RandomAccessFile raFile = new RandomAccessFile(image, "r");
+      int inodeSubSections = 0;
+      int inodeDirSubSections = 0;
+      try {
+        FileSummary summary = FSImageUtil.loadSummary(raFile);
+        for (FileSummary.Section s : summary.getSectionsList()) {
+          FSImageFormatProtobuf.SectionName name =
+              FSImageFormatProtobuf.SectionName.fromString(s.getName());
+          if (name == FSImageFormatProtobuf.SectionName.INODE_SUB) {
+            inodeSubSections++;
+          } else if (name == FSImageFormatProtobuf.SectionName.INODE_DIR_SUB) {
+            inodeDirSubSections++;
+          }
+        }
+      } finally {
+        raFile.close();
+      }
+      assertTrue(inodeSubSections > 1);
+      assertTrue(inodeDirSubSections > 1);
+      final int numInodes = cluster.getNamesystem().dir.getINodeMap().size();
+
+      cluster.restartNameNode();
+      cluster.waitActive();
+      fs = cluster.getFileSystem();
+      for (int i = 0; i < numDirs; i++) {
+        for (int j = 0; j < filesPerDir; j++) {
+          Path file = new Path("/dir" + i + "/sub/file" + j);
+          assertEquals(j * 10, fs.getFileStatus(file).getLen());
+        }
+      }
+      assertEquals(numInodes,
+          cluster.getNamesystem().dir.getINodeMap().size());
+
+      // images with sub-sections still load serially
+      cluster.getConfiguration(0).setBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, false);
+      cluster.restartNameNode();
+      cluster.waitActive();
+      assertEquals(numInodes,
+          cluster.getNamesystem().dir.getINodeMap().size());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   private void testPersistHelper(Configuration conf) throws IOException {
     MiniDFSCluster cluster = null;
     try {
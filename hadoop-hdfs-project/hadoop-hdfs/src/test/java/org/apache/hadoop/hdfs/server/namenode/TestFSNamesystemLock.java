@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Tests the FSNamesystemLock, focusing on lock profiling.
+ */
+public class TestFSNamesystemLock {
+
+  @Test(timeout=30000)
+  public void testLockProfilerTopHolders() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY,
+        true);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_LOCK_TOP_HOLDERS_NUM_KEY, 2);
+    conf.setLong(
+        DFSConfigKeys.DFS_NAMENODE_LOCK_TOP_HOLDERS_MIN_HOLD_MS_KEY, 10);
+    FSImage fsImage = Mockito.mock(FSImage.class);
+    FSEditLog fsEditLog = Mockito.mock(FSEditLog.class);
+    Mockito.when(fsImage.getEditLog()).thenReturn(fsEditLog);
+    FSNamesystem fsn = new FSNamesystem(conf, fsImage);
+
+    // short holds are not tracked
+    fsn.writeLock();
+    fsn.writeUnlock("short");
+    holdWriteLock(fsn, "delete", 50);
+    holdWriteLock(fsn, "mkdirs", 20);
+    holdReadLock(fsn, "getContentSummary", 100);
+
+    FSNamesystemLockProfiler profiler = new FSNamesystemLockProfiler(conf);
+    profiler.addHoldTime("a", true, 5);
+    assertTrue(profiler.getTopHolders().isEmpty());
+
+    String json = fsn.getTopLockHolders();
+    assertFalse(json.contains("short"));
+    assertFalse(json.contains("mkdirs"));
+    assertTrue(json.contains("delete"));
+    assertTrue(json.contains("getContentSummary"));
+    assertTrue(json.contains(GenericTestUtils.getMethodName()));
+  }
+
+  @Test
+  public void testLockProfilerOrdering() {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY,
+        true);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_LOCK_TOP_HOLDERS_NUM_KEY, 3);
+    conf.setLong(
+        DFSConfigKeys.DFS_NAMENODE_LOCK_TOP_HOLDERS_MIN_HOLD_MS_KEY, 0);
+    FSNamesystemLockProfiler profiler = new FSNamesystemLockProfiler(conf);
+    for (long t = 1; t <= 10; t++) {
+      profiler.addHoldTime("op" + t, t % 2 == 0, t);
+    }
+    List<FSNamesystemLockProfiler.LockHolder> top = profiler.getTopHolders();
+    assertEquals(3, top.size());
+    assertEquals(10, top.get(0).holdTimeMs);
+    assertEquals(9, top.get(1).holdTimeMs);
+    assertEquals(8, top.get(2).holdTimeMs);
+    assertEquals("op10", top.get(0).opName);
+    assertTrue(top.get(0).write);
+  }
+
+  private static void holdWriteLock(FSNamesystem fsn, String op, long ms)
+      throws InterruptedException {
+    fsn.writeLock();
+    try {
+      Thread.sleep(ms);
+    } finally {
+      fsn.writeUnlock(op);
+    }
+  }
+
+  private static void holdReadLock(FSNamesystem fsn, String op, long ms)
+      throws InterruptedException {
+    fsn.readLock();
+    try {
+      Thread.sleep(ms);
+    } finally {
+      fsn.readUnlock(op);
+    }
+  }
+}
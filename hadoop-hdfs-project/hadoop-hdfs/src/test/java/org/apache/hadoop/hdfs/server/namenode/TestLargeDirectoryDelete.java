@@ -17,21 +17,33 @@
  */
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Random;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
+import org.apache.hadoop.hdfs.server.namenode.NameNode.OperationCategory;
+import org.apache.hadoop.hdfs.server.namenode.ha.HAContext;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.ipc.StandbyException;
 import org.apache.hadoop.util.Time;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 
 /**
@@ -222,4 +234,128 @@ public void largeDelete() throws Throwable {
       mc.shutdown();
     }
   }
+
+  @Test
+  public void largeDeleteWithChunkedReclaim() throws Throwable {
+    Configuration conf = new HdfsConfiguration(CONF);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_DELETE_CHUNKED_RECLAIM_ENABLED_KEY, true);
+    mc = new MiniDFSCluster.Builder(conf).build();
+    try {
+      mc.waitActive();
+      FSNamesystem fsn = mc.getNamesystem();
+      int inodesBefore = fsn.getFSDirectory().getInodeMapSize();
+      QuotaCounts rootUsageBefore = fsn.getFSDirectory().getRoot()
+          .getDirectoryWithQuotaFeature().getSpaceConsumed();
+      createFiles();
+      Assert.assertEquals(TOTAL_BLOCKS, getBlockCount());
+      Assert.assertTrue(
+          fsn.getFSDirectory().getInodeMapSize() > inodesBefore);
+      // an open file in the deleted subtree must lose its lease
+      FSDataOutputStream out =
+          mc.getFileSystem().create(new Path("/root/0/open"));
+      Assert.assertEquals(1, fsn.getLeaseManager().countLease());
+      try {
+        runThreads();
+      } finally {
+        IOUtils.closeStream(out);
+      }
+
+      // all inodes and blocks of the subtree are reclaimed once delete returns
+      Assert.assertEquals(inodesBefore,
+          fsn.getFSDirectory().getInodeMapSize());
+      Assert.assertEquals(0, getBlockCount());
+      Assert.assertEquals(0, fsn.getPendingDeleteReclaimINodes());
+      Assert.assertEquals(0, fsn.getPendingDeleteReclaimBlocks());
+      Assert.assertEquals(0, fsn.getLeaseManager().countLease());
+      Assert.assertEquals(rootUsageBefore, fsn.getFSDirectory().getRoot()
+          .getDirectoryWithQuotaFeature().getSpaceConsumed());
+
+      // the saved image must not contain any of the deleted inodes
+      DistributedFileSystem dfs = mc.getFileSystem();
+      dfs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      dfs.saveNamespace();
+      dfs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+      mc.restartNameNode();
+      Assert.assertEquals(inodesBefore,
+          mc.getNamesystem().getFSDirectory().getInodeMapSize());
+    } finally {
+      mc.shutdown();
+    }
+  }
+
+  /**
+   * A delete stopped by a transition to standby leaves its inodes in the
+   * inode map, hidden from inode id lookups until the image save reclaims
+   * them.
+   */
+  @Test
+  public void chunkedReclaimStoppedByStandby() throws Throwable {
+    Configuration conf = new HdfsConfiguration(CONF);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_DELETE_CHUNKED_RECLAIM_ENABLED_KEY, true);
+    mc = new MiniDFSCluster.Builder(conf).build();
+    try {
+      mc.waitActive();
+      final FSNamesystem fsn = mc.getNamesystem();
+      final DistributedFileSystem dfs = mc.getFileSystem();
+      final int inodesBefore = fsn.getFSDirectory().getInodeMapSize();
+      for (int i = 0; i < 10; i++) {
+        createFile("/root/" + i + "/file", 100);
+      }
+      final long dirId = fsn.getFSDirectory().getINode("/root/0").getId();
+      final long fileId =
+          fsn.getFSDirectory().getINode("/root/0/file").getId();
+
+      // fail the write check of the reclaim, after that of the delete
+      final HAContext haContext =
+          (HAContext) Whitebox.getInternalState(fsn, "haContext");
+      final HAContext spy = Mockito.spy(haContext);
+      final Thread deleter = Thread.currentThread();
+      Mockito.doAnswer(new Answer<Void>() {
+        private int checks = 0;
+
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+          if (Thread.currentThread() == deleter && ++checks > 1) {
+            throw new StandbyException("Stopped for the test");
+          }
+          invocation.callRealMethod();
+          return null;
+        }
+      }).when(spy).checkOperation(OperationCategory.WRITE);
+      Whitebox.setInternalState(fsn, "haContext", spy);
+      try {
+        Assert.assertTrue(fsn.delete("/root", true, false));
+      } finally {
+        Whitebox.setInternalState(fsn, "haContext", haContext);
+      }
+
+      Assert.assertTrue(fsn.hasPendingReclaim());
+      Assert.assertNotNull(fsn.getFSDirectory().getInode(fileId));
+      Assert.assertEquals(10, getBlockCount());
+      for (long id : new long[] {dirId, fileId}) {
+        try {
+          dfs.getFileStatus(new Path("/.reserved/.inodes/" + id));
+          Assert.fail("Deleted inode " + id + " is still resolved");
+        } catch (FileNotFoundException e) {
+          // expected
+        }
+      }
+
+      dfs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      dfs.saveNamespace();
+      dfs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+      Assert.assertFalse(fsn.hasPendingReclaim());
+      Assert.assertEquals(inodesBefore,
+          fsn.getFSDirectory().getInodeMapSize());
+      Assert.assertEquals(0, getBlockCount());
+      Assert.assertEquals(0, fsn.getPendingDeleteReclaimINodes());
+      mc.restartNameNode();
+      Assert.assertEquals(inodesBefore,
+          mc.getNamesystem().getFSDirectory().getInodeMapSize());
+    } finally {
+      mc.shutdown();
+    }
+  }
 }
@@ -0,0 +1,284 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
+import org.apache.hadoop.util.Time;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests getFileInfo and getBlockLocations running without the FSNamesystem
+ * lock, including under a concurrent stream of namespace writes.
+ */
+public class TestOptimisticReads {
+  private static final Log LOG = LogFactory.getLog(TestOptimisticReads.class);
+  private static final int NUM_FILES = 50;
+  private static final long FILE_LEN = 1024;
+
+  private MiniDFSCluster cluster;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_READ_OPTIMISTIC_ENABLED_KEY,
+        true);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testRetryAfterConcurrentWrite() throws Exception {
+    final FSNamesystem fsn = cluster.getNamesystem();
+    final AtomicInteger runs = new AtomicInteger();
+    final List<Integer> readHoldCounts = new ArrayList<Integer>();
+    long retriesBefore = getLongCounter("OptimisticReadRetries",
+        getMetrics("NameNodeActivity"));
+
+    String result = fsn.readOptimistically(
+        new FSNamesystem.OptimisticRead<String>() {
+          @Override
+          public String run() throws IOException {
+            readHoldCounts.add(fsn.getReadHoldCount());
+            assertEquals(fsn.getReadHoldCount() > 0, fsn.hasReadLock());
+            assertTrue(fsn.hasReadLockOrOptimisticRead());
+            if (runs.incrementAndGet() == 1) {
+              // a writer slips in while the first attempt is running
+              Thread writer = new Thread() {
+                @Override
+                public void run() {
+                  fsn.writeLock();
+                  fsn.writeUnlock();
+                }
+              };
+              writer.start();
+              try {
+                writer.join();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+            }
+            return "done";
+          }
+        }, "test");
+
+    assertEquals("done", result);
+    assertEquals(2, runs.get());
+    // first attempt without the lock, the retry under the read lock
+    assertEquals(Arrays.asList(0, 1), readHoldCounts);
+    assertEquals(0, fsn.getReadHoldCount());
+    assertEquals(retriesBefore + 1, getLongCounter("OptimisticReadRetries",
+        getMetrics("NameNodeActivity")));
+  }
+
+  @Test(timeout = 60000)
+  public void testExceptionRetriedAfterConcurrentWrite() throws Exception {
+    final FSNamesystem fsn = cluster.getNamesystem();
+    final AtomicInteger runs = new AtomicInteger();
+
+    // thrown while a writer slipped in: not trusted, retried under the lock
+    String result = fsn.readOptimistically(
+        new FSNamesystem.OptimisticRead<String>() {
+          @Override
+          public String run() throws IOException {
+            if (runs.incrementAndGet() == 1) {
+              fsn.writeLock();
+              fsn.writeUnlock();
+              throw new IOException("inconsistent view");
+            }
+            return "done";
+          }
+        }, "test");
+    assertEquals("done", result);
+    assertEquals(2, runs.get());
+
+    // thrown without any writer: reported as is, without a retry
+    runs.set(0);
+    try {
+      fsn.readOptimistically(new FSNamesystem.OptimisticRead<String>() {
+        @Override
+        public String run() throws IOException {
+          runs.incrementAndGet();
+          throw new IllegalStateException("real error");
+        }
+      }, "test");
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertEquals("real error", e.getMessage());
+    }
+    assertEquals(1, runs.get());
+  }
+
+  @Test(timeout = 60000)
+  public void testNoLockTakenWithoutWriters() throws Exception {
+    final FSNamesystem fsn = cluster.getNamesystem();
+    DFSTestUtil.createFile(cluster.getFileSystem(), new Path("/f"), FILE_LEN,
+        (short) 1, 0L);
+    long before = getLongCounter("OptimisticReads",
+        getMetrics("NameNodeActivity"));
+
+    HdfsFileStatus stat = fsn.getFileInfo("/f", true);
+    assertNotNull(stat);
+    assertEquals(FILE_LEN, stat.getLen());
+    assertNull(fsn.getFileInfo("/does-not-exist", true));
+
+    assertEquals(before + 2, getLongCounter("OptimisticReads",
+        getMetrics("NameNodeActivity")));
+  }
+
+  /**
+   * Readers must always see a consistent view of a stable set of files while
+   * writers keep changing unrelated parts of the namespace. Also reports the
+   * read latency percentiles, which is the number to compare against a run
+   * with dfs.namenode.read.optimistic.enabled set to false.
+   */
+  @Test(timeout = 120000)
+  public void testReadsUnderWriteStorm() throws Exception {
+    final NamenodeProtocols nn = cluster.getNameNodeRpc();
+    for (int i = 0; i < NUM_FILES; i++) {
+      DFSTestUtil.createFile(cluster.getFileSystem(), new Path("/data/f" + i),
+          FILE_LEN, (short) 1, i);
+    }
+
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final long deadline = Time.monotonicNow() + 10000;
+    List<Thread> writers = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final int id = t;
+      writers.add(new Thread() {
+        @Override
+        public void run() {
+          FsPermission p = new FsPermission((short) 0777);
+          try {
+            for (int i = 0; Time.monotonicNow() < deadline; i++) {
+              String dir = "/storm/w" + id + "/d" + i;
+              nn.mkdirs(dir, p, true);
+              nn.rename(dir, dir + "-renamed");
+              nn.delete(dir + "-renamed", true);
+            }
+          } catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+
+    final int numReaders = 8;
+    final long[][] latencies = new long[numReaders][];
+    List<Thread> readers = new ArrayList<Thread>();
+    for (int t = 0; t < numReaders; t++) {
+      final int id = t;
+      readers.add(new Thread() {
+        @Override
+        public void run() {
+          long[] lat = new long[1 << 16];
+          int n = 0;
+          try {
+            for (int i = 0; Time.monotonicNow() < deadline; i++) {
+              String file = "/data/f" + (i % NUM_FILES);
+              long start = System.nanoTime();
+              HdfsFileStatus stat = nn.getFileInfo(file);
+              LocatedBlocks blocks = nn.getBlockLocations(file, 0, FILE_LEN);
+              if (n < lat.length) {
+                lat[n++] = System.nanoTime() - start;
+              }
+              assertNotNull(file, stat);
+              assertEquals(FILE_LEN, stat.getLen());
+              assertEquals(FILE_LEN, blocks.getFileLength());
+              assertEquals(1, blocks.locatedBlockCount());
+              assertEquals(1, blocks.get(0).getLocations().length);
+            }
+          } catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+          latencies[id] = Arrays.copyOf(lat, n);
+        }
+      });
+    }
+
+    for (Thread t : writers) {
+      t.start();
+    }
+    for (Thread t : readers) {
+      t.start();
+    }
+    for (Thread t : writers) {
+      t.join();
+    }
+    for (Thread t : readers) {
+      t.join();
+    }
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+
+    int total = 0;
+    for (long[] l : latencies) {
+      total += l.length;
+    }
+    long[] all = new long[total];
+    int pos = 0;
+    for (long[] l : latencies) {
+      System.arraycopy(l, 0, all, pos, l.length);
+      pos += l.length;
+    }
+    Arrays.sort(all);
+    assertTrue(all.length > 0);
+    LOG.info("getFileInfo+getBlockLocations under write storm: " + total +
+        " reads, p50=" + all[total / 2] / 1000 + "us, p99=" +
+        all[(int) (total * 0.99)] / 1000 + "us, optimistic=" +
+        getLongCounter("OptimisticReads", getMetrics("NameNodeActivity")) +
+        ", retried=" + getLongCounter("OptimisticReadRetries",
+            getMetrics("NameNodeActivity")));
+  }
+}